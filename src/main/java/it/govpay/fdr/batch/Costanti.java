@@ -57,4 +57,7 @@ public class Costanti {
 
 	// Nome job FDR acquisition
 	public static final String FDR_ACQUISITION_JOB_NAME = "fdrAcquisitionJob";
+
+	// Lock su FDR_LOCK condiviso da acquisizione continua e job
+	public static final String CONTINUOUS_ACQUISITION_LOCK = "continuous-acquisition";
 }
@@ -0,0 +1,36 @@
+package it.govpay.fdr.batch.async;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.springframework.batch.infrastructure.item.ItemProcessor;
+import org.springframework.core.task.TaskExecutor;
+
+/**
+ * Processor che esegue il processor delegato su un {@link TaskExecutor}, restituendo subito un {@link Future}.
+ * <p>
+ * In questo modo gli item di uno stesso chunk vengono elaborati in parallelo; i risultati sono
+ * raccolti da {@link AsyncItemWriter}, che li scrive nella transazione del chunk. Il limite di
+ * concorrenza e' quello dell'executor: con un executor che blocca la sottomissione oltre il limite
+ * (es. {@code SimpleAsyncTaskExecutor} con concurrencyLimit) la lettura rallenta di conseguenza.
+ *
+ * @param <I> tipo dell'item letto
+ * @param <O> tipo dell'item prodotto dal processor delegato
+ */
+public class AsyncItemProcessor<I, O> implements ItemProcessor<I, Future<O>> {
+
+	private final ItemProcessor<I, O> delegate;
+	private final TaskExecutor taskExecutor;
+
+	public AsyncItemProcessor(ItemProcessor<I, O> delegate, TaskExecutor taskExecutor) {
+		this.delegate = delegate;
+		this.taskExecutor = taskExecutor;
+	}
+
+	@Override
+	public Future<O> process(I item) {
+		FutureTask<O> task = new FutureTask<>(() -> delegate.process(item));
+		taskExecutor.execute(task);
+		return task;
+	}
+}
@@ -0,0 +1,64 @@
+package it.govpay.fdr.batch.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.springframework.batch.infrastructure.item.Chunk;
+import org.springframework.batch.infrastructure.item.ItemWriter;
+
+/**
+ * Writer che attende i risultati prodotti da {@link AsyncItemProcessor} e li passa al writer delegato,
+ * nell'ordine di lettura e nella transazione del chunk.
+ * <p>
+ * Gli item filtrati dal processor ({@code null}) vengono scartati. Se l'elaborazione di un item fallisce,
+ * il writer attende comunque il completamento degli altri item del chunk prima di rilanciare la prima
+ * eccezione: un eventuale retry del chunk non si sovrappone cosi' a elaborazioni ancora in corso.
+ *
+ * @param <O> tipo dell'item prodotto dal processor delegato
+ */
+public class AsyncItemWriter<O> implements ItemWriter<Future<O>> {
+
+	private final ItemWriter<O> delegate;
+
+	public AsyncItemWriter(ItemWriter<O> delegate) {
+		this.delegate = delegate;
+	}
+
+	@Override
+	public void write(Chunk<? extends Future<O>> chunk) throws Exception {
+		List<O> items = new ArrayList<>(chunk.size());
+		Exception failure = null;
+		for (Future<O> future : chunk) {
+			try {
+				O item = future.get();
+				if (item != null) {
+					items.add(item);
+				}
+			} catch (ExecutionException e) {
+				if (failure == null) {
+					failure = unwrap(e);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw e;
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		delegate.write(new Chunk<>(items));
+	}
+
+	private static Exception unwrap(ExecutionException e) {
+		Throwable cause = e.getCause();
+		if (cause instanceof Exception exception) {
+			return exception;
+		}
+		if (cause instanceof Error error) {
+			throw error;
+		}
+		return e;
+	}
+}
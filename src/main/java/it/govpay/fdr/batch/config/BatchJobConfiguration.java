@@ -1,32 +1,44 @@
 package it.govpay.fdr.batch.config;
 
+import it.govpay.fdr.batch.async.AsyncItemProcessor;
+import it.govpay.fdr.batch.async.AsyncItemWriter;
 import it.govpay.fdr.batch.dto.DominioProcessingContext;
 import it.govpay.fdr.batch.dto.FdrHeadersBatch;
 import it.govpay.fdr.batch.entity.FrTemp;
+import it.govpay.fdr.batch.processor.MemoizingItemProcessor;
 import it.govpay.fdr.batch.step2.FdrHeadersProcessor;
 import it.govpay.fdr.batch.step2.FdrHeadersReader;
 import it.govpay.fdr.batch.step2.FdrHeadersWriter;
 import it.govpay.fdr.batch.step3.FdrMetadataProcessor;
 import it.govpay.fdr.batch.step3.FdrMetadataReader;
 import it.govpay.fdr.batch.step3.FdrMetadataWriter;
+import it.govpay.fdr.batch.step4.FdrFlowProcessor;
 import it.govpay.fdr.batch.step4.FdrPaymentsProcessor;
 import it.govpay.fdr.batch.step4.FdrPaymentsReader;
 import it.govpay.fdr.batch.step4.FdrPaymentsWriter;
 import it.govpay.fdr.batch.tasklet.CleanupFrTempTasklet;
+import it.govpay.fdr.batch.tasklet.FdrWorkQueueTasklet;
 import lombok.extern.slf4j.Slf4j;
 
 import java.text.MessageFormat;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 import org.springframework.batch.core.job.Job;
 import org.springframework.batch.core.step.Step;
 import org.springframework.batch.core.job.builder.JobBuilder;
+import org.springframework.batch.core.job.builder.SimpleJobBuilder;
 import org.springframework.batch.core.job.parameters.RunIdIncrementer;
+import org.springframework.batch.core.configuration.annotation.StepScope;
 import org.springframework.batch.core.repository.JobRepository;
 import org.springframework.batch.core.step.builder.StepBuilder;
 import org.springframework.batch.core.step.skip.AlwaysSkipItemSkipPolicy;
 import org.springframework.batch.core.step.skip.SkipPolicy;
+import org.springframework.batch.infrastructure.item.ItemProcessor;
+import org.springframework.batch.infrastructure.item.ItemReader;
+import org.springframework.batch.infrastructure.item.ItemWriter;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.task.SimpleAsyncTaskExecutor;
@@ -56,7 +68,7 @@ public class BatchJobConfiguration {
         JobRepository jobRepository,
         PlatformTransactionManager transactionManager,
         BatchProperties batchProperties,
-        SimpleAsyncTaskExecutor taskExecutor
+        @Qualifier("taskExecutor") SimpleAsyncTaskExecutor taskExecutor
     ) {
         this.jobRepository = jobRepository;
         this.transactionManager = transactionManager;
@@ -79,6 +91,56 @@ public class BatchJobConfiguration {
 	private static final double RETRY_MULTIPLIER = 2.0;
 	private static final long RETRY_MAX_INTERVAL_MS = 10000L;
 
+	/**
+	 * Worker step di una partizione: chunk fault-tolerant con retry sulle chiamate pagoPA.
+	 */
+	private <O> Step workerStep(String name, int chunkSize, ItemReader<FrTemp> reader,
+			ItemProcessor<FrTemp, O> processor, ItemWriter<O> writer,
+			RetryPolicy retryPolicy, BackOffPolicy backOffPolicy, RetryListener retryListener) {
+		return new StepBuilder(name, jobRepository)
+			.<FrTemp, O>chunk(chunkSize, transactionManager)
+			.reader(reader)
+			.processor(processor)
+			.writer(writer)
+			.faultTolerant()
+			.retryPolicy(retryPolicy)
+			.backOffPolicy(backOffPolicy)
+			.retry(RestClientException.class)
+			.listener(retryListener)
+			.build();
+	}
+
+	/**
+	 * Executor dedicato a una singola partizione: la sottomissione si blocca oltre
+	 * {@code govpay.batch.async-processor-concurrency} elaborazioni in corso.
+	 */
+	private SimpleAsyncTaskExecutor partitionAsyncExecutor(String threadNamePrefix) {
+		SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(threadNamePrefix);
+		executor.setConcurrencyLimit(batchProperties.getAsyncProcessorConcurrency());
+		executor.setVirtualThreads(batchProperties.isVirtualThreads());
+		return executor;
+	}
+
+	/**
+	 * Memo per esecuzione di step dei risultati del processor, riusati quando il chunk viene rielaborato
+	 * dopo un rollback: i flussi gia' scaricati non vengono richiesti di nuovo a pagoPA.
+	 */
+	private <O> MemoizingItemProcessor<FrTemp, Long, O> memoizing(ItemProcessor<FrTemp, O> processor) {
+		return new MemoizingItemProcessor<>(processor, FrTemp::getId, batchProperties.getProcessedItemsMemoSize());
+	}
+
+	/**
+	 * Memo dei risultati del processor asincrono: un {@code Future} fallito o annullato non viene riusato.
+	 */
+	private <O> MemoizingItemProcessor<FrTemp, Long, Future<O>> memoizingAsync(AsyncItemProcessor<FrTemp, O> processor) {
+		return new MemoizingItemProcessor<>(processor, FrTemp::getId, batchProperties.getProcessedItemsMemoSize(),
+			future -> future.state() != Future.State.FAILED && future.state() != Future.State.CANCELLED);
+	}
+
+	private boolean isAsyncProcessorEnabled() {
+		return batchProperties.getAsyncProcessorConcurrency() > 1;
+	}
+
 	private BackOffPolicy backOffPolicy() {
 		ExponentialBackOffPolicy backOffPolicy = new ExponentialBackOffPolicy();
         backOffPolicy.setInitialInterval(RETRY_INITIAL_INTERVAL_MS);
@@ -88,7 +150,9 @@ public class BatchJobConfiguration {
 	}
 
     /**
-     * Main FDR Acquisition Job with 3 steps
+     * Main FDR Acquisition Job with 3 steps.
+     * With single-pass-acquisition Step 3 and Step 4 are replaced by fdrFlowAcquisitionStep,
+     * with cooperative-acquisition by fdrWorkQueueStep.
      */
     @Bean
     public Job fdrAcquisitionJob(
@@ -96,13 +160,28 @@ public class BatchJobConfiguration {
         Step fdrHeadersAcquisitionStep,
         Step fdrMetadataAcquisitionStep,
         Step fdrPaymentsAcquisitionStep,
-        it.govpay.fdr.batch.listener.BatchExecutionRecapListener batchExecutionRecapListener
+        Step fdrFlowAcquisitionStep,
+        Step fdrWorkQueueStep,
+        it.govpay.fdr.batch.listener.BatchExecutionRecapListener batchExecutionRecapListener,
+        it.govpay.fdr.batch.listener.ContinuousAcquisitionLockListener continuousAcquisitionLockListener
     ) {
-        return new JobBuilder("fdrAcquisitionJob", jobRepository)
+        SimpleJobBuilder jobBuilder = new JobBuilder("fdrAcquisitionJob", jobRepository)
             .incrementer(new RunIdIncrementer())
+            .listener(continuousAcquisitionLockListener)
             .listener(batchExecutionRecapListener)
             .start(cleanupStep)
-            .next(fdrHeadersAcquisitionStep)
+            .next(fdrHeadersAcquisitionStep);
+        if (batchProperties.isCooperativeAcquisition()) {
+            return jobBuilder
+                .next(fdrWorkQueueStep)
+                .build();
+        }
+        if (batchProperties.isSinglePassAcquisition()) {
+            return jobBuilder
+                .next(fdrFlowAcquisitionStep)
+                .build();
+        }
+        return jobBuilder
             .next(fdrMetadataAcquisitionStep)
             .next(fdrPaymentsAcquisitionStep)
             .build();
@@ -118,6 +197,17 @@ public class BatchJobConfiguration {
             .build();
     }
 
+    /**
+     * Step 3+4 (cooperative-acquisition): publishes FR_TEMP as a work queue and acquires details and
+     * payments of the flows together with the other nodes of the cluster
+     */
+    @Bean
+    public Step fdrWorkQueueStep(FdrWorkQueueTasklet fdrWorkQueueTasklet) {
+        return new StepBuilder("fdrWorkQueueStep", jobRepository)
+            .tasklet(fdrWorkQueueTasklet, transactionManager)
+            .build();
+    }
+
     @Bean
     public RetryPolicy fdrHeadersRetryPolicy() {
     	return retryPolicy();
@@ -231,7 +321,30 @@ public class BatchJobConfiguration {
     }
 
     /**
-     * Worker step for Step 3: processes all flows of a single domain
+     * Processor di Step 3 con memo dei risultati: un'istanza per partizione.
+     */
+    @Bean
+    @StepScope
+    public MemoizingItemProcessor<FrTemp, Long, FdrMetadataProcessor.FdrCompleteData> memoizingFdrMetadataProcessor(
+        FdrMetadataProcessor fdrMetadataProcessor
+    ) {
+        return memoizing(fdrMetadataProcessor);
+    }
+
+    /**
+     * Processor asincrono di Step 3: un'istanza (e un executor) per partizione.
+     */
+    @Bean
+    @StepScope
+    public MemoizingItemProcessor<FrTemp, Long, Future<FdrMetadataProcessor.FdrCompleteData>> asyncFdrMetadataProcessor(
+        FdrMetadataProcessor fdrMetadataProcessor
+    ) {
+        return memoizingAsync(new AsyncItemProcessor<>(fdrMetadataProcessor, partitionAsyncExecutor("fdr-metadata-async-")));
+    }
+
+    /**
+     * Worker step for Step 3: processes all flows of a single domain.
+     * With async-processor-concurrency > 1 the flows of the chunk are fetched concurrently.
      */
     @Bean
     public Step fdrMetadataWorkerStep(
@@ -239,20 +352,19 @@ public class BatchJobConfiguration {
         RetryPolicy fdrMetadataRetryPolicy,
         BackOffPolicy fdrMetadataBackOffPolicy,
         RetryListener fdrMetadataRetryListener,
-        FdrMetadataProcessor fdrMetadataProcessor,
+        MemoizingItemProcessor<FrTemp, Long, FdrMetadataProcessor.FdrCompleteData> memoizingFdrMetadataProcessor,
+        MemoizingItemProcessor<FrTemp, Long, Future<FdrMetadataProcessor.FdrCompleteData>> asyncFdrMetadataProcessor,
         FdrMetadataWriter fdrMetadataWriter
     ) {
-        return new StepBuilder("fdrMetadataWorkerStep", jobRepository)
-            .<FrTemp, FdrMetadataProcessor.FdrCompleteData>chunk(batchProperties.getMetadataChunkSize(), transactionManager)
-            .reader(fdrMetadataReader)
-            .processor(fdrMetadataProcessor)
-            .writer(fdrMetadataWriter)
-            .faultTolerant()
-            .retryPolicy(fdrMetadataRetryPolicy)
-            .backOffPolicy(fdrMetadataBackOffPolicy)
-            .retry(RestClientException.class)
-            .listener(fdrMetadataRetryListener)
-            .build();
+        if (isAsyncProcessorEnabled()) {
+            return this.<Future<FdrMetadataProcessor.FdrCompleteData>>workerStep("fdrMetadataWorkerStep",
+                batchProperties.getMetadataChunkSize(), fdrMetadataReader,
+                asyncFdrMetadataProcessor, new AsyncItemWriter<>(fdrMetadataWriter),
+                fdrMetadataRetryPolicy, fdrMetadataBackOffPolicy, fdrMetadataRetryListener);
+        }
+        return workerStep("fdrMetadataWorkerStep", batchProperties.getMetadataChunkSize(), fdrMetadataReader,
+            memoizingFdrMetadataProcessor, fdrMetadataWriter,
+            fdrMetadataRetryPolicy, fdrMetadataBackOffPolicy, fdrMetadataRetryListener);
     }
 
     @Bean
@@ -303,7 +415,30 @@ public class BatchJobConfiguration {
     }
 
     /**
-     * Worker step for Step 4: processes all flows of a single domain
+     * Processor di Step 4 con memo dei risultati: un'istanza per partizione.
+     */
+    @Bean
+    @StepScope
+    public MemoizingItemProcessor<FrTemp, Long, FdrPaymentsProcessor.FdrCompleteData> memoizingFdrPaymentsProcessor(
+        FdrPaymentsProcessor fdrPaymentsProcessor
+    ) {
+        return memoizing(fdrPaymentsProcessor);
+    }
+
+    /**
+     * Processor asincrono di Step 4: un'istanza (e un executor) per partizione.
+     */
+    @Bean
+    @StepScope
+    public MemoizingItemProcessor<FrTemp, Long, Future<FdrPaymentsProcessor.FdrCompleteData>> asyncFdrPaymentsProcessor(
+        FdrPaymentsProcessor fdrPaymentsProcessor
+    ) {
+        return memoizingAsync(new AsyncItemProcessor<>(fdrPaymentsProcessor, partitionAsyncExecutor("fdr-payments-async-")));
+    }
+
+    /**
+     * Worker step for Step 4: processes all flows of a single domain.
+     * With async-processor-concurrency > 1 the flows of the chunk are fetched concurrently.
      */
     @Bean
     public Step fdrPaymentsWorkerStep(
@@ -311,20 +446,84 @@ public class BatchJobConfiguration {
         RetryPolicy fdrPaymentsRetryPolicy,
         BackOffPolicy fdrPaymentsBackOffPolicy,
         RetryListener fdrPaymentsRetryListener,
-        FdrPaymentsProcessor fdrPaymentsProcessor,
+        MemoizingItemProcessor<FrTemp, Long, FdrPaymentsProcessor.FdrCompleteData> memoizingFdrPaymentsProcessor,
+        MemoizingItemProcessor<FrTemp, Long, Future<FdrPaymentsProcessor.FdrCompleteData>> asyncFdrPaymentsProcessor,
         FdrPaymentsWriter fdrPaymentsWriter
     ) {
-        return new StepBuilder("fdrPaymentsWorkerStep", jobRepository)
-            .<FrTemp, FdrPaymentsProcessor.FdrCompleteData>chunk(batchProperties.getPaymentsChunkSize(), transactionManager)
-            .reader(fdrPaymentsReader)
-            .processor(fdrPaymentsProcessor)
-            .writer(fdrPaymentsWriter)
-            .faultTolerant()
-            .retryPolicy(fdrPaymentsRetryPolicy)
-            .backOffPolicy(fdrPaymentsBackOffPolicy)
-            .retry(RestClientException.class)
-            .listener(fdrPaymentsRetryListener)
+        if (isAsyncProcessorEnabled()) {
+            return this.<Future<FdrPaymentsProcessor.FdrCompleteData>>workerStep("fdrPaymentsWorkerStep",
+                batchProperties.getPaymentsChunkSize(), fdrPaymentsReader,
+                asyncFdrPaymentsProcessor, new AsyncItemWriter<>(fdrPaymentsWriter),
+                fdrPaymentsRetryPolicy, fdrPaymentsBackOffPolicy, fdrPaymentsRetryListener);
+        }
+        return workerStep("fdrPaymentsWorkerStep", batchProperties.getPaymentsChunkSize(), fdrPaymentsReader,
+            memoizingFdrPaymentsProcessor, fdrPaymentsWriter,
+            fdrPaymentsRetryPolicy, fdrPaymentsBackOffPolicy, fdrPaymentsRetryListener);
+    }
+
+    /**
+     * Step 3+4: Acquire FDR details and payments in a single pass (PARTITIONED by domain).
+     * Used instead of Step 3 and Step 4 when govpay.batch.single-pass-acquisition=true: each domain
+     * writes its flows as soon as they are fetched, without waiting for the other domains.
+     */
+    @Bean
+    public Step fdrFlowAcquisitionStep(
+        it.govpay.fdr.batch.partitioner.DominioPartitioner dominioPartitioner,
+        Step fdrFlowWorkerStep
+    ) {
+        return new StepBuilder("fdrFlowAcquisitionStep", jobRepository)
+            .partitioner("fdrFlowWorkerStep", dominioPartitioner)
+            .step(fdrFlowWorkerStep)
+            .gridSize(batchProperties.getThreadPoolSize()) // Numero di partizioni parallele
+            .taskExecutor(taskExecutor)
             .build();
     }
 
+    /**
+     * Processor dello step unico con memo dei risultati: un'istanza per partizione.
+     */
+    @Bean
+    @StepScope
+    public MemoizingItemProcessor<FrTemp, Long, FdrPaymentsProcessor.FdrCompleteData> memoizingFdrFlowProcessor(
+        FdrFlowProcessor fdrFlowProcessor
+    ) {
+        return memoizing(fdrFlowProcessor);
+    }
+
+    /**
+     * Processor asincrono dello step unico: un'istanza (e un executor) per partizione.
+     */
+    @Bean
+    @StepScope
+    public MemoizingItemProcessor<FrTemp, Long, Future<FdrPaymentsProcessor.FdrCompleteData>> asyncFdrFlowProcessor(
+        FdrFlowProcessor fdrFlowProcessor
+    ) {
+        return memoizingAsync(new AsyncItemProcessor<>(fdrFlowProcessor, partitionAsyncExecutor("fdr-flow-async-")));
+    }
+
+    /**
+     * Worker step for Step 3+4: fetches details and payments of all flows of a single domain and
+     * writes FR and RENDICONTAZIONI, with the retry policy of Step 4.
+     */
+    @Bean
+    public Step fdrFlowWorkerStep(
+        FdrPaymentsReader fdrPaymentsReader,
+        RetryPolicy fdrPaymentsRetryPolicy,
+        BackOffPolicy fdrPaymentsBackOffPolicy,
+        RetryListener fdrPaymentsRetryListener,
+        MemoizingItemProcessor<FrTemp, Long, FdrPaymentsProcessor.FdrCompleteData> memoizingFdrFlowProcessor,
+        MemoizingItemProcessor<FrTemp, Long, Future<FdrPaymentsProcessor.FdrCompleteData>> asyncFdrFlowProcessor,
+        FdrPaymentsWriter fdrPaymentsWriter
+    ) {
+        if (isAsyncProcessorEnabled()) {
+            return this.<Future<FdrPaymentsProcessor.FdrCompleteData>>workerStep("fdrFlowWorkerStep",
+                batchProperties.getPaymentsChunkSize(), fdrPaymentsReader,
+                asyncFdrFlowProcessor, new AsyncItemWriter<>(fdrPaymentsWriter),
+                fdrPaymentsRetryPolicy, fdrPaymentsBackOffPolicy, fdrPaymentsRetryListener);
+        }
+        return workerStep("fdrFlowWorkerStep", batchProperties.getPaymentsChunkSize(), fdrPaymentsReader,
+            memoizingFdrFlowProcessor, fdrPaymentsWriter,
+            fdrPaymentsRetryPolicy, fdrPaymentsBackOffPolicy, fdrPaymentsRetryListener);
+    }
+
 }
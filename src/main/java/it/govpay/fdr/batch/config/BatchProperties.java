@@ -1,5 +1,8 @@
 package it.govpay.fdr.batch.config;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
@@ -17,11 +20,149 @@ public class BatchProperties {
      */
     private int threadPoolSize = 5;
 
+    /**
+     * Partizioni per thread negli step partizionati per dominio (Step 3 e 4). 0 (default) crea una
+     * partizione per ogni dominio; con N > 0 i domini vengono raggruppati in al massimo
+     * {@code threadPoolSize * N} partizioni bilanciate sul lavoro stimato.
+     */
+    private int partitionsPerThread = 0;
+
+    /**
+     * Numero di flussi in FR_TEMP oltre il quale un dominio viene diviso in piu' partizioni negli step
+     * 3 e 4 (una ogni domainSplitThreshold flussi). Le revisioni di uno stesso flusso restano nella
+     * stessa partizione; ogni partizione legge da FR_TEMP solo i flussi della propria porzione
+     * (colonna {@code bucket_flusso}). 0 (default) non divide i domini.
+     */
+    private int domainSplitThreshold = 0;
+
+    /**
+     * Acquisizione cooperativa tra piu' nodi con lo stesso cluster-id: il nodo che esegue il job pubblica
+     * i flussi di Step 2 in una coda di lavoro su FR_TEMP e tutti i nodi ne acquisiscono dettaglio e
+     * pagamenti, al posto di Step 3 e 4. false (default) mantiene l'esecuzione su un solo nodo.
+     */
+    private boolean cooperativeAcquisition = false;
+
+    /**
+     * Identificativo del nodo nella coda di lavoro e nelle metriche; se vuoto viene usato pid@host.
+     */
+    private String nodeId;
+
+    /**
+     * Durata (minuti) del lease sui flussi presi in carico da un nodo: alla scadenza i flussi di un nodo
+     * fermo tornano disponibili agli altri nodi. Il lease viene rinnovato prima di ogni flusso e durante il
+     * download dei pagamenti.
+     */
+    private int workQueueLeaseMinutes = 30;
+
+    /**
+     * Flussi (con tutte le loro revisioni) presi in carico da un nodo per volta.
+     */
+    private int workQueueClaimSize = 10;
+
+    /**
+     * Attesa (secondi) prima di un nuovo tentativo su un flusso della coda di lavoro fallito: tutte le sue
+     * revisioni restano non disponibili fino alla scadenza.
+     */
+    private int workQueueRetryDelaySeconds = 60;
+
+    /**
+     * Intervallo (ms) di controllo della coda di lavoro sui nodi che non eseguono il job e di attesa dei
+     * flussi in carico ad altri nodi sul nodo che esegue il job.
+     */
+    private long workQueuePollIntervalMs = 5000;
+
+    /**
+     * Acquisizione continua: i domini vengono interrogati ciascuno alla propria cadenza e i nuovi flussi
+     * acquisiti appena pubblicati, invece dell'esecuzione schedulata del job. Con piu' nodi abilitati
+     * l'acquisizione viene eseguita solo dal nodo che detiene il lock su FDR_LOCK, che il job prende
+     * prima di iniziare: va abilitata su tutti i nodi, compresi quelli che eseguono solo il job.
+     */
+    private boolean continuousAcquisition = false;
+
+    /**
+     * Intervallo (secondi) tra due interrogazioni dello stesso dominio nell'acquisizione continua.
+     */
+    private int continuousPollIntervalSeconds = 300;
+
+    /**
+     * Capacita' delle code tra gli stadi dell'acquisizione continua (flussi da acquisire e da scrivere).
+     */
+    private int continuousQueueCapacity = 100;
+
+    /**
+     * Durata (secondi) del lock dell'acquisizione continua: se il nodo che la esegue si ferma, alla
+     * scadenza l'acquisizione passa a un altro nodo abilitato.
+     */
+    private int continuousLockLeaseSeconds = 60;
+
+    /**
+     * Cadenza adattiva del recupero degli header: i domini senza nuovi flussi vengono interrogati con
+     * intervalli crescenti (false = tutti i domini a ogni esecuzione). Lo storico delle interrogazioni e' in
+     * FR_POLLING, quindi vale anche dopo un riavvio e quando il job viene eseguito su nodi diversi.
+     */
+    private boolean adaptivePolling = false;
+
+    /**
+     * Rinvio massimo, in esecuzioni, dell'interrogazione di un dominio senza nuovi flussi.
+     */
+    private int adaptivePollingMaxBackoff = 16;
+
+    /**
+     * Ore dall'ultima pubblicazione entro cui un dominio viene interrogato a ogni esecuzione.
+     */
+    private int adaptivePollingActiveHours = 24;
+
+    /**
+     * Ogni quante esecuzioni vengono interrogati tutti i domini (0 = mai).
+     */
+    private int adaptivePollingFullSweepRuns = 12;
+
+    /**
+     * Legge la data dell'ultimo flusso acquisito per dominio dalla tabella FR_WATERMARK, aggiornata alla
+     * scrittura dei flussi, invece che dal MAX su FR (false = MAX su FR).
+     */
+    private boolean frWatermark = false;
+
+    /**
+     * Con {@code fr-watermark=true}, confronta le date di FR_WATERMARK con il MAX su FR all'inizio di ogni
+     * Step 2 e riallinea quelle diverse (false = nessuna verifica).
+     */
+    private boolean frWatermarkCheck = false;
+
     /**
      * Chunk size for Step 2 - Headers Acquisition
      */
     private int headersChunkSize = 1;
 
+    /**
+     * Step 2: verifica dei flussi gia' presenti in FR e FR_TEMP con query IN per dominio e inserimento dei
+     * nuovi header in FR_TEMP con INSERT JDBC in batch (false = tre istruzioni per header).
+     */
+    private boolean headersBulkWrite = false;
+
+    /**
+     * File del filtro di Bloom dei flussi gia' acquisiti, consultato in Step 2 prima di cercare i flussi
+     * in FR (vuoto = filtro disabilitato).
+     */
+    private String acquiredFilterFile;
+
+    /**
+     * Numero di flussi previsto in FR per il dimensionamento del filtro.
+     */
+    private long acquiredFilterExpectedKeys = 10_000_000L;
+
+    /**
+     * Probabilita' di falsi positivi del filtro al numero di flussi previsto.
+     */
+    private double acquiredFilterFalsePositiveRate = 0.01;
+
+    /**
+     * Id di FR sotto l'ultimo letto che il filtro rilegge a ogni aggiornamento: gli id non sono assegnati
+     * in ordine di commit (transazioni concorrenti, altri nodi, cache delle sequence Oracle), per cui una
+     * riga con id inferiore puo' diventare visibile dopo la lettura precedente.
+     */
+    private long acquiredFilterRescanIds = 10_000L;
+
     /**
      * Chunk size for Step 3 - Metadata Acquisition
      */
@@ -32,6 +173,27 @@ public class BatchProperties {
      */
     private int paymentsChunkSize = 50;
 
+    /**
+     * Step 3 e 4: numero di flussi FR_TEMP letti per pagina dai reader delle partizioni, con paginazione
+     * keyset e ripresa dall'ultimo flusso letto al riavvio (0 = tutti i flussi del dominio in una lettura).
+     * Step 3 pagina per id, perche' scrive la data di pubblicazione dei flussi che legge; Step 4 per
+     * (data_ora_pubblicazione, id).
+     */
+    private int frTempReaderPageSize = 0;
+
+    /**
+     * Step 1: invece di svuotare FR_TEMP riprende i flussi rimasti da un'esecuzione interrotta, eliminando
+     * solo quelli gia' in FR o scaduti; i flussi con i metadati gia' acquisiti non ripetono Step 3
+     * (false = FR_TEMP svuotata a ogni esecuzione).
+     */
+    private boolean frTempResume = false;
+
+    /**
+     * Giorni dalla pubblicazione oltre i quali un flusso rimasto in FR_TEMP viene eliminato alla ripresa
+     * e, se ancora pubblicato, recuperato di nuovo da Step 2 (0 = nessuna scadenza).
+     */
+    private int frTempResumeTtlDays = 7;
+
     /**
      * Skip limit for failed items
      */
@@ -52,6 +214,15 @@ public class BatchProperties {
      */
     private int pageSize = 1000;
 
+    /**
+     * Numero massimo di pagine richieste contemporaneamente agli endpoint paginati pagoPA
+     * (elenco flussi pubblicati e pagamenti di un flusso). La prima pagina e' sempre richiesta da
+     * sola per conoscere il numero totale di pagine; le successive vengono scaricate in parallelo e
+     * consegnate in ordine. 1 (default) mantiene il recupero sequenziale. Sul nodo sono in corso al
+     * piu' {@code thread-pool-size * page-fetch-concurrency} pagine.
+     */
+    private int pageFetchConcurrency = 1;
+
     /**
      * Massima "eta'" (in giorni) accettata da pagoPA per il parametro publishedGt.
      * L'API restituisce HTTP 400 (FDR-1000, "The date cannot be older than 30 days")
@@ -70,6 +241,214 @@ public class BatchProperties {
      */
     private PublishedGtStaleStrategy publishedGtStaleStrategy = PublishedGtStaleStrategy.ALL;
 
+    /**
+     * Modalita' di ricerca in PAGAMENTI dei pagamenti riferiti dalle rendicontazioni (Step 4).
+     * <ul>
+     *   <li>{@code SINGLE} (default): una query per ogni pagamento del flusso;</li>
+     *   <li>{@code BULK}: i pagamenti candidati del flusso vengono caricati con poche query IN
+     *       su (codDominio, iuv) e risolti in memoria per (iuv, iur, indiceDati).</li>
+     * </ul>
+     */
+    private LookupMode pagamentiLookupMode = LookupMode.SINGLE;
+
+    /**
+     * Modalita' di ricerca delle pendenze (VERSAMENTI e SINGOLI_VERSAMENTI) per le rendicontazioni
+     * con IUV interno prive di pagamento:
+     * <ul>
+     *   <li>{@code SINGLE} (default): query puntuali per ogni rendicontazione;</li>
+     *   <li>{@code BULK}: le pendenze del flusso e le relative voci vengono caricate con query IN
+     *       e risolte in memoria.</li>
+     * </ul>
+     */
+    private LookupMode versamentiLookupMode = LookupMode.SINGLE;
+
+    /**
+     * Numero massimo di valori per singola clausola IN nelle query di caricamento massivo.
+     * Oracle non accetta liste con piu' di 1000 elementi.
+     */
+    private int inClauseChunkSize = 500;
+
+    /**
+     * Modalita' di persistenza dei flussi acquisiti in Step 4:
+     * <ul>
+     *   <li>{@code JPA} (default): salvataggio del grafo FR/RENDICONTAZIONI tramite repository;</li>
+     *   <li>{@code JDBC}: INSERT della riga FR e delle rendicontazioni in batch via JDBC.</li>
+     * </ul>
+     */
+    private FrWriterMode frWriterMode = FrWriterMode.JPA;
+
+    /**
+     * Numero di rendicontazioni per singolo batch JDBC in modalita' {@code JDBC}.
+     */
+    private int jdbcBatchSize = 500;
+
+    /**
+     * Soglia (numero di pagamenti dichiarati nel flusso) oltre la quale Step 4 acquisisce il flusso
+     * in streaming: ogni pagina scaricata viene riconciliata e scritta prima di richiedere la
+     * successiva. In streaming la persistenza avviene sempre via JDBC. Le pagine vengono scaricate
+     * dentro la transazione del chunk, che resta aperta per tutto lo scaricamento del flusso: il
+     * timeout delle transazioni va dimensionato di conseguenza. 0 (default) disabilita.
+     */
+    private long paymentsStreamingThreshold = 0;
+
+    /**
+     * Decodifica delle pagine di pagamenti in Step 4:
+     * <ul>
+     *   <li>{@code CLIENT} (default): tramite il client OpenAPI generato ({@code Payment}) e conversione successiva;</li>
+     *   <li>{@code STREAMING}: lettura del body con il parser Jackson direttamente nei dati usati dal writer.</li>
+     * </ul>
+     * {@code STREAMING} va abilitata esplicitamente: ogni pagina viene tenuta in memoria come ricevuta e,
+     * per l'evento GDE, l'ultima viene letta anche con il mapper pagoPA, cosi' il payload della risposta
+     * resta quello della modalita' {@code CLIENT}. Tempi e allocazioni delle due modalita' si misurano con
+     * {@code PaymentsPageDecoderBenchmarkTest} ({@code mvn test -Pperf}).
+     */
+    private PaymentsDecodeMode paymentsDecodeMode = PaymentsDecodeMode.CLIENT;
+
+    /**
+     * Directory della cache su disco delle pagine di pagamenti scaricate in Step 4. Se valorizzata,
+     * un nuovo tentativo sullo stesso flusso riprende dalla prima pagina non ancora scaricata; le
+     * pagine vengono rimosse dopo il commit della rendicontazione. Vuota (default) disabilita la cache.
+     */
+    private String paymentsPageCacheDir;
+
+    /**
+     * Eta' massima (ore) dei file di cache delle pagine: i file piu' vecchi vengono eliminati all'avvio.
+     * 0 disabilita la pulizia.
+     */
+    private long paymentsPageCacheMaxAgeHours = 72;
+
+    /**
+     * Numero massimo di flussi di uno stesso dominio elaborati in parallelo dai processor di Step 3 e
+     * Step 4. Il limite vale per singola partizione; la scrittura resta nella transazione del chunk.
+     * 1 (default) mantiene l'elaborazione sequenziale.
+     */
+    private int asyncProcessorConcurrency = 1;
+
+    /**
+     * Numero massimo di risultati dei processor di Step 3 e Step 4 memorizzati per partizione: quando un
+     * chunk viene rielaborato dopo un rollback, i flussi gia' scaricati non vengono richiesti di nuovo.
+     * Le voci vengono rimosse al commit del chunk. 0 disabilita il memo.
+     */
+    private int processedItemsMemoSize = 100;
+
+    /**
+     * Sostituisce Step 3 e Step 4 con un unico step partizionato per dominio: per ogni flusso dettaglio e
+     * pagamenti vengono scaricati in parallelo e la rendicontazione scritta subito, senza salvare i metadati
+     * in FR_TEMP e senza attendere che tutti i domini abbiano completato Step 3. false (default) mantiene
+     * i due step separati.
+     */
+    private boolean singlePassAcquisition = false;
+
+    /**
+     * Esegue su virtual thread le partizioni degli step, le elaborazioni asincrone di Step 3 e Step 4,
+     * il recupero concorrente delle pagine e l'invio degli eventi GDE. Il numero di chiamate pagoPA
+     * contemporanee va allora limitato con {@link #maxConcurrentCallsPerConnector}. Il throughput delle due
+     * configurazioni si misura con {@code ConnectorLimiterBenchmarkTest} ({@code mvn test -Pperf}).
+     */
+    private boolean virtualThreads = false;
+
+    /**
+     * Numero massimo di chiamate pagoPA contemporanee per connettore FDR, condiviso da tutti i domini
+     * dello stesso intermediario. 0 (default) non pone limiti.
+     */
+    private int maxConcurrentCallsPerConnector = 0;
+
+    /**
+     * Numero massimo di richieste al secondo verso pagoPA per connettore FDR (token bucket con
+     * raffica pari a un secondo di richieste). 0 (default) non pone limiti.
+     */
+    private double rateLimitPerConnector = 0;
+
+    /**
+     * Attesa massima (ms) di una chiamata pagoPA per rispettare i limiti del connettore; oltre,
+     * la chiamata viene rifiutata con errore ritentabile. 0 (default) attende senza limite.
+     */
+    private long connectorMaxWaitMs = 0;
+
+    /**
+     * Impostazioni specifiche per connettore FDR, indicizzate per {@code codConnettoreFr}: i valori
+     * impostati sostituiscono {@link #maxConcurrentCallsPerConnector}, {@link #rateLimitPerConnector}
+     * e, con i trasporti {@code POOLED} e {@code JDK}, timeout e trust store {@code http-*}.
+     */
+    private Map<String, ConnectorLimits> connectors = new HashMap<>();
+
+    /**
+     * Trasporto HTTP del client pagoPA:
+     * <ul>
+     *   <li>{@code CONNETTORE} (default): il RestTemplate del connettore cosi' com'e';</li>
+     *   <li>{@code POOLED}: Apache HttpClient 5 con pool di connessioni keep-alive condiviso;</li>
+     *   <li>{@code JDK}: {@code java.net.http.HttpClient}, con HTTP/2 opzionale.</li>
+     * </ul>
+     * Con {@code POOLED} e {@code JDK} ogni connettore ha una propria request factory, con timeout e
+     * trust store configurati qui o in {@link #connectors}; il certificato client per la mutua
+     * autenticazione TLS va indicato in {@link #connectors}.
+     */
+    private HttpTransport fdrHttpTransport = HttpTransport.CONNETTORE;
+
+    /**
+     * Connessioni massime del pool {@code POOLED} di ciascun connettore.
+     */
+    private int httpMaxConnections = 50;
+
+    /**
+     * Connessioni massime del pool {@code POOLED} di ciascun connettore verso lo stesso host.
+     */
+    private int httpMaxConnectionsPerRoute = 20;
+
+    /**
+     * Secondi di inattivita' dopo i quali una connessione del pool {@code POOLED} viene chiusa.
+     */
+    private int httpIdleEvictionSeconds = 30;
+
+    /**
+     * Timeout di connessione (ms) dei trasporti {@code POOLED} e {@code JDK}.
+     */
+    private int httpConnectTimeoutMs = 10000;
+
+    /**
+     * Timeout di lettura della risposta (ms) dei trasporti {@code POOLED} e {@code JDK}.
+     */
+    private int httpReadTimeoutMs = 60000;
+
+    /**
+     * Abilita HTTP/2 (con fallback a HTTP/1.1) nel trasporto {@code JDK}.
+     */
+    private boolean http2Enabled = false;
+
+    /**
+     * Trust store PKCS12 opzionale dei trasporti {@code POOLED} e {@code JDK}; se assente
+     * viene usato quello della JVM.
+     */
+    private String httpTrustStorePath;
+
+    /**
+     * Password del trust store {@link #httpTrustStorePath}.
+     */
+    private String httpTrustStorePassword;
+
+    /**
+     * Limiti e impostazioni HTTP di un singolo connettore FDR.
+     */
+    @Data
+    public static class ConnectorLimits {
+        /** Chiamate contemporanee (0 = nessun limite). */
+        private Integer maxConcurrentCalls;
+        /** Richieste al secondo (0 = nessun limite). */
+        private Double rateLimit;
+        /** Timeout di connessione (ms) dei trasporti {@code POOLED} e {@code JDK}. */
+        private Integer httpConnectTimeoutMs;
+        /** Timeout di lettura (ms) dei trasporti {@code POOLED} e {@code JDK}. */
+        private Integer httpReadTimeoutMs;
+        /** Trust store PKCS12 dei trasporti {@code POOLED} e {@code JDK}. */
+        private String httpTrustStorePath;
+        /** Password del trust store. */
+        private String httpTrustStorePassword;
+        /** Key store PKCS12 con il certificato client per la mutua autenticazione TLS. */
+        private String httpKeyStorePath;
+        /** Password del key store e della chiave privata. */
+        private String httpKeyStorePassword;
+    }
+
     /**
      * Strategie di gestione della publishedGt oltre la finestra accettata da pagoPA.
      */
@@ -79,4 +458,46 @@ public class BatchProperties {
         /** Riporta publishedGt al limite consentito (adesso - publishedGtMaxAgeDays). */
         CLAMP
     }
+
+    /**
+     * Modalita' di persistenza dei flussi acquisiti.
+     */
+    public enum FrWriterMode {
+        /** Salvataggio tramite JPA con cascade sulle rendicontazioni. */
+        JPA,
+        /** INSERT JDBC in batch di FR e RENDICONTAZIONI. */
+        JDBC
+    }
+
+    /**
+     * Modalita' di decodifica delle pagine di pagamenti.
+     */
+    public enum PaymentsDecodeMode {
+        /** DTO del client OpenAPI generato. */
+        CLIENT,
+        /** Parser Jackson in streaming, senza DTO intermedi. */
+        STREAMING
+    }
+
+    /**
+     * Trasporti HTTP disponibili per il client pagoPA.
+     */
+    public enum HttpTransport {
+        /** RestTemplate fornito dal connettore, senza modifiche. */
+        CONNETTORE,
+        /** Apache HttpClient 5 con pool di connessioni. */
+        POOLED,
+        /** Client HTTP del JDK. */
+        JDK
+    }
+
+    /**
+     * Modalita' di accesso al DB per le ricerche eseguite per ogni rendicontazione.
+     */
+    public enum LookupMode {
+        /** Una query puntuale per ogni rendicontazione. */
+        SINGLE,
+        /** Caricamento massivo per flusso con query IN e risoluzione in memoria. */
+        BULK
+    }
 }
@@ -1,5 +1,8 @@
 package it.govpay.fdr.batch.config;
 
+import java.util.concurrent.Executor;
+
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.task.SimpleAsyncTaskExecutor;
@@ -30,6 +33,59 @@ public class BatchTaskExecutorConfig {
     public SimpleAsyncTaskExecutor taskExecutor() {
         SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("fdr-batch-");
         executor.setConcurrencyLimit(batchProperties.getThreadPoolSize());
+        executor.setVirtualThreads(batchProperties.isVirtualThreads());
+        return executor;
+    }
+
+    /**
+     * Executor per il recupero dei pagamenti in parallelo al dettaglio nello step unico di acquisizione
+     * ({@code FdrFlowProcessor}), condiviso da tutti i thread: al piu' {@code thread-pool-size} recuperi
+     * contemporanei, oltre il limite la sottomissione attende.
+     */
+    @Bean
+    public SimpleAsyncTaskExecutor flowPaymentsExecutor() {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("fdr-flow-payments-");
+        executor.setConcurrencyLimit(batchProperties.getThreadPoolSize());
+        executor.setVirtualThreads(batchProperties.isVirtualThreads());
+        return executor;
+    }
+
+    /**
+     * Executor dei cicli di acquisizione della coda di lavoro ({@code FdrWorkQueueWorker}): al piu'
+     * {@code thread-pool-size} cicli contemporanei per nodo, anche se job e controllo della coda si sovrappongono.
+     */
+    @Bean
+    public SimpleAsyncTaskExecutor workQueueExecutor() {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("fdr-workqueue-");
+        executor.setConcurrencyLimit(batchProperties.getThreadPoolSize());
+        executor.setVirtualThreads(batchProperties.isVirtualThreads());
+        return executor;
+    }
+
+    /**
+     * Executor del recupero concorrente delle pagine pagoPA ({@code ConcurrentPageFetcher}), condiviso da
+     * tutti i thread: al piu' {@code thread-pool-size * page-fetch-concurrency} pagine in corso,
+     * oltre il limite la sottomissione attende.
+     */
+    @Bean
+    public SimpleAsyncTaskExecutor pageFetchExecutor() {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("fdr-page-fetch-");
+        executor.setConcurrencyLimit(Math.max(1, batchProperties.getThreadPoolSize() * batchProperties.getPageFetchConcurrency()));
+        executor.setVirtualThreads(batchProperties.isVirtualThreads());
+        return executor;
+    }
+
+    /**
+     * Executor per l'invio asincrono degli eventi GDE: l'{@code asyncHttpExecutor} di govpay-common,
+     * oppure un executor su virtual thread con {@code govpay.batch.virtual-threads=true}.
+     */
+    @Bean(destroyMethod = "")
+    public Executor gdeExecutor(@Qualifier("asyncHttpExecutor") Executor asyncHttpExecutor) {
+        if (!batchProperties.isVirtualThreads()) {
+            return asyncHttpExecutor;
+        }
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("fdr-gde-");
+        executor.setVirtualThreads(true);
         return executor;
     }
 }
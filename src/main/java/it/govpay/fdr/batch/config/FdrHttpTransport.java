@@ -0,0 +1,226 @@
+package it.govpay.fdr.batch.config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.ssl.DefaultClientTlsStrategy;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import it.govpay.fdr.batch.config.BatchProperties.ConnectorLimits;
+import it.govpay.fdr.batch.config.BatchProperties.HttpTransport;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Trasporto HTTP del client pagoPA, selezionato con {@code govpay.batch.fdr-http-transport}.
+ * <p>
+ * Con {@code POOLED} ogni connettore ha un proprio pool Apache HttpClient 5 con connessioni
+ * keep-alive, dimensionato da {@link BatchProperties}, con chiusura delle connessioni inattive e
+ * metriche del pool ({@code httpcomponents.httpclient.pool.*}, name {@value #POOL_METRICS_NAME},
+ * tag {@code connector}). Con {@code JDK} ogni connettore ha un proprio {@link HttpClient}, che gestisce
+ * un pool keep-alive e puo' negoziare HTTP/2. Timeout, trust store e certificato client sono quelli del
+ * connettore in {@code govpay.batch.connectors[codConnettoreFr]}, in mancanza quelli {@code http-*}.
+ * La request factory sostituisce quella del RestTemplate del connettore; gli interceptor
+ * (es. header di sottoscrizione) restano invariati.
+ */
+@Component
+@Slf4j
+public class FdrHttpTransport implements DisposableBean {
+
+	static final String POOL_METRICS_NAME = "fdr-pagopa";
+
+	private final BatchProperties batchProperties;
+	private final MeterRegistry meterRegistry;
+
+	private final Map<String, ClientHttpRequestFactory> requestFactories = new ConcurrentHashMap<>();
+	private final List<AutoCloseable> httpClients = new ArrayList<>();
+
+	public FdrHttpTransport(BatchProperties batchProperties, MeterRegistry meterRegistry) {
+		this.batchProperties = batchProperties;
+		this.meterRegistry = meterRegistry;
+	}
+
+	/**
+	 * Applica il trasporto configurato al RestTemplate di un connettore.
+	 *
+	 * @param codConnettore codice del connettore FDR
+	 * @param restTemplate il RestTemplate del connettore
+	 */
+	public void apply(String codConnettore, RestTemplate restTemplate) {
+		if (batchProperties.getFdrHttpTransport() == HttpTransport.CONNETTORE) {
+			return;
+		}
+		restTemplate.setRequestFactory(requestFactories.computeIfAbsent(codConnettore, this::createRequestFactory));
+	}
+
+	private ClientHttpRequestFactory createRequestFactory(String codConnettore) {
+		ConnectorHttpSettings settings = settings(codConnettore);
+		return switch (batchProperties.getFdrHttpTransport()) {
+			case POOLED -> createPooledRequestFactory(codConnettore, settings);
+			case JDK -> createJdkRequestFactory(codConnettore, settings);
+			case CONNETTORE -> throw new IllegalStateException("Nessuna request factory per il trasporto CONNETTORE");
+		};
+	}
+
+	private ClientHttpRequestFactory createPooledRequestFactory(String codConnettore, ConnectorHttpSettings settings) {
+		PoolingHttpClientConnectionManagerBuilder connectionManagerBuilder = PoolingHttpClientConnectionManagerBuilder.create()
+			.setMaxConnTotal(batchProperties.getHttpMaxConnections())
+			.setMaxConnPerRoute(batchProperties.getHttpMaxConnectionsPerRoute())
+			.setDefaultConnectionConfig(ConnectionConfig.custom()
+				.setConnectTimeout(Timeout.ofMilliseconds(settings.connectTimeoutMs()))
+				.setSocketTimeout(Timeout.ofMilliseconds(settings.readTimeoutMs()))
+				.setValidateAfterInactivity(TimeValue.ofSeconds(2))
+				.build());
+		SSLContext sslContext = createSslContext(settings);
+		if (sslContext != null) {
+			connectionManagerBuilder.setTlsSocketStrategy(new DefaultClientTlsStrategy(sslContext));
+		}
+		PoolingHttpClientConnectionManager connectionManager = connectionManagerBuilder.build();
+
+		CloseableHttpClient httpClient = HttpClients.custom()
+			.setConnectionManager(connectionManager)
+			.setDefaultRequestConfig(RequestConfig.custom()
+				.setResponseTimeout(Timeout.ofMilliseconds(settings.readTimeoutMs()))
+				.build())
+			.evictExpiredConnections()
+			.evictIdleConnections(TimeValue.ofSeconds(batchProperties.getHttpIdleEvictionSeconds()))
+			.build();
+		register(httpClient);
+
+		new PoolingHttpClientConnectionManagerMetricsBinder(connectionManager, POOL_METRICS_NAME, "connector", codConnettore)
+			.bindTo(meterRegistry);
+		log.info("Trasporto pagoPA POOLED per connettore {}: max {} connessioni, {} per host, chiusura dopo {}s di inattivita'{}",
+			codConnettore, batchProperties.getHttpMaxConnections(), batchProperties.getHttpMaxConnectionsPerRoute(),
+			batchProperties.getHttpIdleEvictionSeconds(), settings.keyStorePath() != null ? ", certificato client" : "");
+		return new HttpComponentsClientHttpRequestFactory(httpClient);
+	}
+
+	private ClientHttpRequestFactory createJdkRequestFactory(String codConnettore, ConnectorHttpSettings settings) {
+		HttpClient.Builder builder = HttpClient.newBuilder()
+			.version(batchProperties.isHttp2Enabled() ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+			.connectTimeout(Duration.ofMillis(settings.connectTimeoutMs()));
+		SSLContext sslContext = createSslContext(settings);
+		if (sslContext != null) {
+			builder.sslContext(sslContext);
+		}
+		HttpClient httpClient = builder.build();
+		register(httpClient);
+
+		JdkClientHttpRequestFactory factory = new JdkClientHttpRequestFactory(httpClient);
+		factory.setReadTimeout(Duration.ofMillis(settings.readTimeoutMs()));
+		log.info("Trasporto pagoPA JDK per connettore {}: HTTP/2 {}{}", codConnettore,
+			batchProperties.isHttp2Enabled() ? "abilitato" : "disabilitato",
+			settings.keyStorePath() != null ? ", certificato client" : "");
+		return factory;
+	}
+
+	private synchronized void register(AutoCloseable httpClient) {
+		httpClients.add(httpClient);
+	}
+
+	/**
+	 * Impostazioni del connettore, con i valori {@code http-*} dove non specificati.
+	 */
+	private ConnectorHttpSettings settings(String codConnettore) {
+		ConnectorLimits connector = batchProperties.getConnectors().get(codConnettore);
+		if (connector == null) {
+			connector = new ConnectorLimits();
+		}
+		boolean ownTrustStore = isSet(connector.getHttpTrustStorePath());
+		return new ConnectorHttpSettings(
+			connector.getHttpConnectTimeoutMs() != null ? connector.getHttpConnectTimeoutMs() : batchProperties.getHttpConnectTimeoutMs(),
+			connector.getHttpReadTimeoutMs() != null ? connector.getHttpReadTimeoutMs() : batchProperties.getHttpReadTimeoutMs(),
+			ownTrustStore ? connector.getHttpTrustStorePath() : batchProperties.getHttpTrustStorePath(),
+			ownTrustStore ? connector.getHttpTrustStorePassword() : batchProperties.getHttpTrustStorePassword(),
+			isSet(connector.getHttpKeyStorePath()) ? connector.getHttpKeyStorePath() : null,
+			connector.getHttpKeyStorePassword());
+	}
+
+	private static boolean isSet(String value) {
+		return value != null && !value.isBlank();
+	}
+
+	/**
+	 * Contesto TLS con trust store e certificato client del connettore; null se non configurati,
+	 * per usare quello di default della JVM.
+	 */
+	private static SSLContext createSslContext(ConnectorHttpSettings settings) {
+		if (!isSet(settings.trustStorePath()) && settings.keyStorePath() == null) {
+			return null;
+		}
+		try {
+			TrustManagerFactory trustManagerFactory = null;
+			if (isSet(settings.trustStorePath())) {
+				trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+				trustManagerFactory.init(loadKeyStore(settings.trustStorePath(), settings.trustStorePassword()));
+			}
+			KeyManagerFactory keyManagerFactory = null;
+			if (settings.keyStorePath() != null) {
+				keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+				keyManagerFactory.init(loadKeyStore(settings.keyStorePath(), settings.keyStorePassword()),
+					toCharArray(settings.keyStorePassword()));
+			}
+			SSLContext sslContext = SSLContext.getInstance("TLS");
+			sslContext.init(keyManagerFactory != null ? keyManagerFactory.getKeyManagers() : null,
+				trustManagerFactory != null ? trustManagerFactory.getTrustManagers() : null, null);
+			return sslContext;
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("Impossibile creare il contesto TLS del connettore", e);
+		}
+	}
+
+	private static KeyStore loadKeyStore(String path, String password) {
+		try (InputStream in = Files.newInputStream(Path.of(path))) {
+			KeyStore keyStore = KeyStore.getInstance("PKCS12");
+			keyStore.load(in, toCharArray(password));
+			return keyStore;
+		} catch (IOException | GeneralSecurityException e) {
+			throw new IllegalStateException("Impossibile caricare il key store " + path, e);
+		}
+	}
+
+	private static char[] toCharArray(String password) {
+		return password != null ? password.toCharArray() : null;
+	}
+
+	@Override
+	public synchronized void destroy() throws Exception {
+		for (AutoCloseable httpClient : httpClients) {
+			httpClient.close();
+		}
+		httpClients.clear();
+		requestFactories.clear();
+	}
+
+	private record ConnectorHttpSettings(int connectTimeoutMs, int readTimeoutMs, String trustStorePath,
+		String trustStorePassword, String keyStorePath, String keyStorePassword) {
+	}
+}
@@ -15,21 +15,28 @@ import org.springframework.stereotype.Component;
 import it.govpay.common.batch.runner.AbstractScheduledJobRunner;
 import it.govpay.common.batch.runner.JobExecutionHelper;
 import it.govpay.fdr.batch.Costanti;
+import lombok.extern.slf4j.Slf4j;
 
 /**
  * Runner per l'esecuzione schedulata del job FDR Acquisition in modalità multi-nodo.
  * <p>
- * Attivo solo con profile "default" (non "cron").
+ * Attivo solo con profile "default" (non "cron"). Con l'acquisizione continua
+ * ({@code govpay.batch.continuous-acquisition=true}) il job non viene schedulato.
  */
 @Component
 @Profile("default")
 @EnableScheduling
+@Slf4j
 public class ScheduledJobRunner extends AbstractScheduledJobRunner {
 
+    private final BatchProperties batchProperties;
+
     public ScheduledJobRunner(
             JobExecutionHelper jobExecutionHelper,
-            @Qualifier("fdrAcquisitionJob") Job fdrAcquisitionJob) {
+            @Qualifier("fdrAcquisitionJob") Job fdrAcquisitionJob,
+            BatchProperties batchProperties) {
         super(jobExecutionHelper, fdrAcquisitionJob, Costanti.FDR_ACQUISITION_JOB_NAME);
+        this.batchProperties = batchProperties;
     }
 
     @Scheduled(
@@ -38,6 +45,10 @@ public class ScheduledJobRunner extends AbstractScheduledJobRunner {
     )
     public JobExecution runBatchFdrAcquisitionJob() throws JobExecutionAlreadyRunningException, JobRestartException,
             JobInstanceAlreadyCompleteException, InvalidJobParametersException {
+        if (batchProperties.isContinuousAcquisition()) {
+            log.debug("Acquisizione continua attiva, esecuzione schedulata del job saltata");
+            return null;
+        }
         return executeScheduledJob();
     }
 }
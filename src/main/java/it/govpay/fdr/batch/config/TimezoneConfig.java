@@ -1,5 +1,6 @@
 package it.govpay.fdr.batch.config;
 
+import java.time.Clock;
 import java.time.ZoneId;
 import java.util.TimeZone;
 
@@ -42,4 +43,12 @@ public class TimezoneConfig {
     public ZoneId applicationZoneId() {
         return ZoneId.of(timezone);
     }
+
+    /**
+     * Orologio dell'applicazione nel timezone configurato, sostituibile nei test.
+     */
+    @Bean
+    public Clock clock() {
+        return Clock.system(applicationZoneId());
+    }
 }
@@ -0,0 +1,45 @@
+package it.govpay.fdr.batch.config;
+
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import it.govpay.fdr.batch.step4.FdrWorkQueueWorker;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runner dell'acquisizione cooperativa sui nodi che non eseguono il job: controlla periodicamente la
+ * coda di lavoro su FR_TEMP e acquisisce i flussi pubblicati dal nodo che esegue il job.
+ * <p>
+ * Attivo solo con profile "default"; non fa nulla se govpay.batch.cooperative-acquisition=false.
+ */
+@Component
+@Profile("default")
+@EnableScheduling
+@Slf4j
+public class WorkQueueRunner {
+
+    private final FdrWorkQueueWorker worker;
+    private final BatchProperties batchProperties;
+
+    public WorkQueueRunner(FdrWorkQueueWorker worker, BatchProperties batchProperties) {
+        this.worker = worker;
+        this.batchProperties = batchProperties;
+    }
+
+    @Scheduled(
+        fixedDelayString = "${govpay.batch.work-queue-poll-interval-ms:5000}",
+        initialDelayString = "${scheduler.initialDelayString:1}"
+    )
+    public void drainWorkQueue() {
+        if (!batchProperties.isCooperativeAcquisition()) {
+            return;
+        }
+        try {
+            worker.drain();
+        } catch (RuntimeException e) {
+            log.error("Errore nell'acquisizione dei flussi dalla coda di lavoro: {}", e.getMessage(), e);
+        }
+    }
+}
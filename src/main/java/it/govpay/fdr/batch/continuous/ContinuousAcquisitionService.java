@@ -0,0 +1,449 @@
+package it.govpay.fdr.batch.continuous;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.batch.infrastructure.item.Chunk;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import it.govpay.common.batch.service.JobConcurrencyService;
+import it.govpay.fdr.batch.Costanti;
+import it.govpay.fdr.batch.config.BatchProperties;
+import it.govpay.fdr.batch.dto.DominioProcessingContext;
+import it.govpay.fdr.batch.dto.FdrHeadersBatch;
+import it.govpay.fdr.batch.entity.FrTemp;
+import it.govpay.fdr.batch.repository.FrTempRepository;
+import it.govpay.fdr.batch.service.ClusterLockService;
+import it.govpay.fdr.batch.service.DominioPollingPolicy;
+import it.govpay.fdr.batch.service.FrWatermarkService;
+import it.govpay.fdr.batch.step2.FdrHeadersProcessor;
+import it.govpay.fdr.batch.step2.FdrHeadersWriter;
+import it.govpay.fdr.batch.step4.FdrFlowProcessor;
+import it.govpay.fdr.batch.step4.FdrPaymentsProcessor.FdrCompleteData;
+import it.govpay.fdr.batch.step4.FdrPaymentsWriter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Acquisizione continua dei flussi ({@code govpay.batch.continuous-acquisition=true}), in alternativa
+ * all'esecuzione periodica del job.
+ * <p>
+ * Tre stadi collegati da code limitate ({@code govpay.batch.continuous-queue-capacity}):
+ * <ol>
+ *   <li>polling: ogni dominio abilitato viene interrogato ogni {@code continuous-poll-interval-seconds},
+ *       moltiplicato per il rinvio di {@link DominioPollingPolicy} con la cadenza adattiva;
+ *       i nuovi header vengono salvati in FR_TEMP come in Step 2 e i flussi accodati;</li>
+ *   <li>acquisizione: {@code thread-pool-size} thread scaricano dettaglio e pagamenti di ciascun flusso
+ *       con {@link FdrFlowProcessor};</li>
+ *   <li>scrittura: un thread scrive i flussi acquisiti con {@link FdrPaymentsWriter}, a blocchi di al
+ *       massimo {@code payments-chunk-size}.</li>
+ * </ol>
+ * Quando una coda e' piena lo stadio precedente si ferma, quindi pagoPA e DB ricevono un carico costante.
+ * FR_TEMP non viene svuotata: i flussi non ancora scritti restano in FR_TEMP e vengono riaccodati al
+ * polling successivo del dominio, anche dopo un errore o un riavvio. Per ogni flusso viene accodata una
+ * sola revisione per volta, la piu' bassa, per rispettare l'ordine delle revisioni.
+ * <p>
+ * L'acquisizione viene eseguita da un solo nodo: ogni secondo il nodo acquisisce o rinnova il lock
+ * {@value #LOCK_NAME} con {@link ClusterLockService} e, se il lock e' di un altro nodo, resta in attesa.
+ * Senza lock tutti e tre gli stadi si fermano e i flussi accodati vengono scartati (restano in FR_TEMP);
+ * ogni scrittura verifica il lock nella propria transazione, quindi un nodo che lo ha perso non scrive.
+ * Il job resta disponibile come fallback (profile "cron" o avvio manuale), ma non viene schedulato: con
+ * l'acquisizione continua abilitata il job prende lo stesso lock prima di iniziare, perche' svuota
+ * FR_TEMP. Quando il job e' in esecuzione su un qualsiasi nodo il servizio rilascia il lock, e lo
+ * riacquisisce quando il job lo rilascia.
+ */
+@Component
+@Profile("default")
+@Slf4j
+public class ContinuousAcquisitionService implements SmartLifecycle {
+
+    /** Intervallo del ciclo di polling: ogni dominio viene comunque interrogato alla sua cadenza */
+    private static final long POLL_TICK_MS = 1000;
+    /** Attesa massima su una coda vuota prima di ricontrollare se il servizio e' ancora attivo */
+    private static final long QUEUE_POLL_MS = 500;
+    /** Lock su FDR_LOCK del nodo che esegue l'acquisizione continua o il job */
+    static final String LOCK_NAME = Costanti.CONTINUOUS_ACQUISITION_LOCK;
+
+    private final FrWatermarkService frWatermarkService;
+    private final FrTempRepository frTempRepository;
+    private final FdrHeadersProcessor fdrHeadersProcessor;
+    private final FdrHeadersWriter fdrHeadersWriter;
+    private final FdrFlowProcessor fdrFlowProcessor;
+    private final FdrPaymentsWriter fdrPaymentsWriter;
+    private final DominioPollingPolicy pollingPolicy;
+    private final ClusterLockService clusterLockService;
+    private final JobConcurrencyService jobConcurrencyService;
+    private final BatchProperties batchProperties;
+    private final TransactionTemplate transactionTemplate;
+    private final Clock clock;
+
+    /** Prossimo polling di ogni dominio */
+    private final Map<String, LocalDateTime> nextPoll = new ConcurrentHashMap<>();
+    /** Flussi (dominio, flusso, PSP) accodati e non ancora scritti, con l'id della revisione in lavorazione */
+    private final Map<String, Long> inFlight = new ConcurrentHashMap<>();
+
+    private final BlockingQueue<FrTemp> flowsQueue;
+    private final BlockingQueue<FdrCompleteData> writeQueue;
+    private SimpleAsyncTaskExecutor executor;
+    private volatile boolean running;
+    /** Lock del nodo e job non in esecuzione: i tre stadi possono lavorare */
+    private volatile boolean active;
+    /** Acquisizione sospesa: lock di un altro nodo o job in esecuzione */
+    private boolean paused;
+    /** Prossimo rinnovo del lock */
+    private LocalDateTime lockRenewal;
+
+    public ContinuousAcquisitionService(FrWatermarkService frWatermarkService, FrTempRepository frTempRepository,
+            FdrHeadersProcessor fdrHeadersProcessor, FdrHeadersWriter fdrHeadersWriter,
+            FdrFlowProcessor fdrFlowProcessor, FdrPaymentsWriter fdrPaymentsWriter, DominioPollingPolicy pollingPolicy,
+            ClusterLockService clusterLockService, JobConcurrencyService jobConcurrencyService,
+            BatchProperties batchProperties, PlatformTransactionManager transactionManager, Clock clock) {
+        this.frWatermarkService = frWatermarkService;
+        this.frTempRepository = frTempRepository;
+        this.fdrHeadersProcessor = fdrHeadersProcessor;
+        this.fdrHeadersWriter = fdrHeadersWriter;
+        this.fdrFlowProcessor = fdrFlowProcessor;
+        this.fdrPaymentsWriter = fdrPaymentsWriter;
+        this.pollingPolicy = pollingPolicy;
+        this.clusterLockService = clusterLockService;
+        this.jobConcurrencyService = jobConcurrencyService;
+        this.batchProperties = batchProperties;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.clock = clock;
+        this.flowsQueue = new ArrayBlockingQueue<>(Math.max(1, batchProperties.getContinuousQueueCapacity()));
+        this.writeQueue = new ArrayBlockingQueue<>(Math.max(1, batchProperties.getContinuousQueueCapacity()));
+    }
+
+    @Override
+    public synchronized void start() {
+        if (running || !batchProperties.isContinuousAcquisition()) {
+            return;
+        }
+        int fetchers = Math.max(1, batchProperties.getThreadPoolSize());
+        log.info("Avvio acquisizione continua: polling ogni {} s per dominio, {} thread di acquisizione, code da {} flussi",
+            batchProperties.getContinuousPollIntervalSeconds(), fetchers, batchProperties.getContinuousQueueCapacity());
+
+        running = true;
+        executor = new SimpleAsyncTaskExecutor("fdr-continuous-");
+        executor.setVirtualThreads(batchProperties.isVirtualThreads());
+        executor.setTaskTerminationTimeout(TimeUnit.SECONDS.toMillis(30));
+        executor.execute(this::lockLoop);
+        executor.execute(this::pollLoop);
+        for (int i = 0; i < fetchers; i++) {
+            executor.execute(this::fetchLoop);
+        }
+        executor.execute(this::writeLoop);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        log.info("Arresto acquisizione continua");
+        running = false;
+        active = false;
+        // Attende la fine delle elaborazioni in corso: i flussi non scritti restano in FR_TEMP
+        executor.close();
+        flowsQueue.clear();
+        writeQueue.clear();
+        inFlight.clear();
+        if (lockRenewal != null) {
+            // Un altro nodo puo' riprendere subito l'acquisizione
+            clusterLockService.release(LOCK_NAME);
+            lockRenewal = null;
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Numero di flussi accodati in attesa di acquisizione.
+     */
+    int getQueuedFlows() {
+        return flowsQueue.size();
+    }
+
+    private void lockLoop() {
+        while (running) {
+            try {
+                checkLock();
+                Thread.sleep(POLL_TICK_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Errore nella verifica del lock dell'acquisizione continua: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    private void pollLoop() {
+        while (running) {
+            try {
+                if (active) {
+                    pollDueDomains();
+                }
+                Thread.sleep(POLL_TICK_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Errore nel polling dei domini: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Verifica, a ogni ciclo, che il job non sia in esecuzione e che il nodo detenga il lock dell'acquisizione
+     * continua: altrimenti i tre stadi vengono sospesi e i flussi accodati scartati (restano in FR_TEMP).
+     * Con il job in esecuzione il lock viene rilasciato, perche' il job possa prenderlo. Il lock viene
+     * rinnovato quando e' trascorso un terzo del lease, in un ciclo separato dal polling perche' un polling
+     * lungo non ne faccia scadere il lease.
+     *
+     * @return true se il nodo puo' acquisire i flussi
+     */
+    boolean checkLock() {
+        LocalDateTime now = LocalDateTime.now(clock);
+        String motivo = null;
+        if (jobConcurrencyService.getCurrentRunningJobExecution(Costanti.FDR_ACQUISITION_JOB_NAME) != null) {
+            motivo = "job " + Costanti.FDR_ACQUISITION_JOB_NAME + " in esecuzione";
+            if (lockRenewal != null) {
+                active = false;
+                clusterLockService.release(LOCK_NAME);
+                lockRenewal = null;
+            }
+        } else {
+            if (lockRenewal == null || !now.isBefore(lockRenewal)) {
+                Duration lease = lease();
+                lockRenewal = clusterLockService.tryAcquire(LOCK_NAME, lease) ? now.plus(lease.dividedBy(3)) : null;
+            }
+            if (lockRenewal == null) {
+                motivo = "lock " + LOCK_NAME + " di un altro nodo o del job";
+            }
+        }
+
+        if (motivo != null) {
+            active = false;
+            if (!paused) {
+                log.info("Nodo {}: acquisizione continua sospesa, {}", clusterLockService.getNodeId(), motivo);
+                paused = true;
+            }
+            dropQueuedFlows();
+            return false;
+        }
+        if (paused) {
+            log.info("Nodo {}: acquisizione continua ripresa", clusterLockService.getNodeId());
+            paused = false;
+            // Tutti i domini vengono interrogati al primo ciclo
+            nextPoll.clear();
+        }
+        active = true;
+        return true;
+    }
+
+    private Duration lease() {
+        return Duration.ofSeconds(Math.max(3, batchProperties.getContinuousLockLeaseSeconds()));
+    }
+
+    /**
+     * Scarta i flussi accodati e non ancora acquisiti o scritti, che restano in FR_TEMP.
+     */
+    private void dropQueuedFlows() {
+        List<FrTemp> queued = new ArrayList<>();
+        flowsQueue.drainTo(queued);
+        queued.forEach(frTemp -> inFlight.remove(key(frTemp)));
+        List<FdrCompleteData> acquired = new ArrayList<>();
+        writeQueue.drainTo(acquired);
+        acquired.forEach(data -> inFlight.values().remove(data.getFrTempId()));
+    }
+
+    /**
+     * Interroga i domini per cui e' trascorso l'intervallo di polling.
+     *
+     * @return il numero di domini interrogati
+     */
+    int pollDueDomains() throws InterruptedException {
+        LocalDateTime now = LocalDateTime.now(clock);
+        // Nessun dominio da interrogare: evita di rileggere l'elenco dei domini a ogni ciclo
+        if (!nextPoll.isEmpty() && nextPoll.values().stream().allMatch(due -> due.isAfter(now))) {
+            return 0;
+        }
+        fdrHeadersWriter.refreshAcquiredFlowFilter();
+        // Storico della cadenza adattiva aggiornato anche dal job di fallback
+        pollingPolicy.refresh();
+        int polled = 0;
+        for (DominioProcessingContext context : frWatermarkService.findDominiAbilitati()) {
+            String codDominio = context.getCodDominio();
+            LocalDateTime due = nextPoll.get(codDominio);
+            if (due != null && due.isAfter(now)) {
+                continue;
+            }
+            pollDominio(context);
+            // Con la cadenza adattiva i domini senza nuovi flussi vengono interrogati meno spesso
+            long interval = (long) batchProperties.getContinuousPollIntervalSeconds()
+                * pollingPolicy.getBackoff(codDominio, context.getLastPublicationDate());
+            nextPoll.put(codDominio, now.plusSeconds(interval));
+            polled++;
+        }
+        return polled;
+    }
+
+    private void pollDominio(DominioProcessingContext context) throws InterruptedException {
+        try {
+            FdrHeadersBatch headers = fdrHeadersProcessor.process(context);
+            if (headers != null) {
+                transactionTemplate.executeWithoutResult(status -> {
+                    if (clusterLockService.holdInTransaction(LOCK_NAME, lease())) {
+                        fdrHeadersWriter.write(new Chunk<>(List.of(headers)));
+                    } else {
+                        log.info("Dominio {}: lock {} non piu' del nodo, header non salvati", context.getCodDominio(), LOCK_NAME);
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            // Il dominio viene ritentato al prossimo polling
+            log.error("Errore nel recupero dei flussi del dominio {}: {}", context.getCodDominio(), e.getMessage(), e);
+        }
+        enqueue(context.getCodDominio());
+    }
+
+    /**
+     * Accoda i flussi del dominio presenti in FR_TEMP e non gia' in lavorazione: per ogni flusso solo la
+     * revisione piu' bassa. Si blocca se la coda e' piena.
+     */
+    private void enqueue(String codDominio) throws InterruptedException {
+        Set<String> seen = new HashSet<>();
+        List<FrTemp> flussi = new ArrayList<>(frTempRepository.findByCodDominioOrderByDataOraPubblicazioneAsc(codDominio));
+        flussi.sort((a, b) -> Long.compare(a.getRevisione(), b.getRevisione()));
+        int queued = 0;
+        for (FrTemp frTemp : flussi) {
+            String key = key(frTemp);
+            if (seen.add(key) && inFlight.putIfAbsent(key, frTemp.getId()) == null) {
+                if (!put(flowsQueue, frTemp)) {
+                    return;
+                }
+                queued++;
+            }
+        }
+        if (queued > 0) {
+            log.info("Dominio {}: accodati {} flussi per l'acquisizione", codDominio, queued);
+        }
+    }
+
+    private void fetchLoop() {
+        while (running) {
+            FrTemp frTemp = null;
+            try {
+                frTemp = flowsQueue.poll(QUEUE_POLL_MS, TimeUnit.MILLISECONDS);
+                if (frTemp == null) {
+                    continue;
+                }
+                if (!active) {
+                    // Acquisizione sospesa: il flusso resta in FR_TEMP
+                    inFlight.remove(key(frTemp));
+                    continue;
+                }
+                FdrCompleteData data = fdrFlowProcessor.process(frTemp);
+                if (data == null || !active) {
+                    inFlight.remove(key(frTemp));
+                } else {
+                    put(writeQueue, data);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                // Il flusso resta in FR_TEMP e viene riaccodato al prossimo polling del dominio
+                log.error("Errore nell'acquisizione del flusso {}: {}", frTemp.getCodFlusso(), e.getMessage(), e);
+                inFlight.remove(key(frTemp));
+            }
+        }
+    }
+
+    private void writeLoop() {
+        int chunkSize = Math.max(1, batchProperties.getPaymentsChunkSize());
+        while (running || !writeQueue.isEmpty()) {
+            try {
+                FdrCompleteData first = writeQueue.poll(QUEUE_POLL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                List<FdrCompleteData> chunk = new ArrayList<>(chunkSize);
+                chunk.add(first);
+                writeQueue.drainTo(chunk, chunkSize - 1);
+                write(chunk);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Scrive un blocco di flussi in una transazione, solo se il lock e' ancora del nodo; se la scrittura
+     * fallisce i flussi vengono scritti uno alla volta per isolare quello in errore, che resta in FR_TEMP.
+     */
+    void write(List<FdrCompleteData> chunk) {
+        try {
+            Boolean written = transactionTemplate.execute(status -> {
+                if (!clusterLockService.holdInTransaction(LOCK_NAME, lease())) {
+                    return false;
+                }
+                fdrPaymentsWriter.write(new Chunk<>(chunk));
+                return true;
+            });
+            if (!Boolean.TRUE.equals(written)) {
+                log.info("Lock {} non piu' del nodo, {} flussi acquisiti non scritti", LOCK_NAME, chunk.size());
+            }
+        } catch (RuntimeException e) {
+            if (chunk.size() == 1) {
+                log.error("Errore nella scrittura del flusso {}: {}", chunk.get(0).getCodFlusso(), e.getMessage(), e);
+            } else {
+                log.warn("Errore nella scrittura di {} flussi, scrittura singola: {}", chunk.size(), e.getMessage());
+                chunk.forEach(data -> write(List.of(data)));
+                return;
+            }
+        }
+        for (FdrCompleteData data : chunk) {
+            inFlight.values().remove(data.getFrTempId());
+        }
+    }
+
+    /**
+     * Accoda un elemento attendendo che si liberi spazio, finche' il servizio e' attivo.
+     *
+     * @return false se il servizio e' stato arrestato prima di poter accodare
+     */
+    private <T> boolean put(BlockingQueue<T> queue, T item) throws InterruptedException {
+        while (!queue.offer(item, QUEUE_POLL_MS, TimeUnit.MILLISECONDS)) {
+            if (!running) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String key(FrTemp frTemp) {
+        return frTemp.getCodDominio() + "|" + frTemp.getCodFlusso() + "|" + frTemp.getIdPsp();
+    }
+}
@@ -1,5 +1,7 @@
 package it.govpay.fdr.batch.dto;
 
+import it.govpay.common.entity.DominioEntity;
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 
@@ -10,8 +12,22 @@ import java.time.LocalDateTime;
  */
 @Data
 @Builder
+@AllArgsConstructor
 public class DominioProcessingContext {
     private Long dominioId;
     private String codDominio;
     private LocalDateTime lastPublicationDate;
+
+    /**
+     * Contesto da una riga [DominioEntity, data ultima pubblicazione] di
+     * {@code FdrDominioRepository.findDominioWithMaxDataOraPubblicazione()}.
+     */
+    public static DominioProcessingContext of(Object[] dominioInfos) {
+        DominioEntity dominio = (DominioEntity) dominioInfos[0];
+        return DominioProcessingContext.builder()
+            .dominioId(dominio.getId())
+            .codDominio(dominio.getCodDominio())
+            .lastPublicationDate((LocalDateTime) dominioInfos[1])
+            .build();
+    }
 }
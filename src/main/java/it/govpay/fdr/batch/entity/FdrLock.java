@@ -0,0 +1,31 @@
+package it.govpay.fdr.batch.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Lock applicativo condiviso tra i nodi, assegnato a un nodo fino alla scadenza del lease
+ */
+@Entity
+@Table(name = "FDR_LOCK")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class FdrLock {
+
+    @Id
+    @Column(name = "nome", length = 64)
+    private String nome;
+
+    @Column(name = "proprietario", nullable = false, length = 60)
+    private String proprietario;
+
+    @Column(name = "scadenza", nullable = false)
+    private LocalDateTime scadenza;
+}
@@ -0,0 +1,42 @@
+package it.govpay.fdr.batch.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Storico delle interrogazioni a pagoPA di ogni dominio, usato dalla cadenza adattiva del recupero degli header
+ */
+@Entity
+@Table(name = "FR_POLLING")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class FrPolling {
+
+    @Id
+    @Column(name = "cod_dominio", length = 35)
+    private String codDominio;
+
+    @Column(name = "interrogazioni", nullable = false)
+    private long interrogazioni;
+
+    @Column(name = "interrogazioni_con_flussi", nullable = false)
+    private long interrogazioniConFlussi;
+
+    /** Interrogazioni consecutive senza nuovi flussi */
+    @Column(name = "interrogazioni_vuote", nullable = false)
+    private int interrogazioniVuote;
+
+    /** Esecuzioni del job dall'ultima interrogazione del dominio */
+    @Column(name = "esecuzioni_saltate", nullable = false)
+    private int esecuzioniSaltate;
+
+    @Column(name = "data_ultima_interrogazione")
+    private LocalDateTime dataUltimaInterrogazione;
+}
@@ -77,4 +77,35 @@ public class FrTemp {
     @Column(name = "revisione", nullable = false)
     private Long revisione;
 
+    @Enumerated(EnumType.STRING)
+    @Column(name = "stato_coda", length = 20)
+    private StatoCoda statoCoda;
+
+    @Column(name = "lease_owner", length = 100)
+    private String leaseOwner;
+
+    @Column(name = "lease_scadenza")
+    private LocalDateTime leaseScadenza;
+
+    @Column(name = "tentativi")
+    private Integer tentativi;
+
+    /** Hash non negativo di codFlusso, per selezionare nelle query le porzioni dei domini divisi tra piu' partizioni */
+    @Column(name = "bucket_flusso")
+    private Integer bucketFlusso;
+
+    @PrePersist
+    void calcolaBucketFlusso() {
+        if (bucketFlusso == null && codFlusso != null) {
+            bucketFlusso = calcolaBucket(codFlusso);
+        }
+    }
+
+    /**
+     * Valore di bucket_flusso per il flusso indicato.
+     */
+    public static int calcolaBucket(String codFlusso) {
+        return codFlusso.hashCode() & Integer.MAX_VALUE;
+    }
+
 }
@@ -0,0 +1,34 @@
+package it.govpay.fdr.batch.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Data di pubblicazione dell'ultimo flusso acquisito per ogni dominio, aggiornata alla scrittura dei flussi
+ */
+@Entity
+@Table(name = "FR_WATERMARK")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class FrWatermark {
+
+    @Id
+    @Column(name = "id_dominio")
+    private Long idDominio;
+
+    @Column(name = "cod_dominio", nullable = false, length = 35)
+    private String codDominio;
+
+    @Column(name = "data_ora_pubblicazione")
+    private LocalDateTime dataOraPubblicazione;
+
+    @Column(name = "data_aggiornamento")
+    private LocalDateTime dataAggiornamento;
+}
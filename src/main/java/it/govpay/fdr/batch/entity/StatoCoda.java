@@ -0,0 +1,19 @@
+package it.govpay.fdr.batch.entity;
+
+/**
+ * Stato di un flusso di FR_TEMP nella coda di lavoro dell'acquisizione cooperativa.
+ * Un flusso senza stato non e' ancora stato pubblicato (Step 2 in corso); i flussi
+ * acquisiti vengono rimossi da FR_TEMP.
+ */
+public enum StatoCoda {
+
+    /**
+     * Flusso pubblicato, in attesa di essere acquisito da un nodo
+     */
+    DA_ELABORARE,
+
+    /**
+     * Flusso non acquisito dopo il numero massimo di tentativi
+     */
+    FALLITO;
+}
@@ -58,7 +58,7 @@ public class GdeService extends AbstractGdeService {
     private final ConcurrentHashMap<String, DomainInfo> domainInfoCache = new ConcurrentHashMap<>();
 
     public GdeService(ObjectMapper objectMapper,
-                      @Qualifier("asyncHttpExecutor") Executor asyncHttpExecutor,
+                      @Qualifier("gdeExecutor") Executor asyncHttpExecutor,
                       ConfigurazioneService configurazioneService,
                       DominioRepository dominioRepository,
                       EventoFdrMapper eventoFdrMapper) {
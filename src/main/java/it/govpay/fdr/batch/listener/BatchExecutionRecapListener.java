@@ -12,6 +12,7 @@ import org.springframework.batch.core.listener.JobExecutionListener;
 import org.springframework.batch.core.step.StepExecution;
 import org.springframework.stereotype.Component;
 
+import it.govpay.fdr.batch.tasklet.FdrWorkQueueTasklet;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -74,13 +75,39 @@ public class BatchExecutionRecapListener implements JobExecutionListener {
         stepExecutions.stream()
             .filter(se -> se.getStepName().equals("fdrMetadataAcquisitionStep"))
             .findFirst()
-            .ifPresent(se -> printPartitionedStepStats(se, METADATA));
+            .ifPresent(se -> printPartitionedStepStats(se, "3", METADATA, "fdrMetadataWorkerStep"));
 
         // Step 4: Payments Acquisition (partitioned)
         stepExecutions.stream()
             .filter(se -> se.getStepName().equals("fdrPaymentsAcquisitionStep"))
             .findFirst()
-            .ifPresent(se -> printPartitionedStepStats(se, "PAGAMENTI"));
+            .ifPresent(se -> printPartitionedStepStats(se, "4", "PAGAMENTI", "fdrPaymentsWorkerStep"));
+
+        // Step 3+4: Dettaglio e pagamenti in un unico step (partitioned, single-pass-acquisition)
+        stepExecutions.stream()
+            .filter(se -> se.getStepName().equals("fdrFlowAcquisitionStep"))
+            .findFirst()
+            .ifPresent(se -> printPartitionedStepStats(se, "3+4", "DETTAGLIO E PAGAMENTI", "fdrFlowWorkerStep"));
+
+        // Step 3+4: Acquisizione cooperativa tra piu' nodi (cooperative-acquisition)
+        stepExecutions.stream()
+            .filter(se -> se.getStepName().equals("fdrWorkQueueStep"))
+            .findFirst()
+            .ifPresent(this::printWorkQueueStats);
+    }
+
+    private void printWorkQueueStats(StepExecution stepExecution) {
+        log.info("--- STEP 3+4: ACQUISIZIONE COOPERATIVA ---");
+        log.info("Status: {}", stepExecution.getStatus());
+        log.info("Flussi pubblicati nella coda: {}",
+            stepExecution.getExecutionContext().getInt(FdrWorkQueueTasklet.PUBLISHED_COUNT_KEY, 0));
+        log.info("Flussi acquisiti da questo nodo: {}",
+            stepExecution.getExecutionContext().getInt(FdrWorkQueueTasklet.COMPLETED_COUNT_KEY, 0));
+        log.info("Flussi scartati: {}",
+            stepExecution.getExecutionContext().getLong(FdrWorkQueueTasklet.FAILED_COUNT_KEY, 0L));
+        long durationMs = Duration.between(stepExecution.getStartTime(), stepExecution.getEndTime()).toMillis();
+        log.info("Durata: {} ms", durationMs);
+        log.info("");
     }
 
     private void printCleanupStats(StepExecution stepExecution) {
@@ -112,16 +139,14 @@ public class BatchExecutionRecapListener implements JobExecutionListener {
         log.info("");
     }
 
-    private void printPartitionedStepStats(StepExecution masterStepExecution, String stepType) {
-        log.info("--- STEP {}: ACQUISIZIONE {} (PARTIZIONATO) ---",
-            stepType.equals(METADATA) ? "3" : "4", stepType);
+    private void printPartitionedStepStats(StepExecution masterStepExecution, String stepNumber, String stepType,
+            String workerStepName) {
+        log.info("--- STEP {}: ACQUISIZIONE {} (PARTIZIONATO) ---", stepNumber, stepType);
         log.info("Status master step: {}", masterStepExecution.getStatus());
 
         // Statistiche aggregate dalle partizioni
         Collection<StepExecution> partitionSteps = masterStepExecution.getJobExecution().getStepExecutions().stream()
-            .filter(se -> se.getStepName().startsWith(stepType.equals(METADATA)
-                ? "fdrMetadataWorkerStep"
-                : "fdrPaymentsWorkerStep"))
+            .filter(se -> se.getStepName().startsWith(workerStepName))
             .toList();
 
         if (partitionSteps.isEmpty()) {
@@ -194,6 +219,11 @@ public class BatchExecutionRecapListener implements JobExecutionListener {
     }
 
     private String extractCodDominio(StepExecution stepExecution) {
+        // Partizioni con piu' domini o con una porzione di dominio
+        if (stepExecution.getExecutionContext().containsKey("codDomini")) {
+            return stepExecution.getExecutionContext().getString("codDomini");
+        }
+
         // Prova a estrarre codDominio dall'execution context
         if (stepExecution.getExecutionContext().containsKey("codDominio")) {
             return stepExecution.getExecutionContext().getString("codDominio");
@@ -0,0 +1,96 @@
+package it.govpay.fdr.batch.listener;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.batch.core.job.JobExecution;
+import org.springframework.batch.core.listener.JobExecutionListener;
+import org.springframework.stereotype.Component;
+
+import it.govpay.fdr.batch.Costanti;
+import it.govpay.fdr.batch.config.BatchProperties;
+import it.govpay.fdr.batch.service.ClusterLockService;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Con l'acquisizione continua abilitata il job prende il lock {@value Costanti#CONTINUOUS_ACQUISITION_LOCK}
+ * prima di iniziare e lo rinnova fino al termine: l'acquisizione continua, su qualsiasi nodo, resta ferma
+ * mentre il job svuota e ricarica FR_TEMP.
+ * <p>
+ * Il nodo che esegue l'acquisizione continua rilascia il lock appena vede il job in esecuzione; se si e'
+ * fermato senza rilasciarlo, il lock scade dopo {@code continuous-lock-lease-seconds}. Se il lock non
+ * arriva entro due lease il job fallisce.
+ */
+@Component
+@Slf4j
+public class ContinuousAcquisitionLockListener implements JobExecutionListener {
+
+    private static final long ACQUIRE_RETRY_MS = 1000;
+
+    private final ClusterLockService clusterLockService;
+    private final BatchProperties batchProperties;
+    private final String owner;
+
+    private ScheduledExecutorService renewer;
+
+    public ContinuousAcquisitionLockListener(ClusterLockService clusterLockService, BatchProperties batchProperties) {
+        this.clusterLockService = clusterLockService;
+        this.batchProperties = batchProperties;
+        // Proprietario distinto dall'acquisizione continua dello stesso nodo
+        this.owner = clusterLockService.getNodeId() + ":job";
+    }
+
+    @Override
+    public void beforeJob(JobExecution jobExecution) {
+        if (!batchProperties.isContinuousAcquisition()) {
+            return;
+        }
+        Duration lease = lease();
+        long deadline = System.nanoTime() + lease.multipliedBy(2).toNanos();
+        log.info("{}: attesa del lock {}", owner, Costanti.CONTINUOUS_ACQUISITION_LOCK);
+        while (!clusterLockService.tryAcquire(Costanti.CONTINUOUS_ACQUISITION_LOCK, owner, lease)) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Lock " + Costanti.CONTINUOUS_ACQUISITION_LOCK
+                    + " non rilasciato dall'acquisizione continua entro " + lease.multipliedBy(2).toSeconds() + " s");
+            }
+            try {
+                Thread.sleep(ACQUIRE_RETRY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Attesa del lock " + Costanti.CONTINUOUS_ACQUISITION_LOCK + " interrotta", e);
+            }
+        }
+        log.info("{}: lock {} acquisito", owner, Costanti.CONTINUOUS_ACQUISITION_LOCK);
+
+        long renewalMs = lease.dividedBy(3).toMillis();
+        renewer = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("fdr-job-lock").factory());
+        renewer.scheduleAtFixedRate(() -> {
+            try {
+                if (!clusterLockService.tryAcquire(Costanti.CONTINUOUS_ACQUISITION_LOCK, owner, lease)) {
+                    log.warn("{}: lock {} non rinnovato", owner, Costanti.CONTINUOUS_ACQUISITION_LOCK);
+                }
+            } catch (RuntimeException e) {
+                log.warn("{}: errore nel rinnovo del lock {}: {}", owner, Costanti.CONTINUOUS_ACQUISITION_LOCK, e.getMessage());
+            }
+        }, renewalMs, renewalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void afterJob(JobExecution jobExecution) {
+        if (!batchProperties.isContinuousAcquisition()) {
+            return;
+        }
+        if (renewer != null) {
+            renewer.shutdownNow();
+            renewer = null;
+        }
+        clusterLockService.release(Costanti.CONTINUOUS_ACQUISITION_LOCK, owner);
+        log.info("{}: lock {} rilasciato", owner, Costanti.CONTINUOUS_ACQUISITION_LOCK);
+    }
+
+    private Duration lease() {
+        return Duration.ofSeconds(Math.max(3, batchProperties.getContinuousLockLeaseSeconds()));
+    }
+}
@@ -1,31 +1,73 @@
 package it.govpay.fdr.batch.partitioner;
 
+import it.govpay.fdr.batch.config.BatchProperties;
 import it.govpay.fdr.batch.repository.FrTempRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.batch.core.partition.Partitioner;
 import org.springframework.batch.infrastructure.item.ExecutionContext;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 
 /**
  * Partitioner che divide il lavoro per cod_dominio.
  * Ogni partizione processa tutti i flussi di un singolo ente creditore.
+ * <p>
+ * Con {@code govpay.batch.partitions-per-thread > 0} i domini vengono invece raggruppati in al massimo
+ * {@code gridSize * partitions-per-thread} partizioni, bilanciate sul lavoro stimato di ciascun dominio
+ * (numero di flussi e pagine di pagamenti dichiarate in FR_TEMP) con l'euristica LPT: i domini, dal
+ * piu' oneroso, vengono assegnati alla partizione con meno lavoro. I domini della partizione sono
+ * indicati nel contesto con la chiave {@code codDomini}, separati da virgola.
+ * <p>
+ * Con {@code govpay.batch.domain-split-threshold > 0} un dominio con piu' flussi della soglia viene diviso
+ * in piu' porzioni ({@link DominioSlice}), elaborate da partizioni diverse: le revisioni di uno stesso
+ * flusso restano sempre nella stessa porzione.
  */
 @Component
 @Slf4j
 public class DominioPartitioner implements Partitioner {
 
+    /** Separatore dei domini nella chiave {@code codDomini} del contesto */
+    private static final String SEPARATORE_DOMINI = ",";
+
     private final FrTempRepository frTempRepository;
+    private final BatchProperties batchProperties;
 
-    public DominioPartitioner(FrTempRepository frTempRepository) {
+    public DominioPartitioner(FrTempRepository frTempRepository, BatchProperties batchProperties) {
         this.frTempRepository = frTempRepository;
+        this.batchProperties = batchProperties;
+    }
+
+    /**
+     * Domini assegnati a una partizione, a partire dai valori del contesto.
+     *
+     * @param codDominio dominio della partizione (partizione per singolo dominio)
+     * @param codDomini domini della partizione separati da virgola (partizioni bilanciate), puo' essere null
+     * @return i domini da elaborare
+     */
+    public static List<String> getDomini(String codDominio, String codDomini) {
+        if (codDomini != null && !codDomini.isBlank()) {
+            return Arrays.asList(codDomini.split(SEPARATORE_DOMINI));
+        }
+        return List.of(codDominio);
     }
 
     @Override
     public Map<String, ExecutionContext> partition(int gridSize) {
+        int partitionsPerThread = batchProperties.getPartitionsPerThread();
+        if (partitionsPerThread > 0) {
+            return partitionByWorkload(Math.max(1, gridSize) * partitionsPerThread);
+        }
+        if (batchProperties.getDomainSplitThreshold() > 0) {
+            return partitionBySlice();
+        }
+
         // Recupera tutti i cod_dominio distinti presenti in FR_TEMP
         List<String> domini = frTempRepository.findDistinctCodDominio();
 
@@ -51,4 +93,154 @@ public class DominioPartitioner implements Partitioner {
         log.info("Partizioni create: {} (gridSize richiesto: {})", partitions.size(), gridSize);
         return partitions;
     }
+
+    /**
+     * Una partizione per dominio, con i domini oltre la soglia divisi in piu' partizioni.
+     */
+    private Map<String, ExecutionContext> partitionBySlice() {
+        List<DominioWorkload> workloads = loadWorkloads();
+
+        log.info("Creazione partizioni: trovati {} domini in FR_TEMP, {} porzioni", countDomini(workloads), workloads.size());
+
+        Map<String, ExecutionContext> partitions = new HashMap<>();
+        for (int i = 0; i < workloads.size(); i++) {
+            DominioSlice slice = workloads.get(i).slice();
+
+            ExecutionContext context = new ExecutionContext();
+            context.putString("codDominio", slice.codDominio());
+            if (slice.slices() > 1) {
+                context.putString("codDomini", slice.toString());
+            }
+            context.putInt("partitionNumber", i + 1);
+            context.putInt("totalPartitions", workloads.size());
+
+            partitions.put("partition-" + slice, context);
+
+            log.debug("Creata partizione #{} per dominio: {}", i + 1, slice);
+        }
+
+        log.info("Partizioni create: {}", partitions.size());
+        return partitions;
+    }
+
+    /**
+     * Raggruppa i domini in al massimo maxPartitions partizioni bilanciate sul lavoro stimato.
+     */
+    private Map<String, ExecutionContext> partitionByWorkload(int maxPartitions) {
+        List<DominioWorkload> workloads = loadWorkloads();
+
+        log.info("Creazione partizioni bilanciate: trovati {} domini in FR_TEMP ({} porzioni), massimo {} partizioni",
+            countDomini(workloads), workloads.size(), maxPartitions);
+
+        List<Bin> bins = pack(workloads, maxPartitions);
+
+        Map<String, ExecutionContext> partitions = new HashMap<>();
+        for (int i = 0; i < bins.size(); i++) {
+            Bin bin = bins.get(i);
+
+            ExecutionContext context = new ExecutionContext();
+            context.putString("codDomini", String.join(SEPARATORE_DOMINI, bin.domini));
+            context.putInt("partitionNumber", i + 1);
+            context.putInt("totalPartitions", bins.size());
+
+            partitions.put("partition-" + (i + 1), context);
+
+            log.debug("Creata partizione #{} con {} domini (lavoro stimato {}): {}",
+                i + 1, bin.domini.size(), bin.workload, bin.domini);
+        }
+
+        log.info("Partizioni create: {} per {} domini", partitions.size(), countDomini(workloads));
+        return partitions;
+    }
+
+    /**
+     * Lavoro stimato dei domini in FR_TEMP, con i domini oltre la soglia divisi in porzioni
+     * di lavoro equivalente.
+     */
+    private List<DominioWorkload> loadWorkloads() {
+        int threshold = batchProperties.getDomainSplitThreshold();
+        List<DominioWorkload> workloads = new ArrayList<>();
+        for (Object[] row : frTempRepository.findCodDominioWithWorkload()) {
+            String codDominio = (String) row[0];
+            long flussi = row[1] != null ? ((Number) row[1]).longValue() : 0;
+            long workload = workload(row[1], row[2]);
+            int slices = threshold > 0 && flussi > threshold ? (int) ((flussi + threshold - 1) / threshold) : 1;
+            if (slices > 1) {
+                log.info("Dominio {} con {} flussi diviso in {} partizioni", codDominio, flussi, slices);
+            }
+            for (int slice = 1; slice <= slices; slice++) {
+                workloads.add(new DominioWorkload(new DominioSlice(codDominio, slice, slices), workload / slices));
+            }
+        }
+        return workloads;
+    }
+
+    private static long countDomini(List<DominioWorkload> workloads) {
+        return workloads.stream().filter(workload -> workload.slice().slice() == 1).count();
+    }
+
+    /**
+     * Lavoro stimato di un dominio: una chiamata di dettaglio per flusso piu' le pagine di pagamenti
+     * (noto solo dopo Step 3, prima conta il solo numero di flussi).
+     */
+    private long workload(Object numeroFlussi, Object numeroPagamenti) {
+        long flussi = numeroFlussi != null ? ((Number) numeroFlussi).longValue() : 0;
+        long pagamenti = numeroPagamenti != null ? ((Number) numeroPagamenti).longValue() : 0;
+        long pageSize = Math.max(1, batchProperties.getPageSize());
+        return flussi + (pagamenti + pageSize - 1) / pageSize;
+    }
+
+    /**
+     * Bin packing LPT (longest processing time first): domini in ordine di lavoro decrescente,
+     * ciascuno assegnato alla partizione con meno lavoro. Le partizioni vuote non vengono create.
+     */
+    static List<Bin> pack(List<DominioWorkload> workloads, int maxPartitions) {
+        List<DominioWorkload> sorted = new ArrayList<>(workloads);
+        sorted.sort(Comparator.comparingLong(DominioWorkload::workload).reversed()
+            .thenComparing(workload -> workload.slice().toString()));
+
+        int binCount = Math.min(Math.max(1, maxPartitions), sorted.size());
+        List<Bin> bins = new ArrayList<>(binCount);
+        PriorityQueue<Bin> lightest = new PriorityQueue<>(
+            Comparator.comparingLong((Bin bin) -> bin.workload).thenComparingInt(bin -> bin.index));
+        for (int i = 0; i < binCount; i++) {
+            Bin bin = new Bin(i);
+            bins.add(bin);
+            lightest.add(bin);
+        }
+
+        for (DominioWorkload dominio : sorted) {
+            Bin bin = lightest.poll();
+            bin.domini.add(dominio.slice().toString());
+            bin.workload += dominio.workload();
+            lightest.add(bin);
+        }
+        return bins;
+    }
+
+    /**
+     * Lavoro stimato di un dominio o di una sua porzione.
+     */
+    record DominioWorkload(DominioSlice slice, long workload) {}
+
+    /**
+     * Partizione in costruzione: domini assegnati e lavoro complessivo.
+     */
+    static final class Bin {
+        private final int index;
+        private final List<String> domini = new ArrayList<>();
+        private long workload;
+
+        private Bin(int index) {
+            this.index = index;
+        }
+
+        List<String> getDomini() {
+            return domini;
+        }
+
+        long getWorkload() {
+            return workload;
+        }
+    }
 }
@@ -0,0 +1,74 @@
+package it.govpay.fdr.batch.partitioner;
+
+import it.govpay.fdr.batch.entity.FrTemp;
+
+/**
+ * Porzione dei flussi di un dominio assegnata a una partizione.
+ * <p>
+ * Un dominio con molti flussi puo' essere diviso in {@code slices} porzioni: ogni flusso appartiene
+ * alla porzione indicata dall'hash di codFlusso, quindi tutte le revisioni di uno stesso flusso (e
+ * dunque di una stessa chiave dominio/flusso/PSP) restano nella stessa partizione e
+ * vengono elaborate in ordine come avviene senza divisione. L'hash e' salvato in FR_TEMP
+ * ({@code bucket_flusso}), per cui le partizioni leggono solo i flussi della propria porzione.
+ * <p>
+ * Nel contesto della partizione la porzione e' rappresentata come {@code codDominio} (dominio intero)
+ * oppure {@code codDominio:slice/slices} con slice da 1 a slices.
+ *
+ * @param codDominio dominio
+ * @param slice porzione (da 1 a slices)
+ * @param slices numero di porzioni del dominio
+ */
+public record DominioSlice(String codDominio, int slice, int slices) {
+
+    private static final char SEPARATORE_DOMINIO = ':';
+    private static final char SEPARATORE_SLICE = '/';
+
+    public DominioSlice {
+        if (slices < 1 || slice < 1 || slice > slices) {
+            throw new IllegalArgumentException("Porzione non valida per il dominio " + codDominio + ": " + slice + "/" + slices);
+        }
+    }
+
+    /**
+     * Dominio intero, senza divisione.
+     */
+    public static DominioSlice of(String codDominio) {
+        return new DominioSlice(codDominio, 1, 1);
+    }
+
+    /**
+     * Legge una porzione nel formato {@code codDominio} o {@code codDominio:slice/slices}.
+     */
+    public static DominioSlice parse(String value) {
+        int sep = value.lastIndexOf(SEPARATORE_DOMINIO);
+        if (sep < 0) {
+            return of(value);
+        }
+        int slash = value.indexOf(SEPARATORE_SLICE, sep);
+        if (slash < 0) {
+            throw new IllegalArgumentException("Porzione di dominio non valida: " + value);
+        }
+        return new DominioSlice(value.substring(0, sep),
+            Integer.parseInt(value.substring(sep + 1, slash)),
+            Integer.parseInt(value.substring(slash + 1)));
+    }
+
+    /**
+     * Resto di {@code bucket_flusso} diviso {@code slices} dei flussi della porzione.
+     */
+    public int resto() {
+        return slice - 1;
+    }
+
+    /**
+     * Indica se il flusso appartiene alla porzione.
+     */
+    public boolean contains(FrTemp frTemp) {
+        return slices == 1 || FrTemp.calcolaBucket(frTemp.getCodFlusso()) % slices == resto();
+    }
+
+    @Override
+    public String toString() {
+        return slices == 1 ? codDominio : codDominio + SEPARATORE_DOMINIO + slice + SEPARATORE_SLICE + slices;
+    }
+}
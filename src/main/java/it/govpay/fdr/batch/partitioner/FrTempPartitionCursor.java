@@ -0,0 +1,169 @@
+package it.govpay.fdr.batch.partitioner;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.springframework.batch.infrastructure.item.ExecutionContext;
+import org.springframework.data.domain.PageRequest;
+
+import it.govpay.fdr.batch.entity.FrTemp;
+import it.govpay.fdr.batch.repository.FrTempRepository;
+
+/**
+ * Lettura a pagine dei flussi FR_TEMP dei domini di una partizione ({@code govpay.batch.fr-temp-reader-page-size}).
+ * <p>
+ * I domini vengono letti uno dopo l'altro con paginazione keyset, secondo l'{@link Ordine} del reader:
+ * <ul>
+ *   <li>{@link Ordine#ID}: in ordine di id, per Step 3, che valorizza data_ora_pubblicazione dei flussi letti
+ *       e non puo' quindi paginare su quella colonna;</li>
+ *   <li>{@link Ordine#PUBBLICAZIONE}: prima gli eventuali flussi senza data di pubblicazione in ordine di id,
+ *       poi gli altri in ordine di (data_ora_pubblicazione, id), come la lettura completa ordinata per data di
+ *       pubblicazione; per Step 4, che non modifica FR_TEMP.</li>
+ * </ul>
+ * Le pagine sono proiezioni non gestite dal persistence context,
+ * per cui in memoria resta al piu' una pagina per partizione. Per i domini divisi tra piu' partizioni le query
+ * leggono solo i flussi della porzione ({@link DominioSlice}).
+ * <p>
+ * La posizione raggiunta (dominio, ultima chiave letta) viene salvata nell'{@link ExecutionContext} della
+ * partizione a ogni commit, cosi' una partizione riavviata riprende dal flusso successivo.
+ */
+public class FrTempPartitionCursor {
+
+    /**
+     * Chiave della paginazione keyset.
+     */
+    public enum Ordine {
+        /** id, stabile anche se i flussi letti vengono aggiornati */
+        ID,
+        /** (data_ora_pubblicazione, id), da usare solo se la data dei flussi non cambia durante la lettura */
+        PUBBLICAZIONE
+    }
+
+    static final String KEY_DOMINIO = "dominioIndex";
+    static final String KEY_SENZA_PUBBLICAZIONE = "senzaPubblicazioneLetti";
+    static final String KEY_LAST_DATA = "lastDataOraPubblicazione";
+    static final String KEY_LAST_ID = "lastId";
+
+    private final FrTempRepository frTempRepository;
+    private final List<DominioSlice> domini;
+    private final int pageSize;
+    private final Ordine ordine;
+    private final String prefix;
+
+    private int dominioIndex;
+    /** true quando sono stati letti i flussi del dominio senza data di pubblicazione */
+    private boolean senzaPubblicazioneLetti;
+    private LocalDateTime lastData;
+    private Long lastId;
+    private Iterator<FrTemp> page = Collections.emptyIterator();
+    private boolean lastPage;
+
+    /**
+     * @param ordine chiave della paginazione
+     * @param prefix prefisso delle chiavi salvate nell'ExecutionContext
+     */
+    public FrTempPartitionCursor(FrTempRepository frTempRepository, List<String> domini, int pageSize, Ordine ordine,
+            String prefix) {
+        this.frTempRepository = frTempRepository;
+        this.domini = domini.stream().map(DominioSlice::parse).toList();
+        this.pageSize = Math.max(1, pageSize);
+        this.ordine = ordine;
+        this.prefix = prefix + ".";
+    }
+
+    /**
+     * Lettura completa, senza paginazione, dei flussi di una porzione di dominio ordinati per data di pubblicazione.
+     */
+    public static List<FrTemp> findAll(FrTempRepository frTempRepository, DominioSlice slice) {
+        if (slice.slices() == 1) {
+            return frTempRepository.findByCodDominioOrderByDataOraPubblicazioneAsc(slice.codDominio());
+        }
+        return frTempRepository.findSliceOrderByDataOraPubblicazioneAsc(slice.codDominio(), slice.slices(), slice.resto());
+    }
+
+    /**
+     * Riprende dalla posizione salvata nel contesto, se presente.
+     */
+    public void open(ExecutionContext executionContext) {
+        if (executionContext.containsKey(prefix + KEY_DOMINIO)) {
+            dominioIndex = executionContext.getInt(prefix + KEY_DOMINIO);
+            senzaPubblicazioneLetti = executionContext.containsKey(prefix + KEY_SENZA_PUBBLICAZIONE)
+                && Boolean.parseBoolean(executionContext.getString(prefix + KEY_SENZA_PUBBLICAZIONE));
+            String data = executionContext.getString(prefix + KEY_LAST_DATA, null);
+            lastData = data != null ? LocalDateTime.parse(data) : null;
+            lastId = executionContext.containsKey(prefix + KEY_LAST_ID) ? executionContext.getLong(prefix + KEY_LAST_ID) : null;
+        }
+        page = Collections.emptyIterator();
+        lastPage = false;
+    }
+
+    /**
+     * Salva nel contesto la chiave dell'ultimo flusso restituito.
+     */
+    public void update(ExecutionContext executionContext) {
+        executionContext.putInt(prefix + KEY_DOMINIO, dominioIndex);
+        executionContext.putString(prefix + KEY_SENZA_PUBBLICAZIONE, Boolean.toString(senzaPubblicazioneLetti));
+        if (lastData != null) {
+            executionContext.putString(prefix + KEY_LAST_DATA, lastData.toString());
+        } else {
+            executionContext.remove(prefix + KEY_LAST_DATA);
+        }
+        if (lastId != null) {
+            executionContext.putLong(prefix + KEY_LAST_ID, lastId);
+        } else {
+            executionContext.remove(prefix + KEY_LAST_ID);
+        }
+    }
+
+    /**
+     * @return il prossimo flusso della partizione, null a fine lettura
+     */
+    public FrTemp next() {
+        while (dominioIndex < domini.size()) {
+            DominioSlice slice = domini.get(dominioIndex);
+            if (page.hasNext()) {
+                FrTemp frTemp = page.next();
+                lastId = frTemp.getId();
+                lastData = frTemp.getDataOraPubblicazione();
+                return frTemp;
+            } else if (!lastPage) {
+                List<FrTemp> rows = fetch(slice);
+                lastPage = rows.size() < pageSize;
+                page = rows.iterator();
+            } else if (ordine == Ordine.PUBBLICAZIONE && !senzaPubblicazioneLetti) {
+                senzaPubblicazioneLetti = true;
+                resetKey();
+            } else {
+                dominioIndex++;
+                senzaPubblicazioneLetti = false;
+                resetKey();
+            }
+        }
+        return null;
+    }
+
+    private List<FrTemp> fetch(DominioSlice slice) {
+        PageRequest pageRequest = PageRequest.of(0, pageSize);
+        String codDominio = slice.codDominio();
+        if (ordine == Ordine.ID) {
+            return frTempRepository.findPageById(codDominio, slice.slices(), slice.resto(),
+                lastId != null ? lastId : 0L, pageRequest);
+        }
+        if (!senzaPubblicazioneLetti) {
+            return frTempRepository.findPageSenzaPubblicazione(codDominio, slice.slices(), slice.resto(),
+                lastId != null ? lastId : 0L, pageRequest);
+        }
+        if (lastData == null) {
+            return frTempRepository.findFirstPage(codDominio, slice.slices(), slice.resto(), pageRequest);
+        }
+        return frTempRepository.findPageAfter(codDominio, slice.slices(), slice.resto(), lastData, lastId, pageRequest);
+    }
+
+    private void resetKey() {
+        lastData = null;
+        lastId = null;
+        lastPage = false;
+    }
+}
@@ -0,0 +1,138 @@
+package it.govpay.fdr.batch.processor;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.springframework.batch.infrastructure.item.ItemProcessor;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Processor che memorizza i risultati del processor delegato finche' la transazione del chunk non
+ * viene confermata.
+ * <p>
+ * In uno step fault-tolerant un errore in elaborazione o in scrittura provoca il rollback del chunk
+ * e una nuova elaborazione di tutti i suoi item: senza memo ogni flusso del chunk verrebbe scaricato
+ * di nuovo da pagoPA. Con il memo, un item gia' elaborato con successo restituisce il risultato
+ * precedente. Le voci del chunk vengono rimosse al commit, mentre dopo un rollback restano disponibili
+ * per il nuovo tentativo; oltre {@code maxSize} voci vengono scartate le meno recenti.
+ * <p>
+ * Va usato con un'istanza per esecuzione di step (bean {@code @StepScope}).
+ *
+ * @param <I> tipo dell'item letto
+ * @param <K> tipo della chiave dell'item
+ * @param <O> tipo dell'item prodotto dal processor delegato
+ */
+@Slf4j
+public class MemoizingItemProcessor<I, K, O> implements ItemProcessor<I, O> {
+
+	private final ItemProcessor<I, O> delegate;
+	private final Function<I, K> keyExtractor;
+	private final Predicate<O> reusable;
+	private final int maxSize;
+	private final Map<K, O> memo;
+
+	/**
+	 * @param delegate processor da memorizzare
+	 * @param keyExtractor chiave univoca dell'item (es. id di FR_TEMP)
+	 * @param maxSize numero massimo di risultati memorizzati, 0 disabilita il memo
+	 */
+	public MemoizingItemProcessor(ItemProcessor<I, O> delegate, Function<I, K> keyExtractor, int maxSize) {
+		this(delegate, keyExtractor, maxSize, result -> true);
+	}
+
+	/**
+	 * @param delegate processor da memorizzare
+	 * @param keyExtractor chiave univoca dell'item (es. id di FR_TEMP)
+	 * @param maxSize numero massimo di risultati memorizzati, 0 disabilita il memo
+	 * @param reusable indica se un risultato memorizzato puo' essere restituito di nuovo
+	 *                 (es. un {@code Future} non fallito)
+	 */
+	public MemoizingItemProcessor(ItemProcessor<I, O> delegate, Function<I, K> keyExtractor, int maxSize,
+			Predicate<O> reusable) {
+		this.delegate = delegate;
+		this.keyExtractor = keyExtractor;
+		this.reusable = reusable;
+		this.maxSize = maxSize;
+		this.memo = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, O> eldest) {
+				return size() > MemoizingItemProcessor.this.maxSize;
+			}
+		};
+	}
+
+	@Override
+	public O process(I item) throws Exception {
+		K key = maxSize > 0 ? keyExtractor.apply(item) : null;
+		if (key == null) {
+			return delegate.process(item);
+		}
+
+		O cached;
+		synchronized (memo) {
+			cached = memo.get(key);
+		}
+		if (cached != null && reusable.test(cached)) {
+			log.debug("Item {} gia' elaborato in un tentativo precedente del chunk, riuso il risultato", key);
+			evictOnCommit(key);
+			return cached;
+		}
+
+		O result = delegate.process(item);
+		synchronized (memo) {
+			if (result != null) {
+				memo.put(key, result);
+			} else {
+				memo.remove(key);
+			}
+		}
+		if (result != null) {
+			evictOnCommit(key);
+		}
+		return result;
+	}
+
+	/**
+	 * @return numero di risultati memorizzati
+	 */
+	public int size() {
+		synchronized (memo) {
+			return memo.size();
+		}
+	}
+
+	/**
+	 * Registra la chiave tra quelle da rimuovere al commit della transazione corrente.
+	 */
+	private void evictOnCommit(K key) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			return;
+		}
+		@SuppressWarnings("unchecked")
+		Set<K> chunkKeys = (Set<K>) TransactionSynchronizationManager.getResource(this);
+		if (chunkKeys == null) {
+			Set<K> keys = new HashSet<>();
+			TransactionSynchronizationManager.bindResource(this, keys);
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCompletion(int status) {
+					TransactionSynchronizationManager.unbindResourceIfPossible(MemoizingItemProcessor.this);
+					if (status == STATUS_COMMITTED) {
+						synchronized (memo) {
+							memo.keySet().removeAll(keys);
+						}
+					}
+				}
+			});
+			chunkKeys = keys;
+		}
+		chunkKeys.add(key);
+	}
+}
@@ -0,0 +1,42 @@
+package it.govpay.fdr.batch.repository;
+
+import it.govpay.fdr.batch.entity.FdrLock;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+
+@Repository
+public interface FdrLockRepository extends JpaRepository<FdrLock, String> {
+
+    /**
+     * Assegna o rinnova il lock, solo se e' gia' del proprietario o se il lease e' scaduto
+     * @return il numero di record aggiornati
+     */
+    @Modifying
+    @Query("UPDATE FdrLock l SET l.proprietario = :proprietario, l.scadenza = :scadenza "
+        + "WHERE l.nome = :nome AND (l.proprietario = :proprietario OR l.scadenza <= :now)")
+    int acquire(@Param("nome") String nome, @Param("proprietario") String proprietario,
+        @Param("scadenza") LocalDateTime scadenza, @Param("now") LocalDateTime now);
+
+    /**
+     * Rinnova il lock solo se e' del proprietario e il lease non e' scaduto
+     * @return il numero di record aggiornati
+     */
+    @Modifying
+    @Query("UPDATE FdrLock l SET l.scadenza = :scadenza "
+        + "WHERE l.nome = :nome AND l.proprietario = :proprietario AND l.scadenza > :now")
+    int renew(@Param("nome") String nome, @Param("proprietario") String proprietario,
+        @Param("scadenza") LocalDateTime scadenza, @Param("now") LocalDateTime now);
+
+    /**
+     * Rilascia il lock facendone scadere il lease, solo se e' del proprietario
+     * @return il numero di record aggiornati
+     */
+    @Modifying
+    @Query("UPDATE FdrLock l SET l.scadenza = :now WHERE l.nome = :nome AND l.proprietario = :proprietario")
+    int release(@Param("nome") String nome, @Param("proprietario") String proprietario, @Param("now") LocalDateTime now);
+}
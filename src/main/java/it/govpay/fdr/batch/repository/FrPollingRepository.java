@@ -0,0 +1,42 @@
+package it.govpay.fdr.batch.repository;
+
+import it.govpay.fdr.batch.entity.FrPolling;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+
+@Repository
+public interface FrPollingRepository extends JpaRepository<FrPolling, String> {
+
+    /**
+     * Registra un'interrogazione che ha trovato nuovi flussi, azzerando le interrogazioni vuote consecutive
+     * @return il numero di record aggiornati
+     */
+    @Modifying
+    @Query("UPDATE FrPolling p SET p.interrogazioni = p.interrogazioni + 1, "
+        + "p.interrogazioniConFlussi = p.interrogazioniConFlussi + 1, p.interrogazioniVuote = 0, "
+        + "p.esecuzioniSaltate = 0, p.dataUltimaInterrogazione = :now WHERE p.codDominio = :codDominio")
+    int recordHit(@Param("codDominio") String codDominio, @Param("now") LocalDateTime now);
+
+    /**
+     * Registra un'interrogazione senza nuovi flussi
+     * @return il numero di record aggiornati
+     */
+    @Modifying
+    @Query("UPDATE FrPolling p SET p.interrogazioni = p.interrogazioni + 1, "
+        + "p.interrogazioniVuote = p.interrogazioniVuote + 1, "
+        + "p.esecuzioniSaltate = 0, p.dataUltimaInterrogazione = :now WHERE p.codDominio = :codDominio")
+    int recordEmpty(@Param("codDominio") String codDominio, @Param("now") LocalDateTime now);
+
+    /**
+     * Conta una nuova esecuzione del job per tutti i domini
+     * @return il numero di record aggiornati
+     */
+    @Modifying
+    @Query("UPDATE FrPolling p SET p.esecuzioniSaltate = p.esecuzioniSaltate + 1")
+    int incrementSkippedRuns();
+}
@@ -1,12 +1,16 @@
 package it.govpay.fdr.batch.repository;
 
 import it.govpay.fdr.batch.entity.Fr;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -36,4 +40,24 @@ public interface FrRepository extends JpaRepository<Fr, Long> {
     @Modifying(clearAutomatically = true)
     @Query("UPDATE Fr f SET f.obsoleto = true WHERE f.codDominio = :codDominio AND f.codFlusso = :codFlusso AND f.codPsp = :codPsp AND f.obsoleto = false")
     int marcaObsoleti(@Param("codDominio") String codDominio, @Param("codFlusso") String codFlusso, @Param("codPsp") String codPsp);
+
+    /**
+     * Data di pubblicazione dell'ultimo flusso acquisito per il dominio
+     */
+    @Query("SELECT MAX(f.dataOraPubblicazione) FROM Fr f WHERE f.dominio.id = :idDominio")
+    LocalDateTime findMaxDataOraPubblicazioneByDominio(@Param("idDominio") Long idDominio);
+
+    /**
+     * Chiavi [codFlusso, codPsp, revisione] dei flussi del dominio con i codici indicati
+     */
+    @Query("SELECT f.codFlusso, f.codPsp, f.revisione FROM Fr f WHERE f.codDominio = :codDominio AND f.codFlusso IN :codFlussi")
+    List<Object[]> findChiaviByCodDominioAndCodFlussoIn(@Param("codDominio") String codDominio,
+        @Param("codFlussi") Collection<String> codFlussi);
+
+    /**
+     * Chiavi [id, codDominio, codFlusso, codPsp, revisione] dei flussi con id successivo a quello indicato,
+     * in ordine di id (paginazione per chiave)
+     */
+    @Query("SELECT f.id, f.codDominio, f.codFlusso, f.codPsp, f.revisione FROM Fr f WHERE f.id > :lastId ORDER BY f.id")
+    List<Object[]> findChiaviAfterId(@Param("lastId") Long lastId, Pageable pageable);
 }
@@ -1,18 +1,35 @@
 package it.govpay.fdr.batch.repository;
 
 import it.govpay.fdr.batch.entity.FrTemp;
+import it.govpay.fdr.batch.entity.StatoCoda;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
 public interface FrTempRepository extends JpaRepository<FrTemp, Long> {
 
+    /**
+     * Proiezione di FR_TEMP su istanze non gestite dal persistence context
+     */
+    String FR_TEMP_PROJECTION = "SELECT new it.govpay.fdr.batch.entity.FrTemp(f.id, f.idPsp, f.codPsp, f.codDominio, "
+        + "f.codFlusso, f.iur, f.dataOraFlusso, f.dataRegolamento, f.dataOraAggiornamento, f.stato, f.numeroPagamenti, "
+        + "f.importoTotalePagamenti, f.codBicRiversamento, f.ragioneSocialePsp, f.ragioneSocialeDominio, "
+        + "f.dataOraPubblicazione, f.revisione, f.statoCoda, f.leaseOwner, f.leaseScadenza, f.tentativi, f.bucketFlusso) FROM FrTemp f ";
+
+    /**
+     * Flussi della porzione di dominio {@code :resto} su {@code :slices} ({@code DominioSlice})
+     */
+    String SLICE_PREDICATE = "AND (:slices = 1 OR MOD(f.bucketFlusso, :slices) = :resto) ";
+
     /**
      * Delete all records from FR_TEMP
      */
@@ -20,6 +37,37 @@ public interface FrTempRepository extends JpaRepository<FrTemp, Long> {
     @Query("DELETE FROM FrTemp")
     void deleteAllRecords();
 
+    /**
+     * Elimina i flussi gia' salvati in FR
+     */
+    @Modifying
+    @Query("DELETE FROM FrTemp t WHERE EXISTS (SELECT f.id FROM Fr f WHERE f.codDominio = t.codDominio "
+        + "AND f.codFlusso = t.codFlusso AND f.codPsp = t.idPsp AND f.revisione = t.revisione)")
+    int deleteAcquiredInFr();
+
+    /**
+     * Elimina i flussi pubblicati prima della data indicata o senza data di pubblicazione
+     */
+    @Modifying
+    @Query("DELETE FROM FrTemp t WHERE t.dataOraPubblicazione < :limite OR t.dataOraPubblicazione IS NULL")
+    int deletePublishedBefore(@Param("limite") LocalDateTime limite);
+
+    /**
+     * Riporta i flussi ripresi allo stato di un flusso appena inserito: senza stato nella coda di lavoro,
+     * senza lease e senza tentativi
+     * @return il numero di record aggiornati
+     */
+    @Modifying
+    @Query("UPDATE FrTemp t SET t.statoCoda = NULL, t.leaseOwner = NULL, t.leaseScadenza = NULL, t.tentativi = NULL "
+        + "WHERE t.statoCoda IS NOT NULL OR t.leaseOwner IS NOT NULL OR t.leaseScadenza IS NOT NULL OR t.tentativi IS NOT NULL")
+    int resetWorkItems();
+
+    /**
+     * Numero di flussi con i metadati gia' acquisiti (Step 3)
+     */
+    @Query("SELECT COUNT(t) FROM FrTemp t WHERE t.codPsp IS NOT NULL")
+    long countWithMetadata();
+
     /**
      * Find unprocessed records ordered by publication date
      */
@@ -30,6 +78,44 @@ public interface FrTempRepository extends JpaRepository<FrTemp, Long> {
      */
     List<FrTemp> findByCodDominioOrderByDataOraPubblicazioneAsc(String codDominio);
 
+    /**
+     * Flussi di una porzione del dominio ordinati per data di pubblicazione
+     */
+    @Query("SELECT f FROM FrTemp f WHERE f.codDominio = :codDominio " + SLICE_PREDICATE + "ORDER BY f.dataOraPubblicazione")
+    List<FrTemp> findSliceOrderByDataOraPubblicazioneAsc(@Param("codDominio") String codDominio, @Param("slices") int slices,
+        @Param("resto") int resto);
+
+    /**
+     * Pagina dei flussi della porzione di dominio successivi all'id indicato, in ordine di id
+     */
+    @Query(FR_TEMP_PROJECTION + "WHERE f.codDominio = :codDominio " + SLICE_PREDICATE + "AND f.id > :lastId ORDER BY f.id")
+    List<FrTemp> findPageById(@Param("codDominio") String codDominio, @Param("slices") int slices,
+        @Param("resto") int resto, @Param("lastId") Long lastId, Pageable pageable);
+
+    /**
+     * Pagina dei flussi della porzione di dominio senza data di pubblicazione successivi all'id indicato, in ordine di id
+     */
+    @Query(FR_TEMP_PROJECTION + "WHERE f.codDominio = :codDominio " + SLICE_PREDICATE
+        + "AND f.dataOraPubblicazione IS NULL AND f.id > :lastId ORDER BY f.id")
+    List<FrTemp> findPageSenzaPubblicazione(@Param("codDominio") String codDominio, @Param("slices") int slices,
+        @Param("resto") int resto, @Param("lastId") Long lastId, Pageable pageable);
+
+    /**
+     * Prima pagina dei flussi della porzione di dominio in ordine di (dataOraPubblicazione, id)
+     */
+    @Query(FR_TEMP_PROJECTION + "WHERE f.codDominio = :codDominio " + SLICE_PREDICATE
+        + "AND f.dataOraPubblicazione IS NOT NULL ORDER BY f.dataOraPubblicazione, f.id")
+    List<FrTemp> findFirstPage(@Param("codDominio") String codDominio, @Param("slices") int slices,
+        @Param("resto") int resto, Pageable pageable);
+
+    /**
+     * Pagina dei flussi della porzione di dominio successivi alla chiave (dataOraPubblicazione, id), in ordine di chiave
+     */
+    @Query(FR_TEMP_PROJECTION + "WHERE f.codDominio = :codDominio " + SLICE_PREDICATE + "AND (f.dataOraPubblicazione > :lastData "
+        + "OR (f.dataOraPubblicazione = :lastData AND f.id > :lastId)) ORDER BY f.dataOraPubblicazione, f.id")
+    List<FrTemp> findPageAfter(@Param("codDominio") String codDominio, @Param("slices") int slices, @Param("resto") int resto,
+        @Param("lastData") LocalDateTime lastData, @Param("lastId") Long lastId, Pageable pageable);
+
     /**
      * Check if FDR already exists in temporary table
      */
@@ -37,9 +123,123 @@ public interface FrTempRepository extends JpaRepository<FrTemp, Long> {
         String codDominio, String codFlusso, String idPsp, Long revision
     );
 
+    /**
+     * Chiavi [codFlusso, idPsp, revisione] dei flussi del dominio con i codici indicati
+     */
+    @Query("SELECT t.codFlusso, t.idPsp, t.revisione FROM FrTemp t WHERE t.codDominio = :codDominio AND t.codFlusso IN :codFlussi")
+    List<Object[]> findChiaviByCodDominioAndCodFlussoIn(@Param("codDominio") String codDominio,
+        @Param("codFlussi") Collection<String> codFlussi);
+
     /**
      * Find all distinct cod_dominio in FR_TEMP table (for partitioning)
      */
     @Query("SELECT DISTINCT f.codDominio FROM FrTemp f ORDER BY f.codDominio")
     List<String> findDistinctCodDominio();
+
+    /**
+     * Find cod_dominio in FR_TEMP with flow count and declared payments (for balanced partitioning).
+     * Each row contains [codDominio, count, sum(numeroPagamenti)]; the sum is null before Step 3.
+     */
+    @Query("SELECT f.codDominio, COUNT(f), SUM(f.numeroPagamenti) FROM FrTemp f GROUP BY f.codDominio ORDER BY f.codDominio")
+    List<Object[]> findCodDominioWithWorkload();
+
+    /**
+     * Publish the flows written by Step 2 as work items of the cooperative acquisition queue
+     */
+    @Modifying
+    @Query("UPDATE FrTemp f SET f.statoCoda = :stato WHERE f.statoCoda IS NULL")
+    int publishWorkItems(@Param("stato") StatoCoda stato);
+
+    /**
+     * Find the flow keys [codDominio, codFlusso, idPsp] with available work items, oldest publication first.
+     * A work item is available when it has no lease expiry or the expiry is past: an expired lease of a stopped
+     * node, or the end of the retry delay after a failure (lease expiry without owner)
+     */
+    @Query("SELECT f.codDominio, f.codFlusso, f.idPsp FROM FrTemp f "
+        + "WHERE f.statoCoda = :stato AND (f.leaseScadenza IS NULL OR f.leaseScadenza < :now) "
+        + "GROUP BY f.codDominio, f.codFlusso, f.idPsp ORDER BY MIN(f.dataOraPubblicazione)")
+    List<Object[]> findClaimableKeys(@Param("stato") StatoCoda stato, @Param("now") LocalDateTime now, Pageable pageable);
+
+    /**
+     * Lease the available revisions of a flow key; the caller checks that no revision of the key was left out
+     */
+    @Modifying
+    @Query("UPDATE FrTemp f SET f.leaseOwner = :owner, f.leaseScadenza = :scadenza "
+        + "WHERE f.codDominio = :codDominio AND f.codFlusso = :codFlusso AND f.idPsp = :idPsp "
+        + "AND f.statoCoda = :stato AND (f.leaseScadenza IS NULL OR f.leaseScadenza < :now)")
+    int claimWorkItems(@Param("codDominio") String codDominio, @Param("codFlusso") String codFlusso,
+        @Param("idPsp") String idPsp, @Param("stato") StatoCoda stato, @Param("owner") String owner,
+        @Param("scadenza") LocalDateTime scadenza, @Param("now") LocalDateTime now);
+
+    /**
+     * Count the work items of a flow key in the given queue state
+     */
+    long countByCodDominioAndCodFlussoAndIdPspAndStatoCoda(String codDominio, String codFlusso, String idPsp,
+        StatoCoda statoCoda);
+
+    /**
+     * Release the lease on the work items of a flow key held by the owner
+     */
+    @Modifying
+    @Query("UPDATE FrTemp f SET f.leaseOwner = NULL, f.leaseScadenza = NULL "
+        + "WHERE f.codDominio = :codDominio AND f.codFlusso = :codFlusso AND f.idPsp = :idPsp AND f.leaseOwner = :owner")
+    int releaseKeyLease(@Param("codDominio") String codDominio, @Param("codFlusso") String codFlusso,
+        @Param("idPsp") String idPsp, @Param("owner") String owner);
+
+    /**
+     * Find the work items leased by an owner, revisions of the same flow in ascending order
+     */
+    @Query("SELECT f FROM FrTemp f WHERE f.leaseOwner = :owner "
+        + "ORDER BY f.codDominio, f.codFlusso, f.idPsp, f.revisione")
+    List<FrTemp> findByLeaseOwner(@Param("owner") String owner);
+
+    /**
+     * Extend the lease of a work item, only if still held by the owner
+     */
+    @Modifying
+    @Query("UPDATE FrTemp f SET f.leaseScadenza = :scadenza WHERE f.id = :id AND f.leaseOwner = :owner")
+    int renewLease(@Param("id") Long id, @Param("owner") String owner, @Param("scadenza") LocalDateTime scadenza);
+
+    /**
+     * Remove an acquired work item, only if still held by the owner
+     */
+    @Modifying
+    @Query("DELETE FROM FrTemp f WHERE f.id = :id AND f.leaseOwner = :owner")
+    int deleteLeased(@Param("id") Long id, @Param("owner") String owner);
+
+    /**
+     * Release the lease on work items held by the owner
+     */
+    @Modifying
+    @Query("UPDATE FrTemp f SET f.leaseOwner = NULL, f.leaseScadenza = NULL WHERE f.id IN :ids AND f.leaseOwner = :owner")
+    int releaseLease(@Param("ids") Collection<Long> ids, @Param("owner") String owner);
+
+    /**
+     * Record a failed attempt on a work item held by the owner
+     */
+    @Modifying
+    @Query("UPDATE FrTemp f SET f.tentativi = COALESCE(f.tentativi, 0) + 1 WHERE f.id = :id AND f.leaseOwner = :owner")
+    int recordFailedAttempt(@Param("id") Long id, @Param("owner") String owner);
+
+    /**
+     * Release the lease on all the work items of a flow key held by the owner, keeping them unavailable
+     * until the retry time
+     */
+    @Modifying
+    @Query("UPDATE FrTemp f SET f.leaseOwner = NULL, f.leaseScadenza = :retryAt "
+        + "WHERE f.codDominio = :codDominio AND f.codFlusso = :codFlusso AND f.idPsp = :idPsp AND f.leaseOwner = :owner")
+    int releaseKeyForRetry(@Param("codDominio") String codDominio, @Param("codFlusso") String codFlusso,
+        @Param("idPsp") String idPsp, @Param("owner") String owner, @Param("retryAt") LocalDateTime retryAt);
+
+    /**
+     * Move a work item to the given state once it reached the maximum number of attempts
+     */
+    @Modifying
+    @Query("UPDATE FrTemp f SET f.statoCoda = :stato WHERE f.id = :id AND f.tentativi >= :maxTentativi")
+    int updateStatoCodaIfExhausted(@Param("id") Long id, @Param("maxTentativi") int maxTentativi, @Param("stato") StatoCoda stato);
+
+    /**
+     * Count work items in the given queue state
+     */
+    long countByStatoCoda(StatoCoda statoCoda);
 }
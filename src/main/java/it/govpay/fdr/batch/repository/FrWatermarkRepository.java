@@ -0,0 +1,49 @@
+package it.govpay.fdr.batch.repository;
+
+import it.govpay.fdr.batch.dto.DominioProcessingContext;
+import it.govpay.fdr.batch.entity.FrWatermark;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface FrWatermarkRepository extends JpaRepository<FrWatermark, Long> {
+
+    /**
+     * Domini abilitati (scaricaFr=true) con la data dell'ultimo flusso acquisito, letta da FR_WATERMARK
+     * invece che dal MAX su FR.
+     */
+    @Query("SELECT new it.govpay.fdr.batch.dto.DominioProcessingContext(d.id, d.codDominio, w.dataOraPubblicazione) "
+        + "FROM DominioEntity d LEFT JOIN FrWatermark w ON w.idDominio = d.id WHERE d.scaricaFr = true")
+    List<DominioProcessingContext> findDominiAbilitati();
+
+    /**
+     * Domini abilitati senza riga in FR_WATERMARK: [id, codDominio]
+     */
+    @Query("SELECT d.id, d.codDominio FROM DominioEntity d WHERE d.scaricaFr = true "
+        + "AND NOT EXISTS (SELECT 1 FROM FrWatermark w WHERE w.idDominio = d.id)")
+    List<Object[]> findDominiWithoutWatermark();
+
+    /**
+     * Avanza la data dell'ultimo flusso acquisito, solo se successiva a quella registrata
+     * @return il numero di record aggiornati
+     */
+    @Modifying
+    @Query("UPDATE FrWatermark w SET w.dataOraPubblicazione = :dataOraPubblicazione, w.dataAggiornamento = :now "
+        + "WHERE w.idDominio = :idDominio AND (w.dataOraPubblicazione IS NULL OR w.dataOraPubblicazione < :dataOraPubblicazione)")
+    int advance(@Param("idDominio") Long idDominio, @Param("dataOraPubblicazione") LocalDateTime dataOraPubblicazione,
+        @Param("now") LocalDateTime now);
+
+    /**
+     * Confronto con FR per la verifica di consistenza: [idDominio, codDominio, watermark, MAX(dataOraPubblicazione) su FR]
+     */
+    @Query("SELECT w.idDominio, w.codDominio, w.dataOraPubblicazione, MAX(f.dataOraPubblicazione) "
+        + "FROM FrWatermark w LEFT JOIN Fr f ON f.dominio.id = w.idDominio "
+        + "GROUP BY w.idDominio, w.codDominio, w.dataOraPubblicazione")
+    List<Object[]> findWatermarksWithMaxDataOraPubblicazione();
+}
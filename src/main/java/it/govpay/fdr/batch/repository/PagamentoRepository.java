@@ -4,6 +4,7 @@ import it.govpay.fdr.batch.entity.Pagamento;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -29,4 +30,9 @@ public interface PagamentoRepository extends JpaRepository<Pagamento, Long> {
      */
     List<Pagamento> findAllByCodDominioAndIuvAndIurAndIndiceDati(String codDominio, String iuv, String iur, Long indiceDati);
 
+    /**
+     * Find payments by domain code and a set of IUVs (bulk lookup for a whole flow)
+     */
+    List<Pagamento> findAllByCodDominioAndIuvIn(String codDominio, Collection<String> iuvs);
+
 }
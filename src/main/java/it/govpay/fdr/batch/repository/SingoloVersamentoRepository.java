@@ -1,5 +1,7 @@
 package it.govpay.fdr.batch.repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 
 import org.springframework.data.jpa.repository.JpaRepository;
@@ -10,4 +12,6 @@ import it.govpay.fdr.batch.entity.SingoloVersamento;
 @Repository
 public interface SingoloVersamentoRepository extends JpaRepository<SingoloVersamento, Long> {
 	public Set<SingoloVersamento> findAllByVersamentoId(Long idVersamento);
+
+	public List<SingoloVersamento> findAllByVersamentoIdIn(Collection<Long> idVersamenti);
 }
@@ -1,9 +1,13 @@
 package it.govpay.fdr.batch.repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import it.govpay.fdr.batch.entity.Versamento;
@@ -21,4 +25,12 @@ public interface VersamentoRepository extends JpaRepository<Versamento, Long>, J
         return findOne(VersamentoSpecs.hasCodDominioAndIuv(codDominio, iuv));
     }
 
+    /**
+     * Find all Versamento of a domain referenced by the given IUVs, with the applicazione already fetched.
+     *
+     * Logic: dominio.codDominio = :codDominio AND (iuvVersamento IN :iuvs OR iuvPagamento IN :iuvs)
+     */
+    @Query("SELECT v FROM Versamento v JOIN FETCH v.applicazione WHERE v.dominio.codDominio = :codDominio AND (v.iuvVersamento IN :iuvs OR v.iuvPagamento IN :iuvs)")
+    List<Versamento> findAllByCodDominioAndIuvIn(@Param("codDominio") String codDominio, @Param("iuvs") Collection<String> iuvs);
+
 }
@@ -0,0 +1,253 @@
+package it.govpay.fdr.batch.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.govpay.fdr.batch.config.BatchProperties;
+import it.govpay.fdr.batch.repository.FrRepository;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Filtro di Bloom delle chiavi (dominio, flusso, PSP, revisione) dei flussi gia' acquisiti in FR, su un
+ * file mappato in memoria ({@code govpay.batch.acquired-filter-file}).
+ * <p>
+ * Step 2 consulta il filtro prima di cercare un header in FR: se il filtro esclude la chiave il flusso
+ * non e' sicuramente in FR e la query viene saltata, altrimenti si ricade sulla query esatta. Il filtro
+ * viene aggiornato da {@code FdrPaymentsWriter} dopo il commit di ogni flusso e, all'inizio di ogni
+ * Step 2, con i flussi di FR successivi all'ultimo id letto (anche quelli scritti da altri nodi). Gli id
+ * non sono assegnati in ordine di commit, per cui ogni aggiornamento rilegge anche gli ultimi
+ * {@code govpay.batch.acquired-filter-rescan-ids} id: una riga con id inferiore all'ultimo letto, resa
+ * visibile dopo la lettura precedente, non resta fuori dal filtro. Il file sopravvive ai riavvii: viene
+ * ricostruito da FR solo se manca o se cambiano i parametri di dimensionamento.
+ * <p>
+ * Formato del file: magic (int), versione (int), numero di bit (long), numero di hash (int), riservato
+ * (int), ultimo id di FR letto (long), poi i bit del filtro.
+ */
+@Component
+@Slf4j
+public class AcquiredFlowFilter implements DisposableBean {
+
+    static final String METRIC_LOOKUPS = "govpay.fdr.acquired.filter.lookups";
+    static final String METRIC_FALSE_POSITIVES = "govpay.fdr.acquired.filter.false.positives";
+    static final String METRIC_HIT_RATIO = "govpay.fdr.acquired.filter.hit.ratio";
+    static final String METRIC_FALSE_POSITIVE_RATIO = "govpay.fdr.acquired.filter.false.positive.ratio";
+
+    private static final int MAGIC = 0x46445246;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int OFFSET_NUM_BITS = 8;
+    private static final int OFFSET_NUM_HASHES = 16;
+    private static final int OFFSET_LAST_ID = 24;
+    private static final int SCAN_PAGE_SIZE = 10_000;
+
+    /** Accesso atomico ai long del file mappato */
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private final FrRepository frRepository;
+    private final BatchProperties batchProperties;
+    private final Path file;
+    private final Counter negativeCounter;
+    private final Counter positiveCounter;
+    private final Counter falsePositiveCounter;
+
+    private volatile MappedByteBuffer buffer;
+    private long numBits;
+    private int numHashes;
+
+    public AcquiredFlowFilter(FrRepository frRepository, BatchProperties batchProperties, MeterRegistry meterRegistry) {
+        this.frRepository = frRepository;
+        this.batchProperties = batchProperties;
+        String path = batchProperties.getAcquiredFilterFile();
+        this.file = path != null && !path.isBlank() ? Path.of(path) : null;
+
+        this.negativeCounter = Counter.builder(METRIC_LOOKUPS).description("Ricerche nel filtro dei flussi acquisiti")
+            .tag("outcome", "negative").register(meterRegistry);
+        this.positiveCounter = Counter.builder(METRIC_LOOKUPS).description("Ricerche nel filtro dei flussi acquisiti")
+            .tag("outcome", "positive").register(meterRegistry);
+        this.falsePositiveCounter = Counter.builder(METRIC_FALSE_POSITIVES)
+            .description("Flussi indicati dal filtro come acquisiti ma non presenti in FR").register(meterRegistry);
+        Gauge.builder(METRIC_HIT_RATIO, this, f -> ratio(f.negativeCounter.count(), f.negativeCounter.count() + f.positiveCounter.count()))
+            .description("Quota di ricerche risolte dal filtro senza query su FR").register(meterRegistry);
+        Gauge.builder(METRIC_FALSE_POSITIVE_RATIO, this, f -> ratio(f.falsePositiveCounter.count(), f.positiveCounter.count()))
+            .description("Quota di falsi positivi sulle ricerche positive del filtro").register(meterRegistry);
+    }
+
+    /**
+     * @return true se il filtro e' configurato
+     */
+    public boolean isEnabled() {
+        return file != null;
+    }
+
+    /**
+     * Apre il filtro (costruendolo da FR se necessario) e aggiunge i flussi di FR non ancora letti,
+     * rileggendo quelli nella finestra sotto l'ultimo id letto.
+     */
+    public synchronized void refresh() {
+        if (file == null) {
+            return;
+        }
+        if (buffer == null) {
+            open();
+        }
+        long lastId = buffer.getLong(OFFSET_LAST_ID);
+        // Le chiavi gia' presenti vengono aggiunte di nuovo senza effetti
+        long scanId = Math.max(0L, lastId - Math.max(0L, batchProperties.getAcquiredFilterRescanIds()));
+        long read = 0;
+        List<Object[]> rows;
+        do {
+            rows = frRepository.findChiaviAfterId(scanId, PageRequest.of(0, SCAN_PAGE_SIZE));
+            for (Object[] row : rows) {
+                add((String) row[1], (String) row[2], (String) row[3], (Long) row[4]);
+                scanId = (Long) row[0];
+            }
+            read += rows.size();
+            lastId = Math.max(lastId, scanId);
+            buffer.putLong(OFFSET_LAST_ID, lastId);
+        } while (rows.size() == SCAN_PAGE_SIZE);
+        if (read > 0) {
+            log.info("Filtro dei flussi acquisiti aggiornato con {} flussi di FR (ultimo id {})", read, lastId);
+        }
+    }
+
+    /**
+     * Indica se il flusso potrebbe essere gia' in FR.
+     *
+     * @return false se il flusso non e' sicuramente in FR, true se va verificato con la query esatta
+     *         (sempre true se il filtro non e' configurato o non ancora aperto)
+     */
+    public boolean mightContain(String codDominio, String codFlusso, String codPsp, Long revisione) {
+        MappedByteBuffer bits = buffer;
+        if (bits == null) {
+            return true;
+        }
+        long[] hashes = hashes(codDominio, codFlusso, codPsp, revisione);
+        for (int i = 0; i < numHashes; i++) {
+            long bit = bitIndex(hashes, i);
+            long word = (long) LONGS.getVolatile(bits, HEADER_SIZE + (int) (bit >>> 6) * Long.BYTES);
+            if ((word & (1L << bit)) == 0) {
+                negativeCounter.increment();
+                return false;
+            }
+        }
+        positiveCounter.increment();
+        return true;
+    }
+
+    /**
+     * Registra l'esito della query esatta dopo una risposta positiva del filtro.
+     *
+     * @param found true se il flusso era in FR
+     */
+    public void recordExactCheck(boolean found) {
+        if (!found && buffer != null) {
+            falsePositiveCounter.increment();
+        }
+    }
+
+    /**
+     * Aggiunge al filtro un flusso salvato in FR.
+     */
+    public void add(String codDominio, String codFlusso, String codPsp, Long revisione) {
+        MappedByteBuffer bits = buffer;
+        if (bits == null) {
+            return;
+        }
+        long[] hashes = hashes(codDominio, codFlusso, codPsp, revisione);
+        for (int i = 0; i < numHashes; i++) {
+            long bit = bitIndex(hashes, i);
+            LONGS.getAndBitwiseOr(bits, HEADER_SIZE + (int) (bit >>> 6) * Long.BYTES, 1L << bit);
+        }
+    }
+
+    @Override
+    public synchronized void destroy() {
+        if (buffer != null) {
+            buffer.force();
+        }
+    }
+
+    private void open() {
+        long expectedKeys = Math.max(1, batchProperties.getAcquiredFilterExpectedKeys());
+        double fpp = batchProperties.getAcquiredFilterFalsePositiveRate();
+        // Dimensionamento ottimo: m = -n ln(p) / ln(2)^2, k = m/n ln(2)
+        long bits = (long) Math.ceil(-expectedKeys * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        bits = Math.max(Long.SIZE, (bits + Long.SIZE - 1) / Long.SIZE * Long.SIZE);
+        int hashes = Math.max(1, (int) Math.round((double) bits / expectedKeys * Math.log(2)));
+        long size = HEADER_SIZE + bits / Byte.SIZE;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Filtro dei flussi acquisiti troppo grande (" + size + " byte): ridurre acquired-filter-expected-keys");
+        }
+
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            boolean reuse = Files.exists(file) && Files.size(file) == size;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                if (!reuse || mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION
+                        || mapped.getLong(OFFSET_NUM_BITS) != bits || mapped.getInt(OFFSET_NUM_HASHES) != hashes) {
+                    log.info("Costruzione del filtro dei flussi acquisiti in {} ({} bit, {} hash)", file, bits, hashes);
+                    for (int offset = HEADER_SIZE; offset < size; offset += Long.BYTES) {
+                        mapped.putLong(offset, 0L);
+                    }
+                    mapped.putInt(0, MAGIC);
+                    mapped.putInt(4, VERSION);
+                    mapped.putLong(OFFSET_NUM_BITS, bits);
+                    mapped.putInt(OFFSET_NUM_HASHES, hashes);
+                    mapped.putLong(OFFSET_LAST_ID, 0L);
+                } else {
+                    log.info("Filtro dei flussi acquisiti caricato da {} (ultimo id di FR {})", file, mapped.getLong(OFFSET_LAST_ID));
+                }
+                this.numBits = bits;
+                this.numHashes = hashes;
+                this.buffer = mapped;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossibile aprire il filtro dei flussi acquisiti " + file, e);
+        }
+    }
+
+    private long bitIndex(long[] hashes, int i) {
+        // Double hashing (Kirsch-Mitzenmacher): h1 + i * h2
+        return Math.floorMod(hashes[0] + i * hashes[1], numBits);
+    }
+
+    private static long[] hashes(String codDominio, String codFlusso, String codPsp, Long revisione) {
+        byte[] key = (codDominio + '|' + codFlusso + '|' + codPsp + '|' + revisione).getBytes(StandardCharsets.UTF_8);
+        // FNV-1a a 64 bit, seconda funzione derivata con il finalizzatore di SplitMix64
+        long h1 = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            h1 ^= b & 0xff;
+            h1 *= 0x100000001b3L;
+        }
+        long h2 = h1 ^ 0x9e3779b97f4a7c15L;
+        h2 = (h2 ^ (h2 >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h2 = (h2 ^ (h2 >>> 27)) * 0x94d049bb133111ebL;
+        h2 = h2 ^ (h2 >>> 31);
+        return new long[] { h1, h2 | 1 };
+    }
+
+    private static double ratio(double part, double total) {
+        return total == 0 ? 0 : part / total;
+    }
+}
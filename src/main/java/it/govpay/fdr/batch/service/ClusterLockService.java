@@ -0,0 +1,120 @@
+package it.govpay.fdr.batch.service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import it.govpay.fdr.batch.config.BatchProperties;
+import it.govpay.fdr.batch.entity.FdrLock;
+import it.govpay.fdr.batch.repository.FdrLockRepository;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Lock applicativi tra i nodi su FDR_LOCK, per le attivita' da eseguire su un solo nodo alla volta.
+ * <p>
+ * Un lock e' del nodo che lo ha acquisito fino alla scadenza del lease, che il nodo rinnova finche'
+ * l'attivita' e' in corso: se il nodo si ferma senza rilasciarlo, alla scadenza il lock passa a un altro
+ * nodo. Come per la coda di lavoro l'assegnazione avviene con un UPDATE condizionale, in una nuova transazione,
+ * e le scadenze sono calcolate con l'ora del database. Sullo stesso nodo attivita' diverse usano proprietari
+ * diversi ({@link #getNodeId()} seguito da un suffisso), cosi' si escludono a vicenda come su nodi diversi.
+ */
+@Component
+@Slf4j
+public class ClusterLockService {
+
+    private final FdrLockRepository fdrLockRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final DatabaseClock databaseClock;
+    private final String nodeId;
+
+    public ClusterLockService(FdrLockRepository fdrLockRepository, PlatformTransactionManager transactionManager,
+            BatchProperties batchProperties, DatabaseClock databaseClock) {
+        this.fdrLockRepository = fdrLockRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.databaseClock = databaseClock;
+        this.nodeId = FdrWorkQueue.resolveNodeId(batchProperties.getNodeId());
+    }
+
+    /**
+     * Acquisisce il lock per il nodo o ne rinnova il lease se e' gia' del nodo.
+     *
+     * @param nome nome del lock
+     * @param lease durata del lease
+     * @return true se il lock e' del nodo
+     */
+    public boolean tryAcquire(String nome, Duration lease) {
+        return tryAcquire(nome, nodeId, lease);
+    }
+
+    /**
+     * Acquisisce il lock o ne rinnova il lease se e' gia' del proprietario.
+     *
+     * @param nome nome del lock
+     * @param proprietario proprietario del lock
+     * @param lease durata del lease
+     * @return true se il lock e' del proprietario
+     */
+    public boolean tryAcquire(String nome, String proprietario, Duration lease) {
+        try {
+            return transactionTemplate.execute(status -> {
+                LocalDateTime now = databaseClock.now();
+                LocalDateTime scadenza = now.plus(lease);
+                if (fdrLockRepository.acquire(nome, proprietario, scadenza, now) > 0) {
+                    return true;
+                }
+                if (fdrLockRepository.existsById(nome)) {
+                    return false;
+                }
+                fdrLockRepository.saveAndFlush(FdrLock.builder().nome(nome).proprietario(proprietario).scadenza(scadenza).build());
+                log.info("{}: creato il lock {}", proprietario, nome);
+                return true;
+            });
+        } catch (DataAccessException e) {
+            // Lock creato nel frattempo da un altro nodo
+            log.debug("{}: lock {} non acquisito: {}", proprietario, nome, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Verifica nella transazione corrente che il lock sia ancora del nodo e ne rinnova il lease.
+     * La riga del lock resta bloccata fino al commit: nessun altro proprietario puo' acquisire il lock
+     * mentre la transazione e' aperta, quindi cio' che la transazione scrive e' coperto dal lock.
+     *
+     * @param nome nome del lock
+     * @param lease durata del lease
+     * @return true se il lock e' del nodo, false se e' scaduto o di un altro proprietario
+     */
+    public boolean holdInTransaction(String nome, Duration lease) {
+        LocalDateTime now = databaseClock.now();
+        return fdrLockRepository.renew(nome, nodeId, now.plus(lease), now) > 0;
+    }
+
+    /**
+     * Rilascia il lock, se e' del nodo.
+     */
+    public void release(String nome) {
+        release(nome, nodeId);
+    }
+
+    /**
+     * Rilascia il lock, se e' del proprietario.
+     */
+    public void release(String nome, String proprietario) {
+        transactionTemplate.executeWithoutResult(status ->
+            fdrLockRepository.release(nome, proprietario, databaseClock.now()));
+    }
+
+    /**
+     * Identificativo del nodo proprietario dei lock.
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+}
@@ -0,0 +1,92 @@
+package it.govpay.fdr.batch.service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
+
+/**
+ * Recupero concorrente delle pagine di un endpoint paginato pagoPA.
+ * <p>
+ * Noto il numero totale di pagine dalla prima risposta, le pagine successive sono indipendenti:
+ * vengono richieste in parallelo con al piu' {@code concurrency} chiamate in corso e consegnate
+ * al consumer nello stesso ordine della paginazione. In memoria restano al piu' {@code concurrency}
+ * pagine. Una pagina {@code null} (404, connessione chiusa, body vuoto) chiude la paginazione come
+ * nel recupero sequenziale: le pagine successive vengono scartate, anche se in errore.
+ * <p>
+ * Le pagine sono scaricate sull'executor {@code pageFetchExecutor}, limitato per tutto il nodo; le
+ * richieste non piu' necessarie vengono annullate interrompendo il thread che le sta scaricando.
+ */
+@Component
+class ConcurrentPageFetcher {
+
+	private final TaskExecutor executor;
+
+	ConcurrentPageFetcher(@Qualifier("pageFetchExecutor") TaskExecutor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Recupera le pagine da {@code firstPage} a {@code lastPage} comprese.
+	 *
+	 * @param firstPage prima pagina da richiedere
+	 * @param lastPage ultima pagina da richiedere
+	 * @param concurrency numero massimo di richieste contemporanee
+	 * @param pageFetcher recupero della singola pagina, null se la paginazione e' terminata
+	 * @param pageConsumer consumer delle pagine, invocato sul thread chiamante e in ordine di pagina
+	 * @throws RuntimeException la stessa eccezione sollevata dal recupero della prima pagina fallita
+	 */
+	<T> void fetchInOrder(long firstPage, long lastPage, int concurrency, LongFunction<T> pageFetcher, Consumer<T> pageConsumer) {
+		int maxInFlight = Math.max(1, concurrency);
+		Deque<FutureTask<T>> inFlight = new ArrayDeque<>(maxInFlight);
+		long nextPage = firstPage;
+		try {
+			while (nextPage <= lastPage && inFlight.size() < maxInFlight) {
+				inFlight.add(submit(nextPage++, pageFetcher));
+			}
+			while (!inFlight.isEmpty()) {
+				T page = join(inFlight.poll());
+				if (page == null) {
+					return;
+				}
+				pageConsumer.accept(page);
+				if (nextPage <= lastPage) {
+					inFlight.add(submit(nextPage++, pageFetcher));
+				}
+			}
+		} finally {
+			// Le richieste ancora in corso non servono piu' (fine paginazione o errore): a differenza di
+			// CompletableFuture, cancel(true) su un FutureTask interrompe il thread che sta scaricando
+			inFlight.forEach(future -> future.cancel(true));
+		}
+	}
+
+	private <T> FutureTask<T> submit(long page, LongFunction<T> pageFetcher) {
+		FutureTask<T> future = new FutureTask<>(() -> pageFetcher.apply(page));
+		executor.execute(future);
+		return future;
+	}
+
+	private static <T> T join(FutureTask<T> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RestClientException("Interrotto il recupero concorrente delle pagine", e);
+		} catch (ExecutionException | CancellationException e) {
+			Throwable cause = e.getCause() != null ? e.getCause() : e;
+			if (cause instanceof RuntimeException runtimeException) {
+				throw runtimeException;
+			}
+			throw new RestClientException("Fallito il recupero concorrente delle pagine: " + cause.getMessage(), cause);
+		}
+	}
+}
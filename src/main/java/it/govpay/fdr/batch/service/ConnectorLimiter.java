@@ -0,0 +1,320 @@
+package it.govpay.fdr.batch.service;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import it.govpay.fdr.batch.config.BatchProperties;
+import it.govpay.fdr.batch.config.BatchProperties.ConnectorLimits;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Limiti alle chiamate pagoPA per connettore FDR.
+ * <p>
+ * Piu' domini condividono lo stesso intermediario e quindi lo stesso connettore e la stessa quota
+ * di sottoscrizione pagoPA. Per ogni codice connettore vengono applicati:
+ * <ul>
+ *   <li>un bulkhead: numero massimo di chiamate in corso, indipendente dal numero di thread;</li>
+ *   <li>un token bucket: numero massimo di richieste al secondo, con raffica pari a un secondo;</li>
+ *   <li>la pausa indicata dall'header {@code Retry-After} delle risposte HTTP 429.</li>
+ * </ul>
+ * Su HTTP 429 i limiti configurati vengono dimezzati e poi riportati gradualmente al valore
+ * configurato a ogni chiamata completata. Attese, rifiuti e 429 sono esposti come metriche.
+ */
+@Component
+@Slf4j
+class ConnectorLimiter {
+
+	static final String METRIC_WAIT = "govpay.fdr.connector.wait";
+	static final String METRIC_REJECTED = "govpay.fdr.connector.rejected";
+	static final String METRIC_THROTTLED = "govpay.fdr.connector.throttled";
+	private static final String TAG_CONNECTOR = "connector";
+
+	/** Frazione minima del rate configurato a cui puo' scendere l'adattamento su HTTP 429 */
+	private static final double MIN_RATE_FACTOR = 0.1;
+
+	private final BatchProperties batchProperties;
+	private final MeterRegistry meterRegistry;
+	private final ConcurrentHashMap<String, ConnectorState> states = new ConcurrentHashMap<>();
+
+	ConnectorLimiter(BatchProperties batchProperties, MeterRegistry meterRegistry) {
+		this.batchProperties = batchProperties;
+		this.meterRegistry = meterRegistry;
+	}
+
+	/**
+	 * Esegue la chiamata nel rispetto dei limiti del connettore.
+	 *
+	 * @param codConnettore codice del connettore FDR
+	 * @param call la chiamata da eseguire
+	 * @return il risultato della chiamata
+	 * @throws RestClientException se l'attesa supera {@code connector-max-wait-ms} o viene interrotta
+	 */
+	<T> T call(String codConnettore, Supplier<T> call) {
+		ConnectorState state = states.computeIfAbsent(codConnettore, this::newState);
+
+		long start = System.nanoTime();
+		long maxWaitMs = batchProperties.getConnectorMaxWaitMs();
+		long deadline = maxWaitMs > 0 ? start + TimeUnit.MILLISECONDS.toNanos(maxWaitMs) : 0;
+		boolean acquired;
+		try {
+			acquired = state.acquire(deadline);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RestClientException("Interrotta l'attesa di una chiamata sul connettore " + codConnettore, e);
+		} finally {
+			state.waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+		if (!acquired) {
+			state.rejected.increment();
+			throw new RestClientException("Superata l'attesa massima di " + maxWaitMs + " ms per il connettore " + codConnettore);
+		}
+
+		try {
+			T result = call.get();
+			state.onSuccess();
+			return result;
+		} catch (HttpClientErrorException e) {
+			if (e.getStatusCode().value() == HttpStatus.TOO_MANY_REQUESTS.value()) {
+				long retryAfterNanos = retryAfterNanos(e);
+				state.throttled.increment();
+				state.onTooManyRequests(retryAfterNanos);
+				log.warn("HTTP 429 dal connettore {}: limiti ridotti (concorrenza={}, rate={}/s), Retry-After {} ms",
+					codConnettore, state.describeConcurrencyLimit(), state.describeRate(), TimeUnit.NANOSECONDS.toMillis(retryAfterNanos));
+			}
+			throw e;
+		} finally {
+			state.release();
+		}
+	}
+
+	private ConnectorState newState(String codConnettore) {
+		ConnectorLimits limits = batchProperties.getConnectors().get(codConnettore);
+		int maxConcurrentCalls = limits != null && limits.getMaxConcurrentCalls() != null
+			? limits.getMaxConcurrentCalls() : batchProperties.getMaxConcurrentCallsPerConnector();
+		double rateLimit = limits != null && limits.getRateLimit() != null
+			? limits.getRateLimit() : batchProperties.getRateLimitPerConnector();
+		log.debug("Limiti del connettore {}: concorrenza={}, rate={}/s", codConnettore, maxConcurrentCalls, rateLimit);
+
+		return new ConnectorState(maxConcurrentCalls, rateLimit,
+			Timer.builder(METRIC_WAIT).description("Attesa delle chiamate pagoPA per i limiti del connettore")
+				.tag(TAG_CONNECTOR, codConnettore).register(meterRegistry),
+			Counter.builder(METRIC_REJECTED).description("Chiamate pagoPA rifiutate per attesa eccessiva")
+				.tag(TAG_CONNECTOR, codConnettore).register(meterRegistry),
+			Counter.builder(METRIC_THROTTLED).description("Risposte HTTP 429 ricevute da pagoPA")
+				.tag(TAG_CONNECTOR, codConnettore).register(meterRegistry));
+	}
+
+	/**
+	 * Legge l'header Retry-After, espresso in secondi o come data HTTP.
+	 *
+	 * @return la pausa richiesta in nanosecondi, 0 se assente o non valida
+	 */
+	static long retryAfterNanos(HttpClientErrorException e) {
+		HttpHeaders headers = e.getResponseHeaders();
+		String value = headers != null ? headers.getFirst(HttpHeaders.RETRY_AFTER) : null;
+		if (value == null || value.isBlank()) {
+			return 0;
+		}
+		try {
+			return TimeUnit.SECONDS.toNanos(Math.max(0, Long.parseLong(value.trim())));
+		} catch (NumberFormatException nfe) {
+			try {
+				ZonedDateTime retryAt = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+				return Math.max(0, Duration.between(ZonedDateTime.now(retryAt.getZone()), retryAt).toNanos());
+			} catch (DateTimeParseException dtpe) {
+				log.debug("Header Retry-After non valido: {}", value);
+				return 0;
+			}
+		}
+	}
+
+	/**
+	 * Stato dei limiti di un connettore. Tutti i campi mutabili sono protetti da {@code lock}.
+	 */
+	private static final class ConnectorState {
+
+		private final int maxConcurrentCalls;
+		private final double rateLimit;
+		private final Timer waitTimer;
+		private final Counter rejected;
+		private final Counter throttled;
+
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition changed = lock.newCondition();
+
+		private int concurrencyLimit;
+		private int inFlight;
+		private double rate;
+		private double tokens;
+		private long lastRefill;
+		private boolean paused;
+		private long pausedUntil;
+
+		ConnectorState(int maxConcurrentCalls, double rateLimit, Timer waitTimer, Counter rejected, Counter throttled) {
+			this.maxConcurrentCalls = maxConcurrentCalls;
+			this.rateLimit = rateLimit;
+			this.waitTimer = waitTimer;
+			this.rejected = rejected;
+			this.throttled = throttled;
+			this.concurrencyLimit = maxConcurrentCalls;
+			this.rate = rateLimit;
+			this.tokens = bucketCapacity();
+			this.lastRefill = System.nanoTime();
+		}
+
+		/**
+		 * Attende la fine di un'eventuale pausa Retry-After, un posto nel bulkhead e un token.
+		 *
+		 * @param deadline istante limite (System.nanoTime), 0 per attendere senza limite
+		 * @return false se il limite di attesa e' stato superato
+		 */
+		boolean acquire(long deadline) throws InterruptedException {
+			long tokenWait;
+			lock.lock();
+			try {
+				while (true) {
+					long now = System.nanoTime();
+					long wait;
+					if (paused && pausedUntil - now > 0) {
+						wait = pausedUntil - now;
+					} else if (maxConcurrentCalls > 0 && inFlight >= concurrencyLimit) {
+						wait = Long.MAX_VALUE;
+					} else {
+						break;
+					}
+					if (deadline != 0) {
+						long remaining = deadline - now;
+						if (remaining <= 0) {
+							return false;
+						}
+						wait = Math.min(wait, remaining);
+					}
+					if (wait == Long.MAX_VALUE) {
+						changed.await();
+					} else {
+						changed.awaitNanos(wait);
+					}
+				}
+				paused = false;
+
+				long now = System.nanoTime();
+				tokenWait = reserveToken(now);
+				if (deadline != 0 && tokenWait > deadline - now) {
+					tokens += 1;
+					return false;
+				}
+				inFlight++;
+			} finally {
+				lock.unlock();
+			}
+
+			if (tokenWait > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(tokenWait);
+				} catch (InterruptedException e) {
+					release();
+					throw e;
+				}
+			}
+			return true;
+		}
+
+		void release() {
+			lock.lock();
+			try {
+				inFlight--;
+				changed.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Riporta gradualmente i limiti ridotti dopo un HTTP 429 verso il valore configurato.
+		 */
+		void onSuccess() {
+			lock.lock();
+			try {
+				if (maxConcurrentCalls > 0 && concurrencyLimit < maxConcurrentCalls) {
+					concurrencyLimit++;
+					changed.signalAll();
+				}
+				if (rateLimit > 0 && rate < rateLimit) {
+					rate = Math.min(rateLimit, rate + rateLimit * MIN_RATE_FACTOR);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Dimezza i limiti configurati e sospende le chiamate per la durata indicata da Retry-After.
+		 */
+		void onTooManyRequests(long retryAfterNanos) {
+			lock.lock();
+			try {
+				if (maxConcurrentCalls > 0) {
+					concurrencyLimit = Math.max(1, concurrencyLimit / 2);
+				}
+				if (rateLimit > 0) {
+					refill(System.nanoTime());
+					rate = Math.max(rateLimit * MIN_RATE_FACTOR, rate / 2);
+				}
+				if (retryAfterNanos > 0) {
+					long until = System.nanoTime() + retryAfterNanos;
+					if (!paused || until - pausedUntil > 0) {
+						pausedUntil = until;
+					}
+					paused = true;
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Prenota un token, anche in debito: restituisce l'attesa necessaria perche' sia disponibile.
+		 */
+		private long reserveToken(long now) {
+			if (rateLimit <= 0) {
+				return 0;
+			}
+			refill(now);
+			tokens -= 1;
+			return tokens >= 0 ? 0 : (long) (-tokens / rate * TimeUnit.SECONDS.toNanos(1));
+		}
+
+		private void refill(long now) {
+			tokens = Math.min(bucketCapacity(), tokens + (now - lastRefill) * rate / TimeUnit.SECONDS.toNanos(1));
+			lastRefill = now;
+		}
+
+		private double bucketCapacity() {
+			return Math.max(1, rateLimit);
+		}
+
+		String describeConcurrencyLimit() {
+			return maxConcurrentCalls > 0 ? String.valueOf(concurrencyLimit) : "illimitata";
+		}
+
+		String describeRate() {
+			return rateLimit > 0 ? String.format("%.2f", rate) : "illimitato";
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package it.govpay.fdr.batch.service;
+
+import java.time.LocalDateTime;
+
+import org.springframework.stereotype.Component;
+
+import jakarta.persistence.EntityManager;
+
+/**
+ * Ora corrente letta dal database, usata per i lease condivisi tra i nodi (coda di lavoro e lock):
+ * scadenze calcolate e confrontate con lo stesso orologio non dipendono dall'allineamento degli
+ * orologi dei nodi.
+ */
+@Component
+public class DatabaseClock {
+
+    private final EntityManager entityManager;
+
+    public DatabaseClock(EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
+    /**
+     * @return data e ora correnti del database
+     */
+    public LocalDateTime now() {
+        return entityManager.createQuery("SELECT LOCAL DATETIME", LocalDateTime.class).getSingleResult();
+    }
+}
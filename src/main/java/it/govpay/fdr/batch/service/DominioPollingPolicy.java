@@ -0,0 +1,234 @@
+package it.govpay.fdr.batch.service;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import it.govpay.fdr.batch.config.BatchProperties;
+import it.govpay.fdr.batch.entity.FrPolling;
+import it.govpay.fdr.batch.repository.FrPollingRepository;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Cadenza adattiva del recupero degli header per dominio ({@code govpay.batch.adaptive-polling=true}).
+ * <p>
+ * Per ogni dominio vengono registrate le interrogazioni a pagoPA e quelle che hanno trovato nuovi flussi,
+ * cioe' flussi non ancora presenti in FR o in FR_TEMP: l'elenco restituito da pagoPA comprende anche flussi
+ * gia' acquisiti, che non contano come attivita' del dominio.
+ * Un dominio che ha pubblicato nelle ultime {@code adaptive-polling-active-hours} ore o che ha trovato
+ * flussi all'ultima interrogazione viene interrogato a ogni esecuzione; dopo ogni interrogazione senza
+ * flussi l'intervallo raddoppia, fino a {@code adaptive-polling-max-backoff} esecuzioni. Ogni
+ * {@code adaptive-polling-full-sweep-runs} esecuzioni vengono comunque interrogati tutti i domini.
+ * <p>
+ * Con la cadenza adattiva lo storico e' salvato in FR_POLLING e riletto all'inizio di ogni esecuzione del
+ * job e a ogni ciclo dell'acquisizione continua: la cadenza di un dominio sopravvive ai riavvii, e' la
+ * stessa su tutti i nodi che eseguono il job a turno e viene condivisa tra acquisizione continua e job di
+ * fallback. Con un solo nodo sempre attivo il comportamento e' quello dello storico in memoria. Solo il
+ * conteggio delle esecuzioni per l'interrogazione completa resta in memoria del nodo.
+ * <p>
+ * L'esito di un'interrogazione fatta in una transazione viene registrato dopo il commit: se la transazione
+ * viene annullata gli header non sono stati salvati e l'interrogazione non conta.
+ */
+@Component
+@Slf4j
+public class DominioPollingPolicy {
+
+    private final FrPollingRepository frPollingRepository;
+    private final BatchProperties batchProperties;
+    private final TransactionTemplate transactionTemplate;
+    private final Clock clock;
+    private final Map<String, History> histories = new ConcurrentHashMap<>();
+    private final AtomicLong runs = new AtomicLong();
+
+    public DominioPollingPolicy(FrPollingRepository frPollingRepository, BatchProperties batchProperties,
+            PlatformTransactionManager transactionManager, Clock clock) {
+        this.frPollingRepository = frPollingRepository;
+        this.batchProperties = batchProperties;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.clock = clock;
+    }
+
+    public boolean isEnabled() {
+        return batchProperties.isAdaptivePolling();
+    }
+
+    /**
+     * Inizia una nuova esecuzione del recupero degli header: conta l'esecuzione per tutti i domini e
+     * rilegge lo storico da FR_POLLING.
+     *
+     * @return true se nell'esecuzione vanno interrogati tutti i domini
+     */
+    public boolean startRun() {
+        long run = runs.incrementAndGet();
+        if (!isEnabled()) {
+            return true;
+        }
+        histories.values().forEach(history -> {
+            synchronized (history) {
+                history.skippedRuns++;
+            }
+        });
+        transactionTemplate.executeWithoutResult(status -> frPollingRepository.incrementSkippedRuns());
+        refresh();
+        int fullSweepRuns = batchProperties.getAdaptivePollingFullSweepRuns();
+        return fullSweepRuns > 0 && run % fullSweepRuns == 0;
+    }
+
+    /**
+     * Rilegge da FR_POLLING lo storico registrato da tutti i nodi.
+     */
+    public void refresh() {
+        if (!isEnabled()) {
+            return;
+        }
+        for (FrPolling polling : frPollingRepository.findAll()) {
+            History history = histories.computeIfAbsent(polling.getCodDominio(), k -> new History());
+            synchronized (history) {
+                history.polls = polling.getInterrogazioni();
+                history.hits = polling.getInterrogazioniConFlussi();
+                history.emptyStreak = polling.getInterrogazioniVuote();
+                history.skippedRuns = polling.getEsecuzioniSaltate();
+            }
+        }
+    }
+
+    /**
+     * Indica se il dominio va interrogato nell'esecuzione corrente, cioe' se dall'ultima interrogazione
+     * sono trascorse almeno tante esecuzioni quanto il suo fattore di rinvio.
+     *
+     * @param codDominio codice del dominio
+     * @param lastPublicationDate data dell'ultimo flusso acquisito per il dominio, null se nessuno
+     */
+    public boolean isDue(String codDominio, LocalDateTime lastPublicationDate) {
+        int backoff = getBackoff(codDominio, lastPublicationDate);
+        if (backoff <= 1) {
+            return true;
+        }
+        History history = histories.get(codDominio);
+        synchronized (history) {
+            return history.skippedRuns >= backoff;
+        }
+    }
+
+    /**
+     * Fattore di rinvio del dominio: 1 se va interrogato a ogni esecuzione, altrimenti il numero di
+     * esecuzioni tra due interrogazioni.
+     */
+    public int getBackoff(String codDominio, LocalDateTime lastPublicationDate) {
+        if (!isEnabled()) {
+            return 1;
+        }
+        History history = histories.get(codDominio);
+        if (history == null || isActive(lastPublicationDate)) {
+            return 1;
+        }
+        synchronized (history) {
+            int maxBackoff = Math.max(1, batchProperties.getAdaptivePollingMaxBackoff());
+            int exponent = Math.min(history.emptyStreak, 30);
+            return (int) Math.min(1L << exponent, maxBackoff);
+        }
+    }
+
+    /**
+     * Registra l'esito di un'interrogazione del dominio, dopo il commit della transazione corrente se presente.
+     *
+     * @param found true se sono stati trovati flussi non ancora presenti in FR o in FR_TEMP
+     */
+    public void recordPoll(String codDominio, boolean found) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    record(codDominio, found);
+                }
+            });
+        } else {
+            record(codDominio, found);
+        }
+    }
+
+    /**
+     * Percentuale di interrogazioni del dominio che hanno trovato nuovi flussi, -1 se mai interrogato.
+     */
+    public double getHitRate(String codDominio) {
+        History history = histories.get(codDominio);
+        if (history == null) {
+            return -1;
+        }
+        synchronized (history) {
+            return history.polls == 0 ? -1 : 100.0 * history.hits / history.polls;
+        }
+    }
+
+    private void record(String codDominio, boolean found) {
+        History history = histories.computeIfAbsent(codDominio, k -> new History());
+        synchronized (history) {
+            history.polls++;
+            if (found) {
+                history.hits++;
+                history.emptyStreak = 0;
+            } else {
+                history.emptyStreak++;
+            }
+            history.skippedRuns = 0;
+        }
+        if (!isEnabled()) {
+            return;
+        }
+        try {
+            save(codDominio, found);
+        } catch (RuntimeException e) {
+            // Dopo il commit l'errore non deve far fallire il chunk: lo storico viene riletto alla prossima esecuzione
+            log.warn("Salvataggio in FR_POLLING dell'interrogazione del dominio {} non riuscito: {}", codDominio, e.getMessage(), e);
+        }
+    }
+
+    private void save(String codDominio, boolean found) {
+        LocalDateTime now = LocalDateTime.now(clock);
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                if (update(codDominio, found, now) == 0) {
+                    frPollingRepository.save(FrPolling.builder()
+                        .codDominio(codDominio)
+                        .interrogazioni(1)
+                        .interrogazioniConFlussi(found ? 1 : 0)
+                        .interrogazioniVuote(found ? 0 : 1)
+                        .esecuzioniSaltate(0)
+                        .dataUltimaInterrogazione(now)
+                        .build());
+                }
+            });
+        } catch (DataIntegrityViolationException e) {
+            // Riga inserita nel frattempo da un altro thread o nodo
+            transactionTemplate.executeWithoutResult(status -> update(codDominio, found, now));
+        }
+    }
+
+    private int update(String codDominio, boolean found, LocalDateTime now) {
+        return found ? frPollingRepository.recordHit(codDominio, now) : frPollingRepository.recordEmpty(codDominio, now);
+    }
+
+    private boolean isActive(LocalDateTime lastPublicationDate) {
+        int activeHours = batchProperties.getAdaptivePollingActiveHours();
+        return lastPublicationDate != null && activeHours > 0
+            && lastPublicationDate.isAfter(LocalDateTime.now(clock).minusHours(activeHours));
+    }
+
+    private static class History {
+        private long polls;
+        private long hits;
+        private int emptyStreak;
+        private int skippedRuns;
+    }
+}
@@ -1,5 +1,7 @@
 package it.govpay.fdr.batch.service;
 
+import java.io.ByteArrayInputStream;
+import java.net.URI;
 import java.time.LocalDateTime;
 import java.time.OffsetDateTime;
 import java.time.ZoneId;
@@ -8,13 +10,24 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongFunction;
 
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.json.JacksonJsonHttpMessageConverter;
 import org.springframework.stereotype.Service;
+import org.springframework.util.StreamUtils;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import tools.jackson.core.JacksonException;
+import tools.jackson.databind.json.JsonMapper;
 
 import it.govpay.fdr.batch.exception.FdrFatalException;
 
@@ -22,14 +35,19 @@ import it.govpay.common.client.model.Connettore;
 import it.govpay.common.client.service.ConnettoreService;
 import it.govpay.common.entity.IntermediarioEntity;
 import it.govpay.common.repository.IntermediarioRepository;
+import it.govpay.fdr.batch.Costanti;
 import it.govpay.fdr.batch.config.BatchProperties;
+import it.govpay.fdr.batch.config.BatchProperties.PaymentsDecodeMode;
 import it.govpay.fdr.batch.config.FdrApiClientConfig;
+import it.govpay.fdr.batch.config.FdrHttpTransport;
 import it.govpay.fdr.batch.gde.service.GdeService;
+import it.govpay.fdr.batch.step4.FdrPaymentsProcessor.PaymentData;
 import it.govpay.fdr.client.ApiClient;
 import it.govpay.fdr.client.api.OrganizationsApi;
 import it.govpay.fdr.client.model.FlowByPSP;
 import it.govpay.fdr.client.model.PaginatedFlowsResponse;
 import it.govpay.fdr.client.model.PaginatedPaymentsResponse;
+import it.govpay.fdr.client.model.Payment;
 import it.govpay.fdr.client.model.SingleFlowResponse;
 import lombok.extern.slf4j.Slf4j;
 
@@ -48,10 +66,29 @@ public class FdrApiService {
     private final IntermediarioRepository intermediarioRepository;
     private final ConnettoreService connettoreService;
     private final FdrApiClientConfig fdrApiClientConfig;
+    private final FdrHttpTransport fdrHttpTransport;
 
     /** Cache of OrganizationsApi instances keyed by connector code */
     private final ConcurrentHashMap<String, OrganizationsApi> apiCache = new ConcurrentHashMap<>();
 
+    /** Cache of connector RestTemplate instances, shared by the generated client and the streaming decoder */
+    private final ConcurrentHashMap<String, RestTemplate> restTemplateCache = new ConcurrentHashMap<>();
+
+    /** Fetches pages 2..N concurrently when govpay.batch.page-fetch-concurrency > 1 */
+    private final ConcurrentPageFetcher concurrentPageFetcher;
+
+    /** Per-connector bulkhead, rate limit and HTTP 429 back-off for pagoPA calls */
+    private final ConnectorLimiter connectorLimiter;
+
+    /** Decodes payment pages without the generated DTOs when govpay.batch.payments-decode-mode=STREAMING */
+    private final PaymentsPageDecoder paymentsPageDecoder;
+
+    /** Pages already received, reused when a flow is retried (govpay.batch.payments-page-cache-dir) */
+    private final PaymentsPageCache paymentsPageCache;
+
+    /** pagoPA mapper used to read the raw STREAMING page tracked on GDE, created on first use */
+    private volatile JsonMapper pagoPAObjectMapper;
+
     /** Domain info resolved from DominioEntity -> StazioneEntity -> IntermediarioEntity */
     public record DomainInfo(String codIntermediario, String codStazione) {}
 
@@ -60,7 +97,12 @@ public class FdrApiService {
                          IntermediarioRepository intermediarioRepository,
                          GdeService gdeService,
                          ZoneId applicationZoneId,
-                         FdrApiClientConfig fdrApiClientConfig) {
+                         FdrApiClientConfig fdrApiClientConfig,
+                         FdrHttpTransport fdrHttpTransport,
+                         ConcurrentPageFetcher concurrentPageFetcher,
+                         ConnectorLimiter connectorLimiter,
+                         PaymentsPageDecoder paymentsPageDecoder,
+                         PaymentsPageCache paymentsPageCache) {
         this.batchProperties = batchProperties;
         this.connettoreService = connettoreService;
         this.intermediarioRepository = intermediarioRepository;
@@ -68,6 +110,12 @@ public class FdrApiService {
         this.gdeService = gdeService;
         this.applicationZoneId = applicationZoneId;
         this.fdrApiClientConfig = fdrApiClientConfig;
+        this.fdrHttpTransport = fdrHttpTransport;
+
+        this.concurrentPageFetcher = concurrentPageFetcher;
+        this.connectorLimiter = connectorLimiter;
+        this.paymentsPageDecoder = paymentsPageDecoder;
+        this.paymentsPageCache = paymentsPageCache;
     }
 
     /**
@@ -77,6 +125,7 @@ public class FdrApiService {
     public void clearCache() {
         int apiSize = apiCache.size();
         apiCache.clear();
+        restTemplateCache.clear();
         log.info("Cache svuotata (API: {} entries rimosse)", apiSize);
         this.gdeService.clearCache();
     }
@@ -102,14 +151,13 @@ public class FdrApiService {
     }
 
     /**
-     * Gets or creates an OrganizationsApi instance for the given domain.
+     * Gets or creates an OrganizationsApi instance for the given connector code.
      * Uses a cache keyed by connector code to avoid creating duplicate instances
      * for domains sharing the same intermediary.
      */
-    private OrganizationsApi getOrCreateApi(String codDominio) {
-        String codConnettore = resolveConnectorCode(codDominio);
+    private OrganizationsApi getOrCreateApi(String codConnettore) {
         return apiCache.computeIfAbsent(codConnettore, code -> {
-            RestTemplate restTemplate = connettoreService.getRestTemplate(code);
+            RestTemplate restTemplate = getOrCreateRestTemplate(code);
 
             // Customize the Jackson 3 mapper for pagoPA date handling
             JacksonJsonHttpMessageConverter converter =
@@ -126,6 +174,26 @@ public class FdrApiService {
         });
     }
 
+    /**
+     * Gets or creates the RestTemplate of the given connector, with the configured HTTP transport.
+     */
+    private RestTemplate getOrCreateRestTemplate(String codConnettore) {
+        return restTemplateCache.computeIfAbsent(codConnettore, code -> {
+            RestTemplate restTemplate = connettoreService.getRestTemplate(code);
+            fdrHttpTransport.apply(code, restTemplate);
+            return restTemplate;
+        });
+    }
+
+    /**
+     * Invokes the pagoPA API of the given domain within the limits of its connector.
+     */
+    private <T> T callApi(String codDominio, Function<OrganizationsApi, T> call) {
+        String codConnettore = resolveConnectorCode(codDominio);
+        OrganizationsApi api = getOrCreateApi(codConnettore);
+        return connectorLimiter.call(codConnettore, () -> call.apply(api));
+    }
+
     /**
      * Returns the pagoPA base URL for the given domain (for GDE event tracking).
      * Delegates to ConnettoreService which has its own internal caching.
@@ -166,6 +234,13 @@ public class FdrApiService {
                     hasMorePages = hasMoreFlowPages(response);
                     currentPage++;
                 }
+
+                if (hasMorePages && batchProperties.getPageFetchConcurrency() > 1) {
+                    // totPage noto dalla prima pagina: le restanti vengono scaricate in parallelo
+                    lastResponseEntity = fetchRemainingFlowPages(organizationId, publishedGtOffset, currentPage,
+                        response.getMetadata().getTotPage(), allFlows, lastResponseEntity);
+                    hasMorePages = false;
+                }
             }
 
             log.info("Recuperati in totale {} flussi per l'organizzazione {}", allFlows.size(), organizationId);
@@ -189,6 +264,30 @@ public class FdrApiService {
         }
     }
 
+    /**
+     * Fetches flow pages from firstPage to totPage concurrently, appending them to allFlows in page order.
+     * A page without content (404, closed connection, empty body) ends the pagination as in the serial loop.
+     *
+     * @return the response entity of the last page received (for GDE event tracking)
+     */
+    private ResponseEntity<PaginatedFlowsResponse> fetchRemainingFlowPages(String organizationId, OffsetDateTime publishedGtOffset,
+            long firstPage, long totPage, List<FlowByPSP> allFlows, ResponseEntity<PaginatedFlowsResponse> lastResponseEntity) {
+        AtomicReference<ResponseEntity<PaginatedFlowsResponse>> lastReceived = new AtomicReference<>(lastResponseEntity);
+        concurrentPageFetcher.fetchInOrder(firstPage, totPage, batchProperties.getPageFetchConcurrency(),
+            page -> {
+                PageFetchResult<PaginatedFlowsResponse> result = fetchFlowsPage(organizationId, publishedGtOffset, page);
+                return extractFlowsResponse(result, organizationId, page) != null
+                    ? new FetchedPage<>(page, result.responseEntity) : null;
+            },
+            fetched -> {
+                PaginatedFlowsResponse response = fetched.responseEntity().getBody();
+                logInfoResponseOk(organizationId, response);
+                aggiungiFlussoRicevutoAllElenco(organizationId, allFlows, fetched.page(), response);
+                lastReceived.set(fetched.responseEntity());
+            });
+        return lastReceived.get();
+    }
+
     /**
      * Adegua publishedGt alla finestra temporale accettata da pagoPA.
      * <p>
@@ -245,14 +344,14 @@ public class FdrApiService {
             log.debug("Chiamata API per l'organizzazione {} pagina {}", organizationId, currentPage);
 
             ResponseEntity<PaginatedFlowsResponse> responseEntity =
-                getOrCreateApi(organizationId).iOrganizationsControllerGetAllPublishedFlowsWithHttpInfo(
+                callApi(organizationId, api -> api.iOrganizationsControllerGetAllPublishedFlowsWithHttpInfo(
                     organizationId,
                     null,           // flowDate
                     currentPage,    // page
                     null,           // pspId
                     publishedGtOffset,    // publishedGt
                     (long) batchProperties.getPageSize()  // size
-                );
+                ));
 
             return new PageFetchResult<>(responseEntity, true);
 
@@ -357,12 +456,12 @@ public class FdrApiService {
         OffsetDateTime startTime = OffsetDateTime.now(ZoneOffset.UTC);
         ResponseEntity<SingleFlowResponse> responseEntity = null;
         try {
-            responseEntity = getOrCreateApi(organizationId).iOrganizationsControllerGetSinglePublishedFlowWithHttpInfo(
+            responseEntity = callApi(organizationId, api -> api.iOrganizationsControllerGetSinglePublishedFlowWithHttpInfo(
                 fdr,
                 organizationId,
                 pspId,
                 revision
-            );
+            ));
 
             SingleFlowResponse response = responseEntity.getBody();
             log.info("Recuperati dettagli flusso per fdr={}: {}", fdr, response);
@@ -410,48 +509,137 @@ public class FdrApiService {
     /**
      * Get payments from a published flow with pagination
      */
-    public List<it.govpay.fdr.client.model.Payment> getPaymentsFromPublishedFlow(
+    public List<Payment> getPaymentsFromPublishedFlow(
         String organizationId,
         String fdr,
         Long revision,
         String pspId
     ) throws RestClientException {
+        List<Payment> allPayments = new ArrayList<>();
+        forEachPaymentsPage(organizationId, fdr, revision, pspId, allPayments::addAll);
+        return allPayments;
+    }
+
+    /**
+     * Get payments from a published flow with pagination, decoded by the streaming decoder
+     * straight into the data used by the writer.
+     */
+    public List<PaymentData> getPaymentDataFromPublishedFlow(
+        String organizationId,
+        String fdr,
+        Long revision,
+        String pspId
+    ) throws RestClientException {
+        List<PaymentData> allPayments = new ArrayList<>();
+        forEachPaymentDataPage(organizationId, fdr, revision, pspId, allPayments::addAll);
+        return allPayments;
+    }
+
+    /**
+     * Get payments from a published flow one page at a time.
+     * Each page is handed to the consumer before the next one is requested, so the
+     * caller can process flows of any size keeping only one page in memory.
+     *
+     * @return the total number of payments received
+     */
+    public int forEachPaymentsPage(
+        String organizationId,
+        String fdr,
+        Long revision,
+        String pspId,
+        Consumer<List<Payment>> pageConsumer
+    ) throws RestClientException {
+        return paginatePayments(organizationId, fdr, revision, pspId, PaymentsDecodeMode.CLIENT, page -> {
+            ResponseEntity<PaginatedPaymentsResponse> responseEntity =
+                fetchPaymentsPage(organizationId, fdr, revision, pspId, page).responseEntity;
+            PaginatedPaymentsResponse response = responseEntity != null ? responseEntity.getBody() : null;
+            PaymentsPage<Payment> paymentsPage = null;
+            if (response != null) {
+                paymentsPage = response.getMetadata() != null
+                    ? new PaymentsPage<>(response.getMetadata().getPageNumber(), response.getMetadata().getTotPage(), response.getData())
+                    : new PaymentsPage<>(null, null, response.getData());
+            }
+            return new ReceivedPaymentsPage<>(page, responseEntity, paymentsPage);
+        }, pageConsumer);
+    }
+
+    /**
+     * Get payments from a published flow one page at a time, as {@link #forEachPaymentsPage},
+     * decoding each page with the streaming decoder instead of the generated client.
+     *
+     * @return the total number of payments received
+     */
+    public int forEachPaymentDataPage(
+        String organizationId,
+        String fdr,
+        Long revision,
+        String pspId,
+        Consumer<List<PaymentData>> pageConsumer
+    ) throws RestClientException {
+        return paginatePayments(organizationId, fdr, revision, pspId, PaymentsDecodeMode.STREAMING,
+            page -> fetchPaymentDataPage(organizationId, fdr, revision, pspId, page), pageConsumer);
+    }
+
+    /**
+     * Paginates the payments of a published flow, handing each page to the consumer in page order,
+     * and tracks the outcome on GDE. Pages found in the page cache are not requested again.
+     */
+    private <P> int paginatePayments(
+        String organizationId,
+        String fdr,
+        Long revision,
+        String pspId,
+        PaymentsDecodeMode decodeMode,
+        LongFunction<ReceivedPaymentsPage<P>> remoteFetcher,
+        Consumer<List<P>> pageConsumer
+    ) throws RestClientException {
+        LongFunction<ReceivedPaymentsPage<P>> pageFetcher =
+            cachedPageFetcher(organizationId, fdr, revision, pspId, decodeMode, remoteFetcher);
 
         log.debug("Recupero pagamenti per il flusso: organization={}, fdr={}, revision={}, pspId={}",
             organizationId, fdr, revision, pspId);
 
         OffsetDateTime startTime = OffsetDateTime.now(ZoneOffset.UTC);
-        List<it.govpay.fdr.client.model.Payment> allPayments = new ArrayList<>();
+        int totalPayments = 0;
         Long currentPage = 1L;
         boolean hasMorePages = true;
-        ResponseEntity<PaginatedPaymentsResponse> lastResponseEntity = null;
+        ResponseEntity<?> lastResponseEntity = null;
 
         try {
             while (hasMorePages) {
-                PageFetchResult<PaginatedPaymentsResponse> result = fetchPaymentsPage(
-                    organizationId, fdr, revision, pspId, currentPage);
+                ReceivedPaymentsPage<P> received = pageFetcher.apply(currentPage);
 
-                lastResponseEntity = result.responseEntity;
-                PaginatedPaymentsResponse response = lastResponseEntity != null ? lastResponseEntity.getBody() : null;
+                if (received.responseEntity() != null) {
+                    lastResponseEntity = received.responseEntity();
+                }
+                PaymentsPage<P> response = received.body();
 
-                if (response != null && response.getData() != null && !response.getData().isEmpty()) {
-                    allPayments.addAll(response.getData());
+                if (response != null && response.data() != null && !response.data().isEmpty()) {
+                    totalPayments += response.data().size();
+                    pageConsumer.accept(response.data());
                     log.debug("Recuperata pagina {} con {} pagamenti per fdr {}",
-                        currentPage, response.getData().size(), fdr);
+                        currentPage, response.data().size(), fdr);
                 }
 
                 // Check if there are more pages
-                if (response != null && response.getMetadata() != null &&
-                    response.getMetadata().getPageNumber() != null &&
-                    response.getMetadata().getTotPage() != null) {
-                    hasMorePages = response.getMetadata().getPageNumber() < response.getMetadata().getTotPage();
+                if (response != null && response.pageNumber() != null && response.totPage() != null) {
+                    hasMorePages = response.pageNumber() < response.totPage();
                     currentPage++;
                 } else {
                     hasMorePages = false;
                 }
+
+                if (hasMorePages && batchProperties.getPageFetchConcurrency() > 1) {
+                    // totPage noto dalla prima pagina: le restanti vengono scaricate in parallelo
+                    AtomicReference<ResponseEntity<?>> lastReceived = new AtomicReference<>(lastResponseEntity);
+                    totalPayments += fetchRemainingPaymentPages(fdr, currentPage, response.totPage(),
+                        pageFetcher, pageConsumer, lastReceived);
+                    lastResponseEntity = lastReceived.get();
+                    hasMorePages = false;
+                }
             }
 
-            log.info("Recuperati in totale {} pagamenti per fdr {}", allPayments.size(), fdr);
+            log.info("Recuperati in totale {} pagamenti per fdr {}", totalPayments, fdr);
 
             OffsetDateTime endTime = OffsetDateTime.now(ZoneOffset.UTC);
 
@@ -462,10 +650,10 @@ public class FdrApiService {
                 .revisione(revision)
                 .build();
 
-            gdeService.saveGetPaymentsOk(frForEvent, startTime, endTime, allPayments.size(), lastResponseEntity,
+            gdeService.saveGetPaymentsOk(frForEvent, startTime, endTime, totalPayments, toGdeResponseEntity(lastResponseEntity),
                 getBaseUrl(organizationId));
 
-            return allPayments;
+            return totalPayments;
 
         } catch (RestClientException e) {
             OffsetDateTime endTime = OffsetDateTime.now(ZoneOffset.UTC);
@@ -477,12 +665,66 @@ public class FdrApiService {
                 .revisione(revision)
                 .build();
 
-            gdeService.saveGetPaymentsKo(frForEvent, startTime, endTime, lastResponseEntity, e,
+            gdeService.saveGetPaymentsKo(frForEvent, startTime, endTime, toGdeResponseEntity(lastResponseEntity), e,
                 getBaseUrl(organizationId));
             throw e;
         }
     }
 
+    /**
+     * Fetches payment pages from firstPage to totPage concurrently, handing them to the consumer in page order.
+     * At most page-fetch-concurrency pages are held in memory at any time.
+     *
+     * @return the number of payments received
+     */
+    private <P> int fetchRemainingPaymentPages(String fdr, long firstPage, long totPage,
+            LongFunction<ReceivedPaymentsPage<P>> pageFetcher, Consumer<List<P>> pageConsumer,
+            AtomicReference<ResponseEntity<?>> lastReceived) {
+        int[] received = {0};
+        concurrentPageFetcher.fetchInOrder(firstPage, totPage, batchProperties.getPageFetchConcurrency(),
+            page -> {
+                ReceivedPaymentsPage<P> receivedPage = pageFetcher.apply(page);
+                return receivedPage.body() != null ? receivedPage : null;
+            },
+            fetched -> {
+                if (fetched.responseEntity() != null) {
+                    lastReceived.set(fetched.responseEntity());
+                }
+                List<P> data = fetched.body().data();
+                if (data != null && !data.isEmpty()) {
+                    received[0] += data.size();
+                    pageConsumer.accept(data);
+                    log.debug("Recuperata pagina {} con {} pagamenti per fdr {}", fetched.page(), data.size(), fdr);
+                }
+            });
+        return received[0];
+    }
+
+    /**
+     * Wraps the page fetcher with the page cache, when enabled: a page already received for the same
+     * flow revision and decode mode is served from disk (without response entity), otherwise it is
+     * fetched and appended to the cache, so a retry resumes from the first missing page.
+     */
+    private <P> LongFunction<ReceivedPaymentsPage<P>> cachedPageFetcher(String organizationId, String fdr, Long revision,
+            String pspId, PaymentsDecodeMode decodeMode, LongFunction<ReceivedPaymentsPage<P>> remoteFetcher) {
+        if (!paymentsPageCache.isEnabled()) {
+            return remoteFetcher;
+        }
+        String mode = decodeMode.name();
+        return page -> {
+            PaymentsPage<P> cached = paymentsPageCache.get(organizationId, fdr, revision, pspId, mode, page);
+            if (cached != null) {
+                log.debug("Pagina {} del flusso {} recuperata dalla cache", page, fdr);
+                return new ReceivedPaymentsPage<>(page, null, cached);
+            }
+            ReceivedPaymentsPage<P> received = remoteFetcher.apply(page);
+            if (received.body() != null) {
+                paymentsPageCache.put(organizationId, fdr, revision, pspId, mode, page, received.body());
+            }
+            return received;
+        };
+    }
+
     /**
      * Fetches a single page of payments from the API.
      * Extracted to avoid nested try blocks (SonarQube java:S1141).
@@ -492,14 +734,14 @@ public class FdrApiService {
 
         try {
             ResponseEntity<PaginatedPaymentsResponse> responseEntity =
-                getOrCreateApi(organizationId).iOrganizationsControllerGetPaymentsFromPublishedFlowWithHttpInfo(
+                callApi(organizationId, api -> api.iOrganizationsControllerGetPaymentsFromPublishedFlowWithHttpInfo(
                     fdr,
                     organizationId,
                     pspId,
                     revision,
                     currentPage,
                     (long) batchProperties.getPageSize()
-                );
+                ));
 
             return new PageFetchResult<>(responseEntity, true);
 
@@ -510,6 +752,86 @@ public class FdrApiService {
         }
     }
 
+    /**
+     * Fetches a single page of payments, decoding the response body with the streaming decoder.
+     * The request goes through the connector RestTemplate (interceptors, transport) and limits.
+     * The raw body is kept as the page response entity, so the GDE event carries the pagoPA
+     * response as received (see {@link #toGdeResponseEntity}).
+     */
+    private ReceivedPaymentsPage<PaymentData> fetchPaymentDataPage(
+            String organizationId, String fdr, Long revision, String pspId, Long currentPage) throws RestClientException {
+
+        try {
+            String codConnettore = resolveConnectorCode(organizationId);
+            RestTemplate restTemplate = getOrCreateRestTemplate(codConnettore);
+            URI uri = UriComponentsBuilder.fromUriString(connettoreService.getConnettore(codConnettore).getUrl())
+                .path(Costanti.PATH_GET_PAYMENTS_FROM_PUBLISHED_FLOW)
+                .queryParam("page", currentPage)
+                .queryParam("size", batchProperties.getPageSize())
+                .buildAndExpand(organizationId, fdr, revision, pspId)
+                .encode()
+                .toUri();
+
+            ResponseEntity<byte[]> responseEntity = connectorLimiter.call(codConnettore, () -> restTemplate.execute(uri,
+                HttpMethod.GET,
+                request -> request.getHeaders().setAccept(List.of(MediaType.APPLICATION_JSON)),
+                response -> ResponseEntity.status(response.getStatusCode())
+                    .headers(response.getHeaders())
+                    .body(StreamUtils.copyToByteArray(response.getBody()))));
+            if (responseEntity == null) {
+                return new ReceivedPaymentsPage<>(currentPage, null, null);
+            }
+            byte[] body = responseEntity.getBody();
+            PaymentsPage<PaymentData> paymentsPage =
+                body != null ? paymentsPageDecoder.decode(new ByteArrayInputStream(body)) : null;
+            return new ReceivedPaymentsPage<>(currentPage, responseEntity, paymentsPage);
+
+        } catch (Exception e) {
+            log.error("Errore nel recupero dei pagamenti per fdr {} alla pagina {}: {}",
+                fdr, currentPage, e.getMessage());
+            throw new RestClientException("Fallito il recupero dei pagamenti per il flusso " + fdr, e);
+        }
+    }
+
+    /**
+     * Response entity to track on GDE. A page fetched in STREAMING mode keeps the raw body: it is read
+     * into a {@link PaginatedPaymentsResponse} with the pagoPA mapper, so the event payload is the same
+     * as in CLIENT mode. If the body cannot be read the raw entity is tracked as is.
+     */
+    private ResponseEntity<?> toGdeResponseEntity(ResponseEntity<?> responseEntity) {
+        if (responseEntity == null || !(responseEntity.getBody() instanceof byte[] body)) {
+            return responseEntity;
+        }
+        try {
+            return ResponseEntity.status(responseEntity.getStatusCode())
+                .headers(responseEntity.getHeaders())
+                .body(pagoPAObjectMapper().readValue(body, PaginatedPaymentsResponse.class));
+        } catch (JacksonException e) {
+            log.debug("Body della pagina di pagamenti non leggibile come PaginatedPaymentsResponse: {}", e.getMessage());
+            return responseEntity;
+        }
+    }
+
+    private JsonMapper pagoPAObjectMapper() {
+        JsonMapper mapper = pagoPAObjectMapper;
+        if (mapper == null) {
+            mapper = fdrApiClientConfig.createPagoPAObjectMapper();
+            pagoPAObjectMapper = mapper;
+        }
+        return mapper;
+    }
+
+    /**
+     * A page of payments as received from pagoPA: the response entity (for GDE event tracking)
+     * and its content, whatever the decode mode.
+     */
+    private record ReceivedPaymentsPage<P>(Long page, ResponseEntity<?> responseEntity, PaymentsPage<P> body) {}
+
+    /**
+     * A page received by the concurrent fetcher, with its page number.
+     */
+    private record FetchedPage<T>(Long page, ResponseEntity<T> responseEntity) {}
+
     /**
      * Helper class to encapsulate the result of a page fetch operation.
      * Used to avoid nested try blocks.
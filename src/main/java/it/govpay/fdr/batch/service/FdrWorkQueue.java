@@ -0,0 +1,251 @@
+package it.govpay.fdr.batch.service;
+
+import java.lang.management.ManagementFactory;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import it.govpay.fdr.batch.config.BatchProperties;
+import it.govpay.fdr.batch.entity.FrTemp;
+import it.govpay.fdr.batch.entity.StatoCoda;
+import it.govpay.fdr.batch.repository.FrTempRepository;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Coda di lavoro su FR_TEMP per l'acquisizione cooperativa tra piu' nodi
+ * ({@code govpay.batch.cooperative-acquisition=true}).
+ * <p>
+ * Il nodo che esegue il job pubblica i flussi scritti da Step 2; ogni nodo prende in carico i flussi
+ * con un lease (proprietario e scadenza) assegnato da un UPDATE condizionale, quindi senza lock
+ * specifici del database. Tutte le revisioni di uno stesso flusso (dominio, flusso, PSP) vengono prese
+ * in carico insieme, cosi' sono elaborate in ordine da un solo nodo: un flusso con una revisione ancora
+ * in carico a un altro nodo non viene preso. Il lease di un nodo che si e' fermato scade dopo
+ * {@code govpay.batch.work-queue-lease-minutes} e i suoi flussi tornano disponibili; dopo un errore tutte
+ * le revisioni del flusso vengono rilasciate insieme e tornano disponibili dopo
+ * {@code govpay.batch.work-queue-retry-delay-seconds}. Le scadenze sono calcolate sull'ora del database
+ * ({@link DatabaseClock}), non su quella dei nodi.
+ * <p>
+ * Ogni operazione viene eseguita in una nuova transazione, per rendere subito visibile agli altri nodi
+ * l'assegnazione dei flussi.
+ */
+@Component
+@Slf4j
+public class FdrWorkQueue {
+
+    /** Lunghezza massima dell'identificativo del nodo nel proprietario del lease */
+    private static final int MAX_NODE_ID_LENGTH = 60;
+
+    private final FrTempRepository frTempRepository;
+    private final BatchProperties batchProperties;
+    private final TransactionTemplate transactionTemplate;
+    private final DatabaseClock databaseClock;
+    private final Clock clock;
+    private final String nodeId;
+
+    public FdrWorkQueue(FrTempRepository frTempRepository, PlatformTransactionManager transactionManager,
+            BatchProperties batchProperties, DatabaseClock databaseClock, Clock clock) {
+        this.frTempRepository = frTempRepository;
+        this.batchProperties = batchProperties;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.databaseClock = databaseClock;
+        this.clock = clock;
+        this.nodeId = resolveNodeId(batchProperties.getNodeId());
+    }
+
+    static String resolveNodeId(String configured) {
+        // Di default pid@host
+        String id = configured != null && !configured.isBlank() ? configured : ManagementFactory.getRuntimeMXBean().getName();
+        return id.length() > MAX_NODE_ID_LENGTH ? id.substring(0, MAX_NODE_ID_LENGTH) : id;
+    }
+
+    /**
+     * Identificativo del nodo, usato nel proprietario dei lease e nelle metriche.
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Pubblica come elementi della coda i flussi scritti da Step 2.
+     *
+     * @return il numero di flussi pubblicati
+     */
+    public int publish() {
+        int published = transactionTemplate.execute(status -> frTempRepository.publishWorkItems(StatoCoda.DA_ELABORARE));
+        log.info("Nodo {}: pubblicati {} flussi nella coda di acquisizione", nodeId, published);
+        return published;
+    }
+
+    /**
+     * Prende in carico fino a {@code govpay.batch.work-queue-claim-size} flussi disponibili (non assegnati,
+     * con lease scaduto o al termine dell'attesa dopo un errore), con tutte le loro revisioni.
+     *
+     * @return i flussi presi in carico, vuoto se non ci sono flussi disponibili
+     */
+    public Claim claim() {
+        String owner = nodeId + "/" + UUID.randomUUID();
+        List<FrTemp> items = transactionTemplate.execute(status -> {
+            LocalDateTime now = databaseClock.now();
+            LocalDateTime scadenza = leaseScadenza(now);
+            int claimSize = Math.max(1, batchProperties.getWorkQueueClaimSize());
+            // Chiavi in eccesso: quelle gia' prese da altri nodi nel frattempo vengono saltate
+            List<Object[]> keys = frTempRepository.findClaimableKeys(StatoCoda.DA_ELABORARE, now, PageRequest.of(0, claimSize * 2));
+            int claimed = 0;
+            for (Object[] key : keys) {
+                if (claimed == claimSize) {
+                    break;
+                }
+                if (claimKey((String) key[0], (String) key[1], (String) key[2], owner, scadenza, now)) {
+                    claimed++;
+                }
+            }
+            return claimed > 0 ? frTempRepository.findByLeaseOwner(owner) : List.<FrTemp>of();
+        });
+        if (!items.isEmpty()) {
+            log.debug("Nodo {}: presi in carico {} flussi (lease {})", nodeId, items.size(), owner);
+        }
+        return new Claim(owner, items);
+    }
+
+    /**
+     * Prende in carico le revisioni di un flusso solo se sono tutte disponibili.
+     */
+    private boolean claimKey(String codDominio, String codFlusso, String idPsp, String owner,
+            LocalDateTime scadenza, LocalDateTime now) {
+        int leased = frTempRepository.claimWorkItems(codDominio, codFlusso, idPsp, StatoCoda.DA_ELABORARE, owner, scadenza, now);
+        if (leased == 0) {
+            return false;
+        }
+        // Una revisione e' in carico a un altro nodo o in attesa di un nuovo tentativo: il flusso non viene preso
+        if (leased < frTempRepository.countByCodDominioAndCodFlussoAndIdPspAndStatoCoda(codDominio, codFlusso, idPsp,
+                StatoCoda.DA_ELABORARE)) {
+            frTempRepository.releaseKeyLease(codDominio, codFlusso, idPsp, owner);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Estende il lease di tutti i flussi presi in carico.
+     */
+    public void renew(Claim claim) {
+        transactionTemplate.executeWithoutResult(status -> {
+            LocalDateTime scadenza = leaseScadenza(databaseClock.now());
+            for (FrTemp item : claim.items()) {
+                frTempRepository.renewLease(item.getId(), claim.owner(), scadenza);
+            }
+        });
+    }
+
+    /**
+     * Rinnovo del lease da eseguire durante l'acquisizione di un flusso, a ogni pagina di pagamenti
+     * ricevuta: il lease viene esteso solo se dall'ultimo rinnovo e' trascorso almeno un terzo della sua
+     * durata, cosi' un flusso con molte pagine non lo lascia scadere senza eseguire un UPDATE per pagina.
+     * L'intervallo trascorso e' misurato sull'orologio del nodo, la nuova scadenza su quello del database.
+     */
+    public Runnable leaseRenewer(Claim claim) {
+        long intervalSeconds = Math.max(1L, batchProperties.getWorkQueueLeaseMinutes() * 60L / 3);
+        AtomicReference<LocalDateTime> lastRenewal = new AtomicReference<>(now());
+        return () -> {
+            LocalDateTime now = now();
+            LocalDateTime last = lastRenewal.get();
+            if (!now.isBefore(last.plusSeconds(intervalSeconds)) && lastRenewal.compareAndSet(last, now)) {
+                renew(claim);
+            }
+        };
+    }
+
+    /**
+     * Scrive un flusso acquisito e lo rimuove dalla coda nella stessa transazione, solo se il lease e'
+     * ancora del nodo: se e' scaduto e il flusso e' stato preso da un altro nodo la scrittura viene annullata.
+     *
+     * @param claim presa in carico del flusso
+     * @param item flusso acquisito
+     * @param write scrittura dei dati del flusso
+     * @throws IllegalStateException se il lease del flusso non e' piu' del nodo
+     */
+    public void complete(Claim claim, FrTemp item, Runnable write) {
+        transactionTemplate.executeWithoutResult(status -> {
+            // Blocca la riga fino al commit: nessun altro nodo puo' prenderla in carico
+            if (frTempRepository.renewLease(item.getId(), claim.owner(), leaseScadenza(databaseClock.now())) == 0) {
+                throw new IllegalStateException("Lease scaduto per il flusso " + item.getCodFlusso()
+                    + " (revisione " + item.getRevisione() + "), preso in carico da un altro nodo");
+            }
+            write.run();
+            // Il writer rimuove il flusso acquisito, resta solo se il dominio non e' censito
+            frTempRepository.deleteLeased(item.getId(), claim.owner());
+        });
+    }
+
+    /**
+     * Registra un tentativo fallito e rilascia insieme tutte le revisioni del flusso, che tornano disponibili
+     * dopo {@code govpay.batch.work-queue-retry-delay-seconds}; oltre {@code govpay.batch.max-retries}
+     * tentativi la revisione passa in stato {@link StatoCoda#FALLITO} e non viene piu' presa in carico.
+     *
+     * @return true se il flusso e' stato scartato
+     */
+    public boolean fail(Claim claim, FrTemp item) {
+        return transactionTemplate.execute(status -> {
+            // Il flusso potrebbe essere gia' di un altro nodo (lease scaduto)
+            if (frTempRepository.recordFailedAttempt(item.getId(), claim.owner()) == 0) {
+                return false;
+            }
+            boolean discarded = frTempRepository.updateStatoCodaIfExhausted(item.getId(),
+                Math.max(1, batchProperties.getMaxRetries()), StatoCoda.FALLITO) > 0;
+            LocalDateTime retryAt = databaseClock.now()
+                .plusSeconds(Math.max(0, batchProperties.getWorkQueueRetryDelaySeconds()));
+            frTempRepository.releaseKeyForRetry(item.getCodDominio(), item.getCodFlusso(), item.getIdPsp(), claim.owner(), retryAt);
+            return discarded;
+        });
+    }
+
+    /**
+     * Rilascia i flussi presi in carico non ancora acquisiti.
+     */
+    public void release(Claim claim) {
+        if (claim.items().isEmpty()) {
+            return;
+        }
+        transactionTemplate.executeWithoutResult(status ->
+            frTempRepository.releaseLease(claim.items().stream().map(FrTemp::getId).toList(), claim.owner()));
+    }
+
+    /**
+     * Numero di flussi ancora da acquisire, presi in carico o meno.
+     */
+    public long countPending() {
+        return frTempRepository.countByStatoCoda(StatoCoda.DA_ELABORARE);
+    }
+
+    /**
+     * Numero di flussi scartati dopo il numero massimo di tentativi.
+     */
+    public long countFailed() {
+        return frTempRepository.countByStatoCoda(StatoCoda.FALLITO);
+    }
+
+    private LocalDateTime now() {
+        return LocalDateTime.now(clock);
+    }
+
+    private LocalDateTime leaseScadenza(LocalDateTime now) {
+        return now.plusMinutes(batchProperties.getWorkQueueLeaseMinutes());
+    }
+
+    /**
+     * Flussi presi in carico da un nodo con un lease.
+     *
+     * @param owner proprietario del lease
+     * @param items flussi presi in carico, revisioni di uno stesso flusso in ordine crescente
+     */
+    public record Claim(String owner, List<FrTemp> items) {}
+}
@@ -0,0 +1,153 @@
+package it.govpay.fdr.batch.service;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Objects;
+
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import it.govpay.common.entity.DominioEntity;
+import it.govpay.fdr.batch.config.BatchProperties;
+import it.govpay.fdr.batch.dto.DominioProcessingContext;
+import it.govpay.fdr.batch.entity.FrWatermark;
+import it.govpay.fdr.batch.repository.FdrDominioRepository;
+import it.govpay.fdr.batch.repository.FrRepository;
+import it.govpay.fdr.batch.repository.FrWatermarkRepository;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Data dell'ultimo flusso acquisito per dominio ({@code govpay.batch.fr-watermark=true}).
+ * <p>
+ * Invece di calcolare a ogni esecuzione il MAX della data di pubblicazione su tutta la tabella FR,
+ * la data viene mantenuta in FR_WATERMARK e aggiornata da {@code FdrPaymentsWriter} nella stessa
+ * transazione in cui salva il flusso. I domini abilitati senza riga in FR_WATERMARK (prima esecuzione,
+ * nuovi domini) vengono inizializzati con il MAX su FR del solo dominio. Con
+ * {@code govpay.batch.fr-watermark-check=true} le date registrate vengono confrontate con FR all'inizio
+ * di ogni Step 2 e riallineate se diverse.
+ */
+@Component
+@Slf4j
+public class FrWatermarkService {
+
+    private final FrWatermarkRepository frWatermarkRepository;
+    private final FrRepository frRepository;
+    private final FdrDominioRepository dominioRepository;
+    private final BatchProperties batchProperties;
+    private final TransactionTemplate transactionTemplate;
+    private final Clock clock;
+
+    public FrWatermarkService(FrWatermarkRepository frWatermarkRepository, FrRepository frRepository,
+            FdrDominioRepository dominioRepository, BatchProperties batchProperties,
+            PlatformTransactionManager transactionManager, Clock clock) {
+        this.frWatermarkRepository = frWatermarkRepository;
+        this.frRepository = frRepository;
+        this.dominioRepository = dominioRepository;
+        this.batchProperties = batchProperties;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.clock = clock;
+    }
+
+    public boolean isEnabled() {
+        return batchProperties.isFrWatermark();
+    }
+
+    /**
+     * @return true se a ogni Step 2 le date di FR_WATERMARK vanno verificate rispetto a FR
+     */
+    public boolean isConsistencyCheckEnabled() {
+        return isEnabled() && batchProperties.isFrWatermarkCheck();
+    }
+
+    /**
+     * Domini abilitati con la data dell'ultimo flusso acquisito.
+     */
+    public List<DominioProcessingContext> findDominiAbilitati() {
+        if (!isEnabled()) {
+            return dominioRepository.findDominioWithMaxDataOraPubblicazione().stream()
+                .map(DominioProcessingContext::of)
+                .toList();
+        }
+        backfill();
+        return frWatermarkRepository.findDominiAbilitati();
+    }
+
+    /**
+     * Avanza la data dell'ultimo flusso acquisito per il dominio, nella transazione corrente.
+     */
+    public void advance(DominioEntity dominio, LocalDateTime dataOraPubblicazione) {
+        if (!isEnabled() || dataOraPubblicazione == null) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now(clock);
+        if (frWatermarkRepository.advance(dominio.getId(), dataOraPubblicazione, now) == 0
+                && !frWatermarkRepository.existsById(dominio.getId())) {
+            // Dominio non ancora inizializzato: il flusso appena salvato e' il piu' recente
+            frWatermarkRepository.save(FrWatermark.builder()
+                .idDominio(dominio.getId())
+                .codDominio(dominio.getCodDominio())
+                .dataOraPubblicazione(dataOraPubblicazione)
+                .dataAggiornamento(now)
+                .build());
+        }
+    }
+
+    /**
+     * Inizializza FR_WATERMARK per i domini abilitati che non ne hanno una riga.
+     *
+     * @return il numero di domini inizializzati
+     */
+    public int backfill() {
+        List<Object[]> domini = frWatermarkRepository.findDominiWithoutWatermark();
+        int created = 0;
+        for (Object[] dominio : domini) {
+            Long idDominio = (Long) dominio[0];
+            try {
+                transactionTemplate.executeWithoutResult(status -> frWatermarkRepository.save(FrWatermark.builder()
+                    .idDominio(idDominio)
+                    .codDominio((String) dominio[1])
+                    .dataOraPubblicazione(frRepository.findMaxDataOraPubblicazioneByDominio(idDominio))
+                    .dataAggiornamento(LocalDateTime.now(clock))
+                    .build()));
+                created++;
+            } catch (DataIntegrityViolationException e) {
+                // Inizializzato nel frattempo da un altro thread o nodo
+                log.debug("Watermark del dominio {} gia' presente", dominio[1]);
+            }
+        }
+        if (created > 0) {
+            log.info("Inizializzato il watermark di acquisizione per {} domini", created);
+        }
+        return created;
+    }
+
+    /**
+     * Confronta le date registrate in FR_WATERMARK con il MAX su FR e riallinea quelle diverse.
+     * Legge tutta la tabella FR: va eseguita solo su richiesta ({@code govpay.batch.fr-watermark-check}).
+     *
+     * @return il numero di domini riallineati
+     */
+    public int checkConsistency() {
+        int realigned = 0;
+        for (Object[] row : frWatermarkRepository.findWatermarksWithMaxDataOraPubblicazione()) {
+            LocalDateTime watermark = (LocalDateTime) row[2];
+            LocalDateTime maxFr = (LocalDateTime) row[3];
+            if (!Objects.equals(watermark, maxFr)) {
+                log.warn("Watermark del dominio {} non allineato con FR: {} invece di {}, riallineato", row[1], watermark, maxFr);
+                Long idDominio = (Long) row[0];
+                transactionTemplate.executeWithoutResult(status -> frWatermarkRepository.findById(idDominio).ifPresent(w -> {
+                    w.setDataOraPubblicazione(maxFr);
+                    w.setDataAggiornamento(LocalDateTime.now(clock));
+                }));
+                realigned++;
+            }
+        }
+        log.info("Verifica watermark di acquisizione completata: {} domini riallineati", realigned);
+        return realigned;
+    }
+}
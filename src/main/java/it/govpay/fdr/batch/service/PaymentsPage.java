@@ -0,0 +1,14 @@
+package it.govpay.fdr.batch.service;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Pagina di pagamenti di un flusso, indipendente dalla modalita' di decodifica.
+ *
+ * @param pageNumber numero della pagina restituito da pagoPA (puo' essere null)
+ * @param totPage numero totale di pagine restituito da pagoPA (puo' essere null)
+ * @param data pagamenti della pagina (puo' essere null)
+ * @param <P> tipo dei pagamenti
+ */
+public record PaymentsPage<P>(Integer pageNumber, Integer totPage, List<P> data) implements Serializable {}
@@ -0,0 +1,288 @@
+package it.govpay.fdr.batch.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import org.springframework.stereotype.Component;
+
+import it.govpay.fdr.batch.config.BatchProperties;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Cache su disco delle pagine di pagamenti scaricate da pagoPA.
+ * <p>
+ * Un flusso pubblicato e' immutabile per (organizationId, fdr, revision, pspId): le pagine gia'
+ * ricevute vengono accodate a un file append-only per flusso nella directory
+ * {@code govpay.batch.payments-page-cache-dir}, indicizzate per numero di pagina e modalita' di
+ * decodifica. Un nuovo tentativo del chunk o un restart del job riprendono dalla prima pagina
+ * mancante invece di riscaricare l'intero flusso. Il file viene rimosso dal writer di Step 4 dopo il
+ * commit della riga FR; i file piu' vecchi di {@code payments-page-cache-max-age-hours} vengono
+ * eliminati all'avvio.
+ * <p>
+ * Formato di un record: modalita' (UTF), numero di pagina (long), lunghezza (int), pagina serializzata.
+ * Un record incompleto in coda (scrittura interrotta) viene scartato alla prima lettura del file.
+ */
+@Component
+@Slf4j
+public class PaymentsPageCache {
+
+    private static final String FILE_SUFFIX = ".pages";
+
+    /** Classi ammesse nella deserializzazione delle pagine */
+    private static final ObjectInputFilter PAGE_FILTER =
+        ObjectInputFilter.Config.createFilter("java.base/*;it.govpay.fdr.**;!*");
+
+    private final Path directory;
+    private final ConcurrentHashMap<String, FlowPages> flows = new ConcurrentHashMap<>();
+
+    public PaymentsPageCache(BatchProperties batchProperties) {
+        String dir = batchProperties.getPaymentsPageCacheDir();
+        this.directory = dir != null && !dir.isBlank() ? Path.of(dir) : null;
+        if (directory != null) {
+            try {
+                Files.createDirectories(directory);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Impossibile creare la directory della cache pagamenti " + directory, e);
+            }
+            deleteStaleFiles(batchProperties.getPaymentsPageCacheMaxAgeHours());
+            log.info("Cache delle pagine di pagamenti attiva in {}", directory);
+        }
+    }
+
+    /**
+     * @return true se la cache e' configurata
+     */
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+    /**
+     * Restituisce una pagina gia' scaricata del flusso.
+     *
+     * @return la pagina, null se non presente in cache
+     */
+    <P> PaymentsPage<P> get(String organizationId, String fdr, Long revision, String pspId, String mode, long page) {
+        FlowPages flowPages = flowPages(organizationId, fdr, revision, pspId);
+        synchronized (flowPages) {
+            return flowPages.read(mode, page);
+        }
+    }
+
+    /**
+     * Accoda una pagina scaricata al file del flusso.
+     */
+    <P> void put(String organizationId, String fdr, Long revision, String pspId, String mode, long page, PaymentsPage<P> content) {
+        FlowPages flowPages = flowPages(organizationId, fdr, revision, pspId);
+        synchronized (flowPages) {
+            flowPages.append(mode, page, content);
+        }
+    }
+
+    /**
+     * Rimuove dalla cache le pagine del flusso, da invocare dopo il commit della riga FR.
+     */
+    public void purge(String organizationId, String fdr, Long revision, String pspId) {
+        if (directory == null) {
+            return;
+        }
+        Path file = file(organizationId, fdr, revision, pspId);
+        FlowPages flowPages = flows.remove(file.getFileName().toString());
+        try {
+            if (flowPages != null) {
+                synchronized (flowPages) {
+                    Files.deleteIfExists(file);
+                }
+            } else {
+                Files.deleteIfExists(file);
+            }
+            log.debug("Rimosse dalla cache le pagine del flusso {} (revisione {})", fdr, revision);
+        } catch (IOException e) {
+            log.warn("Impossibile rimuovere il file di cache {}: {}", file, e.getMessage());
+        }
+    }
+
+    private FlowPages flowPages(String organizationId, String fdr, Long revision, String pspId) {
+        Path file = file(organizationId, fdr, revision, pspId);
+        return flows.computeIfAbsent(file.getFileName().toString(), name -> new FlowPages(file));
+    }
+
+    private Path file(String organizationId, String fdr, Long revision, String pspId) {
+        String key = organizationId + '\n' + fdr + '\n' + revision + '\n' + pspId;
+        return directory.resolve(UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)) + FILE_SUFFIX);
+    }
+
+    private void deleteStaleFiles(long maxAgeHours) {
+        if (maxAgeHours <= 0) {
+            return;
+        }
+        FileTime limit = FileTime.from(Instant.now().minus(maxAgeHours, ChronoUnit.HOURS));
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> file.getFileName().toString().endsWith(FILE_SUFFIX)).forEach(file -> {
+                try {
+                    if (Files.getLastModifiedTime(file).compareTo(limit) < 0) {
+                        Files.delete(file);
+                        log.info("Rimosso il file di cache scaduto {}", file);
+                    }
+                } catch (IOException e) {
+                    log.warn("Impossibile rimuovere il file di cache {}: {}", file, e.getMessage());
+                }
+            });
+        } catch (IOException e) {
+            log.warn("Impossibile ripulire la directory della cache pagamenti {}: {}", directory, e.getMessage());
+        }
+    }
+
+    /**
+     * Pagine di un flusso: file append-only e indice (modalita' + pagina -> posizione del record).
+     * Tutti gli accessi sono sincronizzati sull'istanza.
+     */
+    private static final class FlowPages {
+
+        private final Path file;
+        private Map<String, Long> index;
+
+        FlowPages(Path file) {
+            this.file = file;
+        }
+
+        <P> PaymentsPage<P> read(String mode, long page) {
+            Long position = index().get(indexKey(mode, page));
+            if (position == null) {
+                return null;
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+                readFully(channel, length, position);
+                ByteBuffer content = ByteBuffer.allocate(length.flip().getInt());
+                readFully(channel, content, position + Integer.BYTES);
+                return deserialize(content.array());
+            } catch (IOException | ClassNotFoundException | ClassCastException e) {
+                log.warn("Pagina {} non leggibile dal file di cache {}, verra' scaricata di nuovo: {}", page, file, e.getMessage());
+                return null;
+            }
+        }
+
+        void append(String mode, long page, PaymentsPage<?> content) {
+            Map<String, Long> pages = index();
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                byte[] header = header(mode, page);
+                byte[] body = serialize(content);
+                long position = channel.size();
+                ByteBuffer record = ByteBuffer.allocate(header.length + Integer.BYTES + body.length)
+                    .put(header).putInt(body.length).put(body).flip();
+                while (record.hasRemaining()) {
+                    channel.write(record, position + record.position());
+                }
+                channel.force(false);
+                pages.put(indexKey(mode, page), position + header.length);
+            } catch (IOException e) {
+                // La cache e' un'ottimizzazione: un errore di scrittura non deve far fallire l'acquisizione
+                log.warn("Impossibile salvare la pagina {} nel file di cache {}: {}", page, file, e.getMessage());
+            }
+        }
+
+        /**
+         * Costruisce l'indice leggendo il file; un record incompleto in coda viene troncato.
+         */
+        private Map<String, Long> index() {
+            if (index != null) {
+                return index;
+            }
+            index = new HashMap<>();
+            if (!Files.exists(file)) {
+                return index;
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long size = channel.size();
+                long position = 0;
+                ByteBuffer modeLength = ByteBuffer.allocate(Short.BYTES);
+                while (position + Short.BYTES <= size) {
+                    readFully(channel, modeLength.clear(), position);
+                    int headerLength = Short.BYTES + Short.toUnsignedInt(modeLength.flip().getShort()) + Long.BYTES;
+                    if (position + headerLength + Integer.BYTES > size) {
+                        break;
+                    }
+                    ByteBuffer header = ByteBuffer.allocate(headerLength + Integer.BYTES);
+                    readFully(channel, header, position);
+                    header.flip().position(Short.BYTES);
+                    byte[] mode = new byte[headerLength - Short.BYTES - Long.BYTES];
+                    header.get(mode);
+                    long page = header.getLong();
+                    int length = header.getInt();
+                    long end = position + headerLength + Integer.BYTES + length;
+                    if (length < 0 || end > size) {
+                        break;
+                    }
+                    index.put(indexKey(new String(mode, StandardCharsets.UTF_8), page), position + headerLength);
+                    position = end;
+                }
+                if (position < size) {
+                    log.warn("Scartato un record incompleto in coda al file di cache {}", file);
+                    channel.truncate(position);
+                }
+            } catch (IOException e) {
+                log.warn("File di cache {} non leggibile, verra' ricreato: {}", file, e.getMessage());
+                index.clear();
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException deleteException) {
+                    log.warn("Impossibile rimuovere il file di cache {}: {}", file, deleteException.getMessage());
+                }
+            }
+            return index;
+        }
+
+        private static String indexKey(String mode, long page) {
+            return mode + ':' + page;
+        }
+
+        private static byte[] header(String mode, long page) {
+            byte[] modeBytes = mode.getBytes(StandardCharsets.UTF_8);
+            return ByteBuffer.allocate(Short.BYTES + modeBytes.length + Long.BYTES)
+                .putShort((short) modeBytes.length).put(modeBytes).putLong(page).array();
+        }
+
+        private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Fine del file inattesa");
+                }
+            }
+        }
+
+        private static byte[] serialize(PaymentsPage<?> content) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(content);
+            }
+            return bytes.toByteArray();
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <P> PaymentsPage<P> deserialize(byte[] content) throws IOException, ClassNotFoundException {
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(content))) {
+                in.setObjectInputFilter(PAGE_FILTER);
+                return (PaymentsPage<P>) in.readObject();
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package it.govpay.fdr.batch.service;
+
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.springframework.stereotype.Component;
+
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
+import tools.jackson.databind.json.JsonMapper;
+
+import it.govpay.fdr.batch.Costanti;
+import it.govpay.fdr.batch.step4.FdrPaymentsProcessor.PaymentData;
+import it.govpay.fdr.batch.utils.jackson3.OffsetDateTimeDeserializer;
+
+/**
+ * Decodifica in streaming del body di una risposta {@code PaginatedPaymentsResponse}.
+ * <p>
+ * Il body viene letto un token alla volta con il parser Jackson e i campi usati dal writer
+ * (iuv, iur, idTransfer, pay, payStatus, payDate) vengono copiati direttamente in
+ * {@link PaymentData}, senza creare i DTO del client generato, gli enum di stato e gli
+ * {@link OffsetDateTime} intermedi. I campi non utilizzati vengono saltati.
+ * Le conversioni sono le stesse di {@code FdrPaymentsProcessor}: esito numerico da payStatus
+ * e payDate nel fuso orario dell'applicazione.
+ */
+@Component
+class PaymentsPageDecoder {
+
+    private final JsonMapper jsonMapper = JsonMapper.builder().build();
+    private final ZoneId applicationZoneId;
+    private final OffsetDateTimeDeserializer dateTimeDeserializer =
+        new OffsetDateTimeDeserializer(Costanti.PATTERN_YYYY_MM_DD_T_HH_MM_SS_MILLIS_VARIABILI_XXX);
+    private final DateTimeFormatter dateTimeFormatter =
+        DateTimeFormatter.ofPattern(Costanti.PATTERN_YYYY_MM_DD_T_HH_MM_SS_MILLIS_VARIABILI_XXX, Locale.getDefault());
+
+    PaymentsPageDecoder(ZoneId applicationZoneId) {
+        this.applicationZoneId = applicationZoneId;
+    }
+
+    /**
+     * Decodifica una pagina di pagamenti.
+     *
+     * @param body il body della risposta pagoPA
+     * @return la pagina decodificata, null se il body e' vuoto o {@code null}
+     * @throws tools.jackson.core.JacksonException se il body non e' un JSON valido
+     * @throws IllegalArgumentException se payStatus non e' un valore ammesso
+     */
+    PaymentsPage<PaymentData> decode(InputStream body) {
+        try (JsonParser parser = jsonMapper.createParser(body)) {
+            JsonToken token = parser.nextToken();
+            if (token == null || token == JsonToken.VALUE_NULL) {
+                return null;
+            }
+            if (token != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("Risposta pagamenti non valida: atteso un oggetto JSON, trovato " + token);
+            }
+
+            Integer pageNumber = null;
+            Integer totPage = null;
+            List<PaymentData> data = null;
+            while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                String name = parser.currentName();
+                token = parser.nextToken();
+                if ("metadata".equals(name) && token == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                        String metadataName = parser.currentName();
+                        parser.nextToken();
+                        switch (metadataName) {
+                            case "pageNumber" -> pageNumber = intValue(parser);
+                            case "totPage" -> totPage = intValue(parser);
+                            default -> parser.skipChildren();
+                        }
+                    }
+                } else if ("data".equals(name) && token == JsonToken.START_ARRAY) {
+                    data = new ArrayList<>();
+                    while ((token = parser.nextToken()) != null && token != JsonToken.END_ARRAY) {
+                        if (token == JsonToken.START_OBJECT) {
+                            data.add(readPayment(parser));
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return new PaymentsPage<>(pageNumber, totPage, data);
+        }
+    }
+
+    private PaymentData readPayment(JsonParser parser) {
+        String iuv = null;
+        String iur = null;
+        Long idTransfer = null;
+        Double pay = null;
+        Integer esito = null;
+        LocalDateTime payDate = null;
+        while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+            String name = parser.currentName();
+            parser.nextToken();
+            switch (name) {
+                case "iuv" -> iuv = stringValue(parser);
+                case "iur" -> iur = stringValue(parser);
+                case "idTransfer" -> idTransfer = longValue(parser);
+                case "pay" -> pay = doubleValue(parser);
+                case "payStatus" -> esito = esito(stringValue(parser));
+                case "payDate" -> payDate = localDateTime(stringValue(parser));
+                default -> parser.skipChildren();
+            }
+        }
+        return new PaymentData(iuv, iur, idTransfer, pay, esito, payDate);
+    }
+
+    /**
+     * Converte payStatus nel codice esito memorizzato sul DB, come {@code FdrPaymentsProcessor}.
+     */
+    private static Integer esito(String payStatus) {
+        if (payStatus == null) {
+            return null;
+        }
+        return switch (payStatus) {
+            case "EXECUTED" -> Costanti.PAYMENT_EXECUTED;
+            case "REVOKED" -> Costanti.PAYMENT_REVOKED;
+            case "STAND_IN" -> Costanti.PAYMENT_STAND_IN;
+            case "STAND_IN_NO_RPT" -> Costanti.PAYMENT_STAND_IN_NO_RPT;
+            case "NO_RPT" -> Costanti.PAYMENT_NO_RPT;
+            default -> throw new IllegalArgumentException("Valore di payStatus non ammesso: '" + payStatus + "'");
+        };
+    }
+
+    private LocalDateTime localDateTime(String value) {
+        OffsetDateTime offsetDateTime = dateTimeDeserializer.parseOffsetDateTime(value, dateTimeFormatter);
+        return offsetDateTime != null ? offsetDateTime.atZoneSameInstant(applicationZoneId).toLocalDateTime() : null;
+    }
+
+    private static String stringValue(JsonParser parser) {
+        return parser.currentToken() == JsonToken.VALUE_NULL ? null : parser.getString();
+    }
+
+    private static Integer intValue(JsonParser parser) {
+        return parser.currentToken() == JsonToken.VALUE_NULL ? null : parser.getValueAsInt();
+    }
+
+    private static Long longValue(JsonParser parser) {
+        return parser.currentToken() == JsonToken.VALUE_NULL ? null : parser.getValueAsLong();
+    }
+
+    private static Double doubleValue(JsonParser parser) {
+        return parser.currentToken() == JsonToken.VALUE_NULL ? null : parser.getValueAsDouble();
+    }
+}
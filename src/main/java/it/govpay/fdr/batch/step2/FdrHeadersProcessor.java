@@ -3,6 +3,7 @@ package it.govpay.fdr.batch.step2;
 import it.govpay.fdr.batch.dto.DominioProcessingContext;
 import it.govpay.fdr.batch.dto.FdrHeadersBatch;
 import it.govpay.fdr.batch.exception.FdrFatalException;
+import it.govpay.fdr.batch.service.DominioPollingPolicy;
 import it.govpay.fdr.batch.service.FdrApiService;
 import it.govpay.fdr.client.model.FlowByPSP;
 import lombok.extern.slf4j.Slf4j;
@@ -25,10 +26,12 @@ public class FdrHeadersProcessor implements ItemProcessor<DominioProcessingConte
 
     private final FdrApiService fdrApiService;
     private final ZoneId applicationZoneId;
+    private final DominioPollingPolicy pollingPolicy;
 
-    public FdrHeadersProcessor(FdrApiService fdrApiService, ZoneId applicationZoneId) {
+    public FdrHeadersProcessor(FdrApiService fdrApiService, ZoneId applicationZoneId, DominioPollingPolicy pollingPolicy) {
         this.fdrApiService = fdrApiService;
         this.applicationZoneId = applicationZoneId;
+        this.pollingPolicy = pollingPolicy;
     }
 
     private FdrHeadersBatch.FdrHeader flowConverter(FlowByPSP flow) {
@@ -51,9 +54,10 @@ public class FdrHeadersProcessor implements ItemProcessor<DominioProcessingConte
                 context.getCodDominio(),
                 context.getLastPublicationDate()
             );
-
             if (flows.isEmpty()) {
                 log.info("Nessun nuovo flusso trovato per il dominio {}", context.getCodDominio());
+                // Con flussi nell'elenco l'esito viene registrato dal writer, in base ai flussi effettivamente nuovi
+                pollingPolicy.recordPoll(context.getCodDominio(), false);
                 return null; // Skip this domain
             }
 
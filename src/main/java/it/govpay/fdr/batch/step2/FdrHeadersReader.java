@@ -1,6 +1,6 @@
 package it.govpay.fdr.batch.step2;
 
-import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.springframework.batch.core.step.StepExecution;
@@ -9,9 +9,9 @@ import org.springframework.batch.core.configuration.annotation.StepScope;
 import org.springframework.batch.infrastructure.item.ItemReader;
 import org.springframework.stereotype.Component;
 
-import it.govpay.common.entity.DominioEntity;
 import it.govpay.fdr.batch.dto.DominioProcessingContext;
-import it.govpay.fdr.batch.repository.FdrDominioRepository;
+import it.govpay.fdr.batch.service.DominioPollingPolicy;
+import it.govpay.fdr.batch.service.FrWatermarkService;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -23,50 +23,74 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class FdrHeadersReader implements ItemReader<DominioProcessingContext>, StepExecutionListener {
 
-    private final FdrDominioRepository dominioRepository;
-
     // Thread-safe queue shared across all reader instances within the same step execution
-    private static final java.util.concurrent.atomic.AtomicReference<java.util.concurrent.ConcurrentLinkedQueue<Object[]>> dominioQueueRef =
+    private static final java.util.concurrent.atomic.AtomicReference<java.util.concurrent.ConcurrentLinkedQueue<DominioProcessingContext>> dominioQueueRef =
         new java.util.concurrent.atomic.AtomicReference<>();
     private static final Object lock = new Object();
 
-    public FdrHeadersReader(FdrDominioRepository dominioRepository) {
-        this.dominioRepository = dominioRepository;
+    private final DominioPollingPolicy pollingPolicy;
+    private final FrWatermarkService frWatermarkService;
+
+    public FdrHeadersReader(DominioPollingPolicy pollingPolicy, FrWatermarkService frWatermarkService) {
+        this.pollingPolicy = pollingPolicy;
+        this.frWatermarkService = frWatermarkService;
     }
 
     @Override
     public DominioProcessingContext read() {
         // Initialize queue once for all threads (thread-safe)
-        java.util.concurrent.ConcurrentLinkedQueue<Object[]> queue = dominioQueueRef.get();
+        java.util.concurrent.ConcurrentLinkedQueue<DominioProcessingContext> queue = dominioQueueRef.get();
         if (queue == null) {
             synchronized (lock) {
                 queue = dominioQueueRef.get();
                 if (queue == null) {
-                    List<Object[]> dominiInfos = dominioRepository.findDominioWithMaxDataOraPubblicazione();
-                    log.info("Trovati {} domini abilitati da processare", dominiInfos.size());
-                    queue = new java.util.concurrent.ConcurrentLinkedQueue<>(dominiInfos);
+                    List<DominioProcessingContext> domini = selectDueDomini(findDominiAbilitati());
+                    log.info("Trovati {} domini abilitati da processare", domini.size());
+                    queue = new java.util.concurrent.ConcurrentLinkedQueue<>(domini);
                     dominioQueueRef.set(queue);
                 }
             }
         }
 
         // Each thread polls from the shared queue
-        Object[] dominioInfos = queue.poll();
-        if (dominioInfos != null) {
-            DominioEntity dominio = (DominioEntity) dominioInfos[0];
-            log.debug("Lettura dominio: {} (thread: {})", dominio.getCodDominio(), Thread.currentThread().getName());
-
-            return DominioProcessingContext.builder()
-                .dominioId(dominio.getId())
-                .codDominio(dominio.getCodDominio())
-                .lastPublicationDate((LocalDateTime) dominioInfos[1])
-                .build();
+        DominioProcessingContext context = queue.poll();
+        if (context != null) {
+            log.debug("Lettura dominio: {} (thread: {})", context.getCodDominio(), Thread.currentThread().getName());
+            return context;
         }
 
         log.debug("Nessun altro dominio da processare (thread: {})", Thread.currentThread().getName());
         return null; // End of data
     }
 
+    /**
+     * Domini abilitati con la data dell'ultimo flusso acquisito, da FR_WATERMARK se abilitato.
+     */
+    private List<DominioProcessingContext> findDominiAbilitati() {
+        if (frWatermarkService.isConsistencyCheckEnabled()) {
+            frWatermarkService.checkConsistency();
+        }
+        return frWatermarkService.findDominiAbilitati();
+    }
+
+    /**
+     * Con la cadenza adattiva esclude i domini il cui recupero e' rinviato in questa esecuzione.
+     */
+    private List<DominioProcessingContext> selectDueDomini(List<DominioProcessingContext> domini) {
+        if (pollingPolicy.startRun()) {
+            return domini;
+        }
+        List<DominioProcessingContext> due = new ArrayList<>(domini.size());
+        for (DominioProcessingContext context : domini) {
+            if (pollingPolicy.isDue(context.getCodDominio(), context.getLastPublicationDate())) {
+                due.add(context);
+            }
+        }
+        log.info("Cadenza adattiva: {} domini su {} da interrogare, {} rinviati",
+            due.size(), domini.size(), domini.size() - due.size());
+        return due;
+    }
+
     /**
      * Reset queue for next step execution (called by Spring Batch between job executions)
      */
@@ -1,5 +1,11 @@
 package it.govpay.fdr.batch.step2;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
 import org.springframework.batch.core.step.StepExecution;
 import org.springframework.batch.core.annotation.BeforeStep;
 import org.springframework.batch.infrastructure.item.Chunk;
@@ -7,10 +13,14 @@ import org.springframework.batch.infrastructure.item.ItemWriter;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
+import it.govpay.fdr.batch.config.BatchProperties;
 import it.govpay.fdr.batch.dto.FdrHeadersBatch;
 import it.govpay.fdr.batch.entity.FrTemp;
 import it.govpay.fdr.batch.repository.FrRepository;
 import it.govpay.fdr.batch.repository.FrTempRepository;
+import it.govpay.fdr.batch.service.AcquiredFlowFilter;
+import it.govpay.fdr.batch.service.DominioPollingPolicy;
+import it.govpay.fdr.batch.utils.ChunkUtils;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -26,11 +36,21 @@ public class FdrHeadersWriter implements ItemWriter<FdrHeadersBatch> {
 
     private final FrTempRepository frTempRepository;
     private final FrRepository frRepository;
+    private final FrTempJdbcWriter frTempJdbcWriter;
+    private final BatchProperties batchProperties;
+    private final AcquiredFlowFilter acquiredFlowFilter;
+    private final DominioPollingPolicy pollingPolicy;
     private StepExecution stepExecution;
 
-    public FdrHeadersWriter(FrTempRepository frTempRepository, FrRepository frRepository) {
+    public FdrHeadersWriter(FrTempRepository frTempRepository, FrRepository frRepository,
+            FrTempJdbcWriter frTempJdbcWriter, BatchProperties batchProperties, AcquiredFlowFilter acquiredFlowFilter,
+            DominioPollingPolicy pollingPolicy) {
         this.frTempRepository = frTempRepository;
         this.frRepository = frRepository;
+        this.frTempJdbcWriter = frTempJdbcWriter;
+        this.batchProperties = batchProperties;
+        this.acquiredFlowFilter = acquiredFlowFilter;
+        this.pollingPolicy = pollingPolicy;
     }
 
     @BeforeStep
@@ -40,6 +60,19 @@ public class FdrHeadersWriter implements ItemWriter<FdrHeadersBatch> {
         stepExecution.getExecutionContext().putInt(STATS_SAVED_COUNT, 0);
         stepExecution.getExecutionContext().putInt(STATS_SKIPPED_FR_COUNT, 0);
         stepExecution.getExecutionContext().putInt(STATS_SKIPPED_FR_TEMP_COUNT, 0);
+        refreshAcquiredFlowFilter();
+    }
+
+    /**
+     * Adds to the acquired flows filter, if configured, the flows saved in FR since the last refresh.
+     */
+    public void refreshAcquiredFlowFilter() {
+        try {
+            acquiredFlowFilter.refresh();
+        } catch (RuntimeException e) {
+            // Senza filtro ogni header viene cercato in FR
+            log.warn("Aggiornamento del filtro dei flussi acquisiti non riuscito: {}", e.getMessage(), e);
+        }
     }
 
     @Override
@@ -50,12 +83,19 @@ public class FdrHeadersWriter implements ItemWriter<FdrHeadersBatch> {
 
             HeaderProcessingStats stats = new HeaderProcessingStats();
 
-            for (FdrHeadersBatch.FdrHeader header : batch.getHeaders()) {
-                processHeader(batch.getCodDominio(), header, stats);
+            if (batchProperties.isHeadersBulkWrite()) {
+                processHeadersBulk(batch.getCodDominio(), batch.getHeaders(), stats);
+            } else {
+                for (FdrHeadersBatch.FdrHeader header : batch.getHeaders()) {
+                    processHeader(batch.getCodDominio(), header, stats);
+                }
             }
 
             // Aggiorna le statistiche nel contesto dello step
             updateStepContextStats(stats);
+            // Per la cadenza adattiva contano solo i flussi nuovi, non quelli gia' acquisiti ancora elencati da pagoPA;
+            // l'interrogazione viene registrata dopo il commit del chunk
+            pollingPolicy.recordPoll(batch.getCodDominio(), stats.savedCount > 0);
 
             log.info("Dominio {}: salvati {} nuovi FDR, saltati {} già in FR, saltati {} già in FR_TEMP",
                 batch.getCodDominio(), stats.savedCount, stats.alreadyInFrCount, stats.alreadyInFrTempCount);
@@ -85,12 +125,7 @@ public class FdrHeadersWriter implements ItemWriter<FdrHeadersBatch> {
     private void processHeader(String codDominio, FdrHeadersBatch.FdrHeader header, HeaderProcessingStats stats) {
         // Prima verifica: controllare se esiste già nella tabella definitiva FR
         // Questo evita chiamate API inutili verso pagoPA
-        if (frRepository.existsByCodDominioAndCodFlussoAndCodPspAndRevisione(
-            codDominio,
-            header.getCodFlusso(),
-            header.getIdPsp(),
-            header.getRevision()
-        )) {
+        if (mightBeInFr(codDominio, header) && existsInFr(codDominio, header)) {
             log.debug("FDR {} già presente nella tabella FR definitiva per il dominio {} - saltato",
                 header.getCodFlusso(), codDominio);
             stats.alreadyInFrCount++;
@@ -123,6 +158,95 @@ public class FdrHeadersWriter implements ItemWriter<FdrHeadersBatch> {
         stats.savedCount++;
     }
 
+    /**
+     * Checks the acquired flows filter (always true when the filter is not configured).
+     *
+     * @return false if the flow is certainly not in FR
+     */
+    private boolean mightBeInFr(String codDominio, FdrHeadersBatch.FdrHeader header) {
+        return acquiredFlowFilter.mightContain(codDominio, header.getCodFlusso(), header.getIdPsp(), header.getRevision());
+    }
+
+    private boolean existsInFr(String codDominio, FdrHeadersBatch.FdrHeader header) {
+        boolean found = frRepository.existsByCodDominioAndCodFlussoAndCodPspAndRevisione(
+            codDominio,
+            header.getCodFlusso(),
+            header.getIdPsp(),
+            header.getRevision()
+        );
+        acquiredFlowFilter.recordExactCheck(found);
+        return found;
+    }
+
+    /**
+     * Processes all the headers of a domain with set-based lookups: the keys already in FR and FR_TEMP are
+     * loaded with IN queries on the flow codes, the headers are compared in memory in their original order
+     * and the new ones are inserted in FR_TEMP with JDBC batches. Statistics are the same as
+     * {@link #processHeader}, including headers repeated in the same batch (counted as already in FR_TEMP).
+     * With the acquired flows filter only the flow codes that might be in FR are looked up in FR.
+     *
+     * @param codDominio the domain code
+     * @param headers the FDR headers to process
+     * @param stats statistics object to update
+     */
+    private void processHeadersBulk(String codDominio, List<FdrHeadersBatch.FdrHeader> headers, HeaderProcessingStats stats) {
+        Set<String> codFlussi = new LinkedHashSet<>();
+        Set<String> codFlussiFr = new LinkedHashSet<>();
+        Set<HeaderKey> possibiliInFr = new HashSet<>();
+        for (FdrHeadersBatch.FdrHeader header : headers) {
+            codFlussi.add(header.getCodFlusso());
+            if (mightBeInFr(codDominio, header)) {
+                codFlussiFr.add(header.getCodFlusso());
+                possibiliInFr.add(new HeaderKey(header.getCodFlusso(), header.getIdPsp(), header.getRevision()));
+            }
+        }
+
+        Set<HeaderKey> inFr = new HashSet<>();
+        Set<HeaderKey> inFrTemp = new HashSet<>();
+        int chunkSize = batchProperties.getInClauseChunkSize();
+        for (List<String> blocco : ChunkUtils.chunked(codFlussiFr, chunkSize)) {
+            frRepository.findChiaviByCodDominioAndCodFlussoIn(codDominio, blocco).forEach(row -> inFr.add(HeaderKey.of(row)));
+        }
+        for (List<String> blocco : ChunkUtils.chunked(codFlussi, chunkSize)) {
+            frTempRepository.findChiaviByCodDominioAndCodFlussoIn(codDominio, blocco).forEach(row -> inFrTemp.add(HeaderKey.of(row)));
+        }
+        possibiliInFr.forEach(key -> acquiredFlowFilter.recordExactCheck(inFr.contains(key)));
+
+        List<FrTemp> nuovi = new ArrayList<>();
+        for (FdrHeadersBatch.FdrHeader header : headers) {
+            HeaderKey key = new HeaderKey(header.getCodFlusso(), header.getIdPsp(), header.getRevision());
+            if (inFr.contains(key)) {
+                log.debug("FDR {} già presente nella tabella FR definitiva per il dominio {} - saltato",
+                    header.getCodFlusso(), codDominio);
+                stats.alreadyInFrCount++;
+            } else if (!inFrTemp.add(key)) {
+                log.debug("FDR {} già presente in FR_TEMP - saltato", header.getCodFlusso());
+                stats.alreadyInFrTempCount++;
+            } else {
+                nuovi.add(FrTemp.builder()
+                    .codDominio(codDominio)
+                    .codFlusso(header.getCodFlusso())
+                    .idPsp(header.getIdPsp())
+                    .revisione(header.getRevision())
+                    .dataOraFlusso(header.getDataOraFlusso())
+                    .dataOraPubblicazione(header.getDataOraPubblicazione())
+                    .build());
+            }
+        }
+
+        frTempJdbcWriter.insert(nuovi);
+        stats.savedCount += nuovi.size();
+    }
+
+    /**
+     * Key of a flow within a domain: flow code, PSP and revision.
+     */
+    private record HeaderKey(String codFlusso, String psp, Long revisione) {
+        static HeaderKey of(Object[] row) {
+            return new HeaderKey((String) row[0], (String) row[1], (Long) row[2]);
+        }
+    }
+
     /**
      * Helper class to track header processing statistics.
      */
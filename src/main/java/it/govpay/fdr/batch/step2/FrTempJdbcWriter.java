@@ -0,0 +1,62 @@
+package it.govpay.fdr.batch.step2;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import it.govpay.fdr.batch.config.BatchProperties;
+import it.govpay.fdr.batch.entity.FrTemp;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Inserimento in FR_TEMP degli header di un dominio con INSERT in batch di
+ * {@link BatchProperties#getJdbcBatchSize()} righe.
+ * <p>
+ * La chiave di FR_TEMP e' generata dal DB (IDENTITY o sequence + trigger su Oracle), per cui Hibernate
+ * non puo' accorpare gli INSERT. Le istruzioni usano SQL standard e girano nella transazione del writer.
+ */
+@Component
+@Slf4j
+public class FrTempJdbcWriter {
+
+	private static final String INSERT_FR_TEMP = "INSERT INTO FR_TEMP (cod_dominio, cod_flusso, id_psp, revisione, "
+			+ "data_ora_flusso, data_ora_pubblicazione, bucket_flusso) VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+	private final JdbcTemplate jdbcTemplate;
+	private final BatchProperties batchProperties;
+
+	public FrTempJdbcWriter(JdbcTemplate jdbcTemplate, BatchProperties batchProperties) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.batchProperties = batchProperties;
+	}
+
+	/**
+	 * Inserisce gli header in batch.
+	 *
+	 * @param frTemps gli header da inserire
+	 */
+	public void insert(List<FrTemp> frTemps) {
+		if (frTemps.isEmpty()) {
+			return;
+		}
+		int batchSize = Math.max(1, batchProperties.getJdbcBatchSize());
+		jdbcTemplate.batchUpdate(INSERT_FR_TEMP, frTemps, batchSize, (ps, frTemp) -> {
+			int i = 1;
+			ps.setString(i++, frTemp.getCodDominio());
+			ps.setString(i++, frTemp.getCodFlusso());
+			ps.setString(i++, frTemp.getIdPsp());
+			ps.setLong(i++, frTemp.getRevisione());
+			ps.setTimestamp(i++, timestamp(frTemp.getDataOraFlusso()));
+			ps.setTimestamp(i++, timestamp(frTemp.getDataOraPubblicazione()));
+			ps.setInt(i, FrTemp.calcolaBucket(frTemp.getCodFlusso()));
+		});
+		log.debug("Inseriti via JDBC {} header in FR_TEMP in batch da {}", frTemps.size(), batchSize);
+	}
+
+	private static Timestamp timestamp(LocalDateTime value) {
+		return value != null ? Timestamp.valueOf(value) : null;
+	}
+}
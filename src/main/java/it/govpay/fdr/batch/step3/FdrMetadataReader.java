@@ -1,5 +1,6 @@
 package it.govpay.fdr.batch.step3;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
@@ -11,7 +12,11 @@ import org.springframework.batch.infrastructure.item.ItemStreamException;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import it.govpay.fdr.batch.config.BatchProperties;
 import it.govpay.fdr.batch.entity.FrTemp;
+import it.govpay.fdr.batch.partitioner.DominioPartitioner;
+import it.govpay.fdr.batch.partitioner.DominioSlice;
+import it.govpay.fdr.batch.partitioner.FrTempPartitionCursor;
 import it.govpay.fdr.batch.repository.FrTempRepository;
 import lombok.extern.slf4j.Slf4j;
 
@@ -25,10 +30,15 @@ import lombok.extern.slf4j.Slf4j;
 public class FdrMetadataReader implements ItemReader<FrTemp>, ItemStream {
 
     private final FrTempRepository frTempRepository;
+    private final BatchProperties batchProperties;
 
     @Value("#{stepExecutionContext['codDominio']}")
     private String codDominio;
 
+    /** Domini (o porzioni di dominio) della partizione quando il partitioner raggruppa o divide i domini */
+    @Value("#{stepExecutionContext['codDomini']}")
+    private String codDomini;
+
     @Value("#{stepExecutionContext['partitionNumber']}")
     private Integer partitionNumber;
 
@@ -36,23 +46,43 @@ public class FdrMetadataReader implements ItemReader<FrTemp>, ItemStream {
     private Integer totalPartitions;
 
     private Iterator<FrTemp> flussiIterator;
+    private FrTempPartitionCursor cursor;
     private boolean initialized = false;
 
-    public FdrMetadataReader(FrTempRepository frTempRepository) {
+    public FdrMetadataReader(FrTempRepository frTempRepository, BatchProperties batchProperties) {
         this.frTempRepository = frTempRepository;
+        this.batchProperties = batchProperties;
     }
 
     @Override
     public void open(ExecutionContext executionContext) throws ItemStreamException {
         if (!initialized) {
+            List<String> domini = DominioPartitioner.getDomini(codDominio, codDomini);
             log.info("Inizializzazione partizione {}/{} per dominio: {}",
-                partitionNumber, totalPartitions, codDominio);
-
-            // Carica TUTTI i flussi di questo dominio
-            List<FrTemp> flussi = frTempRepository.findByCodDominioOrderByDataOraPubblicazioneAsc(codDominio);
+                partitionNumber, totalPartitions, domini);
+
+            if (batchProperties.getFrTempReaderPageSize() > 0) {
+                // Lettura a pagine per id, ripresa dall'ultimo flusso letto se la partizione viene riavviata:
+                // il writer valorizza data_ora_pubblicazione, che non puo' fare da chiave della paginazione
+                cursor = new FrTempPartitionCursor(frTempRepository, domini, batchProperties.getFrTempReaderPageSize(),
+                    FrTempPartitionCursor.Ordine.ID, "FdrMetadataReader");
+                cursor.open(executionContext);
+                initialized = true;
+                return;
+            }
+
+            // Carica TUTTI i flussi dei domini della partizione, un dominio dopo l'altro
+            List<FrTemp> flussi = new ArrayList<>();
+            for (String dominio : domini) {
+                for (FrTemp frTemp : FrTempPartitionCursor.findAll(frTempRepository, DominioSlice.parse(dominio))) {
+                    if (isDaAcquisire(frTemp)) {
+                        flussi.add(frTemp);
+                    }
+                }
+            }
 
             log.info("Partizione {} (dominio {}): trovati {} flussi da processare",
-                partitionNumber, codDominio, flussi.size());
+                partitionNumber, domini, flussi.size());
 
             flussiIterator = flussi.iterator();
             initialized = true;
@@ -61,26 +91,49 @@ public class FdrMetadataReader implements ItemReader<FrTemp>, ItemStream {
 
     @Override
     public FrTemp read() {
-        if (flussiIterator != null && flussiIterator.hasNext()) {
-            FrTemp frTemp = flussiIterator.next();
+        FrTemp frTemp = nextFlusso();
+        if (frTemp != null) {
             log.debug("Lettura flusso per dominio {}: {} (revisione {})",
-                codDominio, frTemp.getCodFlusso(), frTemp.getRevisione());
+                frTemp.getCodDominio(), frTemp.getCodFlusso(), frTemp.getRevisione());
             return frTemp;
         }
 
         log.info("Partizione {} (dominio {}): completata lettura di tutti i flussi",
-            partitionNumber, codDominio);
+            partitionNumber, codDomini != null ? codDomini : codDominio);
         return null; // End of partition data
     }
 
+    private FrTemp nextFlusso() {
+        if (cursor != null) {
+            FrTemp frTemp = cursor.next();
+            while (frTemp != null && !isDaAcquisire(frTemp)) {
+                frTemp = cursor.next();
+            }
+            return frTemp;
+        }
+        return flussiIterator != null && flussiIterator.hasNext() ? flussiIterator.next() : null;
+    }
+
+    /**
+     * Con la ripresa di FR_TEMP i flussi con i metadati acquisiti da un'esecuzione precedente passano
+     * direttamente a Step 4.
+     */
+    private boolean isDaAcquisire(FrTemp frTemp) {
+        return !batchProperties.isFrTempResume() || frTemp.getCodPsp() == null;
+    }
+
     @Override
     public void update(ExecutionContext executionContext) throws ItemStreamException {
-        // Niente da salvare nello stato
+        // Con la lettura a pagine salva l'ultima chiave letta, altrimenti niente da salvare nello stato
+        if (cursor != null) {
+            cursor.update(executionContext);
+        }
     }
 
     @Override
     public void close() throws ItemStreamException {
         // Cleanup se necessario
         flussiIterator = null;
+        cursor = null;
     }
 }
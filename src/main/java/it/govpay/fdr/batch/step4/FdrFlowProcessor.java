@@ -0,0 +1,120 @@
+package it.govpay.fdr.batch.step4;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.springframework.batch.infrastructure.item.ItemProcessor;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
+
+import it.govpay.fdr.batch.config.BatchProperties;
+import it.govpay.fdr.batch.entity.FrTemp;
+import it.govpay.fdr.batch.step3.FdrMetadataProcessor;
+import it.govpay.fdr.batch.step4.FdrPaymentsProcessor.PaymentData;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Processor dello step unico di acquisizione ({@code govpay.batch.single-pass-acquisition=true}):
+ * per ogni flusso di FR_TEMP scarica dettaglio e pagamenti e produce direttamente i dati scritti da
+ * {@link FdrPaymentsWriter}, senza salvare i metadati in FR_TEMP e rileggerli in uno step successivo.
+ * <p>
+ * Dettaglio e pagamenti vengono richiesti in parallelo, i pagamenti sull'executor condiviso
+ * {@code flowPaymentsExecutor}; se il dettaglio fallisce il recupero dei pagamenti viene interrotto. Se e' attiva la soglia di streaming il numero
+ * di pagamenti dichiarato nel dettaglio serve a scegliere la modalita': in quel caso il dettaglio viene
+ * scaricato per primo e i pagamenti seguono le stesse regole di Step 4.
+ */
+@Component
+@Slf4j
+public class FdrFlowProcessor implements ItemProcessor<FrTemp, FdrPaymentsProcessor.FdrCompleteData> {
+
+    private final FdrMetadataProcessor fdrMetadataProcessor;
+    private final FdrPaymentsProcessor fdrPaymentsProcessor;
+    private final BatchProperties batchProperties;
+    private final TaskExecutor paymentsExecutor;
+
+    public FdrFlowProcessor(FdrMetadataProcessor fdrMetadataProcessor, FdrPaymentsProcessor fdrPaymentsProcessor,
+            BatchProperties batchProperties, @Qualifier("flowPaymentsExecutor") TaskExecutor paymentsExecutor) {
+        this.fdrMetadataProcessor = fdrMetadataProcessor;
+        this.fdrPaymentsProcessor = fdrPaymentsProcessor;
+        this.batchProperties = batchProperties;
+        this.paymentsExecutor = paymentsExecutor;
+    }
+
+    @Override
+    public FdrPaymentsProcessor.FdrCompleteData process(FrTemp frTemp) throws Exception {
+        return process(frTemp, null);
+    }
+
+    /**
+     * Come {@link #process(FrTemp)}, eseguendo {@code pageListener} dopo ogni pagina di pagamenti scaricata
+     * (null se non serve): la coda di lavoro lo usa per rinnovare il lease dei flussi con molte pagine.
+     */
+    public FdrPaymentsProcessor.FdrCompleteData process(FrTemp frTemp, Runnable pageListener) throws Exception {
+        if (batchProperties.getPaymentsStreamingThreshold() > 0) {
+            FrTemp flow = withMetadata(frTemp, fdrMetadataProcessor.process(frTemp));
+            return fdrPaymentsProcessor.process(flow, pageListener);
+        }
+
+        // Pagamenti in parallelo al dettaglio del flusso: a differenza di CompletableFuture, cancel(true)
+        // su un FutureTask interrompe il thread che sta scaricando
+        FutureTask<List<PaymentData>> payments = new FutureTask<>(() -> fdrPaymentsProcessor.fetchPayments(frTemp, pageListener));
+        paymentsExecutor.execute(payments);
+        FdrMetadataProcessor.FdrCompleteData metadata;
+        try {
+            metadata = fdrMetadataProcessor.process(frTemp);
+        } catch (Exception e) {
+            payments.cancel(true);
+            throw e;
+        }
+        return fdrPaymentsProcessor.toCompleteData(withMetadata(frTemp, metadata), awaitPayments(frTemp, payments), null);
+    }
+
+    private static List<PaymentData> awaitPayments(FrTemp frTemp, Future<List<PaymentData>> payments) throws Exception {
+        try {
+            return payments.get();
+        } catch (InterruptedException e) {
+            payments.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RestClientException("Interrotto il recupero dei pagamenti per il flusso " + frTemp.getCodFlusso(), e);
+        } catch (CancellationException e) {
+            throw new RestClientException("Annullato il recupero dei pagamenti per il flusso " + frTemp.getCodFlusso(), e);
+        } catch (ExecutionException e) {
+            // Propaga l'eccezione originale per mantenere la classificazione retry/non retry dello step
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Copia del flusso letto da FR_TEMP con i metadati del dettaglio, come li salverebbe Step 3:
+     * l'entity letta non viene modificata.
+     */
+    static FrTemp withMetadata(FrTemp frTemp, FdrMetadataProcessor.FdrCompleteData metadata) {
+        return FrTemp.builder()
+            .id(frTemp.getId())
+            .idPsp(frTemp.getIdPsp())
+            .codDominio(frTemp.getCodDominio())
+            .codFlusso(frTemp.getCodFlusso())
+            .revisione(frTemp.getRevisione())
+            .codPsp(metadata.getCodPsp())
+            .iur(metadata.getIur())
+            .dataOraFlusso(metadata.getDataOraFlusso())
+            .dataRegolamento(metadata.getDataRegolamento())
+            .numeroPagamenti(metadata.getNumeroPagamenti())
+            .importoTotalePagamenti(metadata.getImportoTotalePagamenti())
+            .codBicRiversamento(metadata.getCodBicRiversamento())
+            .ragioneSocialePsp(metadata.getRagioneSocialePsp())
+            .ragioneSocialeDominio(metadata.getRagioneSocialeDominio())
+            .dataOraPubblicazione(metadata.getDataOraPubblicazione())
+            .dataOraAggiornamento(metadata.getDataOraAggiornamento())
+            .stato(metadata.getStato())
+            .build();
+    }
+}
@@ -1,21 +1,28 @@
 package it.govpay.fdr.batch.step4;
 
 import it.govpay.fdr.batch.Costanti;
+import it.govpay.fdr.batch.config.BatchProperties;
+import it.govpay.fdr.batch.config.BatchProperties.PaymentsDecodeMode;
 import it.govpay.fdr.batch.entity.FrTemp;
 import it.govpay.fdr.batch.service.FdrApiService;
 import it.govpay.fdr.client.model.Payment;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.batch.infrastructure.item.ItemProcessor;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestClientException;
 
+import java.io.Serializable;
 import java.time.LocalDateTime;
 import java.time.OffsetDateTime;
 import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Processor to fetch FDR details and payments from pagoPA API
@@ -26,18 +33,69 @@ public class FdrPaymentsProcessor implements ItemProcessor<FrTemp, FdrPaymentsPr
 
     private final FdrApiService fdrApiService;
     private final ZoneId applicationZoneId;
+    private final BatchProperties batchProperties;
 
-    public FdrPaymentsProcessor(FdrApiService fdrApiService, ZoneId applicationZoneId) {
+    public FdrPaymentsProcessor(FdrApiService fdrApiService, ZoneId applicationZoneId, BatchProperties batchProperties) {
         this.fdrApiService = fdrApiService;
         this.applicationZoneId = applicationZoneId;
+        this.batchProperties = batchProperties;
     }
 
     @Override
     public FdrCompleteData process(FrTemp frTemp) throws Exception {
+        return process(frTemp, null);
+    }
+
+    /**
+     * Come {@link #process(FrTemp)}, eseguendo {@code pageListener} dopo ogni pagina di pagamenti
+     * scaricata (null se non serve).
+     */
+    FdrCompleteData process(FrTemp frTemp, Runnable pageListener) throws Exception {
         log.info("Processing FDR: domain={}, flow={}, revision={}, psp={}",
             frTemp.getCodDominio(), frTemp.getCodFlusso(), frTemp.getRevisione(), frTemp.getIdPsp());
 
         try {
+            if (isStreaming(frTemp)) {
+                // Flusso oltre soglia: i pagamenti vengono scaricati e scritti una pagina alla volta dal writer
+                log.info("FDR {} con {} pagamenti: acquisizione in streaming", frTemp.getCodFlusso(), frTemp.getNumeroPagamenti());
+                return toCompleteData(frTemp, null, pageConsumer -> forEachPaymentsPage(frTemp, pageConsumer));
+            }
+            return toCompleteData(frTemp, fetchPayments(frTemp, pageListener), null);
+
+        } catch (RestClientException e) {
+            log.error("Errore nell'elaborazione dell'FDR {}: {}", frTemp.getCodFlusso(), e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * Scarica tutti i pagamenti del flusso, nella modalita' di decodifica configurata.
+     */
+    List<PaymentData> fetchPayments(FrTemp frTemp) {
+        return fetchPayments(frTemp, null);
+    }
+
+    /**
+     * Scarica tutti i pagamenti del flusso eseguendo {@code pageListener} dopo ogni pagina (null se non serve).
+     */
+    List<PaymentData> fetchPayments(FrTemp frTemp, Runnable pageListener) {
+        List<PaymentData> paymentDataList;
+        if (pageListener != null) {
+            List<PaymentData> received = new ArrayList<>();
+            forEachPaymentsPage(frTemp, page -> {
+                received.addAll(page);
+                pageListener.run();
+            });
+            paymentDataList = received;
+        } else if (isStreamingDecode()) {
+            // Pagine decodificate direttamente nei PaymentData, senza DTO del client generato
+            paymentDataList = fdrApiService.getPaymentDataFromPublishedFlow(
+                frTemp.getCodDominio(),
+                frTemp.getCodFlusso(),
+                frTemp.getRevisione(),
+                frTemp.getIdPsp()
+            );
+        } else {
             // Fetch payments
             List<Payment> payments = fdrApiService.getPaymentsFromPublishedFlow(
                 frTemp.getCodDominio(),
@@ -46,51 +104,88 @@ public class FdrPaymentsProcessor implements ItemProcessor<FrTemp, FdrPaymentsPr
                 frTemp.getIdPsp()
             );
 
-            log.info("Recuperati {} pagamenti per FDR {}", payments.size(), frTemp.getCodFlusso());
-
             // Convert to internal model
-            List<PaymentData> paymentDataList = payments.stream()
-                .map(this::convertPayment)
-                .toList();
-
-            FdrCompleteData result = FdrCompleteData.builder()
-                .frTempId(frTemp.getId())
-                .codPsp(frTemp.getIdPsp())
-                .codDominio(frTemp.getCodDominio())
-                .codFlusso(frTemp.getCodFlusso())
-                .iur(frTemp.getIur())
-                .dataOraFlusso(frTemp.getDataOraFlusso())
-                .dataRegolamento(frTemp.getDataRegolamento())
-                .numeroPagamenti(frTemp.getNumeroPagamenti())
-                .importoTotalePagamenti(frTemp.getImportoTotalePagamenti())
-                .codBicRiversamento(frTemp.getCodBicRiversamento())
-                .ragioneSocialePsp(frTemp.getRagioneSocialePsp())
-                .ragioneSocialeDominio(frTemp.getRagioneSocialeDominio())
-                .dataOraPubblicazione(frTemp.getDataOraPubblicazione())
-                .dataOraAggiornamento(frTemp.getDataOraAggiornamento())
-                .revisione(frTemp.getRevisione())
-                .stato(frTemp.getStato())
-                .payments(paymentDataList)
-                .build();
-
-            log.debug("FdrCompleteData creato - Flusso: {}, IUR: {}, Dominio: {}, PSP: {}, Revisione: {}, NumPagamenti: {}, ImportoTotale: {}, Payments in lista: {}",
-                result.getCodFlusso(),
-                result.getIur(),
-                result.getCodDominio(),
-                result.getCodPsp(),
-                result.getRevisione(),
-                result.getNumeroPagamenti(),
-                result.getImportoTotalePagamenti(),
-                result.getPayments() != null ? result.getPayments().size() : 0);
-
-            return result;
+            paymentDataList = convertPayments(payments);
+        }
 
-        } catch (RestClientException e) {
-            log.error("Errore nell'elaborazione dell'FDR {}: {}", frTemp.getCodFlusso(), e.getMessage());
-            throw e;
+        log.info("Recuperati {} pagamenti per FDR {}", paymentDataList.size(), frTemp.getCodFlusso());
+        return paymentDataList;
+    }
+
+    /**
+     * Compone i dati da scrivere a partire dai metadati del flusso in FR_TEMP e dai pagamenti
+     * (lista completa oppure sorgente paginata per i flussi in streaming).
+     */
+    FdrCompleteData toCompleteData(FrTemp frTemp, List<PaymentData> paymentDataList, PaymentPages paymentPages) {
+        FdrCompleteData result = FdrCompleteData.builder()
+            .frTempId(frTemp.getId())
+            .codPsp(frTemp.getIdPsp())
+            .codDominio(frTemp.getCodDominio())
+            .codFlusso(frTemp.getCodFlusso())
+            .iur(frTemp.getIur())
+            .dataOraFlusso(frTemp.getDataOraFlusso())
+            .dataRegolamento(frTemp.getDataRegolamento())
+            .numeroPagamenti(frTemp.getNumeroPagamenti())
+            .importoTotalePagamenti(frTemp.getImportoTotalePagamenti())
+            .codBicRiversamento(frTemp.getCodBicRiversamento())
+            .ragioneSocialePsp(frTemp.getRagioneSocialePsp())
+            .ragioneSocialeDominio(frTemp.getRagioneSocialeDominio())
+            .dataOraPubblicazione(frTemp.getDataOraPubblicazione())
+            .dataOraAggiornamento(frTemp.getDataOraAggiornamento())
+            .revisione(frTemp.getRevisione())
+            .stato(frTemp.getStato())
+            .payments(paymentDataList)
+            .paymentPages(paymentPages)
+            .build();
+
+        log.debug("FdrCompleteData creato - Flusso: {}, IUR: {}, Dominio: {}, PSP: {}, Revisione: {}, NumPagamenti: {}, ImportoTotale: {}, Payments in lista: {}",
+            result.getCodFlusso(),
+            result.getIur(),
+            result.getCodDominio(),
+            result.getCodPsp(),
+            result.getRevisione(),
+            result.getNumeroPagamenti(),
+            result.getImportoTotalePagamenti(),
+            result.getPayments() != null ? result.getPayments().size() : 0);
+
+        return result;
+    }
+
+    boolean isStreaming(FrTemp frTemp) {
+        long soglia = batchProperties.getPaymentsStreamingThreshold();
+        return soglia > 0 && frTemp.getNumeroPagamenti() != null && frTemp.getNumeroPagamenti() > soglia;
+    }
+
+    private boolean isStreamingDecode() {
+        return batchProperties.getPaymentsDecodeMode() == PaymentsDecodeMode.STREAMING;
+    }
+
+    private void forEachPaymentsPage(FrTemp frTemp, Consumer<List<PaymentData>> pageConsumer) {
+        if (isStreamingDecode()) {
+            fdrApiService.forEachPaymentDataPage(
+                frTemp.getCodDominio(),
+                frTemp.getCodFlusso(),
+                frTemp.getRevisione(),
+                frTemp.getIdPsp(),
+                pageConsumer
+            );
+        } else {
+            fdrApiService.forEachPaymentsPage(
+                frTemp.getCodDominio(),
+                frTemp.getCodFlusso(),
+                frTemp.getRevisione(),
+                frTemp.getIdPsp(),
+                page -> pageConsumer.accept(convertPayments(page))
+            );
         }
     }
 
+    private List<PaymentData> convertPayments(List<Payment> payments) {
+        return payments.stream()
+            .map(this::convertPayment)
+            .toList();
+    }
+
     private PaymentData convertPayment(Payment payment) {
         return PaymentData.builder()
             .iuv(payment.getIuv())
@@ -152,12 +247,33 @@ public class FdrPaymentsProcessor implements ItemProcessor<FrTemp, FdrPaymentsPr
         private LocalDateTime dataOraAggiornamento;
         private Long revisione;
         private String stato;
+        /** Pagamenti del flusso, null se il flusso e' acquisito in streaming. */
         private List<PaymentData> payments;
+        /** Sorgente paginata dei pagamenti, valorizzata solo per i flussi acquisiti in streaming. */
+        @ToString.Exclude
+        @EqualsAndHashCode.Exclude
+        private PaymentPages paymentPages;
+    }
+
+    /**
+     * Sorgente dei pagamenti di un flusso letta una pagina alla volta.
+     */
+    @FunctionalInterface
+    public interface PaymentPages {
+        /**
+         * Scarica le pagine del flusso in ordine, consegnando ciascuna al consumer
+         * prima di richiedere la successiva.
+         *
+         * @param pageConsumer consumer delle pagine di pagamenti
+         * @throws RestClientException in caso di errore nel recupero di una pagina
+         */
+        void forEachPage(Consumer<List<PaymentData>> pageConsumer);
     }
 
     @Data
     @Builder
-    public static class PaymentData {
+    @AllArgsConstructor
+    public static class PaymentData implements Serializable {
         private String iuv;
         private String iur;
         private Long indiceDati;
@@ -1,6 +1,10 @@
 package it.govpay.fdr.batch.step4;
 
+import it.govpay.fdr.batch.config.BatchProperties;
 import it.govpay.fdr.batch.entity.FrTemp;
+import it.govpay.fdr.batch.partitioner.DominioPartitioner;
+import it.govpay.fdr.batch.partitioner.DominioSlice;
+import it.govpay.fdr.batch.partitioner.FrTempPartitionCursor;
 import it.govpay.fdr.batch.repository.FrTempRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.batch.core.configuration.annotation.StepScope;
@@ -11,6 +15,7 @@ import org.springframework.batch.infrastructure.item.ItemStreamException;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
@@ -24,10 +29,15 @@ import java.util.List;
 public class FdrPaymentsReader implements ItemReader<FrTemp>, ItemStream {
 
     private final FrTempRepository frTempRepository;
+    private final BatchProperties batchProperties;
 
     @Value("#{stepExecutionContext['codDominio']}")
     private String codDominio;
 
+    /** Domini (o porzioni di dominio) della partizione quando il partitioner raggruppa o divide i domini */
+    @Value("#{stepExecutionContext['codDomini']}")
+    private String codDomini;
+
     @Value("#{stepExecutionContext['partitionNumber']}")
     private Integer partitionNumber;
 
@@ -35,23 +45,38 @@ public class FdrPaymentsReader implements ItemReader<FrTemp>, ItemStream {
     private Integer totalPartitions;
 
     private Iterator<FrTemp> flussiIterator;
+    private FrTempPartitionCursor cursor;
     private boolean initialized = false;
 
-    public FdrPaymentsReader(FrTempRepository frTempRepository) {
+    public FdrPaymentsReader(FrTempRepository frTempRepository, BatchProperties batchProperties) {
         this.frTempRepository = frTempRepository;
+        this.batchProperties = batchProperties;
     }
 
     @Override
     public void open(ExecutionContext executionContext) throws ItemStreamException {
         if (!initialized) {
+            List<String> domini = DominioPartitioner.getDomini(codDominio, codDomini);
             log.info("Inizializzazione partizione {}/{} per dominio: {}",
-                partitionNumber, totalPartitions, codDominio);
-
-            // Carica TUTTI i flussi di questo dominio
-            List<FrTemp> flussi = frTempRepository.findByCodDominioOrderByDataOraPubblicazioneAsc(codDominio);
+                partitionNumber, totalPartitions, domini);
+
+            if (batchProperties.getFrTempReaderPageSize() > 0) {
+                // Lettura a pagine, ripresa dall'ultimo flusso letto se la partizione viene riavviata
+                cursor = new FrTempPartitionCursor(frTempRepository, domini, batchProperties.getFrTempReaderPageSize(),
+                    FrTempPartitionCursor.Ordine.PUBBLICAZIONE, "FdrPaymentsReader");
+                cursor.open(executionContext);
+                initialized = true;
+                return;
+            }
+
+            // Carica TUTTI i flussi dei domini della partizione, un dominio dopo l'altro
+            List<FrTemp> flussi = new ArrayList<>();
+            for (String dominio : domini) {
+                flussi.addAll(FrTempPartitionCursor.findAll(frTempRepository, DominioSlice.parse(dominio)));
+            }
 
             log.info("Partizione {} (dominio {}): trovati {} flussi da processare per acquisizione pagamenti",
-                partitionNumber, codDominio, flussi.size());
+                partitionNumber, domini, flussi.size());
 
             flussiIterator = flussi.iterator();
             initialized = true;
@@ -60,10 +85,10 @@ public class FdrPaymentsReader implements ItemReader<FrTemp>, ItemStream {
 
     @Override
     public FrTemp read() {
-        if (flussiIterator != null && flussiIterator.hasNext()) {
-            FrTemp frTemp = flussiIterator.next();
+        FrTemp frTemp = nextFlusso();
+        if (frTemp != null) {
             log.debug("Lettura FR_TEMP per dominio {}: Flusso {}, IUR: {}, PSP: {}, Revisione: {}, NumPagamenti: {}, ImportoTotale: {}",
-                codDominio,
+                frTemp.getCodDominio(),
                 frTemp.getCodFlusso(),
                 frTemp.getIur(),
                 frTemp.getCodPsp(),
@@ -74,18 +99,29 @@ public class FdrPaymentsReader implements ItemReader<FrTemp>, ItemStream {
         }
 
         log.info("Partizione {} (dominio {}): completata lettura di tutti i flussi per pagamenti",
-            partitionNumber, codDominio);
+            partitionNumber, codDomini != null ? codDomini : codDominio);
         return null; // End of partition data
     }
 
+    private FrTemp nextFlusso() {
+        if (cursor != null) {
+            return cursor.next();
+        }
+        return flussiIterator != null && flussiIterator.hasNext() ? flussiIterator.next() : null;
+    }
+
     @Override
     public void update(ExecutionContext executionContext) throws ItemStreamException {
-        // Niente da salvare nello stato
+        // Con la lettura a pagine salva l'ultima chiave letta, altrimenti niente da salvare nello stato
+        if (cursor != null) {
+            cursor.update(executionContext);
+        }
     }
 
     @Override
     public void close() throws ItemStreamException {
         // Cleanup se necessario
         flussiIterator = null;
+        cursor = null;
     }
 }
@@ -5,19 +5,28 @@ import java.math.RoundingMode;
 import java.text.MessageFormat;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
 
+import org.hibernate.Hibernate;
 import org.springframework.batch.infrastructure.item.Chunk;
 import org.springframework.batch.infrastructure.item.ItemWriter;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import it.govpay.common.entity.DominioEntity;
 import it.govpay.common.repository.DominioRepository;
 import it.govpay.common.utils.IuvUtils;
 import it.govpay.fdr.batch.Costanti;
+import it.govpay.fdr.batch.config.BatchProperties;
 import it.govpay.fdr.batch.entity.Fr;
 import it.govpay.fdr.batch.entity.Pagamento;
 import it.govpay.fdr.batch.entity.Rendicontazione;
@@ -31,6 +40,10 @@ import it.govpay.fdr.batch.repository.FrTempRepository;
 import it.govpay.fdr.batch.repository.PagamentoRepository;
 import it.govpay.fdr.batch.repository.SingoloVersamentoRepository;
 import it.govpay.fdr.batch.repository.VersamentoRepository;
+import it.govpay.fdr.batch.service.AcquiredFlowFilter;
+import it.govpay.fdr.batch.service.FrWatermarkService;
+import it.govpay.fdr.batch.service.PaymentsPageCache;
+import jakarta.persistence.EntityManager;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -47,6 +60,12 @@ public class FdrPaymentsWriter implements ItemWriter<FdrPaymentsProcessor.FdrCom
     private final SingoloVersamentoRepository singoloVersamentoRepository;
     private final FrTempRepository frTempRepository;
     private final GdeService gdeService;
+    private final FrJdbcWriter frJdbcWriter;
+    private final EntityManager entityManager;
+    private final BatchProperties batchProperties;
+    private final PaymentsPageCache paymentsPageCache;
+    private final FrWatermarkService frWatermarkService;
+    private final AcquiredFlowFilter acquiredFlowFilter;
 
     public FdrPaymentsWriter(
         FrRepository frRepository,
@@ -55,7 +74,13 @@ public class FdrPaymentsWriter implements ItemWriter<FdrPaymentsProcessor.FdrCom
         VersamentoRepository versamentoRepository,
         SingoloVersamentoRepository singoloVersamentoRepository,
         FrTempRepository frTempRepository,
-        GdeService gdeService
+        GdeService gdeService,
+        FrJdbcWriter frJdbcWriter,
+        EntityManager entityManager,
+        BatchProperties batchProperties,
+        PaymentsPageCache paymentsPageCache,
+        FrWatermarkService frWatermarkService,
+        AcquiredFlowFilter acquiredFlowFilter
     ) {
         this.frRepository = frRepository;
         this.dominioRepository = dominioRepository;
@@ -64,6 +89,12 @@ public class FdrPaymentsWriter implements ItemWriter<FdrPaymentsProcessor.FdrCom
         this.singoloVersamentoRepository = singoloVersamentoRepository;
         this.frTempRepository = frTempRepository;
         this.gdeService = gdeService;
+        this.frJdbcWriter = frJdbcWriter;
+        this.entityManager = entityManager;
+        this.batchProperties = batchProperties;
+        this.paymentsPageCache = paymentsPageCache;
+        this.frWatermarkService = frWatermarkService;
+        this.acquiredFlowFilter = acquiredFlowFilter;
     }
 
     @Override
@@ -71,7 +102,8 @@ public class FdrPaymentsWriter implements ItemWriter<FdrPaymentsProcessor.FdrCom
     public void write(Chunk<? extends FdrPaymentsProcessor.FdrCompleteData> chunk) {
         for (FdrPaymentsProcessor.FdrCompleteData data : chunk) {
             log.info("Writing FDR: domain={}, flow={}, pspId={}, revision={} with {} payments",
-                data.getCodDominio(), data.getCodFlusso(), data.getCodPsp(), data.getRevisione(), data.getPayments().size());
+                data.getCodDominio(), data.getCodFlusso(), data.getCodPsp(), data.getRevisione(),
+                data.getPayments() != null ? data.getPayments().size() : "streaming");
 
             try {
                 // Check if FR already exists
@@ -84,14 +116,22 @@ public class FdrPaymentsWriter implements ItemWriter<FdrPaymentsProcessor.FdrCom
                 if (existingFr.isPresent()) {
                     log.warn("FDR {} esiste già, salto", data.getCodFlusso());
                     markFrTempAsProcessed(data.getFrTempId());
+                    purgePaymentsPageCache(data);
                 } else {
 	                // Find domain
 	                Optional<DominioEntity> dominioOpt = dominioRepository.findByCodDominio(data.getCodDominio());
 	                if (dominioOpt.isPresent()) {
-	                    writeProcessedData(data, dominioOpt);
+	                    if (data.getPaymentPages() != null) {
+	                        writeStreamingData(data, dominioOpt.get());
+	                    } else {
+	                        writeProcessedData(data, dominioOpt);
+	                    }
+	                    frWatermarkService.advance(dominioOpt.get(), data.getDataOraPubblicazione());
 
 	                    // Mark FR_TEMP record as processed
 	                    markFrTempAsProcessed(data.getFrTempId());
+	                    purgePaymentsPageCache(data);
+	                    addToAcquiredFlowFilter(data);
 	                } else {
 	                    log.error("Dominio {} non trovato, salto FDR {}", data.getCodDominio(), data.getCodFlusso());
 	                }
@@ -122,49 +162,217 @@ public class FdrPaymentsWriter implements ItemWriter<FdrPaymentsProcessor.FdrCom
 		Fr fr = buildFR(data, dominio);
 
 		List<String> anomalieFr = new ArrayList<>();
-		BigDecimal totaleImportiRendicontati = BigDecimal.ZERO;
 
-		// Create and save rendicontazioni
-		for (FdrPaymentsProcessor.PaymentData paymentData : data.getPayments()) {
-		    // Try to find existing payment for FK reference
-		    List<Pagamento> pagamenti = findAllPagamenti(data.getCodDominio(), paymentData.getIuv(), paymentData.getIur(), paymentData.getIndiceDati());
-		    Pagamento pagamento = (pagamenti.size() == 1 ? pagamenti.get(0) : null);
+		// Chiavi (iuv, iur, indiceDati) gia' rendicontate nel flusso, per il controllo dei duplicati
+		Set<ChiaveRendicontazione> chiaviRendicontate = new HashSet<>(data.getPayments().size() * 2);
 
-		    Rendicontazione rendicontazione = buildRendicontazione(fr, paymentData, pagamento);
+		// Create rendicontazioni
+		List<List<Pagamento>> pagamentiRendicontati = trovaPagamentiRendicontati(fr, data.getPayments());
+		for (Rendicontazione rendicontazione : elaboraRendicontazioni(fr, dominio, data.getPayments(), pagamentiRendicontati, chiaviRendicontate, anomalieFr)) {
+		    fr.addRendicontazione(rendicontazione);
+		}
+		BigDecimal totaleImportiRendicontati = sommaImportiRendicontati(data.getPayments());
 
-		    if (paymentData.getImportoPagato() != null) {
-		        totaleImportiRendicontati = totaleImportiRendicontati.add(BigDecimal.valueOf(paymentData.getImportoPagato()));
+		// Singole rendicontazioni elaborate.
+		// Controlli di quadratura generali
+		controlliQuadraturaGenerali(fr, data.getPayments().size(), totaleImportiRendicontati, anomalieFr);
+
+		// Decido lo stato del FR
+		impostaStatoFr(fr, anomalieFr);
+
+		// Se la revisione è > 1, marco come obsoleti i flussi precedenti con la stessa chiave (codDominio, codFlusso, codPsp)
+		marcaRevisioniPrecedentiObsolete(fr);
+
+		// Save FR
+		if (batchProperties.getFrWriterMode() == BatchProperties.FrWriterMode.JDBC) {
+		    fr = frJdbcWriter.insert(fr);
+		} else {
+		    fr = frRepository.save(fr);
+		}
+
+		log.info("FDR salvato sul DB - Flusso: {}, IUR: {}, ID: {}, NumPagamenti: {}, ImportoTotale: {}, Stato: {}, Rendicontazioni salvate: {}, Anomalie: {}",
+		    data.getCodFlusso(),
+		    fr.getIur(),
+		    fr.getId(),
+		    fr.getNumeroPagamenti(),
+		    fr.getImportoTotalePagamenti(),
+		    fr.getStato(),
+		    fr.getRendicontazioni() != null ? fr.getRendicontazioni().size() : 0,
+		    fr.getDescrizioneStato() != null ? "SI" : "NO");
+		if (fr.getDescrizioneStato() != null || fr.getRendicontazioni().stream().anyMatch(rnd -> rnd.getAnomalie() != null))
+		    log.info("Flusso di rendicontazione acquisito con anomalie.");
+		else
+		    log.info("Flusso di rendicontazione acquisito senza anomalie.");
+	}
+
+	/**
+	 * Scrive un flusso acquisito in streaming: la riga FR viene inserita subito, ogni pagina di
+	 * pagamenti viene riconciliata e inserita prima di richiedere la successiva e lo stato del
+	 * flusso viene aggiornato al termine, sulla base dei totali progressivi.
+	 * <p>
+	 * Le pagine vengono richieste a pagoPA dentro la transazione del chunk: la connessione al DB, il lock
+	 * sulle revisioni precedenti marcate obsolete e le righe gia' inserite restano impegnati per tutta la
+	 * durata dello scaricamento, che per i flussi piu' grandi puo' durare minuti. Il timeout delle
+	 * transazioni e del pool di connessioni va dimensionato di conseguenza.
+	 */
+	private void writeStreamingData(FdrPaymentsProcessor.FdrCompleteData data, DominioEntity dominio) {
+		log.info("Inizio scrittura in streaming sul DB - Flusso: {}, Dominio: {}, PSP: {}, Revisione: {}, NumPagamenti: {}, ImportoTotale: {}",
+		    data.getCodFlusso(),
+		    data.getCodDominio(),
+		    data.getCodPsp(),
+		    data.getRevisione(),
+		    data.getNumeroPagamenti(),
+		    data.getImportoTotalePagamenti());
+
+		Fr fr = buildFR(data, dominio);
+
+		// Le revisioni precedenti vanno marcate prima di inserire il nuovo flusso
+		marcaRevisioniPrecedentiObsolete(fr);
+		frJdbcWriter.insertFr(fr);
+
+		List<String> anomalieFr = new ArrayList<>();
+		Set<ChiaveRendicontazione> chiaviRendicontate = new HashSet<>();
+		TotaliStreaming totali = new TotaliStreaming();
+
+		data.getPaymentPages().forEachPage(page -> {
+		    List<List<Pagamento>> pagamentiRendicontati = trovaPagamentiRendicontati(fr, page);
+		    List<Rendicontazione> rendicontazioni = elaboraRendicontazioni(fr, dominio, page, pagamentiRendicontati, chiaviRendicontate, anomalieFr);
+		    frJdbcWriter.insertRendicontazioni(fr.getId(), rendicontazioni);
+
+		    totali.numeroRendicontazioni += rendicontazioni.size();
+		    totali.totaleImporti = totali.totaleImporti.add(sommaImportiRendicontati(page));
+		    totali.rendicontazioniConAnomalie += rendicontazioni.stream().filter(rnd -> rnd.getAnomalie() != null).count();
+
+		    // Rilascio le entita' caricate per la pagina: la memoria resta limitata alla dimensione della pagina
+		    entityManager.flush();
+		    rilasciaEntitaPagina(pagamentiRendicontati, rendicontazioni);
+		    log.debug("Scritta pagina di {} rendicontazioni per il flusso {} (totale {})", rendicontazioni.size(), fr.getCodFlusso(), totali.numeroRendicontazioni);
+		});
+
+		controlliQuadraturaGenerali(fr, totali.numeroRendicontazioni, totali.totaleImporti, anomalieFr);
+		impostaStatoFr(fr, anomalieFr);
+		frJdbcWriter.updateStato(fr);
+
+		log.info("FDR salvato sul DB in streaming - Flusso: {}, IUR: {}, ID: {}, NumPagamenti: {}, ImportoTotale: {}, Stato: {}, Rendicontazioni salvate: {}, Anomalie: {}",
+		    data.getCodFlusso(),
+		    fr.getIur(),
+		    fr.getId(),
+		    fr.getNumeroPagamenti(),
+		    fr.getImportoTotalePagamenti(),
+		    fr.getStato(),
+		    totali.numeroRendicontazioni,
+		    fr.getDescrizioneStato() != null ? "SI" : "NO");
+		if (fr.getDescrizioneStato() != null || totali.rendicontazioniConAnomalie > 0)
+		    log.info("Flusso di rendicontazione acquisito con anomalie.");
+		else
+		    log.info("Flusso di rendicontazione acquisito senza anomalie.");
+	}
+
+	/**
+	 * Stacca dal persistence context i pagamenti e le pendenze caricati per una pagina, lasciando gestite le
+	 * entita' del resto del chunk (dominio, FR_TEMP, flussi precedenti).
+	 */
+	private void rilasciaEntitaPagina(List<List<Pagamento>> pagamentiRendicontati, List<Rendicontazione> rendicontazioni) {
+		for (List<Pagamento> pagamenti : pagamentiRendicontati) {
+		    pagamenti.forEach(entityManager::detach);
+		}
+		for (Rendicontazione rendicontazione : rendicontazioni) {
+		    SingoloVersamento singoloVersamento = rendicontazione.getSingoloVersamento();
+		    if (singoloVersamento != null) {
+		        // Un proxy non inizializzato non ha caricato la pendenza: la si legge solo se gia' in memoria
+		        if (Hibernate.isInitialized(singoloVersamento) && singoloVersamento.getVersamento() != null) {
+		            entityManager.detach(singoloVersamento.getVersamento());
+		        }
+		        entityManager.detach(singoloVersamento);
 		    }
+		}
+	}
+
+	/**
+	 * Totali progressivi di un flusso acquisito in streaming.
+	 */
+	private static class TotaliStreaming {
+		long numeroRendicontazioni;
+		BigDecimal totaleImporti = BigDecimal.ZERO;
+		long rendicontazioniConAnomalie;
+	}
+
+	/**
+	 * Riconcilia un insieme di pagamenti del flusso con i pagamenti e le pendenze presenti in base dati,
+	 * registrando le anomalie di rendicontazione e quelle di flusso.
+	 *
+	 * @return le rendicontazioni elaborate, nello stesso ordine dei pagamenti
+	 */
+	private List<Rendicontazione> elaboraRendicontazioni(Fr fr, DominioEntity dominio, List<FdrPaymentsProcessor.PaymentData> payments,
+			List<List<Pagamento>> pagamentiRendicontati, Set<ChiaveRendicontazione> chiaviRendicontate, List<String> anomalieFr) {
+		// In modalita' BULK le pendenze delle rendicontazioni senza pagamento vengono caricate in blocco
+		VersamentiIndex versamentiIndex = caricaVersamentiIndex(fr, dominio, payments, pagamentiRendicontati);
+
+		List<Rendicontazione> rendicontazioni = new ArrayList<>(payments.size());
+		Iterator<List<Pagamento>> pagamentiIt = pagamentiRendicontati.iterator();
+		for (FdrPaymentsProcessor.PaymentData paymentData : payments) {
+		    List<Pagamento> pagamenti = pagamentiIt.next();
+		    Pagamento pagamento = (pagamenti.size() == 1 ? pagamenti.get(0) : null);
+
+		    Rendicontazione rendicontazione = buildRendicontazione(fr, paymentData, pagamento);
 
 		    List<String> anomalieRnd = new ArrayList<>();
 		    if (pagamento != null) {
 		        // Verifico l'importo
 		        verificaImporto(fr, pagamento, rendicontazione, anomalieRnd);
 		    } else {
-		        gestionePagamentoNoSingleMatch(dominio, fr, pagamenti, rendicontazione, anomalieFr, anomalieRnd);   
+		        gestionePagamentoNoSingleMatch(dominio, fr, pagamenti, rendicontazione, anomalieFr, anomalieRnd, versamentiIndex);   
 		    }
 
 		    // controllo che non sia gia' stata acquisita un rendicontazione per la tupla (codDominio,iuv,iur,indiceDati), in questo caso emetto una anomalia
-		    controlloRendicontazioneDuplicata(fr, rendicontazione, anomalieRnd);
+		    controlloRendicontazioneDuplicata(fr, rendicontazione, chiaviRendicontate, anomalieRnd);
 		    // gestione anomalie
 		    registerAnomalieRendicontazione(rendicontazione, anomalieRnd);
 
-		    fr.addRendicontazione(rendicontazione);
+		    rendicontazioni.add(rendicontazione);
 		}
+		return rendicontazioni;
+	}
 
-		// Singole rendicontazioni elaborate.
-		// Controlli di quadratura generali
-		controlliQuadraturaGenerali(fr, data, totaleImportiRendicontati, anomalieFr);
+	/**
+	 * Cerca i pagamenti in base dati riferiti da un insieme di pagamenti del flusso.
+	 *
+	 * @return per ogni pagamento del flusso, nello stesso ordine, i pagamenti trovati
+	 */
+	private List<List<Pagamento>> trovaPagamentiRendicontati(Fr fr, List<FdrPaymentsProcessor.PaymentData> payments) {
+		// In modalita' BULK i pagamenti candidati del flusso vengono caricati in blocco
+		PagamentiIndex pagamentiIndex = caricaPagamentiIndex(fr, payments);
+
+		// Try to find existing payments for FK reference
+		List<List<Pagamento>> pagamentiRendicontati = new ArrayList<>(payments.size());
+		for (FdrPaymentsProcessor.PaymentData paymentData : payments) {
+		    pagamentiRendicontati.add(pagamentiIndex != null
+		        ? pagamentiIndex.find(paymentData.getIuv(), paymentData.getIur(), paymentData.getIndiceDati())
+		        : findAllPagamenti(fr.getCodDominio(), paymentData.getIuv(), paymentData.getIur(), paymentData.getIndiceDati()));
+		}
+		return pagamentiRendicontati;
+	}
 
-		// Decido lo stato del FR
+	private static BigDecimal sommaImportiRendicontati(List<FdrPaymentsProcessor.PaymentData> payments) {
+		BigDecimal totale = BigDecimal.ZERO;
+		for (FdrPaymentsProcessor.PaymentData paymentData : payments) {
+		    if (paymentData.getImportoPagato() != null) {
+		        totale = totale.add(BigDecimal.valueOf(paymentData.getImportoPagato()));
+		    }
+		}
+		return totale;
+	}
+
+	private static void impostaStatoFr(Fr fr, List<String> anomalieFr) {
 		if (anomalieFr.isEmpty()) {
 		    fr.setStato(Costanti.FLUSSO_STATO_ACCETTATA);
 		} else {
 		    fr.setDescrizioneStato(String.join("|", anomalieFr));
 		    fr.setStato(Costanti.FLUSSO_STATO_ANOMALA);
 		}
+	}
 
-		// Se la revisione è > 1, marco come obsoleti i flussi precedenti con la stessa chiave (codDominio, codFlusso, codPsp)
+	private void marcaRevisioniPrecedentiObsolete(Fr fr) {
 		if (fr.getRevisione() != null && fr.getRevisione() > 1) {
 		    int obsoleti = frRepository.marcaObsoleti(fr.getCodDominio(), fr.getCodFlusso(), fr.getCodPsp());
 		    if (obsoleti > 0) {
@@ -172,23 +380,6 @@ public class FdrPaymentsWriter implements ItemWriter<FdrPaymentsProcessor.FdrCom
 		            obsoleti, fr.getCodDominio(), fr.getCodFlusso(), fr.getCodPsp());
 		    }
 		}
-
-		// Save FR
-		fr = frRepository.save(fr);
-
-		log.info("FDR salvato sul DB - Flusso: {}, IUR: {}, ID: {}, NumPagamenti: {}, ImportoTotale: {}, Stato: {}, Rendicontazioni salvate: {}, Anomalie: {}",
-		    data.getCodFlusso(),
-		    fr.getIur(),
-		    fr.getId(),
-		    fr.getNumeroPagamenti(),
-		    fr.getImportoTotalePagamenti(),
-		    fr.getStato(),
-		    fr.getRendicontazioni() != null ? fr.getRendicontazioni().size() : 0,
-		    fr.getDescrizioneStato() != null ? "SI" : "NO");
-		if (fr.getDescrizioneStato() != null || fr.getRendicontazioni().stream().anyMatch(rnd -> rnd.getAnomalie() != null))
-		    log.info("Flusso di rendicontazione acquisito con anomalie.");
-		else
-		    log.info("Flusso di rendicontazione acquisito senza anomalie.");
 	}
 
 	private Rendicontazione buildRendicontazione(Fr fr, FdrPaymentsProcessor.PaymentData paymentData, Pagamento pagamento) {
@@ -242,7 +433,7 @@ public class FdrPaymentsWriter implements ItemWriter<FdrPaymentsProcessor.FdrCom
 		}
 	}
 
-	private void controlliQuadraturaGenerali(Fr fr, FdrPaymentsProcessor.FdrCompleteData data, BigDecimal totaleImportiRendicontati, List<String> anomalieFr) {
+	private void controlliQuadraturaGenerali(Fr fr, long numeroRendicontati, BigDecimal totaleImportiRendicontati, List<String> anomalieFr) {
 		// Check amount consistency only if importoTotalePagamenti is not null.
 		// Confronto in BigDecimal a 2 decimali per evitare falsi disallineamenti dovuti
 		// agli errori di arrotondamento della somma in virgola mobile (double).
@@ -258,9 +449,9 @@ public class FdrPaymentsWriter implements ItemWriter<FdrPaymentsProcessor.FdrCom
 		}
 
 		// Check payment count consistency only if numeroPagamenti is not null
-		if (fr.getNumeroPagamenti() != null && data.getPayments().size() != fr.getNumeroPagamenti().longValue()) {
-		    log.info("Il numero di pagamenti rendicontati [{}] non corrisponde al totale indicato nella testata del flusso [{}]", data.getPayments().size(), fr.getNumeroPagamenti());
-		    anomalieFr.add(MessageFormat.format("{0}#Il numero di pagamenti rendicontati [{1}] non corrisponde al totale indicato nella testata del flusso [{2}]", "007107", data.getPayments().size(), fr.getNumeroPagamenti()));
+		if (fr.getNumeroPagamenti() != null && numeroRendicontati != fr.getNumeroPagamenti().longValue()) {
+		    log.info("Il numero di pagamenti rendicontati [{}] non corrisponde al totale indicato nella testata del flusso [{}]", numeroRendicontati, fr.getNumeroPagamenti());
+		    anomalieFr.add(MessageFormat.format("{0}#Il numero di pagamenti rendicontati [{1}] non corrisponde al totale indicato nella testata del flusso [{2}]", "007107", numeroRendicontati, fr.getNumeroPagamenti()));
 		} else if (fr.getNumeroPagamenti() == null) {
 		    log.warn("Numero pagamenti è null per FDR {}, salto controllo numero pagamenti", fr.getCodFlusso());
 		}
@@ -277,23 +468,25 @@ public class FdrPaymentsWriter implements ItemWriter<FdrPaymentsProcessor.FdrCom
 			.compareTo(BigDecimal.valueOf(b).setScale(2, RoundingMode.HALF_UP)) != 0;
 	}
 
-	private void controlloRendicontazioneDuplicata(Fr fr, Rendicontazione rendicontazione, List<String> anomalieRnd) {
-		log.info("Controllo presenza rendicontazione duplicata all'interno del flusso: [Dominio:{} Iuv:{} Iur:{} Indice:{}]...", fr.getCodDominio(), rendicontazione.getIuv(), rendicontazione.getIur(), rendicontazione.getIndiceDati());
-		for (Rendicontazione r2 : fr.getRendicontazioni()) {
-		    if (r2.getIuv().equals(rendicontazione.getIuv()) && r2.getIur().equals(rendicontazione.getIur()) &&
-		        ( (r2.getIndiceDati() == null && rendicontazione.getIndiceDati() == null) ||
-		          (r2.getIndiceDati() != null && rendicontazione.getIndiceDati() != null && r2.getIndiceDati().compareTo(rendicontazione.getIndiceDati()) == 0))
-		        ) {
-		        log.info("Rendicontazione [Dominio:{} Iuv:{} Iur:{} Indice:{}] duplicata all''interno del flusso, in violazione delle specifiche PagoPA. Necessario intervento manuale per la risoluzione del problema.", fr.getCodDominio(), rendicontazione.getIuv(), rendicontazione.getIur(), rendicontazione.getIndiceDati());
-		        anomalieRnd.add(MessageFormat.format("{0}#Rendicontazione [Dominio:{1} Iuv:{2} Iur:{3} Indice:{4}] duplicata all''interno del flusso, in violazione delle specifiche PagoPA. Necessario intervento manuale per la risoluzione del problema.", "007115", fr.getCodDominio(), rendicontazione.getIuv(), rendicontazione.getIur(), rendicontazione.getIndiceDati()));
-		        rendicontazione.setStato(Costanti.RENDICONTAZIONE_STATO_ANOMALA);
-		        break;
-		    }
+	/**
+	 * Chiave di una rendicontazione all'interno del flusso.
+	 */
+	private record ChiaveRendicontazione(String iuv, String iur, Integer indiceDati) {
+		static ChiaveRendicontazione of(Rendicontazione rendicontazione) {
+			return new ChiaveRendicontazione(rendicontazione.getIuv(), rendicontazione.getIur(), rendicontazione.getIndiceDati());
+		}
+	}
+
+	private void controlloRendicontazioneDuplicata(Fr fr, Rendicontazione rendicontazione, Set<ChiaveRendicontazione> chiaviRendicontate, List<String> anomalieRnd) {
+		log.debug("Controllo presenza rendicontazione duplicata all'interno del flusso: [Dominio:{} Iuv:{} Iur:{} Indice:{}]", fr.getCodDominio(), rendicontazione.getIuv(), rendicontazione.getIur(), rendicontazione.getIndiceDati());
+		if (!chiaviRendicontate.add(ChiaveRendicontazione.of(rendicontazione))) {
+		    log.info("Rendicontazione [Dominio:{} Iuv:{} Iur:{} Indice:{}] duplicata all''interno del flusso, in violazione delle specifiche PagoPA. Necessario intervento manuale per la risoluzione del problema.", fr.getCodDominio(), rendicontazione.getIuv(), rendicontazione.getIur(), rendicontazione.getIndiceDati());
+		    anomalieRnd.add(MessageFormat.format("{0}#Rendicontazione [Dominio:{1} Iuv:{2} Iur:{3} Indice:{4}] duplicata all''interno del flusso, in violazione delle specifiche PagoPA. Necessario intervento manuale per la risoluzione del problema.", "007115", fr.getCodDominio(), rendicontazione.getIuv(), rendicontazione.getIur(), rendicontazione.getIndiceDati()));
+		    rendicontazione.setStato(Costanti.RENDICONTAZIONE_STATO_ANOMALA);
 		}
-		log.info("Controllo presenza rendicontazione duplicata all'interno del flusso: [Dominio:{} Iuv:{} Iur:{} Indice:{}] completato", fr.getCodDominio(), rendicontazione.getIuv(), rendicontazione.getIur(), rendicontazione.getIndiceDati());
 	}
 
-	private void gestionePagamentoNoSingleMatch(DominioEntity dominio, Fr fr, List<Pagamento> pagamenti, Rendicontazione rendicontazione, List<String> anomalieFr, List<String> anomalieRnd) {
+	private void gestionePagamentoNoSingleMatch(DominioEntity dominio, Fr fr, List<Pagamento> pagamenti, Rendicontazione rendicontazione, List<String> anomalieFr, List<String> anomalieRnd, VersamentiIndex versamentiIndex) {
 		if (pagamenti.isEmpty()) {
 		    // Pagamento non trovato. Devo capire se ce' un errore.
 		    log.info("Pagamento [Dominio:{} Iuv:{} Iur:{} Indice:{}] non trovato: ricerco la causa...", fr.getCodDominio(), rendicontazione.getIuv(), rendicontazione.getIur(), rendicontazione.getIndiceDati());
@@ -302,7 +495,7 @@ public class FdrPaymentsWriter implements ItemWriter<FdrPaymentsProcessor.FdrCom
 		    // Se dominio e' null viene considerato non intermediato
 		    if(IuvUtils.isIuvInterno(dominio, rendicontazione.getIuv())) {
 		        // Recupero il versamento, internamente o dall'applicazione esterna
-		        recuperoVersamentoInterno(fr, rendicontazione, anomalieRnd);
+		        recuperoVersamentoInterno(fr, rendicontazione, anomalieRnd, versamentiIndex);
 		    } else {
 		        log.info("IUV {} appartenente ad un Dominio {} non intermediato, salto acquisizione.", rendicontazione.getIuv(), fr.getCodDominio());
 		        rendicontazione.setStato(Costanti.RENDICONTAZIONE_STATO_ALTRO_INTERMEDIARIO);
@@ -315,11 +508,13 @@ public class FdrPaymentsWriter implements ItemWriter<FdrPaymentsProcessor.FdrCom
 		}
 	}
 
-	private void recuperoVersamentoInterno(Fr fr, Rendicontazione rendicontazione, List<String> anomalieRnd) {
-		Optional<Versamento> versamentoOpt = versamentoRepository.findByDominioCodDominioAndIuvPagamento(fr.getCodDominio(), rendicontazione.getIuv());
+	private void recuperoVersamentoInterno(Fr fr, Rendicontazione rendicontazione, List<String> anomalieRnd, VersamentiIndex versamentiIndex) {
+		Optional<Versamento> versamentoOpt = versamentiIndex != null
+		    ? versamentiIndex.findVersamento(rendicontazione.getIuv())
+		    : versamentoRepository.findByDominioCodDominioAndIuvPagamento(fr.getCodDominio(), rendicontazione.getIuv());
 		Versamento versamento = null;
 		if (versamentoOpt.isPresent()) {
-		    versamento = associazioneVersamentoInternoLocale(fr, rendicontazione, versamentoOpt);
+		    versamento = associazioneVersamentoInternoLocale(fr, rendicontazione, versamentoOpt, versamentiIndex);
 		    // c'e' almeno una pendenza pagata nel flusso che non ha la RT associata
 		} else {
 		    // Non e' su sistema. La posizione sara' sanata dal job preposto
@@ -331,20 +526,20 @@ public class FdrPaymentsWriter implements ItemWriter<FdrPaymentsProcessor.FdrCom
 		if (rendicontazione.getEsito() != null &&
 		    (rendicontazione.getEsito().intValue() == Costanti.PAYMENT_STAND_IN_NO_RPT ||
 		     rendicontazione.getEsito().intValue() == Costanti.PAYMENT_NO_RPT)) {
-		    rendicontazioneSenzaRPT(fr, rendicontazione, versamento, anomalieRnd);
+		    rendicontazioneSenzaRPT(fr, rendicontazione, versamento, anomalieRnd, versamentiIndex);
 		} else {
 		    log.info("Pagamento [Dominio:{} Iuv:{} Iur:{} Indice:{}] rendicontato con errore: il pagamento non risulta presente in base dati.", fr.getCodDominio(), rendicontazione.getIuv(), rendicontazione.getIur(), rendicontazione.getIndiceDati());
 		    anomalieRnd.add(MessageFormat.format("{0}#Il pagamento riferito dalla rendicontazione non risulta presente in base dati.", "007101"));
 		}
 	}
 
-    private void rendicontazioneSenzaRPT(Fr fr, Rendicontazione rendicontazione, Versamento versamento, List<String> anomalieRnd) {
+    private void rendicontazioneSenzaRPT(Fr fr, Rendicontazione rendicontazione, Versamento versamento, List<String> anomalieRnd, VersamentiIndex versamentiIndex) {
         if (versamento == null) {
             // non ho trovato il versamento
             log.info("Pagamento [Dominio:{} Iuv:{} Iur:{} Indice:{}] rendicontato con errore: Pagamento senza RPT di versamento sconosciuto.", fr.getCodDominio(), rendicontazione.getIuv(), rendicontazione.getIur(), rendicontazione.getIndiceDati());
             anomalieRnd.add(MessageFormat.format("{0}#Il versamento risulta sconosciuto", "007111"));
         } else {
-            Set<SingoloVersamento> singoliVersamenti = singoloVersamentoRepository.findAllByVersamentoId(versamento.getId());
+            Set<SingoloVersamento> singoliVersamenti = findSingoliVersamenti(versamento.getId(), versamentiIndex);
             if(singoliVersamenti.size() != 1) {
                 // Un pagamento senza rpt DEVE riferire un pagamento tipo 3 con un solo singolo versamento
                 log.info("Pagamento [Dominio:{} Iuv:{} Iur:{} Indice:{}] rendicontato con errore: Pagamento senza RPT di versamento malformato, numero voci maggiore di 1.", fr.getCodDominio(), rendicontazione.getIuv(), rendicontazione.getIur(), rendicontazione.getIndiceDati());
@@ -353,14 +548,14 @@ public class FdrPaymentsWriter implements ItemWriter<FdrPaymentsProcessor.FdrCom
         }
     }
 
-    private Versamento associazioneVersamentoInternoLocale(Fr fr, Rendicontazione rendicontazione, Optional<Versamento> versamentoOpt) {
+    private Versamento associazioneVersamentoInternoLocale(Fr fr, Rendicontazione rendicontazione, Optional<Versamento> versamentoOpt, VersamentiIndex versamentiIndex) {
         Versamento versamento;
         versamento = versamentoOpt.get();
         log.info("Trovata Pendenza [{}, {}] in stato [{}], verra' associata alla rendicontazione [Dominio:{} Iuv:{} Iur:{} Indice:{}].",
                  versamento.getApplicazione().getCodApplicazione(), versamento.getCodVersamentoEnte(), versamento.getStatoVersamento(),
                  fr.getCodDominio(), rendicontazione.getIuv(), rendicontazione.getIur(), rendicontazione.getIndiceDati());
 
-        Set<SingoloVersamento> singoliVersamenti = singoloVersamentoRepository.findAllByVersamentoId(versamento.getId());
+        Set<SingoloVersamento> singoliVersamenti = findSingoliVersamenti(versamento.getId(), versamentiIndex);
         int idxRiconciliazione = rendicontazione.getIndiceDati() != null ? rendicontazione.getIndiceDati().intValue() : 1; // se la rendicontazione non ha l'indice dati assumo che sia 1.
 
         for (SingoloVersamento singoloVersamento : singoliVersamenti) {
@@ -414,10 +609,104 @@ public class FdrPaymentsWriter implements ItemWriter<FdrPaymentsProcessor.FdrCom
         }
     }
 
+    /**
+     * Carica in un'unica passata i pagamenti candidati del flusso quando la modalita'
+     * di ricerca configurata e' {@link BatchProperties.LookupMode#BULK}.
+     *
+     * @return l'indice dei pagamenti, oppure null in modalita' SINGLE
+     */
+    private PagamentiIndex caricaPagamentiIndex(Fr fr, List<FdrPaymentsProcessor.PaymentData> payments) {
+        if (batchProperties.getPagamentiLookupMode() != BatchProperties.LookupMode.BULK) {
+            return null;
+        }
+        Set<String> iuvs = payments.stream()
+            .map(FdrPaymentsProcessor.PaymentData::getIuv)
+            .filter(Objects::nonNull)
+            .collect(Collectors.toCollection(LinkedHashSet::new));
+
+        PagamentiIndex pagamentiIndex = PagamentiIndex.load(pagamentoRepository, fr.getCodDominio(), iuvs, batchProperties.getInClauseChunkSize());
+        log.debug("Precaricati {} pagamenti per {} IUV distinti del flusso {}", pagamentiIndex.size(), iuvs.size(), fr.getCodFlusso());
+        return pagamentiIndex;
+    }
+
+    /**
+     * Carica in un'unica passata le pendenze riferite dalle rendicontazioni con IUV interno
+     * prive di pagamento quando la modalita' di ricerca configurata e'
+     * {@link BatchProperties.LookupMode#BULK}.
+     *
+     * @return l'indice delle pendenze, oppure null in modalita' SINGLE
+     */
+    private VersamentiIndex caricaVersamentiIndex(Fr fr, DominioEntity dominio, List<FdrPaymentsProcessor.PaymentData> payments, List<List<Pagamento>> pagamentiRendicontati) {
+        if (batchProperties.getVersamentiLookupMode() != BatchProperties.LookupMode.BULK) {
+            return null;
+        }
+        Set<String> iuvs = new LinkedHashSet<>();
+        Iterator<List<Pagamento>> pagamentiIt = pagamentiRendicontati.iterator();
+        for (FdrPaymentsProcessor.PaymentData paymentData : payments) {
+            List<Pagamento> pagamenti = pagamentiIt.next();
+            if (pagamenti.isEmpty() && paymentData.getIuv() != null && IuvUtils.isIuvInterno(dominio, paymentData.getIuv())) {
+                iuvs.add(paymentData.getIuv());
+            }
+        }
+
+        VersamentiIndex versamentiIndex = VersamentiIndex.load(versamentoRepository, singoloVersamentoRepository, fr.getCodDominio(), iuvs, batchProperties.getInClauseChunkSize());
+        log.debug("Precaricate {} pendenze per {} IUV interni senza pagamento del flusso {}", versamentiIndex.size(), iuvs.size(), fr.getCodFlusso());
+        return versamentiIndex;
+    }
+
+    private Set<SingoloVersamento> findSingoliVersamenti(Long idVersamento, VersamentiIndex versamentiIndex) {
+        if (versamentiIndex != null) {
+            return versamentiIndex.findSingoliVersamenti(idVersamento);
+        }
+        return singoloVersamentoRepository.findAllByVersamentoId(idVersamento);
+    }
+
     private void markFrTempAsProcessed(Long frTempId) {
         frTempRepository.findById(frTempId).ifPresent(frTemp -> {
             frTempRepository.delete(frTemp);
             log.debug("Removed FR_TEMP id={}", frTempId);
         });
     }
+
+    /**
+     * Aggiunge il flusso al filtro dei flussi acquisiti dopo il commit della transazione del chunk:
+     * in caso di rollback il flusso non risulta acquisito.
+     */
+    private void addToAcquiredFlowFilter(FdrPaymentsProcessor.FdrCompleteData data) {
+        if (!acquiredFlowFilter.isEnabled()) {
+            return;
+        }
+        Runnable add = () -> acquiredFlowFilter.add(data.getCodDominio(), data.getCodFlusso(), data.getCodPsp(), data.getRevisione());
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    add.run();
+                }
+            });
+        } else {
+            add.run();
+        }
+    }
+
+    /**
+     * Rimuove le pagine del flusso dalla cache dopo il commit della transazione del chunk:
+     * in caso di rollback le pagine restano disponibili per il nuovo tentativo.
+     */
+    private void purgePaymentsPageCache(FdrPaymentsProcessor.FdrCompleteData data) {
+        if (!paymentsPageCache.isEnabled()) {
+            return;
+        }
+        Runnable purge = () -> paymentsPageCache.purge(data.getCodDominio(), data.getCodFlusso(), data.getRevisione(), data.getCodPsp());
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    purge.run();
+                }
+            });
+        } else {
+            purge.run();
+        }
+    }
 }
@@ -0,0 +1,162 @@
+package it.govpay.fdr.batch.step4;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.batch.infrastructure.item.Chunk;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import it.govpay.fdr.batch.config.BatchProperties;
+import it.govpay.fdr.batch.entity.FrTemp;
+import it.govpay.fdr.batch.exception.FdrFatalException;
+import it.govpay.fdr.batch.service.FdrWorkQueue;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Acquisizione dei flussi della coda di lavoro ({@link FdrWorkQueue}) nell'acquisizione cooperativa.
+ * <p>
+ * Ogni nodo esegue {@code govpay.batch.thread-pool-size} cicli in parallelo sull'executor condiviso
+ * {@code workQueueExecutor}: ciascuno prende in carico un gruppo di flussi, ne scarica dettaglio e pagamenti
+ * con {@link FdrFlowProcessor} e li scrive con {@link FdrPaymentsWriter}, finche' la coda non ha piu' flussi
+ * disponibili. Se una revisione fallisce le revisioni successive dello stesso flusso non vengono elaborate e
+ * tornano disponibili insieme a quella fallita, per mantenere l'ordine.
+ * Flussi acquisiti, falliti e durata dell'acquisizione sono esposti come metriche per nodo.
+ */
+@Component
+@Slf4j
+public class FdrWorkQueueWorker {
+
+    static final String METRIC_FLOWS = "govpay.fdr.workqueue.flows";
+    static final String METRIC_DURATION = "govpay.fdr.workqueue.flow.duration";
+    private static final String TAG_NODE = "node";
+    private static final String TAG_OUTCOME = "outcome";
+
+    private final FdrWorkQueue workQueue;
+    private final FdrFlowProcessor fdrFlowProcessor;
+    private final FdrPaymentsWriter fdrPaymentsWriter;
+    private final BatchProperties batchProperties;
+    private final TaskExecutor executor;
+    private final Counter completedCounter;
+    private final Counter failedCounter;
+    private final Timer durationTimer;
+
+    public FdrWorkQueueWorker(FdrWorkQueue workQueue, FdrFlowProcessor fdrFlowProcessor,
+            FdrPaymentsWriter fdrPaymentsWriter, BatchProperties batchProperties, MeterRegistry meterRegistry,
+            @Qualifier("workQueueExecutor") TaskExecutor executor) {
+        this.workQueue = workQueue;
+        this.fdrFlowProcessor = fdrFlowProcessor;
+        this.fdrPaymentsWriter = fdrPaymentsWriter;
+        this.batchProperties = batchProperties;
+        this.executor = executor;
+
+        String node = workQueue.getNodeId();
+        this.completedCounter = Counter.builder(METRIC_FLOWS).description("Flussi acquisiti dal nodo dalla coda di lavoro")
+            .tag(TAG_NODE, node).tag(TAG_OUTCOME, "completed").register(meterRegistry);
+        this.failedCounter = Counter.builder(METRIC_FLOWS).description("Flussi acquisiti dal nodo dalla coda di lavoro")
+            .tag(TAG_NODE, node).tag(TAG_OUTCOME, "failed").register(meterRegistry);
+        this.durationTimer = Timer.builder(METRIC_DURATION).description("Durata dell'acquisizione di un flusso della coda di lavoro")
+            .tag(TAG_NODE, node).register(meterRegistry);
+    }
+
+    /**
+     * Acquisisce i flussi disponibili nella coda finche' non ce ne sono piu'.
+     *
+     * @return il numero di flussi acquisiti dal nodo
+     * @throws FdrFatalException se un errore non recuperabile interrompe l'acquisizione
+     */
+    public int drain() {
+        int workers = Math.max(1, batchProperties.getThreadPoolSize());
+        List<CompletableFuture<Integer>> loops = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            loops.add(CompletableFuture.supplyAsync(this::drainLoop, executor));
+        }
+        int completed = 0;
+        try {
+            for (CompletableFuture<Integer> loop : loops) {
+                completed += loop.join();
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+        if (completed > 0) {
+            log.info("Nodo {}: acquisiti {} flussi dalla coda di lavoro", workQueue.getNodeId(), completed);
+        }
+        return completed;
+    }
+
+    private int drainLoop() {
+        int completed = 0;
+        FdrWorkQueue.Claim claim;
+        while (!(claim = workQueue.claim()).items().isEmpty()) {
+            completed += process(claim);
+        }
+        return completed;
+    }
+
+    /**
+     * Acquisisce i flussi presi in carico, revisioni di uno stesso flusso in ordine.
+     *
+     * @return il numero di flussi acquisiti
+     */
+    int process(FdrWorkQueue.Claim claim) {
+        int completed = 0;
+        Set<String> failedKeys = new HashSet<>();
+        try {
+            for (FrTemp item : claim.items()) {
+                String key = item.getCodDominio() + "|" + item.getCodFlusso() + "|" + item.getIdPsp();
+                if (failedKeys.contains(key)) {
+                    continue;
+                }
+                if (acquire(claim, item)) {
+                    completed++;
+                } else {
+                    failedKeys.add(key);
+                }
+            }
+        } finally {
+            // Revisioni non elaborate e flussi rimasti dopo un errore fatale tornano disponibili
+            workQueue.release(claim);
+        }
+        return completed;
+    }
+
+    private boolean acquire(FdrWorkQueue.Claim claim, FrTemp item) {
+        long start = System.nanoTime();
+        try {
+            workQueue.renew(claim);
+            // Il lease viene rinnovato anche durante il download dei pagamenti
+            FdrPaymentsProcessor.FdrCompleteData data = fdrFlowProcessor.process(item, workQueue.leaseRenewer(claim));
+            workQueue.complete(claim, item, () -> {
+                if (data != null) {
+                    fdrPaymentsWriter.write(new Chunk<>(List.of(data)));
+                }
+            });
+            completedCounter.increment();
+            return true;
+        } catch (FdrFatalException e) {
+            throw e;
+        } catch (Exception e) {
+            failedCounter.increment();
+            boolean discarded = workQueue.fail(claim, item);
+            log.error("Nodo {}: errore nell'acquisizione del flusso {} (dominio {}, revisione {}){}: {}",
+                workQueue.getNodeId(), item.getCodFlusso(), item.getCodDominio(), item.getRevisione(),
+                discarded ? ", scartato dopo il numero massimo di tentativi" : "", e.getMessage(), e);
+            return false;
+        } finally {
+            durationTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+}
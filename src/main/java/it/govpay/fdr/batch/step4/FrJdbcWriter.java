@@ -0,0 +1,181 @@
+package it.govpay.fdr.batch.step4;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.springframework.dao.DataRetrievalFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Component;
+
+import it.govpay.fdr.batch.config.BatchProperties;
+import it.govpay.fdr.batch.entity.Fr;
+import it.govpay.fdr.batch.entity.Rendicontazione;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Persistenza di un flusso completo (FR e RENDICONTAZIONI) tramite JDBC.
+ * <p>
+ * Le chiavi delle tabelle sono generate dal DB (IDENTITY o sequence + trigger su Oracle), per cui
+ * Hibernate non puo' accorpare gli INSERT delle rendicontazioni. Questo componente inserisce la
+ * riga FR recuperandone la chiave generata e poi le rendicontazioni con INSERT in batch di
+ * {@link BatchProperties#getJdbcBatchSize()} righe. Le istruzioni usano SQL standard e girano
+ * nella transazione del writer, condividendone la connessione.
+ * <p>
+ * Il nome della colonna della chiave generata segue il caso degli identificatori del DB: Oracle e HSQLDB
+ * lo confrontano con il catalogo (maiuscolo), PostgreSQL lo usa tra virgolette nella RETURNING (minuscolo).
+ */
+@Component
+@Slf4j
+public class FrJdbcWriter {
+
+	private static final String INSERT_FR = "INSERT INTO FR (cod_psp, id_dominio, cod_dominio, cod_flusso, stato, descrizione_stato, iur, "
+			+ "data_ora_flusso, data_regolamento, data_acquisizione, numero_pagamenti, importo_totale_pagamenti, cod_bic_riversamento, "
+			+ "ragione_sociale_psp, ragione_sociale_dominio, data_ora_pubblicazione, data_ora_aggiornamento, revisione, obsoleto, id_incasso) "
+			+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+	private static final String INSERT_RENDICONTAZIONE = "INSERT INTO RENDICONTAZIONI (id_fr, id_pagamento, id_singolo_versamento, iuv, iur, "
+			+ "indice_dati, importo_pagato, esito, data, stato, anomalie, esegui_recupero_rt, notifica_inviata) "
+			+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+	private static final String UPDATE_STATO_FR = "UPDATE FR SET stato = ?, descrizione_stato = ? WHERE id = ?";
+
+	private final JdbcTemplate jdbcTemplate;
+	private final BatchProperties batchProperties;
+	private volatile String[] generatedKeyColumns;
+
+	public FrJdbcWriter(JdbcTemplate jdbcTemplate, BatchProperties batchProperties) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.batchProperties = batchProperties;
+	}
+
+	/**
+	 * Inserisce il flusso e le sue rendicontazioni, valorizzando l'id del flusso.
+	 *
+	 * @param fr il flusso da inserire, con le rendicontazioni gia' associate
+	 * @return il flusso con l'id generato
+	 */
+	public Fr insert(Fr fr) {
+		insertFr(fr);
+		insertRendicontazioni(fr.getId(), fr.getRendicontazioni());
+		return fr;
+	}
+
+	/**
+	 * Inserisce la sola riga FR, valorizzandone l'id generato.
+	 *
+	 * @param fr il flusso da inserire
+	 * @return il flusso con l'id generato
+	 * @throws IllegalArgumentException se il flusso non ha revisione (FR.revisione e' NOT NULL)
+	 */
+	public Fr insertFr(Fr fr) {
+		if (fr.getRevisione() == null) {
+			throw new IllegalArgumentException("Revisione mancante per il flusso " + fr.getCodFlusso() + " del PSP " + fr.getCodPsp());
+		}
+		KeyHolder keyHolder = new GeneratedKeyHolder();
+		jdbcTemplate.update(con -> {
+			PreparedStatement ps = con.prepareStatement(INSERT_FR, generatedKeyColumns(con));
+			setFrParameters(ps, fr);
+			return ps;
+		}, keyHolder);
+
+		Number id = keyHolder.getKey();
+		if (id == null) {
+			throw new DataRetrievalFailureException("Chiave generata non restituita per il flusso " + fr.getCodFlusso());
+		}
+		fr.setId(id.longValue());
+		log.debug("Inserito via JDBC il flusso {} con id {}", fr.getCodFlusso(), fr.getId());
+		return fr;
+	}
+
+	/**
+	 * Inserisce le rendicontazioni del flusso in batch.
+	 *
+	 * @param idFr id del flusso di appartenenza
+	 * @param rendicontazioni le rendicontazioni da inserire
+	 */
+	public void insertRendicontazioni(Long idFr, List<Rendicontazione> rendicontazioni) {
+		if (rendicontazioni.isEmpty()) {
+			return;
+		}
+		int batchSize = Math.max(1, batchProperties.getJdbcBatchSize());
+		jdbcTemplate.batchUpdate(INSERT_RENDICONTAZIONE, rendicontazioni, batchSize,
+				(ps, rendicontazione) -> setRendicontazioneParameters(ps, idFr, rendicontazione));
+		log.debug("Inserite via JDBC {} rendicontazioni del flusso {} in batch da {}", rendicontazioni.size(), idFr, batchSize);
+	}
+
+	/**
+	 * Aggiorna stato e descrizione dello stato di un flusso gia' inserito.
+	 *
+	 * @param fr il flusso con id, stato e descrizione aggiornati
+	 */
+	public void updateStato(Fr fr) {
+		jdbcTemplate.update(UPDATE_STATO_FR, ps -> {
+			ps.setString(1, fr.getStato() != null ? fr.getStato().name() : null);
+			ps.setString(2, fr.getDescrizioneStato());
+			ps.setLong(3, fr.getId());
+		});
+	}
+
+	private String[] generatedKeyColumns(Connection con) throws SQLException {
+		String[] columns = generatedKeyColumns;
+		if (columns == null) {
+			DatabaseMetaData metaData = con.getMetaData();
+			columns = new String[] { metaData.storesUpperCaseIdentifiers() ? "ID" : "id" };
+			generatedKeyColumns = columns;
+		}
+		return columns;
+	}
+
+	private static void setFrParameters(PreparedStatement ps, Fr fr) throws SQLException {
+		int i = 1;
+		ps.setString(i++, fr.getCodPsp());
+		ps.setLong(i++, fr.getDominio().getId());
+		ps.setString(i++, fr.getCodDominio());
+		ps.setString(i++, fr.getCodFlusso());
+		ps.setString(i++, fr.getStato() != null ? fr.getStato().name() : null);
+		ps.setString(i++, fr.getDescrizioneStato());
+		ps.setString(i++, fr.getIur());
+		ps.setTimestamp(i++, timestamp(fr.getDataOraFlusso()));
+		ps.setTimestamp(i++, timestamp(fr.getDataRegolamento()));
+		ps.setTimestamp(i++, timestamp(fr.getDataAcquisizione() != null ? fr.getDataAcquisizione() : LocalDateTime.now()));
+		ps.setObject(i++, fr.getNumeroPagamenti(), Types.BIGINT);
+		ps.setObject(i++, fr.getImportoTotalePagamenti(), Types.DOUBLE);
+		ps.setString(i++, fr.getCodBicRiversamento());
+		ps.setString(i++, fr.getRagioneSocialePsp());
+		ps.setString(i++, fr.getRagioneSocialeDominio());
+		ps.setTimestamp(i++, timestamp(fr.getDataOraPubblicazione()));
+		ps.setTimestamp(i++, timestamp(fr.getDataOraAggiornamento()));
+		ps.setLong(i++, fr.getRevisione());
+		ps.setBoolean(i++, Boolean.TRUE.equals(fr.getObsoleto()));
+		ps.setObject(i, fr.getIdIncasso(), Types.BIGINT);
+	}
+
+	private static void setRendicontazioneParameters(PreparedStatement ps, Long idFr, Rendicontazione rendicontazione) throws SQLException {
+		int i = 1;
+		ps.setLong(i++, idFr);
+		ps.setObject(i++, rendicontazione.getPagamento() != null ? rendicontazione.getPagamento().getId() : null, Types.BIGINT);
+		ps.setObject(i++, rendicontazione.getSingoloVersamento() != null ? rendicontazione.getSingoloVersamento().getId() : null, Types.BIGINT);
+		ps.setString(i++, rendicontazione.getIuv());
+		ps.setString(i++, rendicontazione.getIur());
+		ps.setObject(i++, rendicontazione.getIndiceDati(), Types.INTEGER);
+		ps.setObject(i++, rendicontazione.getImportoPagato(), Types.DOUBLE);
+		ps.setObject(i++, rendicontazione.getEsito(), Types.INTEGER);
+		ps.setTimestamp(i++, timestamp(rendicontazione.getData()));
+		ps.setString(i++, rendicontazione.getStato().name());
+		ps.setString(i++, rendicontazione.getAnomalie());
+		ps.setBoolean(i++, Boolean.TRUE.equals(rendicontazione.getEseguiRecuperoRt()));
+		ps.setBoolean(i, Boolean.TRUE.equals(rendicontazione.getNotificaInviata()));
+	}
+
+	private static Timestamp timestamp(LocalDateTime value) {
+		return value != null ? Timestamp.valueOf(value) : null;
+	}
+}
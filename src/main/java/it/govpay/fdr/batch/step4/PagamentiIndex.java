@@ -0,0 +1,80 @@
+package it.govpay.fdr.batch.step4;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import it.govpay.fdr.batch.entity.Pagamento;
+import it.govpay.fdr.batch.repository.PagamentoRepository;
+import it.govpay.fdr.batch.utils.ChunkUtils;
+
+/**
+ * Indice in memoria dei pagamenti candidati di un flusso di rendicontazione.
+ * <p>
+ * I pagamenti vengono caricati con query IN su (codDominio, iuv) e risolti per
+ * (iuv, iur, indiceDati) con la stessa semantica delle query puntuali di
+ * {@link PagamentoRepository}: iur e indiceDati filtrano solo se valorizzati.
+ */
+class PagamentiIndex {
+
+	private final Map<String, List<Pagamento>> pagamentiPerIuv;
+	private final int size;
+
+	private PagamentiIndex(Map<String, List<Pagamento>> pagamentiPerIuv, int size) {
+		this.pagamentiPerIuv = pagamentiPerIuv;
+		this.size = size;
+	}
+
+	/**
+	 * Carica tutti i pagamenti del dominio riferiti dagli IUV indicati.
+	 *
+	 * @param pagamentoRepository repository dei pagamenti
+	 * @param codDominio codice del dominio del flusso
+	 * @param iuvs IUV distinti delle rendicontazioni del flusso
+	 * @param chunkSize numero massimo di IUV per singola query
+	 * @return l'indice dei pagamenti trovati
+	 */
+	static PagamentiIndex load(PagamentoRepository pagamentoRepository, String codDominio, Collection<String> iuvs, int chunkSize) {
+		Map<String, List<Pagamento>> pagamentiPerIuv = new HashMap<>();
+		int size = 0;
+		for (List<String> blocco : ChunkUtils.chunked(iuvs, chunkSize)) {
+			for (Pagamento pagamento : pagamentoRepository.findAllByCodDominioAndIuvIn(codDominio, blocco)) {
+				pagamentiPerIuv.computeIfAbsent(pagamento.getIuv(), k -> new ArrayList<>(1)).add(pagamento);
+				size++;
+			}
+		}
+		return new PagamentiIndex(pagamentiPerIuv, size);
+	}
+
+	/**
+	 * Restituisce i pagamenti che corrispondono alla rendicontazione.
+	 *
+	 * @param iuv IUV della rendicontazione
+	 * @param iur IUR della rendicontazione, ignorato se null
+	 * @param indiceDati indice dati della rendicontazione, ignorato se null
+	 * @return i pagamenti corrispondenti, eventualmente vuota
+	 */
+	List<Pagamento> find(String iuv, String iur, Long indiceDati) {
+		List<Pagamento> candidati = pagamentiPerIuv.get(iuv);
+		if (candidati == null) {
+			return List.of();
+		}
+		List<Pagamento> pagamenti = new ArrayList<>(candidati.size());
+		for (Pagamento pagamento : candidati) {
+			if ((iur == null || iur.equals(pagamento.getIur()))
+				&& (indiceDati == null || (pagamento.getIndiceDati() != null && pagamento.getIndiceDati().longValue() == indiceDati.longValue()))) {
+				pagamenti.add(pagamento);
+			}
+		}
+		return pagamenti;
+	}
+
+	/**
+	 * @return il numero di pagamenti caricati nell'indice
+	 */
+	int size() {
+		return size;
+	}
+}
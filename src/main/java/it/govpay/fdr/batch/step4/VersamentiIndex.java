@@ -0,0 +1,116 @@
+package it.govpay.fdr.batch.step4;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.springframework.dao.IncorrectResultSizeDataAccessException;
+
+import it.govpay.fdr.batch.entity.SingoloVersamento;
+import it.govpay.fdr.batch.entity.Versamento;
+import it.govpay.fdr.batch.repository.SingoloVersamentoRepository;
+import it.govpay.fdr.batch.repository.VersamentoRepository;
+import it.govpay.fdr.batch.utils.ChunkUtils;
+
+/**
+ * Indice in memoria delle pendenze riferite dalle rendicontazioni senza pagamento di un flusso.
+ * <p>
+ * Le pendenze vengono caricate con query IN su (codDominio, iuv), cercando lo IUV sia in
+ * iuvVersamento che in iuvPagamento come {@link VersamentoRepository#findByDominioCodDominioAndIuvPagamento},
+ * e le relative voci con un'unica query per blocco di identificativi.
+ */
+class VersamentiIndex {
+
+	private final Map<String, List<Versamento>> versamentiPerIuv;
+	private final Map<Long, Set<SingoloVersamento>> singoliVersamentiPerVersamento;
+	private final int size;
+
+	private VersamentiIndex(Map<String, List<Versamento>> versamentiPerIuv, Map<Long, Set<SingoloVersamento>> singoliVersamentiPerVersamento, int size) {
+		this.versamentiPerIuv = versamentiPerIuv;
+		this.singoliVersamentiPerVersamento = singoliVersamentiPerVersamento;
+		this.size = size;
+	}
+
+	/**
+	 * Carica le pendenze del dominio riferite dagli IUV indicati e le relative voci.
+	 *
+	 * @param versamentoRepository repository delle pendenze
+	 * @param singoloVersamentoRepository repository delle voci di pendenza
+	 * @param codDominio codice del dominio del flusso
+	 * @param iuvs IUV distinti da risolvere
+	 * @param chunkSize numero massimo di valori per singola query
+	 * @return l'indice delle pendenze trovate
+	 */
+	static VersamentiIndex load(VersamentoRepository versamentoRepository, SingoloVersamentoRepository singoloVersamentoRepository,
+			String codDominio, Collection<String> iuvs, int chunkSize) {
+		Map<String, List<Versamento>> versamentiPerIuv = new HashMap<>();
+		Map<Long, Versamento> versamentiPerId = new HashMap<>();
+		for (List<String> blocco : ChunkUtils.chunked(iuvs, chunkSize)) {
+			Set<String> richiesti = new HashSet<>(blocco);
+			for (Versamento versamento : versamentoRepository.findAllByCodDominioAndIuvIn(codDominio, blocco)) {
+				// una pendenza puo' ricomparire in blocchi diversi se iuvVersamento e iuvPagamento differiscono:
+				// ogni blocco indicizza solo i propri IUV, quindi non si generano duplicati
+				versamentiPerId.putIfAbsent(versamento.getId(), versamento);
+				indicizza(versamentiPerIuv, richiesti, versamento.getIuvVersamento(), versamento);
+				if (versamento.getIuvPagamento() != null && !versamento.getIuvPagamento().equals(versamento.getIuvVersamento())) {
+					indicizza(versamentiPerIuv, richiesti, versamento.getIuvPagamento(), versamento);
+				}
+			}
+		}
+
+		Map<Long, Set<SingoloVersamento>> singoliVersamentiPerVersamento = new HashMap<>();
+		for (List<Long> blocco : ChunkUtils.chunked(versamentiPerId.keySet(), chunkSize)) {
+			for (SingoloVersamento singoloVersamento : singoloVersamentoRepository.findAllByVersamentoIdIn(blocco)) {
+				singoliVersamentiPerVersamento
+					.computeIfAbsent(singoloVersamento.getVersamento().getId(), k -> new HashSet<>())
+					.add(singoloVersamento);
+			}
+		}
+		return new VersamentiIndex(versamentiPerIuv, singoliVersamentiPerVersamento, versamentiPerId.size());
+	}
+
+	private static void indicizza(Map<String, List<Versamento>> versamentiPerIuv, Set<String> richiesti, String iuv, Versamento versamento) {
+		if (iuv != null && richiesti.contains(iuv)) {
+			versamentiPerIuv.computeIfAbsent(iuv, k -> new ArrayList<>(1)).add(versamento);
+		}
+	}
+
+	/**
+	 * Restituisce la pendenza riferita dallo IUV, con la stessa semantica di
+	 * {@link VersamentoRepository#findByDominioCodDominioAndIuvPagamento}.
+	 *
+	 * @param iuv IUV della rendicontazione
+	 * @return la pendenza, se presente
+	 * @throws IncorrectResultSizeDataAccessException se lo IUV riferisce piu' pendenze
+	 */
+	Optional<Versamento> findVersamento(String iuv) {
+		List<Versamento> versamenti = versamentiPerIuv.get(iuv);
+		if (versamenti == null || versamenti.isEmpty()) {
+			return Optional.empty();
+		}
+		if (versamenti.size() > 1) {
+			throw new IncorrectResultSizeDataAccessException(1, versamenti.size());
+		}
+		return Optional.of(versamenti.get(0));
+	}
+
+	/**
+	 * @param idVersamento identificativo della pendenza
+	 * @return le voci della pendenza, eventualmente vuota
+	 */
+	Set<SingoloVersamento> findSingoliVersamenti(Long idVersamento) {
+		return singoliVersamentiPerVersamento.getOrDefault(idVersamento, Set.of());
+	}
+
+	/**
+	 * @return il numero di pendenze caricate nell'indice
+	 */
+	int size() {
+		return size;
+	}
+}
@@ -1,5 +1,6 @@
 package it.govpay.fdr.batch.tasklet;
 
+import it.govpay.fdr.batch.config.BatchProperties;
 import it.govpay.fdr.batch.repository.FrTempRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.batch.core.step.StepContribution;
@@ -9,22 +10,40 @@ import org.springframework.batch.infrastructure.repeat.RepeatStatus;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Clock;
+import java.time.LocalDateTime;
+
 /**
- * Tasklet to clean up FR_TEMP table before starting the batch process
+ * Tasklet to clean up FR_TEMP table before starting the batch process.
+ * <p>
+ * With {@code govpay.batch.fr-temp-resume=true} the flows left by an interrupted run are kept: only the
+ * ones already saved in FR and the ones published more than {@code fr-temp-resume-ttl-days} ago are
+ * deleted, with set-based statements. The kept flows lose the work queue state, lease and attempts of the
+ * interrupted run, so that the cooperative acquisition publishes them again. Step 2 then adds only the new
+ * flows and Step 3 skips the flows whose metadata was already acquired.
  */
 @Component
 @Slf4j
 public class CleanupFrTempTasklet implements Tasklet {
 
     private final FrTempRepository frTempRepository;
+    private final BatchProperties batchProperties;
+    private final Clock clock;
 
-    public CleanupFrTempTasklet(FrTempRepository frTempRepository) {
+    public CleanupFrTempTasklet(FrTempRepository frTempRepository, BatchProperties batchProperties, Clock clock) {
         this.frTempRepository = frTempRepository;
+        this.batchProperties = batchProperties;
+        this.clock = clock;
     }
 
     @Override
     @Transactional
     public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) {
+        if (batchProperties.isFrTempResume()) {
+            resume();
+            return RepeatStatus.FINISHED;
+        }
+
         log.info("Starting cleanup of FR_TEMP table");
 
         long count = frTempRepository.count();
@@ -34,4 +53,23 @@ public class CleanupFrTempTasklet implements Tasklet {
 
         return RepeatStatus.FINISHED;
     }
+
+    private void resume() {
+        log.info("Ripresa dei flussi rimasti in FR_TEMP");
+
+        int acquisiti = frTempRepository.deleteAcquiredInFr();
+        int scaduti = 0;
+        int ttlDays = batchProperties.getFrTempResumeTtlDays();
+        if (ttlDays > 0) {
+            scaduti = frTempRepository.deletePublishedBefore(LocalDateTime.now(clock).minusDays(ttlDays));
+        }
+
+        // Stato, lease e tentativi sono dell'esecuzione interrotta: l'acquisizione cooperativa ripubblica i flussi nella coda
+        int riaccodati = frTempRepository.resetWorkItems();
+
+        long ripresi = frTempRepository.count();
+        long conMetadati = ripresi > 0 ? frTempRepository.countWithMetadata() : 0;
+        log.info("FR_TEMP: eliminati {} flussi gia' in FR e {} pubblicati da oltre {} giorni, ripresi {} flussi di cui {} con metadati "
+            + "({} con stato della coda azzerato)", acquisiti, scaduti, ttlDays, ripresi, conMetadati, riaccodati);
+    }
 }
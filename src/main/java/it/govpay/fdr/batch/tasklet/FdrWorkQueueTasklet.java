@@ -0,0 +1,65 @@
+package it.govpay.fdr.batch.tasklet;
+
+import it.govpay.fdr.batch.config.BatchProperties;
+import it.govpay.fdr.batch.service.FdrWorkQueue;
+import it.govpay.fdr.batch.step4.FdrWorkQueueWorker;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.StepContribution;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.infrastructure.item.ExecutionContext;
+import org.springframework.batch.infrastructure.repeat.RepeatStatus;
+import org.springframework.stereotype.Component;
+
+/**
+ * Tasklet dell'acquisizione cooperativa (govpay.batch.cooperative-acquisition=true), al posto di Step 3 e 4:
+ * pubblica i flussi di FR_TEMP nella coda di lavoro e li acquisisce insieme agli altri nodi. Termina
+ * quando tutti i flussi sono stati acquisiti o scartati, attendendo quelli in carico ad altri nodi.
+ */
+@Component
+@Slf4j
+public class FdrWorkQueueTasklet implements Tasklet {
+
+    public static final String PUBLISHED_COUNT_KEY = "workQueuePublishedCount";
+    public static final String COMPLETED_COUNT_KEY = "workQueueCompletedCount";
+    public static final String FAILED_COUNT_KEY = "workQueueFailedCount";
+
+    private final FdrWorkQueue workQueue;
+    private final FdrWorkQueueWorker worker;
+    private final BatchProperties batchProperties;
+
+    public FdrWorkQueueTasklet(FdrWorkQueue workQueue, FdrWorkQueueWorker worker, BatchProperties batchProperties) {
+        this.workQueue = workQueue;
+        this.worker = worker;
+        this.batchProperties = batchProperties;
+    }
+
+    @Override
+    public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) throws InterruptedException {
+        ExecutionContext stepContext = chunkContext.getStepContext().getStepExecution().getExecutionContext();
+        if (!stepContext.containsKey(PUBLISHED_COUNT_KEY)) {
+            stepContext.putInt(PUBLISHED_COUNT_KEY, workQueue.publish());
+        }
+
+        // Flussi acquisiti da questo nodo
+        stepContext.putInt(COMPLETED_COUNT_KEY, stepContext.getInt(COMPLETED_COUNT_KEY, 0) + worker.drain());
+
+        long pending = workQueue.countPending();
+        if (pending == 0) {
+            long failed = workQueue.countFailed();
+            stepContext.putLong(FAILED_COUNT_KEY, failed);
+            if (failed > 0) {
+                log.warn("Acquisizione cooperativa completata: {} flussi scartati dopo il numero massimo di tentativi", failed);
+            } else {
+                log.info("Acquisizione cooperativa completata");
+            }
+            return RepeatStatus.FINISHED;
+        }
+
+        // Flussi in carico ad altri nodi o in attesa di un nuovo tentativo: si riprendono alla scadenza
+        log.info("Acquisizione cooperativa: {} flussi in carico ad altri nodi o in attesa di un nuovo tentativo, attesa di {} ms",
+            pending, batchProperties.getWorkQueuePollIntervalMs());
+        Thread.sleep(batchProperties.getWorkQueuePollIntervalMs());
+        return RepeatStatus.CONTINUABLE;
+    }
+}
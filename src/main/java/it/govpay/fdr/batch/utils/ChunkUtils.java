@@ -0,0 +1,45 @@
+package it.govpay.fdr.batch.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Utility per suddividere collezioni in blocchi di dimensione limitata,
+ * usata per costruire clausole IN compatibili con tutti i DBMS supportati.
+ */
+public class ChunkUtils {
+
+	private ChunkUtils() {
+		// Utility class - private constructor
+	}
+
+	/**
+	 * Suddivide i valori in blocchi di al massimo {@code chunkSize} elementi,
+	 * preservando l'ordine di iterazione della collezione.
+	 *
+	 * @param values i valori da suddividere
+	 * @param chunkSize dimensione massima di ogni blocco (se minore di 1 viene usato 1)
+	 * @return la lista dei blocchi, vuota se non ci sono valori
+	 */
+	public static <T> List<List<T>> chunked(Collection<T> values, int chunkSize) {
+		List<List<T>> chunks = new ArrayList<>();
+		if (values == null || values.isEmpty()) {
+			return chunks;
+		}
+
+		int size = Math.max(1, chunkSize);
+		List<T> current = new ArrayList<>(Math.min(size, values.size()));
+		for (T value : values) {
+			current.add(value);
+			if (current.size() == size) {
+				chunks.add(current);
+				current = new ArrayList<>(size);
+			}
+		}
+		if (!current.isEmpty()) {
+			chunks.add(current);
+		}
+		return chunks;
+	}
+}
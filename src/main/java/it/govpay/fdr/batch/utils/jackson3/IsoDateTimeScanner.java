@@ -0,0 +1,148 @@
+package it.govpay.fdr.batch.utils.jackson3;
+
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.OffsetDateTime;
+import java.time.Year;
+import java.time.ZoneOffset;
+
+/**
+ * Parsing in un solo passaggio delle date ISO-8601 inviate da pagoPA.
+ * <p>
+ * Riconosce il formato {@code yyyy-MM-dd'T'HH:mm[:ss[.f]][Z|+HH:MM|-HH:MM]}, con frazione di secondo
+ * da 1 a 9 cifre, senza usare {@code DateTimeFormatter} e senza eccezioni. Per qualsiasi valore fuori
+ * da questo formato, o con campi fuori intervallo (es. 30 febbraio, ore 24), restituisce {@code null}:
+ * il chiamante ripiega sulla catena di formatter esistente, che resta l'unica a decidere i casi limite
+ * e i messaggi di errore.
+ */
+final class IsoDateTimeScanner {
+
+	private static final int[] POWERS_OF_TEN = {1, 10, 100, 1_000, 10_000, 100_000, 1_000_000, 10_000_000, 100_000_000};
+
+	private IsoDateTimeScanner() {
+	}
+
+	/**
+	 * Effettua il parsing di una data/ora ISO-8601.
+	 *
+	 * @param value la stringa da parsare, gia' senza spazi iniziali e finali
+	 * @param defaultOffset l'offset da applicare se la stringa non indica il fuso orario
+	 * @return l'OffsetDateTime, oppure null se la stringa non e' nel formato riconosciuto
+	 */
+	static OffsetDateTime parseOffsetDateTime(String value, ZoneOffset defaultOffset) {
+		int length = value.length();
+		if (length < 16 || value.charAt(10) != 'T' || value.charAt(13) != ':') {
+			return null;
+		}
+		if (!isValidDate(value)) {
+			return null;
+		}
+		int hour = digits(value, 11, 2);
+		int minute = digits(value, 14, 2);
+		if (hour < 0 || hour > 23 || minute < 0 || minute > 59) {
+			return null;
+		}
+
+		int pos = 16;
+		int second = 0;
+		int nano = 0;
+		if (pos < length && value.charAt(pos) == ':') {
+			second = pos + 3 <= length ? digits(value, pos + 1, 2) : -1;
+			if (second < 0 || second > 59) {
+				return null;
+			}
+			pos += 3;
+			if (pos < length && value.charAt(pos) == '.') {
+				int start = ++pos;
+				while (pos < length && isDigit(value.charAt(pos))) {
+					nano = nano * 10 + (value.charAt(pos) - '0');
+					pos++;
+				}
+				int fractionDigits = pos - start;
+				if (fractionDigits == 0 || fractionDigits > 9) {
+					return null;
+				}
+				nano *= POWERS_OF_TEN[9 - fractionDigits];
+			}
+		}
+
+		ZoneOffset offset = parseOffset(value, pos, defaultOffset);
+		if (offset == null) {
+			return null;
+		}
+		return OffsetDateTime.of(parseYear(value), digits(value, 5, 2), digits(value, 8, 2), hour, minute, second, nano, offset);
+	}
+
+	/**
+	 * Effettua il parsing di una data ISO-8601 ({@code yyyy-MM-dd}) o della parte data di una
+	 * data/ora riconosciuta da {@link #parseOffsetDateTime(String, ZoneOffset)}.
+	 *
+	 * @param value la stringa da parsare, gia' senza spazi iniziali e finali
+	 * @return il LocalDate, oppure null se la stringa non e' nel formato riconosciuto
+	 */
+	static LocalDate parseLocalDate(String value) {
+		if (value.length() == 10) {
+			return isValidDate(value) ? LocalDate.of(parseYear(value), digits(value, 5, 2), digits(value, 8, 2)) : null;
+		}
+		OffsetDateTime offsetDateTime = parseOffsetDateTime(value, ZoneOffset.UTC);
+		return offsetDateTime != null ? offsetDateTime.toLocalDate() : null;
+	}
+
+	private static boolean isValidDate(String value) {
+		if (value.length() < 10 || value.charAt(4) != '-' || value.charAt(7) != '-') {
+			return false;
+		}
+		int year = parseYear(value);
+		int month = digits(value, 5, 2);
+		int day = digits(value, 8, 2);
+		return year > 0 && month >= 1 && month <= 12
+			&& day >= 1 && day <= Month.of(month).length(Year.isLeap(year));
+	}
+
+	private static int parseYear(String value) {
+		return digits(value, 0, 4);
+	}
+
+	/**
+	 * Offset finale: assente (default), {@code Z} oppure {@code +HH:MM}/{@code -HH:MM}.
+	 */
+	private static ZoneOffset parseOffset(String value, int pos, ZoneOffset defaultOffset) {
+		int length = value.length();
+		if (pos == length) {
+			return defaultOffset;
+		}
+		char sign = value.charAt(pos);
+		if (sign == 'Z') {
+			return pos + 1 == length ? ZoneOffset.UTC : null;
+		}
+		if ((sign != '+' && sign != '-') || pos + 6 != length || value.charAt(pos + 3) != ':') {
+			return null;
+		}
+		int hours = digits(value, pos + 1, 2);
+		int minutes = digits(value, pos + 4, 2);
+		if (hours < 0 || minutes < 0 || minutes > 59 || hours > 18 || (hours == 18 && minutes > 0)) {
+			return null;
+		}
+		int totalSeconds = hours * 3600 + minutes * 60;
+		return ZoneOffset.ofTotalSeconds(sign == '-' ? -totalSeconds : totalSeconds);
+	}
+
+	/**
+	 * @return il valore delle cifre in [start, start + count), -1 se non sono tutte cifre
+	 */
+	private static int digits(String value, int start, int count) {
+		int result = 0;
+		for (int i = start; i < start + count; i++) {
+			char c = value.charAt(i);
+			if (!isDigit(c)) {
+				return -1;
+			}
+			result = result * 10 + (c - '0');
+		}
+		return result;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+}
@@ -40,7 +40,8 @@ public class LocalDateFlexibleDeserializer extends StdScalarDeserializer<LocalDa
 	}
 
 	/**
-	 * Effettua il parsing di un LocalDate con strategie multiple:
+	 * Effettua il parsing di un LocalDate. Date e date/ora ISO-8601 sono riconosciute in un solo
+	 * passaggio da {@link IsoDateTimeScanner}; gli altri valori passano per le strategie multiple:
 	 * <ol>
 	 *   <li>LocalDate standard (yyyy-MM-dd)</li>
 	 *   <li>OffsetDateTime, estraendo la parte data</li>
@@ -57,6 +58,11 @@ public class LocalDateFlexibleDeserializer extends StdScalarDeserializer<LocalDa
 
 		String dateString = value.trim();
 
+		LocalDate scanned = IsoDateTimeScanner.parseLocalDate(dateString);
+		if (scanned != null) {
+			return scanned;
+		}
+
 		try {
 			return LocalDate.parse(dateString, DateTimeFormatter.ISO_LOCAL_DATE);
 		} catch (DateTimeParseException e) {
@@ -29,6 +29,8 @@ public class OffsetDateTimeDeserializer extends StdScalarDeserializer<OffsetDate
 
 	private final transient DateTimeFormatter formatter;
 
+	private static final ZoneOffset CET_OFFSET = ZoneOffset.ofHoursMinutes(1, 0); // CET (Central European Time)
+
 	private static final DateTimeFormatter FLEXIBLE_OFFSET_FORMATTER = new DateTimeFormatterBuilder()
 			.appendPattern("yyyy-MM-dd'T'HH:mm")
 			.optionalStart()
@@ -81,7 +83,9 @@ public class OffsetDateTimeDeserializer extends StdScalarDeserializer<OffsetDate
 	}
 
 	/**
-	 * Effettua il parsing di un OffsetDateTime con strategie di fallback multiple:
+	 * Effettua il parsing di un OffsetDateTime. I formati ISO-8601 inviati da pagoPA (frazione da 1 a 9
+	 * cifre, secondi opzionali, Z/+HH:MM o nessun fuso con fallback CET) sono riconosciuti in un solo
+	 * passaggio da {@link IsoDateTimeScanner}; gli altri valori passano per le strategie di fallback:
 	 * <ol>
 	 * <li>formatter fornito</li>
 	 * <li>formatter OffsetDateTime flessibile (secondi/millis opzionali con timezone)</li>
@@ -97,6 +101,11 @@ public class OffsetDateTimeDeserializer extends StdScalarDeserializer<OffsetDate
 		if (value != null && !value.trim().isEmpty()) {
 			String dateString = value.trim();
 
+			OffsetDateTime scanned = IsoDateTimeScanner.parseOffsetDateTime(dateString, CET_OFFSET);
+			if (scanned != null) {
+				return scanned;
+			}
+
 			try {
 				return OffsetDateTime.parse(dateString, formatter);
 			} catch (DateTimeParseException e1) {
@@ -110,16 +119,14 @@ public class OffsetDateTimeDeserializer extends StdScalarDeserializer<OffsetDate
 			}
 
 			try {
-				ZoneOffset offset = ZoneOffset.ofHoursMinutes(1, 0); // CET (Central European Time)
 				LocalDateTime localDateTime = LocalDateTime.parse(dateString, FLEXIBLE_LOCAL_FORMATTER);
-				return OffsetDateTime.of(localDateTime, offset);
+				return OffsetDateTime.of(localDateTime, CET_OFFSET);
 			} catch (DateTimeParseException e3) {
 				// ultimo tentativo con il formatter originale come LocalDateTime
 			}
 
-			ZoneOffset offset = ZoneOffset.ofHoursMinutes(1, 0); // CET (Central European Time)
 			LocalDateTime localDateTime = LocalDateTime.parse(dateString, formatter);
-			return OffsetDateTime.of(localDateTime, offset);
+			return OffsetDateTime.of(localDateTime, CET_OFFSET);
 		}
 
 		return null;
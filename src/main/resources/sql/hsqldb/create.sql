@@ -18,7 +18,12 @@ CREATE TABLE FR_TEMP (
     ragione_sociale_psp         VARCHAR(70),
     ragione_sociale_dominio     VARCHAR(70),
     data_ora_pubblicazione      TIMESTAMP,
-    revisione                   BIGINT
+    revisione                   BIGINT,
+    stato_coda                  VARCHAR(20),
+    lease_owner                 VARCHAR(100),
+    lease_scadenza              TIMESTAMP,
+    tentativi                   INTEGER,
+    bucket_flusso               INTEGER
 );
 
 -- Create indexes for common queries
@@ -33,3 +38,30 @@ CREATE INDEX idx_fr_temp_dominio_publ ON FR_TEMP(cod_dominio, data_ora_pubblicaz
 
 -- For existsByCodDominioAndCodFlussoAndIdPspAndRevisione() in Step 2 writer
 CREATE INDEX idx_fr_temp_exists_check ON FR_TEMP(cod_dominio, cod_flusso, id_psp, revisione);
+
+-- For the work queue of cooperative acquisition (govpay.batch.cooperative-acquisition)
+CREATE INDEX idx_fr_temp_coda ON FR_TEMP(stato_coda, lease_scadenza);
+
+-- Acquisition watermark per domain (govpay.batch.fr-watermark)
+CREATE TABLE FR_WATERMARK (
+    id_dominio                  BIGINT PRIMARY KEY,
+    cod_dominio                 VARCHAR(35) NOT NULL,
+    data_ora_pubblicazione      TIMESTAMP,
+    data_aggiornamento          TIMESTAMP
+);
+
+CREATE TABLE FDR_LOCK (
+    nome                        VARCHAR(64) PRIMARY KEY,
+    proprietario                VARCHAR(60) NOT NULL,
+    scadenza                    TIMESTAMP NOT NULL
+);
+
+-- Polling history per domain (govpay.batch.adaptive-polling)
+CREATE TABLE FR_POLLING (
+    cod_dominio                 VARCHAR(35) PRIMARY KEY,
+    interrogazioni              BIGINT NOT NULL,
+    interrogazioni_con_flussi   BIGINT NOT NULL,
+    interrogazioni_vuote        INT NOT NULL,
+    esecuzioni_saltate          INT NOT NULL,
+    data_ultima_interrogazione  TIMESTAMP
+);
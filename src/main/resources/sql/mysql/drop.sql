@@ -1,3 +1,9 @@
 -- MySQL - Drop FR_TEMP table
 
 DROP TABLE IF EXISTS FR_TEMP;
+
+DROP TABLE IF EXISTS FR_WATERMARK;
+
+DROP TABLE IF EXISTS FDR_LOCK;
+
+DROP TABLE IF EXISTS FR_POLLING;
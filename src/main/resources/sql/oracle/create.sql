@@ -26,7 +26,12 @@ CREATE TABLE FR_TEMP (
     ragione_sociale_psp         VARCHAR2(70 CHAR),
     ragione_sociale_dominio     VARCHAR2(70 CHAR),
     data_ora_pubblicazione      TIMESTAMP,
-    revisione                   NUMBER
+    revisione                   NUMBER,
+    stato_coda                  VARCHAR2(20 CHAR),
+    lease_owner                 VARCHAR2(100 CHAR),
+    lease_scadenza              TIMESTAMP,
+    tentativi                   NUMBER,
+    bucket_flusso               NUMBER
 );
 
 -- Create trigger for auto-increment
@@ -53,6 +58,9 @@ CREATE INDEX idx_fr_temp_dominio_publ ON FR_TEMP(cod_dominio, data_ora_pubblicaz
 -- For existsByCodDominioAndCodFlussoAndIdPspAndRevisione() in Step 2 writer
 CREATE INDEX idx_fr_temp_exists_check ON FR_TEMP(cod_dominio, cod_flusso, id_psp, revisione);
 
+-- For the work queue of cooperative acquisition (govpay.batch.cooperative-acquisition)
+CREATE INDEX idx_fr_temp_coda ON FR_TEMP(stato_coda, lease_scadenza);
+
 -- Add comments
 COMMENT ON TABLE FR_TEMP IS 'Temporary table for storing FDR headers during batch processing';
 COMMENT ON COLUMN FR_TEMP.id IS 'Primary key';
@@ -62,3 +70,40 @@ COMMENT ON COLUMN FR_TEMP.cod_dominio IS 'Domain code';
 COMMENT ON COLUMN FR_TEMP.cod_flusso IS 'Flow code';
 COMMENT ON COLUMN FR_TEMP.iur IS 'Unique payment reference';
 COMMENT ON COLUMN FR_TEMP.revisione IS 'FDR revision number';
+
+-- Acquisition watermark per domain (govpay.batch.fr-watermark)
+CREATE TABLE FR_WATERMARK (
+    id_dominio                  NUMBER PRIMARY KEY,
+    cod_dominio                 VARCHAR2(35 CHAR) NOT NULL,
+    data_ora_pubblicazione      TIMESTAMP,
+    data_aggiornamento          TIMESTAMP
+);
+
+COMMENT ON TABLE FR_WATERMARK IS 'Publication date of the last FDR acquired for each domain';
+COMMENT ON COLUMN FR_WATERMARK.id_dominio IS 'Domain identifier';
+COMMENT ON COLUMN FR_WATERMARK.data_ora_pubblicazione IS 'Max publication date of the FDRs acquired for the domain';
+
+CREATE TABLE FDR_LOCK (
+    nome                        VARCHAR2(64 CHAR) PRIMARY KEY,
+    proprietario                VARCHAR2(60 CHAR) NOT NULL,
+    scadenza                    TIMESTAMP NOT NULL
+);
+
+COMMENT ON TABLE FDR_LOCK IS 'Application locks shared by the batch nodes';
+COMMENT ON COLUMN FDR_LOCK.proprietario IS 'Node holding the lock';
+COMMENT ON COLUMN FDR_LOCK.scadenza IS 'Lease expiry, after which another node can take the lock';
+
+-- Polling history per domain (govpay.batch.adaptive-polling)
+CREATE TABLE FR_POLLING (
+    cod_dominio                 VARCHAR2(35 CHAR) PRIMARY KEY,
+    interrogazioni              NUMBER NOT NULL,
+    interrogazioni_con_flussi   NUMBER NOT NULL,
+    interrogazioni_vuote        NUMBER NOT NULL,
+    esecuzioni_saltate          NUMBER NOT NULL,
+    data_ultima_interrogazione  TIMESTAMP
+);
+
+COMMENT ON TABLE FR_POLLING IS 'Polling history of each domain for the adaptive polling';
+COMMENT ON COLUMN FR_POLLING.interrogazioni_con_flussi IS 'Polls that found FDRs not yet in FR or FR_TEMP';
+COMMENT ON COLUMN FR_POLLING.interrogazioni_vuote IS 'Consecutive polls without new FDRs';
+COMMENT ON COLUMN FR_POLLING.esecuzioni_saltate IS 'Job runs since the last poll of the domain';
@@ -8,3 +8,12 @@ DROP TABLE FR_TEMP CASCADE CONSTRAINTS;
 
 -- Drop sequence
 DROP SEQUENCE FR_TEMP_SEQ;
+
+-- Drop watermark table
+DROP TABLE FR_WATERMARK;
+
+-- Drop lock table
+DROP TABLE FDR_LOCK;
+
+-- Drop polling history table
+DROP TABLE FR_POLLING;
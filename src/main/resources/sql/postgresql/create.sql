@@ -17,7 +17,12 @@ CREATE TABLE FR_TEMP (
     ragione_sociale_psp         VARCHAR(70),
     ragione_sociale_dominio     VARCHAR(70),
     data_ora_pubblicazione      TIMESTAMP,
-    revisione                   BIGINT
+    revisione                   BIGINT,
+    stato_coda                  VARCHAR(20),
+    lease_owner                 VARCHAR(100),
+    lease_scadenza              TIMESTAMP,
+    tentativi                   INTEGER,
+    bucket_flusso               INTEGER
 );
 
 -- Create indexes for common queries
@@ -33,6 +38,9 @@ CREATE INDEX idx_fr_temp_dominio_publ ON FR_TEMP(cod_dominio, data_ora_pubblicaz
 -- For existsByCodDominioAndCodFlussoAndIdPspAndRevisione() in Step 2 writer
 CREATE INDEX idx_fr_temp_exists_check ON FR_TEMP(cod_dominio, cod_flusso, id_psp, revisione);
 
+-- For the work queue of cooperative acquisition (govpay.batch.cooperative-acquisition)
+CREATE INDEX idx_fr_temp_coda ON FR_TEMP(stato_coda, lease_scadenza);
+
 -- Add table and column comments
 COMMENT ON TABLE FR_TEMP IS 'Temporary table for storing FDR headers during batch processing';
 COMMENT ON COLUMN FR_TEMP.id IS 'Primary key';
@@ -42,3 +50,40 @@ COMMENT ON COLUMN FR_TEMP.cod_dominio IS 'Domain code';
 COMMENT ON COLUMN FR_TEMP.cod_flusso IS 'Flow code';
 COMMENT ON COLUMN FR_TEMP.iur IS 'Unique payment reference';
 COMMENT ON COLUMN FR_TEMP.revisione IS 'FDR revision number';
+
+-- Acquisition watermark per domain (govpay.batch.fr-watermark)
+CREATE TABLE FR_WATERMARK (
+    id_dominio                  BIGINT PRIMARY KEY,
+    cod_dominio                 VARCHAR(35) NOT NULL,
+    data_ora_pubblicazione      TIMESTAMP,
+    data_aggiornamento          TIMESTAMP
+);
+
+COMMENT ON TABLE FR_WATERMARK IS 'Publication date of the last FDR acquired for each domain';
+COMMENT ON COLUMN FR_WATERMARK.id_dominio IS 'Domain identifier';
+COMMENT ON COLUMN FR_WATERMARK.data_ora_pubblicazione IS 'Max publication date of the FDRs acquired for the domain';
+
+CREATE TABLE FDR_LOCK (
+    nome                        VARCHAR(64) PRIMARY KEY,
+    proprietario                VARCHAR(60) NOT NULL,
+    scadenza                    TIMESTAMP NOT NULL
+);
+
+COMMENT ON TABLE FDR_LOCK IS 'Application locks shared by the batch nodes';
+COMMENT ON COLUMN FDR_LOCK.proprietario IS 'Node holding the lock';
+COMMENT ON COLUMN FDR_LOCK.scadenza IS 'Lease expiry, after which another node can take the lock';
+
+-- Polling history per domain (govpay.batch.adaptive-polling)
+CREATE TABLE FR_POLLING (
+    cod_dominio                 VARCHAR(35) PRIMARY KEY,
+    interrogazioni              BIGINT NOT NULL,
+    interrogazioni_con_flussi   BIGINT NOT NULL,
+    interrogazioni_vuote        INTEGER NOT NULL,
+    esecuzioni_saltate          INTEGER NOT NULL,
+    data_ultima_interrogazione  TIMESTAMP
+);
+
+COMMENT ON TABLE FR_POLLING IS 'Polling history of each domain for the adaptive polling';
+COMMENT ON COLUMN FR_POLLING.interrogazioni_con_flussi IS 'Polls that found FDRs not yet in FR or FR_TEMP';
+COMMENT ON COLUMN FR_POLLING.interrogazioni_vuote IS 'Consecutive polls without new FDRs';
+COMMENT ON COLUMN FR_POLLING.esecuzioni_saltate IS 'Job runs since the last poll of the domain';
@@ -2,3 +2,9 @@
 
 -- Drop table (CASCADE will drop dependent objects like the sequence)
 DROP TABLE IF EXISTS FR_TEMP CASCADE;
+
+DROP TABLE IF EXISTS FR_WATERMARK;
+
+DROP TABLE IF EXISTS FDR_LOCK;
+
+DROP TABLE IF EXISTS FR_POLLING;
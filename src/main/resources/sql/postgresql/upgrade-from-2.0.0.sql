@@ -0,0 +1,55 @@
+-- PostgreSQL - Upgrade of a database created with create.sql of version 2.0.0
+-- Required even with the new features disabled: the FR_TEMP entity maps all the new columns
+
+-- Domain slices of oversized domains (govpay.batch.domain-split-threshold)
+ALTER TABLE FR_TEMP ADD COLUMN bucket_flusso INTEGER;
+
+-- FR_TEMP only holds the headers of the running acquisition: the flows left by the previous version have no
+-- bucket and are read again from pagoPA by the next run
+DELETE FROM FR_TEMP;
+
+-- Work queue of cooperative acquisition (govpay.batch.cooperative-acquisition)
+ALTER TABLE FR_TEMP
+    ADD COLUMN stato_coda VARCHAR(20),
+    ADD COLUMN lease_owner VARCHAR(100),
+    ADD COLUMN lease_scadenza TIMESTAMP,
+    ADD COLUMN tentativi INTEGER;
+CREATE INDEX idx_fr_temp_coda ON FR_TEMP(stato_coda, lease_scadenza);
+
+-- Application locks between the nodes (govpay.batch.continuous-acquisition)
+CREATE TABLE FDR_LOCK (
+    nome                        VARCHAR(64) PRIMARY KEY,
+    proprietario                VARCHAR(60) NOT NULL,
+    scadenza                    TIMESTAMP NOT NULL
+);
+
+COMMENT ON TABLE FDR_LOCK IS 'Application locks shared by the batch nodes';
+COMMENT ON COLUMN FDR_LOCK.proprietario IS 'Node holding the lock';
+COMMENT ON COLUMN FDR_LOCK.scadenza IS 'Lease expiry, after which another node can take the lock';
+
+-- Acquisition watermark per domain (govpay.batch.fr-watermark)
+CREATE TABLE FR_WATERMARK (
+    id_dominio                  BIGINT PRIMARY KEY,
+    cod_dominio                 VARCHAR(35) NOT NULL,
+    data_ora_pubblicazione      TIMESTAMP,
+    data_aggiornamento          TIMESTAMP
+);
+
+COMMENT ON TABLE FR_WATERMARK IS 'Publication date of the last FDR acquired for each domain';
+COMMENT ON COLUMN FR_WATERMARK.id_dominio IS 'Domain identifier';
+COMMENT ON COLUMN FR_WATERMARK.data_ora_pubblicazione IS 'Max publication date of the FDRs acquired for the domain';
+
+-- Polling history per domain (govpay.batch.adaptive-polling)
+CREATE TABLE FR_POLLING (
+    cod_dominio                 VARCHAR(35) PRIMARY KEY,
+    interrogazioni              BIGINT NOT NULL,
+    interrogazioni_con_flussi   BIGINT NOT NULL,
+    interrogazioni_vuote        INTEGER NOT NULL,
+    esecuzioni_saltate          INTEGER NOT NULL,
+    data_ultima_interrogazione  TIMESTAMP
+);
+
+COMMENT ON TABLE FR_POLLING IS 'Polling history of each domain for the adaptive polling';
+COMMENT ON COLUMN FR_POLLING.interrogazioni_con_flussi IS 'Polls that found FDRs not yet in FR or FR_TEMP';
+COMMENT ON COLUMN FR_POLLING.interrogazioni_vuote IS 'Consecutive polls without new FDRs';
+COMMENT ON COLUMN FR_POLLING.esecuzioni_saltate IS 'Job runs since the last poll of the domain';
@@ -17,7 +17,12 @@ CREATE TABLE FR_TEMP (
     ragione_sociale_psp         VARCHAR(70),
     ragione_sociale_dominio     VARCHAR(70),
     data_ora_pubblicazione      DATETIME2,
-    revisione                   BIGINT
+    revisione                   BIGINT,
+    stato_coda                  VARCHAR(20),
+    lease_owner                 VARCHAR(100),
+    lease_scadenza              DATETIME2,
+    tentativi                   INT,
+    bucket_flusso               INT
 );
 
 -- Create indexes for common queries
@@ -33,6 +38,9 @@ CREATE INDEX idx_fr_temp_dominio_publ ON FR_TEMP(cod_dominio, data_ora_pubblicaz
 -- For existsByCodDominioAndCodFlussoAndIdPspAndRevisione() in Step 2 writer
 CREATE INDEX idx_fr_temp_exists_check ON FR_TEMP(cod_dominio, cod_flusso, id_psp, revisione);
 
+-- For the work queue of cooperative acquisition (govpay.batch.cooperative-acquisition)
+CREATE INDEX idx_fr_temp_coda ON FR_TEMP(stato_coda, lease_scadenza);
+
 -- Add extended properties for documentation
 EXEC sp_addextendedproperty
     @name = N'MS_Description',
@@ -60,3 +68,27 @@ EXEC sp_addextendedproperty
     @level0type = N'SCHEMA', @level0name = N'dbo',
     @level1type = N'TABLE',  @level1name = N'FR_TEMP',
     @level2type = N'COLUMN', @level2name = N'revisione';
+
+-- Acquisition watermark per domain (govpay.batch.fr-watermark)
+CREATE TABLE FR_WATERMARK (
+    id_dominio                  BIGINT PRIMARY KEY,
+    cod_dominio                 VARCHAR(35) NOT NULL,
+    data_ora_pubblicazione      DATETIME2,
+    data_aggiornamento          DATETIME2
+);
+
+CREATE TABLE FDR_LOCK (
+    nome                        VARCHAR(64) PRIMARY KEY,
+    proprietario                VARCHAR(60) NOT NULL,
+    scadenza                    DATETIME2 NOT NULL
+);
+
+-- Polling history per domain (govpay.batch.adaptive-polling)
+CREATE TABLE FR_POLLING (
+    cod_dominio                 VARCHAR(35) PRIMARY KEY,
+    interrogazioni              BIGINT NOT NULL,
+    interrogazioni_con_flussi   BIGINT NOT NULL,
+    interrogazioni_vuote        INT NOT NULL,
+    esecuzioni_saltate          INT NOT NULL,
+    data_ultima_interrogazione  DATETIME2
+);
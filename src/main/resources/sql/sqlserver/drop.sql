@@ -2,3 +2,12 @@
 
 IF OBJECT_ID('dbo.FR_TEMP', 'U') IS NOT NULL
     DROP TABLE dbo.FR_TEMP;
+
+IF OBJECT_ID('dbo.FR_WATERMARK', 'U') IS NOT NULL
+    DROP TABLE dbo.FR_WATERMARK;
+
+IF OBJECT_ID('dbo.FDR_LOCK', 'U') IS NOT NULL
+    DROP TABLE dbo.FDR_LOCK;
+
+IF OBJECT_ID('dbo.FR_POLLING', 'U') IS NOT NULL
+    DROP TABLE dbo.FR_POLLING;
@@ -0,0 +1,42 @@
+-- SQL Server - Upgrade of a database created with create.sql of version 2.0.0
+-- Required even with the new features disabled: the FR_TEMP entity maps all the new columns
+
+-- Domain slices of oversized domains (govpay.batch.domain-split-threshold)
+ALTER TABLE FR_TEMP ADD bucket_flusso INT;
+
+-- FR_TEMP only holds the headers of the running acquisition: the flows left by the previous version have no
+-- bucket and are read again from pagoPA by the next run
+DELETE FROM FR_TEMP;
+
+-- Work queue of cooperative acquisition (govpay.batch.cooperative-acquisition)
+ALTER TABLE FR_TEMP ADD
+    stato_coda                  VARCHAR(20),
+    lease_owner                 VARCHAR(100),
+    lease_scadenza              DATETIME2,
+    tentativi                   INT;
+CREATE INDEX idx_fr_temp_coda ON FR_TEMP(stato_coda, lease_scadenza);
+
+-- Application locks between the nodes (govpay.batch.continuous-acquisition)
+CREATE TABLE FDR_LOCK (
+    nome                        VARCHAR(64) PRIMARY KEY,
+    proprietario                VARCHAR(60) NOT NULL,
+    scadenza                    DATETIME2 NOT NULL
+);
+
+-- Acquisition watermark per domain (govpay.batch.fr-watermark)
+CREATE TABLE FR_WATERMARK (
+    id_dominio                  BIGINT PRIMARY KEY,
+    cod_dominio                 VARCHAR(35) NOT NULL,
+    data_ora_pubblicazione      DATETIME2,
+    data_aggiornamento          DATETIME2
+);
+
+-- Polling history per domain (govpay.batch.adaptive-polling)
+CREATE TABLE FR_POLLING (
+    cod_dominio                 VARCHAR(35) PRIMARY KEY,
+    interrogazioni              BIGINT NOT NULL,
+    interrogazioni_con_flussi   BIGINT NOT NULL,
+    interrogazioni_vuote        INT NOT NULL,
+    esecuzioni_saltate          INT NOT NULL,
+    data_ultima_interrogazione  DATETIME2
+);
@@ -0,0 +1,111 @@
+package it.govpay.fdr.batch.async;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.infrastructure.item.Chunk;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.web.client.RestClientException;
+
+/**
+ * Test per AsyncItemProcessor e AsyncItemWriter
+ */
+@DisplayName("AsyncItemProcessor Tests")
+class AsyncItemProcessorTest {
+
+    private static SimpleAsyncTaskExecutor executor(int concurrencyLimit) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("test-async-");
+        executor.setConcurrencyLimit(concurrencyLimit);
+        return executor;
+    }
+
+    @Test
+    @DisplayName("Gli item del chunk sono elaborati in parallelo e scritti nell'ordine di lettura")
+    void testItemsProcessedConcurrentlyAndWrittenInOrder() throws Exception {
+        CountDownLatch allStarted = new CountDownLatch(3);
+        AsyncItemProcessor<Integer, String> processor = new AsyncItemProcessor<>(item -> {
+            allStarted.countDown();
+            // Ogni elaborazione attende le altre: termina solo se le tre sono in corso insieme
+            assertThat(allStarted.await(5, TimeUnit.SECONDS)).isTrue();
+            Thread.sleep(10L * (3 - item));
+            return "item-" + item;
+        }, executor(3));
+        List<String> written = new ArrayList<>();
+        AsyncItemWriter<String> writer = new AsyncItemWriter<>(chunk -> chunk.forEach(written::add));
+
+        Chunk<Future<String>> chunk = new Chunk<>(List.of(processor.process(1), processor.process(2), processor.process(3)));
+        writer.write(chunk);
+
+        assertThat(written).containsExactly("item-1", "item-2", "item-3");
+    }
+
+    @Test
+    @DisplayName("L'executor limita le elaborazioni contemporanee")
+    void testConcurrencyBoundedByExecutor() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        AsyncItemProcessor<Integer, Integer> processor = new AsyncItemProcessor<>(item -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(20);
+            inFlight.decrementAndGet();
+            return item;
+        }, executor(2));
+        List<Integer> written = new ArrayList<>();
+        AsyncItemWriter<Integer> writer = new AsyncItemWriter<>(chunk -> chunk.forEach(written::add));
+
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(processor.process(i));
+        }
+        writer.write(new Chunk<>(futures));
+
+        assertThat(written).containsExactly(0, 1, 2, 3, 4, 5, 6, 7);
+        assertThat(maxInFlight.get()).isLessThanOrEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Gli item filtrati dal processor non vengono scritti")
+    void testFilteredItemsAreSkipped() throws Exception {
+        AsyncItemProcessor<Integer, Integer> processor = new AsyncItemProcessor<>(item -> item % 2 == 0 ? item : null, executor(2));
+        List<Integer> written = new ArrayList<>();
+        AsyncItemWriter<Integer> writer = new AsyncItemWriter<>(chunk -> chunk.forEach(written::add));
+
+        writer.write(new Chunk<>(List.of(processor.process(1), processor.process(2), processor.process(3), processor.process(4))));
+
+        assertThat(written).containsExactly(2, 4);
+    }
+
+    @Test
+    @DisplayName("L'eccezione del processor viene rilanciata dal writer senza scrivere il chunk")
+    void testProcessorExceptionRethrownByWriter() throws Exception {
+        AtomicInteger completed = new AtomicInteger();
+        AsyncItemProcessor<Integer, Integer> processor = new AsyncItemProcessor<>(item -> {
+            if (item == 1) {
+                throw new RestClientException("Errore pagoPA");
+            }
+            Thread.sleep(50);
+            completed.incrementAndGet();
+            return item;
+        }, executor(3));
+        List<Integer> written = new ArrayList<>();
+        AsyncItemWriter<Integer> writer = new AsyncItemWriter<>(chunk -> chunk.forEach(written::add));
+
+        Chunk<Future<Integer>> chunk = new Chunk<>(List.of(processor.process(1), processor.process(2), processor.process(3)));
+
+        assertThatThrownBy(() -> writer.write(chunk))
+            .isInstanceOf(RestClientException.class)
+            .hasMessage("Errore pagoPA");
+        assertThat(written).isEmpty();
+        // Le altre elaborazioni del chunk sono terminate prima del rilancio
+        assertThat(completed.get()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,258 @@
+package it.govpay.fdr.batch.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsExchange;
+import com.sun.net.httpserver.HttpsParameters;
+import com.sun.net.httpserver.HttpsServer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.govpay.fdr.batch.config.BatchProperties.ConnectorLimits;
+import it.govpay.fdr.batch.config.BatchProperties.HttpTransport;
+
+/**
+ * Test per FdrHttpTransport contro uno stub HTTPS locale
+ */
+@DisplayName("FdrHttpTransport Tests")
+class FdrHttpTransportTest {
+
+    private static final String PASSWORD = "changeit";
+    private static final int REQUESTS = 5;
+    private static final String CONNETTORE = "PAGOPA_FDR";
+    private static final String CONNETTORE_MTLS = "PAGOPA_FDR_MTLS";
+
+    private HttpsServer server;
+    private HttpsServer mtlsServer;
+    private ExecutorService mtlsExecutor;
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private final Set<String> clientCertificates = ConcurrentHashMap.newKeySet();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private FdrHttpTransport transport;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = HttpsServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setHttpsConfigurator(new HttpsConfigurator(serverSslContext(null)));
+        server.createContext("/fdrs", exchange -> {
+            // Ogni porta client distinta corrisponde a una nuova connessione TCP+TLS
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            respond(exchange);
+        });
+        server.start();
+
+        // Stub che richiede il certificato client, come pagoPA con mutua autenticazione
+        mtlsServer = HttpsServer.create(new InetSocketAddress("localhost", 0), 0);
+        mtlsServer.setHttpsConfigurator(new HttpsConfigurator(serverSslContext("/tls/stub-client-truststore.p12")) {
+            @Override
+            public void configure(HttpsParameters params) {
+                SSLParameters sslParameters = getSSLContext().getDefaultSSLParameters();
+                sslParameters.setNeedClientAuth(true);
+                params.setSSLParameters(sslParameters);
+            }
+        });
+        mtlsServer.createContext("/fdrs", exchange -> {
+            clientCertificates.add(((HttpsExchange) exchange).getSSLSession().getPeerPrincipal().getName());
+            respond(exchange);
+        });
+        mtlsServer.createContext("/slow", exchange -> {
+            try {
+                Thread.sleep(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange);
+        });
+        mtlsExecutor = Executors.newCachedThreadPool();
+        mtlsServer.setExecutor(mtlsExecutor);
+        mtlsServer.start();
+    }
+
+    private SSLContext serverSslContext(String trustStore) throws Exception {
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(loadKeyStore("/tls/stub-server.p12"), PASSWORD.toCharArray());
+        TrustManagerFactory trustManagerFactory = null;
+        if (trustStore != null) {
+            trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustManagerFactory.init(loadKeyStore(trustStore));
+        }
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagerFactory.getKeyManagers(),
+            trustManagerFactory != null ? trustManagerFactory.getTrustManagers() : null, null);
+        return sslContext;
+    }
+
+    private KeyStore loadKeyStore(String resource) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = getClass().getResourceAsStream(resource)) {
+            keyStore.load(in, PASSWORD.toCharArray());
+        }
+        return keyStore;
+    }
+
+    private static void respond(HttpExchange exchange) throws IOException {
+        byte[] body = "{\"status\":\"ok\"}".getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (transport != null) {
+            transport.destroy();
+        }
+        server.stop(0);
+        mtlsServer.stop(0);
+        mtlsExecutor.shutdownNow();
+    }
+
+    private BatchProperties batchProperties(HttpTransport httpTransport) throws Exception {
+        BatchProperties batchProperties = new BatchProperties();
+        batchProperties.setFdrHttpTransport(httpTransport);
+        batchProperties.setHttpTrustStorePath(resourcePath("/tls/stub-truststore.p12"));
+        batchProperties.setHttpTrustStorePassword(PASSWORD);
+        return batchProperties;
+    }
+
+    private String resourcePath(String resource) throws Exception {
+        return Path.of(getClass().getResource(resource).toURI()).toString();
+    }
+
+    private String url() {
+        return "https://localhost:" + server.getAddress().getPort() + "/fdrs";
+    }
+
+    private String mtlsUrl(String path) {
+        return "https://localhost:" + mtlsServer.getAddress().getPort() + path;
+    }
+
+    private void executeRequests(RestTemplate restTemplate) {
+        for (int i = 0; i < REQUESTS; i++) {
+            assertThat(restTemplate.getForObject(url(), String.class)).contains("ok");
+        }
+    }
+
+    @Test
+    @DisplayName("POOLED riusa la stessa connessione keep-alive ed espone le metriche del pool")
+    void testPooledTransportReusesConnections() throws Exception {
+        transport = new FdrHttpTransport(batchProperties(HttpTransport.POOLED), meterRegistry);
+        RestTemplate restTemplate = new RestTemplate();
+
+        transport.apply(CONNETTORE, restTemplate);
+        executeRequests(restTemplate);
+
+        assertThat(restTemplate.getRequestFactory()).isInstanceOf(HttpComponentsClientHttpRequestFactory.class);
+        assertThat(clientPorts).hasSize(1);
+        assertThat(meterRegistry.get("httpcomponents.httpclient.pool.total.max")
+            .tag("httpclient", FdrHttpTransport.POOL_METRICS_NAME).gauge().value()).isEqualTo(50.0);
+    }
+
+    @Test
+    @DisplayName("Lo stesso connettore riusa il proprio pool, connettori diversi hanno pool distinti")
+    void testPooledTransportPerConnector() throws Exception {
+        transport = new FdrHttpTransport(batchProperties(HttpTransport.POOLED), meterRegistry);
+        RestTemplate first = new RestTemplate();
+        RestTemplate second = new RestTemplate();
+        RestTemplate other = new RestTemplate();
+
+        transport.apply(CONNETTORE, first);
+        transport.apply(CONNETTORE, second);
+        transport.apply("ALTRO_CONNETTORE", other);
+        executeRequests(first);
+        executeRequests(second);
+
+        assertThat(first.getRequestFactory()).isSameAs(second.getRequestFactory());
+        assertThat(other.getRequestFactory()).isNotSameAs(first.getRequestFactory());
+        assertThat(clientPorts).hasSize(1);
+        assertThat(meterRegistry.get("httpcomponents.httpclient.pool.total.max")
+            .tag("connector", "ALTRO_CONNETTORE").gauge().value()).isEqualTo(50.0);
+    }
+
+    @Test
+    @DisplayName("JDK riusa la connessione, anche con HTTP/2 richiesto e non negoziato dal server")
+    void testJdkTransportReusesConnections() throws Exception {
+        BatchProperties batchProperties = batchProperties(HttpTransport.JDK);
+        batchProperties.setHttp2Enabled(true);
+        transport = new FdrHttpTransport(batchProperties, meterRegistry);
+        RestTemplate restTemplate = new RestTemplate();
+
+        transport.apply(CONNETTORE, restTemplate);
+        executeRequests(restTemplate);
+
+        assertThat(restTemplate.getRequestFactory()).isInstanceOf(JdkClientHttpRequestFactory.class);
+        assertThat(clientPorts).hasSize(1);
+    }
+
+    @Test
+    @DisplayName("CONNETTORE lascia invariato il RestTemplate del connettore")
+    void testConnettoreTransportLeavesRestTemplateUnchanged() throws Exception {
+        transport = new FdrHttpTransport(batchProperties(HttpTransport.CONNETTORE), meterRegistry);
+        RestTemplate restTemplate = new RestTemplate();
+        var originalFactory = restTemplate.getRequestFactory();
+
+        transport.apply(CONNETTORE, restTemplate);
+
+        assertThat(restTemplate.getRequestFactory()).isSameAs(originalFactory);
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = HttpTransport.class, names = {"POOLED", "JDK"})
+    @DisplayName("Il connettore con mutua autenticazione TLS mantiene certificato client e timeout")
+    void testConnectorSettingsKept(HttpTransport httpTransport) throws Exception {
+        BatchProperties batchProperties = batchProperties(httpTransport);
+        ConnectorLimits mtls = new ConnectorLimits();
+        mtls.setHttpKeyStorePath(resourcePath("/tls/stub-client.p12"));
+        mtls.setHttpKeyStorePassword(PASSWORD);
+        mtls.setHttpReadTimeoutMs(500);
+        batchProperties.getConnectors().put(CONNETTORE_MTLS, mtls);
+        transport = new FdrHttpTransport(batchProperties, meterRegistry);
+        RestTemplate mtlsRestTemplate = new RestTemplate();
+        RestTemplate restTemplate = new RestTemplate();
+
+        transport.apply(CONNETTORE_MTLS, mtlsRestTemplate);
+        transport.apply(CONNETTORE, restTemplate);
+
+        assertThat(mtlsRestTemplate.getForObject(mtlsUrl("/fdrs"), String.class)).contains("ok");
+        assertThat(clientCertificates).containsExactly("CN=govpay-fdr-batch, O=GovPay Test");
+        // Timeout di lettura del connettore (500 ms) e non quello globale (60 s)
+        assertThatThrownBy(() -> mtlsRestTemplate.getForObject(mtlsUrl("/slow"), String.class))
+            .isInstanceOf(ResourceAccessException.class);
+        // Un connettore senza certificato client viene rifiutato dallo stesso server
+        assertThatThrownBy(() -> restTemplate.getForObject(mtlsUrl("/fdrs"), String.class))
+            .isInstanceOf(ResourceAccessException.class);
+        assertThat(clientCertificates).hasSize(1);
+    }
+}
@@ -37,7 +37,7 @@ class ScheduledJobRunnerTest {
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
-        runner = new ScheduledJobRunner(jobExecutionHelper, fdrAcquisitionJob);
+        runner = new ScheduledJobRunner(jobExecutionHelper, fdrAcquisitionJob, new BatchProperties());
     }
 
     @Test
@@ -19,7 +19,8 @@ public class TestScheduledJobRunnerConfig {
     @Bean
     public ScheduledJobRunner scheduledJobRunner(
             JobExecutionHelper jobExecutionHelper,
-            @Qualifier("fdrAcquisitionJob") Job fdrAcquisitionJob) {
-        return new ScheduledJobRunner(jobExecutionHelper, fdrAcquisitionJob);
+            @Qualifier("fdrAcquisitionJob") Job fdrAcquisitionJob,
+            BatchProperties batchProperties) {
+        return new ScheduledJobRunner(jobExecutionHelper, fdrAcquisitionJob, batchProperties);
     }
 }
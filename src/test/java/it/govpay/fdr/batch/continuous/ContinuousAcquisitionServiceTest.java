@@ -0,0 +1,258 @@
+package it.govpay.fdr.batch.continuous;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.batch.core.job.JobExecution;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import it.govpay.common.batch.service.JobConcurrencyService;
+import it.govpay.fdr.batch.Costanti;
+import it.govpay.fdr.batch.config.BatchProperties;
+import it.govpay.fdr.batch.dto.DominioProcessingContext;
+import it.govpay.fdr.batch.dto.FdrHeadersBatch;
+import it.govpay.fdr.batch.entity.FrTemp;
+import it.govpay.fdr.batch.repository.FrPollingRepository;
+import it.govpay.fdr.batch.repository.FrTempRepository;
+import it.govpay.fdr.batch.service.ClusterLockService;
+import it.govpay.fdr.batch.service.DominioPollingPolicy;
+import it.govpay.fdr.batch.service.FrWatermarkService;
+import it.govpay.fdr.batch.step2.FdrHeadersProcessor;
+import it.govpay.fdr.batch.step2.FdrHeadersWriter;
+import it.govpay.fdr.batch.step4.FdrFlowProcessor;
+import it.govpay.fdr.batch.step4.FdrPaymentsProcessor.FdrCompleteData;
+import it.govpay.fdr.batch.step4.FdrPaymentsWriter;
+
+/**
+ * Test per ContinuousAcquisitionService
+ */
+@ExtendWith(MockitoExtension.class)
+@DisplayName("ContinuousAcquisitionService Tests")
+class ContinuousAcquisitionServiceTest {
+
+    private static final String COD_DOMINIO = "12345678901";
+    private static final LocalDateTime T0 = LocalDateTime.of(2025, 1, 27, 10, 0);
+
+    @Mock
+    private FrWatermarkService frWatermarkService;
+
+    @Mock
+    private FrTempRepository frTempRepository;
+
+    @Mock
+    private FdrHeadersProcessor fdrHeadersProcessor;
+
+    @Mock
+    private FdrHeadersWriter fdrHeadersWriter;
+
+    @Mock
+    private FdrFlowProcessor fdrFlowProcessor;
+
+    @Mock
+    private FdrPaymentsWriter fdrPaymentsWriter;
+
+    @Mock
+    private ClusterLockService clusterLockService;
+
+    @Mock
+    private JobConcurrencyService jobConcurrencyService;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Mock
+    private FrPollingRepository frPollingRepository;
+
+    private final AtomicReference<Instant> now = new AtomicReference<>(T0.toInstant(ZoneOffset.UTC));
+    private ContinuousAcquisitionService service;
+
+    @BeforeEach
+    void setUp() {
+        BatchProperties batchProperties = new BatchProperties();
+        batchProperties.setContinuousAcquisition(true);
+        batchProperties.setContinuousPollIntervalSeconds(60);
+        batchProperties.setContinuousQueueCapacity(10);
+        batchProperties.setContinuousLockLeaseSeconds(60);
+        Clock clock = new Clock() {
+            @Override
+            public ZoneId getZone() {
+                return ZoneOffset.UTC;
+            }
+
+            @Override
+            public Clock withZone(ZoneId zone) {
+                return this;
+            }
+
+            @Override
+            public Instant instant() {
+                return now.get();
+            }
+        };
+        service = new ContinuousAcquisitionService(frWatermarkService, frTempRepository, fdrHeadersProcessor,
+            fdrHeadersWriter, fdrFlowProcessor, fdrPaymentsWriter, new DominioPollingPolicy(frPollingRepository, batchProperties, transactionManager, clock),
+            clusterLockService, jobConcurrencyService, batchProperties, transactionManager, clock);
+    }
+
+    private void mockDominio() {
+        when(frWatermarkService.findDominiAbilitati())
+            .thenReturn(List.of(new DominioProcessingContext(1L, COD_DOMINIO, T0.minusDays(1))));
+    }
+
+    private FrTemp flusso(long id, String codFlusso, long revisione) {
+        return FrTemp.builder().id(id).codDominio(COD_DOMINIO).codFlusso(codFlusso).idPsp("PSP001").revisione(revisione).build();
+    }
+
+    private FdrCompleteData data(long frTempId) {
+        return FdrCompleteData.builder().frTempId(frTempId).codDominio(COD_DOMINIO).codFlusso("FDR-" + frTempId).build();
+    }
+
+    @Test
+    @DisplayName("Ogni dominio viene interrogato alla propria cadenza")
+    void testPollCadence() throws Exception {
+        mockDominio();
+        FdrHeadersBatch headers = FdrHeadersBatch.builder().codDominio(COD_DOMINIO).build();
+        when(fdrHeadersProcessor.process(any())).thenReturn(headers);
+        when(clusterLockService.holdInTransaction(ContinuousAcquisitionService.LOCK_NAME, Duration.ofSeconds(60)))
+            .thenReturn(true);
+
+        assertThat(service.pollDueDomains()).isEqualTo(1);
+        now.updateAndGet(instant -> instant.plusSeconds(30));
+        assertThat(service.pollDueDomains()).isZero();
+        now.updateAndGet(instant -> instant.plusSeconds(30));
+        assertThat(service.pollDueDomains()).isEqualTo(1);
+
+        verify(fdrHeadersProcessor, times(2)).process(argThat(ctx -> COD_DOMINIO.equals(ctx.getCodDominio())));
+        verify(fdrHeadersWriter, times(2)).write(argThat(chunk -> chunk.getItems().contains(headers)));
+    }
+
+    @Test
+    @DisplayName("Viene accodata una sola revisione per flusso, e solo se non gia' in lavorazione")
+    void testEnqueueLowestRevisionOnce() throws Exception {
+        mockDominio();
+        when(frTempRepository.findByCodDominioOrderByDataOraPubblicazioneAsc(COD_DOMINIO))
+            .thenReturn(List.of(flusso(2, "FDR-1", 2), flusso(1, "FDR-1", 1), flusso(3, "FDR-2", 1)));
+
+        service.pollDueDomains();
+        assertThat(service.getQueuedFlows()).isEqualTo(2);
+
+        now.updateAndGet(instant -> instant.plusSeconds(60));
+        service.pollDueDomains();
+        assertThat(service.getQueuedFlows()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Un errore sul dominio non impedisce di accodare i flussi gia' in FR_TEMP")
+    void testHeadersErrorStillEnqueues() throws Exception {
+        mockDominio();
+        when(fdrHeadersProcessor.process(any())).thenThrow(new IllegalStateException("errore"));
+        when(frTempRepository.findByCodDominioOrderByDataOraPubblicazioneAsc(COD_DOMINIO))
+            .thenReturn(List.of(flusso(1, "FDR-1", 1)));
+
+        assertThat(service.pollDueDomains()).isEqualTo(1);
+
+        verify(fdrHeadersWriter, never()).write(any());
+        assertThat(service.getQueuedFlows()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Il lock viene rinnovato dopo un terzo del lease; senza lock l'acquisizione e' sospesa e la coda svuotata")
+    void testPollingRequiresClusterLock() throws Exception {
+        when(clusterLockService.tryAcquire(ContinuousAcquisitionService.LOCK_NAME, Duration.ofSeconds(60)))
+            .thenReturn(true, false);
+        mockDominio();
+        when(frTempRepository.findByCodDominioOrderByDataOraPubblicazioneAsc(COD_DOMINIO))
+            .thenReturn(List.of(flusso(1, "FDR-1", 1)));
+
+        assertThat(service.checkLock()).isTrue();
+        service.pollDueDomains();
+        assertThat(service.getQueuedFlows()).isEqualTo(1);
+
+        now.updateAndGet(instant -> instant.plusSeconds(10));
+        assertThat(service.checkLock()).isTrue();
+        verify(clusterLockService, times(1)).tryAcquire(any(), any());
+
+        // Lease non rinnovato in tempo: il lock e' passato a un altro nodo
+        now.updateAndGet(instant -> instant.plusSeconds(20));
+        assertThat(service.checkLock()).isFalse();
+        assertThat(service.getQueuedFlows()).isZero();
+        verify(clusterLockService, times(2)).tryAcquire(any(), any());
+    }
+
+    @Test
+    @DisplayName("Mentre il job e' in esecuzione il lock viene rilasciato, poi l'acquisizione riprende da tutti i domini")
+    void testPollingSuspendedWhileJobRunning() throws Exception {
+        when(clusterLockService.tryAcquire(any(), any())).thenReturn(true);
+        when(jobConcurrencyService.getCurrentRunningJobExecution(Costanti.FDR_ACQUISITION_JOB_NAME))
+            .thenReturn(null, mock(JobExecution.class), null);
+        mockDominio();
+
+        assertThat(service.checkLock()).isTrue();
+        assertThat(service.pollDueDomains()).isEqualTo(1);
+
+        assertThat(service.checkLock()).isFalse();
+        verify(clusterLockService).release(ContinuousAcquisitionService.LOCK_NAME);
+
+        // Alla ripresa il dominio viene interrogato subito, senza attendere la cadenza
+        assertThat(service.checkLock()).isTrue();
+        assertThat(service.pollDueDomains()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Senza lock gli header del dominio non vengono salvati")
+    void testHeadersNotWrittenWithoutLock() throws Exception {
+        mockDominio();
+        when(fdrHeadersProcessor.process(any())).thenReturn(FdrHeadersBatch.builder().codDominio(COD_DOMINIO).build());
+        when(clusterLockService.holdInTransaction(any(), any())).thenReturn(false);
+
+        service.pollDueDomains();
+
+        verify(fdrHeadersWriter, never()).write(any());
+    }
+
+    @Test
+    @DisplayName("Senza lock i flussi acquisiti non vengono scritti")
+    void testWriteRequiresClusterLock() {
+        when(clusterLockService.holdInTransaction(ContinuousAcquisitionService.LOCK_NAME, Duration.ofSeconds(60)))
+            .thenReturn(false);
+
+        service.write(List.of(data(1), data(2)));
+
+        verify(fdrPaymentsWriter, never()).write(any());
+    }
+
+    @Test
+    @DisplayName("Se la scrittura di un blocco fallisce i flussi vengono scritti uno alla volta")
+    void testWriteFallbackToSingleFlows() {
+        when(clusterLockService.holdInTransaction(any(), any())).thenReturn(true);
+        lenient().doThrow(new IllegalStateException("errore"))
+            .when(fdrPaymentsWriter).write(argThat(chunk -> chunk.size() == 2));
+
+        service.write(List.of(data(1), data(2)));
+
+        verify(fdrPaymentsWriter, times(3)).write(any());
+    }
+}
@@ -0,0 +1,307 @@
+package it.govpay.fdr.batch.integration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Transactional;
+
+import it.govpay.common.entity.DominioEntity;
+import it.govpay.common.entity.StazioneEntity;
+import it.govpay.common.repository.DominioRepository;
+import it.govpay.common.repository.StazioneRepository;
+import it.govpay.fdr.batch.entity.Fr;
+import it.govpay.fdr.batch.entity.FrTemp;
+import it.govpay.fdr.batch.entity.Rendicontazione;
+import it.govpay.fdr.batch.entity.StatoFr;
+import it.govpay.fdr.batch.repository.FrRepository;
+import it.govpay.fdr.batch.repository.FrTempRepository;
+import it.govpay.fdr.batch.repository.RendicontazioneRepository;
+import it.govpay.fdr.batch.service.FdrApiService;
+import it.govpay.fdr.batch.step3.FdrMetadataProcessor;
+import it.govpay.fdr.batch.step3.FdrMetadataWriter;
+import it.govpay.fdr.batch.step4.FdrPaymentsProcessor;
+import it.govpay.fdr.batch.step4.FdrPaymentsWriter;
+import it.govpay.fdr.client.model.Metadata;
+import it.govpay.fdr.client.model.PaginatedPaymentsResponse;
+import it.govpay.fdr.client.model.Payment;
+import it.govpay.fdr.client.model.Receiver;
+import it.govpay.fdr.client.model.Sender;
+import it.govpay.fdr.client.model.SingleFlowResponse;
+
+/**
+ * Integration test per la persistenza dei flussi in modalita' JDBC
+ * (govpay.batch.fr-writer-mode=JDBC): la riga FR e le rendicontazioni vengono
+ * inserite in batch e devono risultare identiche a quelle salvate via JPA.
+ * I flussi oltre govpay.batch.payments-streaming-threshold vengono acquisiti in streaming.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@TestPropertySource(properties = {
+    "spring.batch.job.enabled=false",
+    "govpay.batch.fr-writer-mode=JDBC",
+    "govpay.batch.jdbc-batch-size=2",
+    "govpay.batch.payments-streaming-threshold=10"
+})
+@Transactional
+class FdrJdbcWriterIntegrationTest {
+
+    @Autowired
+    private DominioRepository dominioRepository;
+
+    @Autowired
+    private StazioneRepository stazioneRepository;
+
+    @Autowired
+    private FrTempRepository frTempRepository;
+
+    @Autowired
+    private FrRepository frRepository;
+
+    @Autowired
+    private RendicontazioneRepository rendicontazioneRepository;
+
+    @Autowired
+    private FdrMetadataProcessor metadataProcessor;
+
+    @Autowired
+    private FdrMetadataWriter metadataWriter;
+
+    @Autowired
+    private FdrPaymentsProcessor paymentsProcessor;
+
+    @Autowired
+    private FdrPaymentsWriter paymentsWriter;
+
+    @MockitoBean
+    private FdrApiService fdrApiService;
+
+    private DominioEntity testDominio;
+    private static final String ORG_ID = "12345678901";
+    private static final String FDR_ID = "2025-01-27PSP001-0001";
+    private static final String PSP_ID = "PSP001";
+
+    @BeforeEach
+    void setUp() {
+        StazioneEntity stazione = stazioneRepository.findByCodStazione("12345678901_01").orElseThrow();
+
+        testDominio = DominioEntity.builder()
+            .codDominio(ORG_ID)
+            .auxDigit(0)
+            .abilitato(true)
+            .ragioneSociale("Comune di Test")
+            .intermediato(true)
+            .scaricaFr(true)
+            .stazione(stazione)
+            .build();
+        testDominio = dominioRepository.save(testDominio);
+    }
+
+    @Test
+    @DisplayName("Modalita' JDBC: FR e rendicontazioni inseriti in batch")
+    void testInserimentoJdbc() throws Exception {
+        // When - 5 pagamenti con batch da 2 righe
+        acquisisciFlussoCon(1L, 5);
+
+        // Then
+        List<Fr> frList = frRepository.findAll();
+        assertThat(frList).hasSize(1);
+        Fr fr = frList.get(0);
+        assertThat(fr.getId()).isNotNull();
+        assertThat(fr.getCodFlusso()).isEqualTo(FDR_ID);
+        assertThat(fr.getCodPsp()).isEqualTo(PSP_ID);
+        assertThat(fr.getDominio().getId()).isEqualTo(testDominio.getId());
+        assertThat(fr.getNumeroPagamenti()).isEqualTo(5L);
+        assertThat(fr.getStato()).isEqualTo(StatoFr.ACCETTATA);
+        assertThat(fr.getObsoleto()).isFalse();
+
+        List<Rendicontazione> rendicontazioni = rendicontazioneRepository.findAll();
+        assertThat(rendicontazioni).hasSize(5);
+        assertThat(rendicontazioni).allSatisfy(r -> {
+            assertThat(r.getFr().getId()).isEqualTo(fr.getId());
+            assertThat(r.getImportoPagato()).isEqualTo(10.50);
+            assertThat(r.getStato()).isNotNull();
+            assertThat(r.getIuv()).startsWith("RF");
+            assertThat(r.getEseguiRecuperoRt()).isTrue();
+            assertThat(r.getNotificaInviata()).isFalse();
+        });
+    }
+
+    @Test
+    @DisplayName("Modalita' JDBC: la revisione successiva marca obsoleta la precedente")
+    void testRevisioneSuccessivaJdbc() throws Exception {
+        // Given
+        acquisisciFlussoCon(1L, 3);
+
+        // When
+        acquisisciFlussoCon(2L, 3);
+
+        // Then
+        List<Fr> frList = frRepository.findAll();
+        assertThat(frList).hasSize(2);
+        Fr frRev1 = frList.stream().filter(f -> f.getRevisione() == 1L).findFirst().orElseThrow();
+        Fr frRev2 = frList.stream().filter(f -> f.getRevisione() == 2L).findFirst().orElseThrow();
+        assertThat(frRev1.getObsoleto()).isTrue();
+        assertThat(frRev2.getObsoleto()).isFalse();
+        assertThat(rendicontazioneRepository.count()).isEqualTo(6);
+    }
+
+    @Test
+    @DisplayName("Flusso oltre soglia: pagamenti riconciliati e scritti una pagina alla volta")
+    void testAcquisizioneInStreaming() throws Exception {
+        // Given - 12 pagamenti consegnati in pagine da 5
+        int numPayments = 12;
+        SingleFlowResponse flowResponse = createMockFlowResponse(FDR_ID, PSP_ID, 1L, numPayments);
+        List<Payment> payments = createMockPaymentsResponse(numPayments).getData();
+        when(fdrApiService.getSinglePublishedFlow(any(), any(), any(), any()))
+            .thenReturn(flowResponse);
+        when(fdrApiService.forEachPaymentsPage(any(), any(), any(), any(), any())).thenAnswer(inv -> {
+            Consumer<List<Payment>> pageConsumer = inv.getArgument(4);
+            for (int i = 0; i < numPayments; i += 5) {
+                pageConsumer.accept(payments.subList(i, Math.min(i + 5, numPayments)));
+            }
+            return numPayments;
+        });
+
+        FrTemp frTemp = frTempRepository.save(createFrTempRecord(FDR_ID, PSP_ID, 1L, flowResponse));
+        FdrMetadataProcessor.FdrCompleteData completeData = metadataProcessor.process(frTemp);
+        metadataWriter.write(new org.springframework.batch.infrastructure.item.Chunk<>(List.of(completeData)));
+
+        // When
+        FrTemp frTempReloaded = frTempRepository.findById(frTemp.getId()).orElseThrow();
+        FdrPaymentsProcessor.FdrCompleteData paymentsData = paymentsProcessor.process(frTempReloaded);
+        assertThat(paymentsData.getPayments()).isNull();
+        paymentsWriter.write(new org.springframework.batch.infrastructure.item.Chunk<>(List.of(paymentsData)));
+
+        // Then
+        verify(fdrApiService, never()).getPaymentsFromPublishedFlow(any(), any(), any(), any());
+        List<Fr> frList = frRepository.findAll();
+        assertThat(frList).hasSize(1);
+        assertThat(frList.get(0).getStato()).isEqualTo(StatoFr.ACCETTATA);
+        assertThat(frList.get(0).getDescrizioneStato()).isNull();
+        assertThat(rendicontazioneRepository.count()).isEqualTo(numPayments);
+        assertThat(frTempRepository.findById(frTemp.getId())).isEmpty();
+    }
+
+    // --- Metodi helper ---
+
+    private void acquisisciFlussoCon(Long revisione, int numPayments) throws Exception {
+        acquisisciFlussoCon(FDR_ID, PSP_ID, revisione, numPayments);
+    }
+
+    private void acquisisciFlussoCon(String fdrId, String pspId, Long revisione, int numPayments) throws Exception {
+        SingleFlowResponse flowResponse = createMockFlowResponse(fdrId, pspId, revisione, numPayments);
+        PaginatedPaymentsResponse paymentsResponse = createMockPaymentsResponse(numPayments);
+
+        when(fdrApiService.getSinglePublishedFlow(any(), any(), any(), any()))
+            .thenReturn(flowResponse);
+        when(fdrApiService.getPaymentsFromPublishedFlow(any(), any(), any(), any()))
+            .thenReturn(paymentsResponse.getData());
+
+        FrTemp frTemp = createFrTempRecord(fdrId, pspId, revisione, flowResponse);
+        frTemp = frTempRepository.save(frTemp);
+
+        // Metadata step
+        FdrMetadataProcessor.FdrCompleteData completeData = metadataProcessor.process(frTemp);
+        metadataWriter.write(new org.springframework.batch.infrastructure.item.Chunk<>(List.of(completeData)));
+
+        // Payments step
+        FrTemp frTempReloaded = frTempRepository.findById(frTemp.getId()).orElseThrow();
+        FdrPaymentsProcessor.FdrCompleteData paymentsData = paymentsProcessor.process(frTempReloaded);
+        paymentsWriter.write(new org.springframework.batch.infrastructure.item.Chunk<>(List.of(paymentsData)));
+    }
+
+    private SingleFlowResponse createMockFlowResponse(String fdrId, String pspId, Long revisione, int numPayments) {
+        SingleFlowResponse response = new SingleFlowResponse();
+        response.setFdr(fdrId);
+        response.setRevision(revisione);
+        response.setFdrDate(OffsetDateTime.now(ZoneOffset.UTC));
+        response.setRegulationDate(LocalDate.now());
+        response.setTotPayments((long) numPayments);
+        response.setSumPayments(numPayments * 10.50);
+        response.setComputedTotPayments((long) numPayments);
+        response.setComputedSumPayments(numPayments * 10.50);
+        response.setPublished(OffsetDateTime.now(ZoneOffset.UTC));
+        response.setCreated(OffsetDateTime.now(ZoneOffset.UTC));
+        response.setUpdated(OffsetDateTime.now(ZoneOffset.UTC));
+        response.setRegulation("SEPA - Bonifico");
+        response.setBicCodePouringBank("UNCRITMMXXX");
+
+        Sender sender = new Sender();
+        sender.setPspId(pspId);
+        sender.setPspName("PSP Test");
+        response.setSender(sender);
+
+        Receiver receiver = new Receiver();
+        receiver.setOrganizationId(ORG_ID);
+        receiver.setOrganizationName("Comune di Test");
+        response.setReceiver(receiver);
+
+        return response;
+    }
+
+    private PaginatedPaymentsResponse createMockPaymentsResponse(int count) {
+        PaginatedPaymentsResponse response = new PaginatedPaymentsResponse();
+
+        Metadata metadata = new Metadata();
+        metadata.setPageSize(count);
+        metadata.setPageNumber(1);
+        metadata.setTotPage(1);
+        response.setMetadata(metadata);
+        response.setCount((long) count);
+
+        List<Payment> payments = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            Payment payment = new Payment();
+            payment.setIndex((long) i);
+            payment.setIuv(String.format("RF%013d", i));
+            payment.setIur(String.format("IUR%012d", i));
+            payment.setIdTransfer(1L);
+            payment.setPay(10.50);
+            payment.setPayStatus(Payment.PayStatusEnum.EXECUTED);
+            payment.setPayDate(OffsetDateTime.now(ZoneOffset.UTC));
+            payments.add(payment);
+        }
+        response.setData(payments);
+
+        return response;
+    }
+
+    private FrTemp createFrTempRecord(String fdrId, String pspId, Long revisione, SingleFlowResponse response) {
+        return FrTemp.builder()
+            .idPsp(pspId)
+            .codDominio(ORG_ID)
+            .codPsp(pspId)
+            .codFlusso(fdrId)
+            .stato("ACQUISITO")
+            .dataOraFlusso(response.getFdrDate().toLocalDateTime())
+            .dataRegolamento(response.getRegulationDate().atStartOfDay())
+            .numeroPagamenti(response.getTotPayments())
+            .importoTotalePagamenti(response.getSumPayments())
+            .codBicRiversamento(response.getBicCodePouringBank())
+            .iur(response.getRegulation())
+            .ragioneSocialePsp(response.getSender() != null ? response.getSender().getPspName() : null)
+            .ragioneSocialeDominio(response.getReceiver() != null ? response.getReceiver().getOrganizationName() : null)
+            .dataOraPubblicazione(response.getPublished() != null ? response.getPublished().toLocalDateTime() : null)
+            .dataOraAggiornamento(response.getUpdated() != null ? response.getUpdated().toLocalDateTime() : null)
+            .revisione(revisione)
+            .build();
+    }
+}
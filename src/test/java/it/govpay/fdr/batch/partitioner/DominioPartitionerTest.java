@@ -0,0 +1,186 @@
+package it.govpay.fdr.batch.partitioner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.batch.infrastructure.item.ExecutionContext;
+
+import it.govpay.fdr.batch.config.BatchProperties;
+import it.govpay.fdr.batch.entity.FrTemp;
+import it.govpay.fdr.batch.repository.FrTempRepository;
+
+/**
+ * Test per DominioPartitioner
+ */
+@ExtendWith(MockitoExtension.class)
+@DisplayName("DominioPartitioner Tests")
+class DominioPartitionerTest {
+
+    @Mock
+    private FrTempRepository frTempRepository;
+
+    private BatchProperties batchProperties;
+    private DominioPartitioner partitioner;
+
+    @BeforeEach
+    void setUp() {
+        batchProperties = new BatchProperties();
+        batchProperties.setPageSize(100);
+        partitioner = new DominioPartitioner(frTempRepository, batchProperties);
+    }
+
+    @Test
+    @DisplayName("Di default crea una partizione per dominio")
+    void testOnePartitionPerDomain() {
+        when(frTempRepository.findDistinctCodDominio()).thenReturn(List.of("A", "B", "C"));
+
+        Map<String, ExecutionContext> partitions = partitioner.partition(2);
+
+        assertThat(partitions).hasSize(3).containsKeys("partition-A", "partition-B", "partition-C");
+        ExecutionContext context = partitions.get("partition-B");
+        assertThat(context.getString("codDominio")).isEqualTo("B");
+        assertThat(context.getInt("totalPartitions")).isEqualTo(3);
+        assertThat(context.containsKey("codDomini")).isFalse();
+        verify(frTempRepository, never()).findCodDominioWithWorkload();
+    }
+
+    @Test
+    @DisplayName("Con partitions-per-thread i domini sono raggruppati in al massimo gridSize * N partizioni")
+    void testBalancedPartitions() {
+        batchProperties.setPartitionsPerThread(2);
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            rows.add(new Object[] { String.format("D%02d", i), 1L, null });
+        }
+        when(frTempRepository.findCodDominioWithWorkload()).thenReturn(rows);
+
+        Map<String, ExecutionContext> partitions = partitioner.partition(3);
+
+        assertThat(partitions).hasSize(6);
+        List<String> assigned = new ArrayList<>();
+        for (ExecutionContext context : partitions.values()) {
+            assertThat(context.getInt("totalPartitions")).isEqualTo(6);
+            List<String> domini = DominioPartitioner.getDomini(null, context.getString("codDomini"));
+            // 20 domini di pari peso su 6 partizioni: 3 o 4 per partizione
+            assertThat(domini.size()).isBetween(3, 4);
+            assigned.addAll(domini);
+        }
+        assertThat(assigned).hasSize(20).doesNotHaveDuplicates();
+    }
+
+    @Test
+    @DisplayName("Il lavoro stimato considera flussi e pagine di pagamenti")
+    void testWorkloadBalancing() {
+        batchProperties.setPartitionsPerThread(1);
+        when(frTempRepository.findCodDominioWithWorkload()).thenReturn(List.of(
+            new Object[] { "GRANDE", 1L, 1000L },   // 1 + 10 pagine
+            new Object[] { "MEDIO", 5L, 100L },     // 5 + 1 pagina
+            new Object[] { "P1", 3L, null },
+            new Object[] { "P2", 3L, null }));
+
+        Map<String, ExecutionContext> partitions = partitioner.partition(2);
+
+        assertThat(partitions).hasSize(2);
+        assertThat(partitions.values()).extracting(context -> context.getString("codDomini"))
+            .containsExactlyInAnyOrder("GRANDE", "MEDIO,P1,P2");
+    }
+
+    @Test
+    @DisplayName("Non vengono create partizioni vuote")
+    void testNoEmptyPartitions() {
+        batchProperties.setPartitionsPerThread(4);
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[] { "A", 2L, 10L });
+        rows.add(new Object[] { "B", 1L, 10L });
+        when(frTempRepository.findCodDominioWithWorkload()).thenReturn(rows);
+
+        assertThat(partitioner.partition(5)).hasSize(2);
+    }
+
+    @Test
+    @DisplayName("Un dominio oltre la soglia viene diviso in piu' partizioni")
+    void testOversizedDomainSplit() {
+        batchProperties.setDomainSplitThreshold(100);
+        when(frTempRepository.findCodDominioWithWorkload()).thenReturn(List.of(
+            new Object[] { "GRANDE", 250L, null },
+            new Object[] { "PICCOLO", 100L, null }));
+
+        Map<String, ExecutionContext> partitions = partitioner.partition(2);
+
+        assertThat(partitions).hasSize(4)
+            .containsKeys("partition-GRANDE:1/3", "partition-GRANDE:2/3", "partition-GRANDE:3/3", "partition-PICCOLO");
+        ExecutionContext slice = partitions.get("partition-GRANDE:2/3");
+        assertThat(slice.getString("codDominio")).isEqualTo("GRANDE");
+        assertThat(slice.getString("codDomini")).isEqualTo("GRANDE:2/3");
+        assertThat(slice.getInt("totalPartitions")).isEqualTo(4);
+        assertThat(partitions.get("partition-PICCOLO").containsKey("codDomini")).isFalse();
+    }
+
+    @Test
+    @DisplayName("Le porzioni di un dominio diviso vengono bilanciate come domini separati")
+    void testOversizedDomainSplitWithBalancedPartitions() {
+        batchProperties.setDomainSplitThreshold(100);
+        batchProperties.setPartitionsPerThread(1);
+        when(frTempRepository.findCodDominioWithWorkload()).thenReturn(List.of(
+            new Object[] { "GRANDE", 200L, null },
+            new Object[] { "P1", 10L, null },
+            new Object[] { "P2", 10L, null }));
+
+        Map<String, ExecutionContext> partitions = partitioner.partition(2);
+
+        assertThat(partitions.values()).extracting(context -> context.getString("codDomini"))
+            .containsExactlyInAnyOrder("GRANDE:1/2,P1", "GRANDE:2/2,P2");
+    }
+
+    @Test
+    @DisplayName("Le revisioni di uno stesso flusso appartengono a una sola porzione")
+    void testSliceKeepsRevisionsTogether() {
+        List<DominioSlice> slices = List.of(
+            DominioSlice.parse("A:1/3"), DominioSlice.parse("A:2/3"), DominioSlice.parse("A:3/3"));
+        int[] perSlice = new int[3];
+        for (int i = 0; i < 300; i++) {
+            String codFlusso = "2025-01-27PSP" + i;
+            for (long revisione = 1; revisione <= 3; revisione++) {
+                FrTemp frTemp = FrTemp.builder().codDominio("A").codFlusso(codFlusso).revisione(revisione).build();
+                List<DominioSlice> owners = slices.stream().filter(slice -> slice.contains(frTemp)).toList();
+                assertThat(owners).hasSize(1);
+                perSlice[owners.get(0).slice() - 1]++;
+            }
+        }
+        // Distribuzione ragionevole tra le porzioni
+        for (int count : perSlice) {
+            assertThat(count).isGreaterThan(150);
+        }
+    }
+
+    @Test
+    @DisplayName("Formato delle porzioni di dominio")
+    void testSliceFormat() {
+        assertThat(DominioSlice.parse("A")).isEqualTo(DominioSlice.of("A"));
+        assertThat(DominioSlice.of("A")).hasToString("A");
+        assertThat(DominioSlice.parse("A:2/3")).isEqualTo(new DominioSlice("A", 2, 3));
+        assertThat(new DominioSlice("A", 2, 3)).hasToString("A:2/3");
+        assertThatThrownBy(() -> DominioSlice.parse("A:4/3")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    @DisplayName("getDomini usa codDomini se presente, altrimenti codDominio")
+    void testGetDomini() {
+        assertThat(DominioPartitioner.getDomini("A", null)).containsExactly("A");
+        assertThat(DominioPartitioner.getDomini("A", " ")).containsExactly("A");
+        assertThat(DominioPartitioner.getDomini(null, "B,C")).containsExactly("B", "C");
+    }
+}
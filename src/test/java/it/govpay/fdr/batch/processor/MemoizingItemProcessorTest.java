@@ -0,0 +1,135 @@
+package it.govpay.fdr.batch.processor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.infrastructure.item.ItemProcessor;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+import org.springframework.web.client.RestClientException;
+
+/**
+ * Test per MemoizingItemProcessor
+ */
+@DisplayName("MemoizingItemProcessor Tests")
+class MemoizingItemProcessorTest {
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private final ItemProcessor<Integer, String> countingProcessor = item -> {
+        calls.incrementAndGet();
+        return item < 0 ? null : "item-" + item;
+    };
+
+    /**
+     * Simula la fine della transazione del chunk.
+     */
+    private static void completeChunk(int status) {
+        var synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        TransactionSynchronizationUtils.invokeAfterCompletion(synchronizations, status);
+    }
+
+    @Test
+    @DisplayName("Dopo un rollback gli item gia' elaborati non vengono rielaborati")
+    void testResultReusedAfterRollback() throws Exception {
+        MemoizingItemProcessor<Integer, Integer, String> processor =
+            new MemoizingItemProcessor<>(countingProcessor, item -> item, 10);
+
+        TransactionSynchronizationManager.initSynchronization();
+        assertThat(processor.process(1)).isEqualTo("item-1");
+        assertThat(processor.process(2)).isEqualTo("item-2");
+        completeChunk(TransactionSynchronization.STATUS_ROLLED_BACK);
+
+        TransactionSynchronizationManager.initSynchronization();
+        assertThat(processor.process(1)).isEqualTo("item-1");
+        assertThat(processor.process(2)).isEqualTo("item-2");
+        assertThat(processor.process(3)).isEqualTo("item-3");
+
+        assertThat(calls).hasValue(3);
+        assertThat(processor.size()).isEqualTo(3);
+        completeChunk(TransactionSynchronization.STATUS_COMMITTED);
+        assertThat(processor.size()).isZero();
+    }
+
+    @Test
+    @DisplayName("Al commit del chunk le voci vengono rimosse")
+    void testEvictedOnCommit() throws Exception {
+        MemoizingItemProcessor<Integer, Integer, String> processor =
+            new MemoizingItemProcessor<>(countingProcessor, item -> item, 10);
+
+        TransactionSynchronizationManager.initSynchronization();
+        processor.process(1);
+        processor.process(2);
+        completeChunk(TransactionSynchronization.STATUS_ROLLED_BACK);
+
+        TransactionSynchronizationManager.initSynchronization();
+        processor.process(1);
+        completeChunk(TransactionSynchronization.STATUS_COMMITTED);
+
+        // Solo l'item del chunk confermato viene rimosso
+        assertThat(processor.size()).isEqualTo(1);
+        assertThat(TransactionSynchronizationManager.getResource(processor)).isNull();
+    }
+
+    @Test
+    @DisplayName("Oltre la dimensione massima vengono scartate le voci meno recenti")
+    void testMaxSize() throws Exception {
+        MemoizingItemProcessor<Integer, Integer, String> processor =
+            new MemoizingItemProcessor<>(countingProcessor, item -> item, 2);
+
+        processor.process(1);
+        processor.process(2);
+        processor.process(3);
+        processor.process(1);
+
+        assertThat(processor.size()).isEqualTo(2);
+        assertThat(calls).hasValue(4);
+    }
+
+    @Test
+    @DisplayName("Risultati null, errori e dimensione 0 non vengono memorizzati")
+    void testNotMemoized() throws Exception {
+        MemoizingItemProcessor<Integer, Integer, String> processor =
+            new MemoizingItemProcessor<>(countingProcessor, item -> item, 10);
+        assertThat(processor.process(-1)).isNull();
+        assertThat(processor.size()).isZero();
+
+        MemoizingItemProcessor<Integer, Integer, String> failing = new MemoizingItemProcessor<>(item -> {
+            throw new RestClientException("errore");
+        }, item -> item, 10);
+        assertThatThrownBy(() -> failing.process(1)).isInstanceOf(RestClientException.class);
+        assertThat(failing.size()).isZero();
+
+        MemoizingItemProcessor<Integer, Integer, String> disabled =
+            new MemoizingItemProcessor<>(countingProcessor, item -> item, 0);
+        disabled.process(1);
+        disabled.process(1);
+        assertThat(disabled.size()).isZero();
+        assertThat(calls).hasValue(3);
+    }
+
+    @Test
+    @DisplayName("Un risultato non riutilizzabile viene rielaborato")
+    void testNotReusableResult() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        MemoizingItemProcessor<Integer, Integer, Future<String>> processor = new MemoizingItemProcessor<>(
+            item -> attempts.incrementAndGet() == 1
+                ? CompletableFuture.failedFuture(new RestClientException("errore"))
+                : CompletableFuture.completedFuture("item-" + item),
+            item -> item, 10,
+            future -> future.state() != Future.State.FAILED && future.state() != Future.State.CANCELLED);
+
+        assertThat(processor.process(1).state()).isEqualTo(Future.State.FAILED);
+        assertThat(processor.process(1).resultNow()).isEqualTo("item-1");
+        assertThat(processor.process(1).resultNow()).isEqualTo("item-1");
+        assertThat(attempts).hasValue(2);
+    }
+}
@@ -0,0 +1,170 @@
+package it.govpay.fdr.batch.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.govpay.fdr.batch.config.BatchProperties;
+import it.govpay.fdr.batch.repository.FrRepository;
+
+/**
+ * Test per AcquiredFlowFilter: costruzione da FR, persistenza del file tra istanze e metriche.
+ */
+@ExtendWith(MockitoExtension.class)
+@DisplayName("AcquiredFlowFilter Tests")
+class AcquiredFlowFilterTest {
+
+    private static final String DOMINIO = "12345678901";
+    private static final String PSP = "PSP001";
+
+    @Mock
+    private FrRepository frRepository;
+
+    @TempDir
+    Path filterDir;
+
+    private BatchProperties batchProperties;
+    private MeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        batchProperties = new BatchProperties();
+        batchProperties.setAcquiredFilterFile(filterDir.resolve("acquired.bloom").toString());
+        batchProperties.setAcquiredFilterExpectedKeys(1000);
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    private static List<Object[]> rows(int count) {
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            rows.add(new Object[]{(long) i, DOMINIO, "FLUSSO-" + i, PSP, 1L});
+        }
+        return rows;
+    }
+
+    @Test
+    @DisplayName("Il filtro costruito da FR contiene i flussi acquisiti ed esclude quasi tutti gli altri")
+    void testBuildFromFr() {
+        when(frRepository.findChiaviAfterId(eq(0L), any())).thenReturn(rows(100));
+        AcquiredFlowFilter filter = new AcquiredFlowFilter(frRepository, batchProperties, meterRegistry);
+
+        filter.refresh();
+
+        for (int i = 1; i <= 100; i++) {
+            assertThat(filter.mightContain(DOMINIO, "FLUSSO-" + i, PSP, 1L)).isTrue();
+        }
+        int negatives = 0;
+        for (int i = 1; i <= 1000; i++) {
+            if (!filter.mightContain(DOMINIO, "NUOVO-" + i, PSP, 1L)) {
+                negatives++;
+            }
+        }
+        assertThat(negatives).isGreaterThan(970);
+
+        assertThat(meterRegistry.get(AcquiredFlowFilter.METRIC_LOOKUPS).tag("outcome", "negative").counter().count())
+            .isGreaterThan(970);
+        assertThat(meterRegistry.get(AcquiredFlowFilter.METRIC_HIT_RATIO).gauge().value()).isGreaterThan(0.8);
+    }
+
+    private static Object[] row(long id) {
+        return new Object[]{id, DOMINIO, "FLUSSO-" + id, PSP, 1L};
+    }
+
+    @Test
+    @DisplayName("Il file sopravvive al riavvio: vengono letti da FR solo i flussi dalla finestra sotto l'ultimo id")
+    void testPersistenceAcrossInstances() {
+        batchProperties.setAcquiredFilterRescanIds(1);
+        when(frRepository.findChiaviAfterId(eq(0L), any())).thenReturn(rows(3));
+        AcquiredFlowFilter filter = new AcquiredFlowFilter(frRepository, batchProperties, meterRegistry);
+        filter.refresh();
+        filter.add(DOMINIO, "SCRITTO", PSP, 1L);
+        filter.destroy();
+
+        AcquiredFlowFilter riaperto = new AcquiredFlowFilter(frRepository, batchProperties, new SimpleMeterRegistry());
+        riaperto.refresh();
+
+        verify(frRepository).findChiaviAfterId(eq(2L), any());
+        assertThat(riaperto.mightContain(DOMINIO, "FLUSSO-2", PSP, 1L)).isTrue();
+        assertThat(riaperto.mightContain(DOMINIO, "SCRITTO", PSP, 1L)).isTrue();
+    }
+
+    @Test
+    @DisplayName("Una riga con id inferiore all'ultimo letto, committata dopo la lettura, entra nel filtro")
+    void testRowsCommittedOutOfIdOrder() {
+        batchProperties.setAcquiredFilterRescanIds(2);
+        // Alla prima lettura la riga 3 non e' ancora committata, la 4 si'
+        when(frRepository.findChiaviAfterId(eq(0L), any())).thenReturn(List.of(row(1), row(2), row(4)));
+        // Alla lettura successiva la riga 3 e' visibile: viene riletta la finestra sotto l'ultimo id (4 - 2)
+        when(frRepository.findChiaviAfterId(eq(2L), any())).thenReturn(List.of(row(3), row(4), row(5)));
+        AcquiredFlowFilter filter = new AcquiredFlowFilter(frRepository, batchProperties, meterRegistry);
+
+        filter.refresh();
+        filter.refresh();
+
+        for (int i = 1; i <= 5; i++) {
+            assertThat(filter.mightContain(DOMINIO, "FLUSSO-" + i, PSP, 1L)).isTrue();
+        }
+        // L'ultimo id letto non torna indietro
+        filter.refresh();
+        verify(frRepository).findChiaviAfterId(eq(3L), any());
+    }
+
+    @Test
+    @DisplayName("Con un dimensionamento diverso il filtro viene ricostruito da FR")
+    void testRebuildOnSizingChange() {
+        when(frRepository.findChiaviAfterId(eq(0L), any())).thenReturn(rows(3));
+        new AcquiredFlowFilter(frRepository, batchProperties, meterRegistry).refresh();
+
+        batchProperties.setAcquiredFilterExpectedKeys(5000);
+        AcquiredFlowFilter ridimensionato = new AcquiredFlowFilter(frRepository, batchProperties, new SimpleMeterRegistry());
+        ridimensionato.refresh();
+
+        verify(frRepository, never()).findChiaviAfterId(eq(3L), any());
+        assertThat(ridimensionato.mightContain(DOMINIO, "FLUSSO-3", PSP, 1L)).isTrue();
+    }
+
+    @Test
+    @DisplayName("I falsi positivi vengono conteggiati sulle ricerche positive")
+    void testFalsePositiveMetrics() {
+        AcquiredFlowFilter filter = new AcquiredFlowFilter(frRepository, batchProperties, meterRegistry);
+        filter.refresh();
+        filter.add(DOMINIO, "FLUSSO-1", PSP, 1L);
+
+        assertThat(filter.mightContain(DOMINIO, "FLUSSO-1", PSP, 1L)).isTrue();
+        filter.recordExactCheck(false);
+
+        assertThat(meterRegistry.get(AcquiredFlowFilter.METRIC_FALSE_POSITIVES).counter().count()).isEqualTo(1.0);
+        assertThat(meterRegistry.get(AcquiredFlowFilter.METRIC_FALSE_POSITIVE_RATIO).gauge().value()).isEqualTo(1.0);
+    }
+
+    @Test
+    @DisplayName("Senza file il filtro e' disabilitato e ogni flusso va cercato in FR")
+    void testDisabled() {
+        batchProperties.setAcquiredFilterFile(" ");
+        AcquiredFlowFilter filter = new AcquiredFlowFilter(frRepository, batchProperties, meterRegistry);
+
+        filter.refresh();
+
+        assertThat(filter.isEnabled()).isFalse();
+        assertThat(filter.mightContain(DOMINIO, "FLUSSO-1", PSP, 1L)).isTrue();
+        verify(frRepository, never()).findChiaviAfterId(anyLong(), any());
+    }
+}
@@ -0,0 +1,101 @@
+package it.govpay.fdr.batch.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import it.govpay.fdr.batch.repository.FdrLockRepository;
+
+/**
+ * Integration test dei lock su FDR_LOCK: proprietari diversi sullo stesso database H2, con le scadenze
+ * calcolate dall'ora del database.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@DisplayName("ClusterLockService Integration Tests")
+class ClusterLockServiceIntegrationTest {
+
+    private static final String LOCK = "test-lock";
+    private static final Duration LEASE = Duration.ofSeconds(60);
+
+    @Autowired
+    private ClusterLockService clusterLockService;
+
+    @Autowired
+    private FdrLockRepository fdrLockRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private String job;
+
+    @BeforeEach
+    void setUp() {
+        fdrLockRepository.deleteAll();
+        job = clusterLockService.getNodeId() + ":job";
+    }
+
+    @AfterEach
+    void tearDown() {
+        fdrLockRepository.deleteAll();
+    }
+
+    private boolean holdInTransaction() {
+        return new TransactionTemplate(transactionManager).execute(status -> clusterLockService.holdInTransaction(LOCK, LEASE));
+    }
+
+    @Test
+    @DisplayName("Il lock e' di un solo proprietario alla volta e il proprietario ne rinnova il lease")
+    void testSingleOwner() {
+        assertThat(clusterLockService.tryAcquire(LOCK, LEASE)).isTrue();
+        assertThat(fdrLockRepository.findById(LOCK)).get()
+            .satisfies(lock -> assertThat(lock.getProprietario()).isEqualTo(clusterLockService.getNodeId()));
+
+        assertThat(clusterLockService.tryAcquire(LOCK, job, LEASE)).isFalse();
+        assertThat(clusterLockService.tryAcquire(LOCK, LEASE)).isTrue();
+    }
+
+    @Test
+    @DisplayName("Dopo il rilascio o la scadenza del lease il lock passa a un altro proprietario")
+    void testReleaseAndExpiry() {
+        assertThat(clusterLockService.tryAcquire(LOCK, LEASE)).isTrue();
+        clusterLockService.release(LOCK);
+        assertThat(clusterLockService.tryAcquire(LOCK, job, LEASE)).isTrue();
+
+        // Il rilascio da parte di chi non e' proprietario non ha effetto
+        clusterLockService.release(LOCK);
+        assertThat(clusterLockService.tryAcquire(LOCK, LEASE)).isFalse();
+
+        // Lease rinnovato gia' scaduto
+        assertThat(clusterLockService.tryAcquire(LOCK, job, Duration.ofSeconds(-1))).isTrue();
+        assertThat(clusterLockService.tryAcquire(LOCK, LEASE)).isTrue();
+    }
+
+    @Test
+    @DisplayName("La verifica nella transazione riesce solo se il lock e' del nodo e non scaduto, senza riprenderlo")
+    void testHoldInTransaction() {
+        assertThat(holdInTransaction()).isFalse();
+
+        assertThat(clusterLockService.tryAcquire(LOCK, LEASE)).isTrue();
+        assertThat(holdInTransaction()).isTrue();
+
+        // Rilasciato dal nodo (es. job in esecuzione): la scrittura non deve riprenderlo
+        clusterLockService.release(LOCK);
+        assertThat(holdInTransaction()).isFalse();
+
+        assertThat(clusterLockService.tryAcquire(LOCK, job, LEASE)).isTrue();
+        assertThat(holdInTransaction()).isFalse();
+        assertThat(fdrLockRepository.findById(LOCK)).get()
+            .satisfies(lock -> assertThat(lock.getProprietario()).isEqualTo(job));
+    }
+}
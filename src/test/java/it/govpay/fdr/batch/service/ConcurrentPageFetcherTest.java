@@ -0,0 +1,80 @@
+package it.govpay.fdr.batch.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+/**
+ * Test per ConcurrentPageFetcher: ordine delle pagine, fine della paginazione e annullamento delle
+ * richieste ancora in corso.
+ */
+@DisplayName("ConcurrentPageFetcher Tests")
+class ConcurrentPageFetcherTest {
+
+    private final ConcurrentPageFetcher fetcher =
+        new ConcurrentPageFetcher(new SimpleAsyncTaskExecutor("fdr-page-fetch-test-"));
+
+    @Test
+    @DisplayName("Le pagine vengono consegnate in ordine anche se completate in ordine diverso")
+    void testPagesDeliveredInOrder() {
+        List<Long> delivered = new ArrayList<>();
+
+        fetcher.fetchInOrder(2, 10, 3, page -> {
+            try {
+                // Le pagine pari arrivano dopo le dispari
+                Thread.sleep(page % 2 == 0 ? 30 : 0);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return page;
+        }, delivered::add);
+
+        assertThat(delivered).containsExactly(2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L);
+    }
+
+    @Test
+    @DisplayName("Una pagina null chiude la paginazione e interrompe le richieste ancora in corso")
+    void testNullPageInterruptsPendingRequests() throws Exception {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        List<Long> delivered = new ArrayList<>();
+
+        fetcher.fetchInOrder(2, 4, 3, page -> {
+            if (page == 3) {
+                return null;
+            }
+            if (page == 4) {
+                try {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }
+            return page;
+        }, delivered::add);
+
+        assertThat(delivered).containsExactly(2L);
+        assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    @DisplayName("L'errore della prima pagina fallita viene propagato cosi' com'e'")
+    void testErrorPropagated() {
+        IllegalStateException error = new IllegalStateException("pagina 3");
+
+        assertThatThrownBy(() -> fetcher.fetchInOrder(2, 5, 2, page -> {
+            if (page == 3) {
+                throw error;
+            }
+            return page;
+        }, page -> { }))
+            .isSameAs(error);
+    }
+}
@@ -0,0 +1,162 @@
+package it.govpay.fdr.batch.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.govpay.fdr.batch.config.BatchProperties;
+import it.govpay.fdr.batch.config.BatchTaskExecutorConfig;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Throughput delle chiamate pagoPA con 5, 50 e 500 flussi contemporanei contro uno stub HTTP locale con
+ * latenza fissa, nelle due configurazioni dell'executor delle partizioni:
+ * <ul>
+ *   <li>thread di piattaforma limitati a {@code thread-pool-size} (default), senza limite per connettore;</li>
+ *   <li>{@code virtual-threads=true}, con le chiamate limitate da {@code max-concurrent-calls-per-connector}.</li>
+ * </ul>
+ * Eseguito solo con il profilo {@code perf} ({@code mvn test -Pperf}): le chiamate al secondo vengono
+ * scritte nel log, senza soglie sui tempi. Il limite sulle chiamate contemporanee e' verificato da
+ * {@code ConnectorLimiterTest}.
+ */
+@Slf4j
+@Tag("perf")
+@DisplayName("ConnectorLimiter Benchmark")
+class ConnectorLimiterBenchmarkTest {
+
+    private static final String CONNECTOR = "PAGOPA_FDR";
+    private static final int THREAD_POOL_SIZE = 5;
+    private static final int MAX_CONCURRENT_CALLS = 50;
+    private static final int PAGES_PER_FLOW = 4;
+    private static final long STUB_LATENCY_MS = 20;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private RestTemplate restTemplate;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 1000);
+        server.createContext("/fdrs", this::respond);
+        // Lo stub non deve essere il collo di bottiglia: un virtual thread per richiesta
+        serverExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(serverExecutor);
+        server.start();
+        restTemplate = new RestTemplate(new JdkClientHttpRequestFactory());
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            Thread.sleep(STUB_LATENCY_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            inFlight.decrementAndGet();
+        }
+        byte[] body = "{\"metadata\":{\"pageNumber\":1,\"totPage\":1},\"data\":[]}".getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private String url() {
+        return "http://localhost:" + server.getAddress().getPort() + "/fdrs";
+    }
+
+    private static BatchProperties batchProperties(boolean virtualThreads) {
+        BatchProperties batchProperties = new BatchProperties();
+        batchProperties.setThreadPoolSize(THREAD_POOL_SIZE);
+        batchProperties.setVirtualThreads(virtualThreads);
+        batchProperties.setMaxConcurrentCallsPerConnector(virtualThreads ? MAX_CONCURRENT_CALLS : 0);
+        return batchProperties;
+    }
+
+    /**
+     * Esegue {@code flows} flussi sull'executor delle partizioni della configurazione, ognuno con
+     * {@value #PAGES_PER_FLOW} chiamate allo stub attraverso il ConnectorLimiter.
+     *
+     * @return chiamate al secondo
+     */
+    private double run(boolean virtualThreads, int flows) throws Exception {
+        BatchProperties batchProperties = batchProperties(virtualThreads);
+        SimpleAsyncTaskExecutor executor = new BatchTaskExecutorConfig(batchProperties).taskExecutor();
+        ConnectorLimiter limiter = new ConnectorLimiter(batchProperties, new SimpleMeterRegistry());
+        CountDownLatch done = new CountDownLatch(flows);
+        AtomicInteger calls = new AtomicInteger();
+        maxInFlight.set(0);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < flows; i++) {
+            executor.execute(() -> {
+                try {
+                    for (int page = 0; page < PAGES_PER_FLOW; page++) {
+                        limiter.call(CONNECTOR, () -> restTemplate.getForObject(url(), String.class));
+                        calls.incrementAndGet();
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        assertThat(done.await(5, TimeUnit.MINUTES)).isTrue();
+        long nanos = System.nanoTime() - start;
+
+        assertThat(calls.get()).isEqualTo(flows * PAGES_PER_FLOW);
+        return calls.get() / (nanos / 1_000_000_000.0);
+    }
+
+    @ParameterizedTest(name = "{0} flussi contemporanei")
+    @ValueSource(ints = {5, 50, 500})
+    @DisplayName("Chiamate al secondo con thread di piattaforma e con virtual thread e limite per connettore")
+    void testThroughput(int flows) throws Exception {
+        // Riscaldamento di client HTTP, stub e JIT
+        run(false, THREAD_POOL_SIZE);
+        run(true, THREAD_POOL_SIZE);
+
+        double platform = run(false, flows);
+        int platformInFlight = maxInFlight.get();
+        double virtual = run(true, flows);
+        int virtualInFlight = maxInFlight.get();
+
+        log.info("{} flussi x {} pagine, latenza stub {} ms: thread di piattaforma ({}) {} chiamate/s, max {} in corso; "
+                + "virtual thread (limite {} per connettore) {} chiamate/s, max {} in corso",
+            flows, PAGES_PER_FLOW, STUB_LATENCY_MS, THREAD_POOL_SIZE, Math.round(platform), platformInFlight,
+            MAX_CONCURRENT_CALLS, Math.round(virtual), virtualInFlight);
+
+        assertThat(platformInFlight).isLessThanOrEqualTo(THREAD_POOL_SIZE);
+        assertThat(virtualInFlight).isLessThanOrEqualTo(MAX_CONCURRENT_CALLS);
+    }
+}
@@ -0,0 +1,226 @@
+package it.govpay.fdr.batch.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.govpay.fdr.batch.config.BatchProperties;
+import it.govpay.fdr.batch.config.BatchProperties.ConnectorLimits;
+
+/**
+ * Test per ConnectorLimiter
+ */
+@DisplayName("ConnectorLimiter Tests")
+class ConnectorLimiterTest {
+
+    private static final int MAX_CONCURRENT_CALLS = 10;
+    private static final String CONNECTOR = "PAGOPA_FDR";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private ConnectorLimiter limiter(int maxConcurrentCalls) {
+        BatchProperties batchProperties = new BatchProperties();
+        batchProperties.setMaxConcurrentCallsPerConnector(maxConcurrentCalls);
+        return new ConnectorLimiter(batchProperties, meterRegistry);
+    }
+
+    private static HttpClientErrorException tooManyRequests(String retryAfter) {
+        HttpHeaders headers = new HttpHeaders();
+        if (retryAfter != null) {
+            headers.set(HttpHeaders.RETRY_AFTER, retryAfter);
+        }
+        return HttpClientErrorException.create(HttpStatus.TOO_MANY_REQUESTS, "Too Many Requests", headers,
+            new byte[0], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Esegue {@code flows} chiamate contemporanee su virtual thread, ognuna con latenza simulata,
+     * e restituisce il massimo numero di chiamate osservate in corso sullo stesso connettore.
+     */
+    private static int runConcurrentCalls(ConnectorLimiter limiter, int flows, String... connectors) throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        List<Future<Integer>> results = new ArrayList<>(flows);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < flows; i++) {
+                int flow = i;
+                String connector = connectors[i % connectors.length];
+                results.add(executor.submit(() -> limiter.call(connector, () -> {
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    inFlight.decrementAndGet();
+                    return flow;
+                })));
+            }
+        }
+        for (int i = 0; i < flows; i++) {
+            assertThat(results.get(i).get()).isEqualTo(i);
+        }
+        return maxInFlight.get();
+    }
+
+    @ParameterizedTest(name = "{0} flussi contemporanei")
+    @ValueSource(ints = {5, 50, 500})
+    @DisplayName("Le chiamate sullo stesso connettore non superano il limite")
+    void testConcurrentCallsBoundedPerConnector(int flows) throws Exception {
+        ConnectorLimiter limiter = limiter(MAX_CONCURRENT_CALLS);
+
+        int maxInFlight = runConcurrentCalls(limiter, flows, CONNECTOR);
+
+        assertThat(maxInFlight).isLessThanOrEqualTo(Math.min(flows, MAX_CONCURRENT_CALLS));
+    }
+
+    /**
+     * Esegue una chiamata per connettore e verifica che siano tutte in corso nello stesso momento.
+     */
+    private static boolean allInFlightTogether(ConnectorLimiter limiter, String... connectors) throws Exception {
+        CountDownLatch allInFlight = new CountDownLatch(connectors.length);
+        List<Future<Boolean>> results = new ArrayList<>(connectors.length);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (String connector : connectors) {
+                results.add(executor.submit(() -> limiter.call(connector, () -> {
+                    allInFlight.countDown();
+                    try {
+                        return allInFlight.await(1, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                })));
+            }
+        }
+        for (Future<Boolean> result : results) {
+            if (!result.get()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Test
+    @DisplayName("Connettori diversi hanno limiti indipendenti")
+    void testConnectorsHaveIndependentLimits() throws Exception {
+        ConnectorLimiter limiter = limiter(1);
+
+        assertThat(allInFlightTogether(limiter, "A", "B")).isTrue();
+        assertThat(allInFlightTogether(limiter, "A", "A")).isFalse();
+    }
+
+    @Test
+    @DisplayName("Con limite 0 le chiamate non vengono limitate")
+    void testUnlimitedWhenDisabled() throws Exception {
+        ConnectorLimiter limiter = limiter(0);
+
+        String[] connectors = new String[MAX_CONCURRENT_CALLS * 2];
+        Arrays.fill(connectors, CONNECTOR);
+        assertThat(allInFlightTogether(limiter, connectors)).isTrue();
+    }
+
+    @Test
+    @DisplayName("I limiti specifici del connettore sostituiscono quelli di default")
+    void testConnectorSpecificLimits() throws Exception {
+        BatchProperties batchProperties = new BatchProperties();
+        batchProperties.setMaxConcurrentCallsPerConnector(1);
+        ConnectorLimits limits = new ConnectorLimits();
+        limits.setMaxConcurrentCalls(2);
+        batchProperties.getConnectors().put("B", limits);
+        ConnectorLimiter limiter = new ConnectorLimiter(batchProperties, meterRegistry);
+
+        assertThat(allInFlightTogether(limiter, "A", "A")).isFalse();
+        assertThat(allInFlightTogether(limiter, "B", "B")).isTrue();
+    }
+
+    @Test
+    @DisplayName("Il rate limit distanzia le richieste oltre la raffica")
+    void testRateLimitSpacesRequests() {
+        BatchProperties batchProperties = new BatchProperties();
+        batchProperties.setRateLimitPerConnector(20);
+        ConnectorLimiter limiter = new ConnectorLimiter(batchProperties, meterRegistry);
+
+        long start = System.nanoTime();
+        // 20 richieste di raffica + 10 a 20/s: almeno ~500 ms
+        for (int i = 0; i < 30; i++) {
+            limiter.call(CONNECTOR, () -> null);
+        }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertThat(elapsedMs).isGreaterThanOrEqualTo(400);
+        assertThat(meterRegistry.get(ConnectorLimiter.METRIC_WAIT).tag("connector", CONNECTOR).timer().count()).isEqualTo(30);
+    }
+
+    @Test
+    @DisplayName("Su HTTP 429 viene rispettato Retry-After e ridotta la concorrenza")
+    void testTooManyRequestsHonorsRetryAfterAndReducesConcurrency() throws Exception {
+        ConnectorLimiter limiter = limiter(4);
+
+        assertThatThrownBy(() -> limiter.call(CONNECTOR, () -> {
+            throw tooManyRequests("1");
+        })).isInstanceOf(HttpClientErrorException.class);
+
+        long start = System.nanoTime();
+        limiter.call(CONNECTOR, () -> null);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertThat(elapsedMs).isGreaterThanOrEqualTo(900);
+        assertThat(meterRegistry.get(ConnectorLimiter.METRIC_THROTTLED).tag("connector", CONNECTOR).counter().count()).isEqualTo(1.0);
+        // Dopo il dimezzamento (4 -> 2) e una chiamata completata (2 -> 3) non tutte e 4 le chiamate passano insieme
+        assertThat(allInFlightTogether(limiter, CONNECTOR, CONNECTOR, CONNECTOR, CONNECTOR)).isFalse();
+    }
+
+    @Test
+    @DisplayName("Oltre l'attesa massima la chiamata viene rifiutata con errore ritentabile")
+    void testRejectedAfterMaxWait() {
+        BatchProperties batchProperties = new BatchProperties();
+        batchProperties.setConnectorMaxWaitMs(100);
+        ConnectorLimiter limiter = new ConnectorLimiter(batchProperties, meterRegistry);
+
+        assertThatThrownBy(() -> limiter.call(CONNECTOR, () -> {
+            throw tooManyRequests("30");
+        })).isInstanceOf(HttpClientErrorException.class);
+
+        assertThatThrownBy(() -> limiter.call(CONNECTOR, () -> "non eseguita"))
+            .isInstanceOf(RestClientException.class)
+            .hasMessageContaining("attesa massima");
+        assertThat(meterRegistry.get(ConnectorLimiter.METRIC_REJECTED).tag("connector", CONNECTOR).counter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    @DisplayName("Retry-After come data HTTP")
+    void testRetryAfterHttpDate() {
+        String retryAt = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(10));
+
+        long retryAfterNanos = ConnectorLimiter.retryAfterNanos(tooManyRequests(retryAt));
+
+        assertThat(Duration.ofNanos(retryAfterNanos)).isBetween(Duration.ofSeconds(8), Duration.ofSeconds(10));
+        assertThat(ConnectorLimiter.retryAfterNanos(tooManyRequests(null))).isZero();
+        assertThat(ConnectorLimiter.retryAfterNanos(tooManyRequests("non valido"))).isZero();
+    }
+}
@@ -0,0 +1,105 @@
+package it.govpay.fdr.batch.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import it.govpay.fdr.batch.config.BatchProperties;
+import it.govpay.fdr.batch.repository.FrPollingRepository;
+
+/**
+ * Integration test dello storico della cadenza adattiva su FR_POLLING: due istanze della policy sullo stesso
+ * database H2 simulano due nodi, o lo stesso nodo prima e dopo un riavvio.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@DisplayName("DominioPollingPolicy Integration Tests")
+class DominioPollingPolicyIntegrationTest {
+
+    private static final String DOMINIO = "12345678901";
+    private static final LocalDateTime OLD_PUBLICATION = LocalDateTime.now().minusDays(30);
+
+    @Autowired
+    private FrPollingRepository frPollingRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @BeforeEach
+    void setUp() {
+        frPollingRepository.deleteAll();
+    }
+
+    @AfterEach
+    void tearDown() {
+        frPollingRepository.deleteAll();
+    }
+
+    private DominioPollingPolicy node() {
+        BatchProperties batchProperties = new BatchProperties();
+        batchProperties.setAdaptivePolling(true);
+        batchProperties.setAdaptivePollingMaxBackoff(4);
+        batchProperties.setAdaptivePollingActiveHours(24);
+        batchProperties.setAdaptivePollingFullSweepRuns(0);
+        return new DominioPollingPolicy(frPollingRepository, batchProperties, transactionManager, Clock.systemDefaultZone());
+    }
+
+    @Test
+    @DisplayName("La cadenza registrata da un nodo vale anche per le esecuzioni su un altro nodo")
+    void testHistorySharedBetweenNodes() {
+        DominioPollingPolicy primo = node();
+        primo.startRun();
+        primo.recordPoll(DOMINIO, false);
+        primo.recordPoll(DOMINIO, false);
+
+        DominioPollingPolicy secondo = node();
+        secondo.startRun();
+        assertThat(secondo.getBackoff(DOMINIO, OLD_PUBLICATION)).isEqualTo(4);
+        assertThat(secondo.isDue(DOMINIO, OLD_PUBLICATION)).isFalse();
+        assertThat(secondo.getHitRate(DOMINIO)).isZero();
+
+        // Le esecuzioni saltate vengono contate su FR_POLLING, qualunque sia il nodo che esegue il job
+        primo.startRun();
+        secondo.startRun();
+        primo.startRun();
+        assertThat(primo.isDue(DOMINIO, OLD_PUBLICATION)).isTrue();
+        assertThat(frPollingRepository.findById(DOMINIO)).get().satisfies(polling -> {
+            assertThat(polling.getInterrogazioni()).isEqualTo(2);
+            assertThat(polling.getInterrogazioniVuote()).isEqualTo(2);
+            assertThat(polling.getEsecuzioniSaltate()).isEqualTo(4);
+        });
+    }
+
+    @Test
+    @DisplayName("L'interrogazione viene salvata solo se la transazione in cui e' avvenuta va in commit")
+    void testRecordedOnlyOnCommit() {
+        DominioPollingPolicy policy = node();
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+
+        transactionTemplate.executeWithoutResult(status -> {
+            policy.recordPoll(DOMINIO, true);
+            status.setRollbackOnly();
+        });
+        assertThat(frPollingRepository.findById(DOMINIO)).isEmpty();
+        assertThat(policy.getHitRate(DOMINIO)).isEqualTo(-1);
+
+        transactionTemplate.executeWithoutResult(status -> policy.recordPoll(DOMINIO, true));
+        assertThat(frPollingRepository.findById(DOMINIO)).get().satisfies(polling -> {
+            assertThat(polling.getInterrogazioni()).isEqualTo(1);
+            assertThat(polling.getInterrogazioniConFlussi()).isEqualTo(1);
+            assertThat(polling.getInterrogazioniVuote()).isZero();
+        });
+        assertThat(policy.getHitRate(DOMINIO)).isEqualTo(100.0);
+    }
+}
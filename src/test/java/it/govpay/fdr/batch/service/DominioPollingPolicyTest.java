@@ -0,0 +1,184 @@
+package it.govpay.fdr.batch.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import it.govpay.fdr.batch.config.BatchProperties;
+import it.govpay.fdr.batch.entity.FrPolling;
+import it.govpay.fdr.batch.repository.FrPollingRepository;
+
+/**
+ * Test per DominioPollingPolicy
+ */
+@ExtendWith(MockitoExtension.class)
+@DisplayName("DominioPollingPolicy Tests")
+class DominioPollingPolicyTest {
+
+    private static final String DOMINIO = "12345678901";
+    private static final LocalDateTime NOW = LocalDateTime.of(2025, 1, 27, 10, 0);
+    private static final LocalDateTime OLD_PUBLICATION = NOW.minusDays(30);
+
+    @Mock
+    private FrPollingRepository frPollingRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private BatchProperties batchProperties;
+    private DominioPollingPolicy policy;
+
+    @BeforeEach
+    void setUp() {
+        batchProperties = new BatchProperties();
+        batchProperties.setAdaptivePolling(true);
+        batchProperties.setAdaptivePollingMaxBackoff(4);
+        batchProperties.setAdaptivePollingActiveHours(24);
+        batchProperties.setAdaptivePollingFullSweepRuns(0);
+        policy = new DominioPollingPolicy(frPollingRepository, batchProperties, transactionManager,
+            Clock.fixed(NOW.toInstant(ZoneOffset.UTC), ZoneOffset.UTC));
+    }
+
+    /**
+     * Simula le esecuzioni: a ogni interrogazione il dominio non trova flussi.
+     *
+     * @return per ogni esecuzione se il dominio e' stato interrogato
+     */
+    private List<Boolean> runsWithoutFlows(int runs) {
+        List<Boolean> polled = new ArrayList<>();
+        for (int i = 0; i < runs; i++) {
+            boolean fullSweep = policy.startRun();
+            boolean due = fullSweep || policy.isDue(DOMINIO, OLD_PUBLICATION);
+            if (due) {
+                policy.recordPoll(DOMINIO, false);
+            }
+            polled.add(due);
+        }
+        return polled;
+    }
+
+    @Test
+    @DisplayName("Un dominio senza nuovi flussi viene interrogato con intervalli che raddoppiano fino al massimo")
+    void testExponentialBackoff() {
+        // Interrogazioni alle esecuzioni 1, 3, 7, 11, 15: intervalli di 2, 4 e poi al massimo 4 esecuzioni
+        assertThat(runsWithoutFlows(16)).containsExactly(
+            true, false, true, false, false, false, true, false,
+            false, false, true, false, false, false, true, false);
+        assertThat(policy.getHitRate(DOMINIO)).isZero();
+    }
+
+    @Test
+    @DisplayName("Un dominio che trova nuovi flussi torna a essere interrogato a ogni esecuzione")
+    void testHitResetsBackoff() {
+        runsWithoutFlows(7);
+        assertThat(policy.getBackoff(DOMINIO, OLD_PUBLICATION)).isEqualTo(4);
+
+        policy.recordPoll(DOMINIO, true);
+
+        assertThat(policy.getBackoff(DOMINIO, OLD_PUBLICATION)).isEqualTo(1);
+        assertThat(policy.getHitRate(DOMINIO)).isEqualTo(25.0);
+    }
+
+    @Test
+    @DisplayName("Un dominio con pubblicazioni recenti o mai interrogato viene sempre interrogato")
+    void testActiveAndUnknownDomains() {
+        assertThat(policy.isDue(DOMINIO, OLD_PUBLICATION)).isTrue();
+        assertThat(policy.getHitRate(DOMINIO)).isEqualTo(-1);
+
+        policy.recordPoll(DOMINIO, false);
+        policy.recordPoll(DOMINIO, false);
+
+        assertThat(policy.isDue(DOMINIO, NOW.minusHours(2))).isTrue();
+        assertThat(policy.isDue(DOMINIO, OLD_PUBLICATION)).isFalse();
+    }
+
+    @Test
+    @DisplayName("Interrogazione completa periodica e cadenza disabilitata")
+    void testFullSweep() {
+        batchProperties.setAdaptivePollingFullSweepRuns(3);
+        assertThat(policy.startRun()).isFalse();
+        assertThat(policy.startRun()).isFalse();
+        assertThat(policy.startRun()).isTrue();
+
+        batchProperties.setAdaptivePolling(false);
+        policy.recordPoll(DOMINIO, false);
+        policy.recordPoll(DOMINIO, false);
+        assertThat(policy.startRun()).isTrue();
+        assertThat(policy.getBackoff(DOMINIO, OLD_PUBLICATION)).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("All'inizio dell'esecuzione lo storico registrato da tutti i nodi viene riletto da FR_POLLING")
+    void testHistoryReadFromFrPolling() {
+        when(frPollingRepository.findAll()).thenReturn(List.of(FrPolling.builder()
+            .codDominio(DOMINIO)
+            .interrogazioni(4)
+            .interrogazioniConFlussi(1)
+            .interrogazioniVuote(3)
+            .esecuzioniSaltate(3)
+            .build()));
+
+        policy.startRun();
+
+        verify(frPollingRepository).incrementSkippedRuns();
+        assertThat(policy.getBackoff(DOMINIO, OLD_PUBLICATION)).isEqualTo(4);
+        assertThat(policy.isDue(DOMINIO, OLD_PUBLICATION)).isFalse();
+        assertThat(policy.getHitRate(DOMINIO)).isEqualTo(25.0);
+    }
+
+    @Test
+    @DisplayName("In una transazione l'interrogazione viene registrata solo dopo il commit")
+    void testRecordedAfterCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            policy.recordPoll(DOMINIO, false);
+
+            assertThat(policy.getHitRate(DOMINIO)).isEqualTo(-1);
+            verifyNoInteractions(frPollingRepository);
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertThat(policy.getHitRate(DOMINIO)).isZero();
+        verify(frPollingRepository).recordEmpty(DOMINIO, NOW);
+        // Primo salvataggio del dominio: nessuna riga da aggiornare
+        verify(frPollingRepository).save(any(FrPolling.class));
+    }
+
+    @Test
+    @DisplayName("Un'interrogazione in una transazione annullata non viene registrata")
+    void testNotRecordedOnRollback() {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            policy.recordPoll(DOMINIO, true);
+
+            TransactionSynchronizationManager.getSynchronizations()
+                .forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertThat(policy.getHitRate(DOMINIO)).isEqualTo(-1);
+        verifyNoInteractions(frPollingRepository);
+    }
+}
@@ -6,18 +6,28 @@ import it.govpay.common.entity.IntermediarioEntity;
 import it.govpay.common.repository.IntermediarioRepository;
 import it.govpay.fdr.batch.config.BatchProperties;
 import it.govpay.fdr.batch.config.FdrApiClientConfig;
+import it.govpay.fdr.batch.config.FdrHttpTransport;
 import it.govpay.fdr.batch.entity.Fr;
 import it.govpay.fdr.batch.exception.FdrFatalException;
+import it.govpay.fdr.batch.config.BatchProperties.PaymentsDecodeMode;
 import it.govpay.fdr.batch.gde.service.GdeService;
+import it.govpay.fdr.batch.step4.FdrPaymentsProcessor.PaymentData;
 import it.govpay.fdr.client.api.OrganizationsApi;
 import it.govpay.fdr.client.model.*;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.test.web.client.MockRestServiceServer;
 import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.ResourceAccessException;
@@ -25,6 +35,7 @@ import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.time.OffsetDateTime;
 import java.time.ZoneId;
@@ -39,6 +50,11 @@ import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.awaitility.Awaitility.await;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
 
 /**
  * Integration test for FdrApiService with GDE event tracking.
@@ -91,9 +107,13 @@ class FdrApiServiceGdeIntegrationTest {
         lenient().when(gdeService.buildGetAllPublishedFlowsUrl(anyString(), anyString(), anyString()))
             .thenAnswer(inv -> inv.getArgument(0) + "/organizations/" + inv.getArgument(1) + "/fdrs?publishedGt=" + inv.getArgument(2));
 
+        // pagoPA mapper reale, usato per il payload GDE delle pagine in STREAMING
+        FdrApiClientConfig pagoPAConfig = new FdrApiClientConfig();
+        ReflectionTestUtils.setField(pagoPAConfig, "timezone", "Europe/Rome");
+        lenient().when(fdrApiClientConfig.createPagoPAObjectMapper()).thenReturn(pagoPAConfig.createPagoPAObjectMapper());
+
         // Create service and inject mocked OrganizationsApi via cache
-        fdrApiService = new FdrApiService(batchProperties, connettoreService, intermediarioRepository,
-            gdeService, ZONE_ID, fdrApiClientConfig);
+        fdrApiService = createService();
 
         // Inject mocked OrganizationsApi into the cache
         ConcurrentHashMap<String, OrganizationsApi> apiCache = new ConcurrentHashMap<>();
@@ -101,6 +121,15 @@ class FdrApiServiceGdeIntegrationTest {
         ReflectionTestUtils.setField(fdrApiService, "apiCache", apiCache);
     }
 
+    private FdrApiService createService() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        return new FdrApiService(batchProperties, connettoreService, intermediarioRepository,
+            gdeService, ZONE_ID, fdrApiClientConfig, new FdrHttpTransport(batchProperties, meterRegistry),
+            new ConcurrentPageFetcher(new SimpleAsyncTaskExecutor("fdr-page-fetch-test-")),
+            new ConnectorLimiter(batchProperties, meterRegistry), new PaymentsPageDecoder(ZONE_ID),
+            new PaymentsPageCache(batchProperties));
+    }
+
     @Test
     void testGetAllPublishedFlowsWithGdeTrackingSuccess() throws Exception {
         // Given
@@ -801,4 +830,234 @@ class FdrApiServiceGdeIntegrationTest {
 
         assertThat(result).hasSize(1);
     }
+
+    private static PaginatedFlowsResponse flowsPage(int pageNumber, int totPage, String fdr) {
+        PaginatedFlowsResponse response = new PaginatedFlowsResponse();
+        FlowByPSP flow = new FlowByPSP();
+        flow.setFdr(fdr);
+        response.setData(new ArrayList<>(List.of(flow)));
+        Metadata metadata = new Metadata();
+        metadata.setPageNumber(pageNumber);
+        metadata.setTotPage(totPage);
+        response.setMetadata(metadata);
+        return response;
+    }
+
+    private static PaginatedPaymentsResponse paymentsPage(int pageNumber, int totPage, long index) {
+        PaginatedPaymentsResponse response = new PaginatedPaymentsResponse();
+        Payment payment = new Payment();
+        payment.setIndex(index);
+        response.setData(new ArrayList<>(List.of(payment)));
+        Metadata metadata = new Metadata();
+        metadata.setPageNumber(pageNumber);
+        metadata.setTotPage(totPage);
+        response.setMetadata(metadata);
+        return response;
+    }
+
+    @Test
+    void testGetAllPublishedFlowsConcurrentPagesKeepOrder() throws Exception {
+        batchProperties.setPageFetchConcurrency(3);
+
+        when(organizationsApi.iOrganizationsControllerGetAllPublishedFlowsWithHttpInfo(
+            eq(ORG_ID), isNull(), eq(1L), isNull(), any(), eq(100L)))
+            .thenReturn(ResponseEntity.ok(flowsPage(1, 5, "FDR-001")));
+        // La pagina 2 risponde per ultima: l'ordine deve comunque essere quello della paginazione
+        when(organizationsApi.iOrganizationsControllerGetAllPublishedFlowsWithHttpInfo(
+            eq(ORG_ID), isNull(), eq(2L), isNull(), any(), eq(100L)))
+            .thenAnswer(inv -> {
+                Thread.sleep(200);
+                return ResponseEntity.ok(flowsPage(2, 5, "FDR-002"));
+            });
+        for (int page = 3; page <= 5; page++) {
+            when(organizationsApi.iOrganizationsControllerGetAllPublishedFlowsWithHttpInfo(
+                eq(ORG_ID), isNull(), eq((long) page), isNull(), any(), eq(100L)))
+                .thenReturn(ResponseEntity.ok(flowsPage(page, 5, "FDR-00" + page)));
+        }
+
+        List<FlowByPSP> result = fdrApiService.getAllPublishedFlows(ORG_ID, LocalDateTime.now());
+
+        assertThat(result).extracting(FlowByPSP::getFdr)
+            .containsExactly("FDR-001", "FDR-002", "FDR-003", "FDR-004", "FDR-005");
+        verify(gdeService).saveGetPublishedFlowsOk(eq(ORG_ID), isNull(), any(OffsetDateTime.class),
+            any(OffsetDateTime.class), eq(5), any(), anyString());
+    }
+
+    @Test
+    void testGetAllPublishedFlowsConcurrent404StopsPagination() throws Exception {
+        batchProperties.setPageFetchConcurrency(3);
+
+        when(organizationsApi.iOrganizationsControllerGetAllPublishedFlowsWithHttpInfo(
+            eq(ORG_ID), isNull(), eq(1L), isNull(), any(), eq(100L)))
+            .thenReturn(ResponseEntity.ok(flowsPage(1, 5, "FDR-001")));
+        when(organizationsApi.iOrganizationsControllerGetAllPublishedFlowsWithHttpInfo(
+            eq(ORG_ID), isNull(), eq(2L), isNull(), any(), eq(100L)))
+            .thenReturn(ResponseEntity.ok(flowsPage(2, 5, "FDR-002")));
+        when(organizationsApi.iOrganizationsControllerGetAllPublishedFlowsWithHttpInfo(
+            eq(ORG_ID), isNull(), eq(3L), isNull(), any(), eq(100L)))
+            .thenThrow(new HttpClientErrorException(org.springframework.http.HttpStatus.NOT_FOUND, "Not Found"));
+        // Le pagine successive possono essere gia' in volo: vengono scartate, anche se in errore
+        lenient().when(organizationsApi.iOrganizationsControllerGetAllPublishedFlowsWithHttpInfo(
+            eq(ORG_ID), isNull(), eq(4L), isNull(), any(), eq(100L)))
+            .thenThrow(new RestClientException("Errore pagina 4"));
+        lenient().when(organizationsApi.iOrganizationsControllerGetAllPublishedFlowsWithHttpInfo(
+            eq(ORG_ID), isNull(), eq(5L), isNull(), any(), eq(100L)))
+            .thenReturn(ResponseEntity.ok(flowsPage(5, 5, "FDR-005")));
+
+        List<FlowByPSP> result = fdrApiService.getAllPublishedFlows(ORG_ID, LocalDateTime.now());
+
+        assertThat(result).extracting(FlowByPSP::getFdr).containsExactly("FDR-001", "FDR-002");
+    }
+
+    @Test
+    void testGetAllPublishedFlowsConcurrent401ThrowsFdrFatalException() throws Exception {
+        batchProperties.setPageFetchConcurrency(2);
+
+        when(organizationsApi.iOrganizationsControllerGetAllPublishedFlowsWithHttpInfo(
+            eq(ORG_ID), isNull(), eq(1L), isNull(), any(), eq(100L)))
+            .thenReturn(ResponseEntity.ok(flowsPage(1, 3, "FDR-001")));
+        when(organizationsApi.iOrganizationsControllerGetAllPublishedFlowsWithHttpInfo(
+            eq(ORG_ID), isNull(), eq(2L), isNull(), any(), eq(100L)))
+            .thenThrow(new HttpClientErrorException(org.springframework.http.HttpStatus.UNAUTHORIZED, "Unauthorized"));
+        lenient().when(organizationsApi.iOrganizationsControllerGetAllPublishedFlowsWithHttpInfo(
+            eq(ORG_ID), isNull(), eq(3L), isNull(), any(), eq(100L)))
+            .thenReturn(ResponseEntity.ok(flowsPage(3, 3, "FDR-003")));
+
+        assertThatThrownBy(() -> fdrApiService.getAllPublishedFlows(ORG_ID, LocalDateTime.now()))
+            .isInstanceOf(FdrFatalException.class)
+            .hasMessageContaining("401")
+            .hasCauseInstanceOf(HttpClientErrorException.class);
+
+        verify(gdeService).saveGetPublishedFlowsKo(eq(ORG_ID), isNull(), any(OffsetDateTime.class),
+            any(OffsetDateTime.class), any(), any(HttpClientErrorException.class), anyString());
+    }
+
+    @Test
+    void testGetPaymentsConcurrentPagesKeepOrder() throws Exception {
+        batchProperties.setPageFetchConcurrency(2);
+        String fdr = "FDR-001";
+        Long revision = 1L;
+        String pspId = "PSP001";
+
+        when(organizationsApi.iOrganizationsControllerGetPaymentsFromPublishedFlowWithHttpInfo(
+            eq(fdr), eq(ORG_ID), eq(pspId), eq(revision), eq(1L), eq(100L)))
+            .thenReturn(ResponseEntity.ok(paymentsPage(1, 4, 1L)));
+        when(organizationsApi.iOrganizationsControllerGetPaymentsFromPublishedFlowWithHttpInfo(
+            eq(fdr), eq(ORG_ID), eq(pspId), eq(revision), eq(2L), eq(100L)))
+            .thenAnswer(inv -> {
+                Thread.sleep(200);
+                return ResponseEntity.ok(paymentsPage(2, 4, 2L));
+            });
+        when(organizationsApi.iOrganizationsControllerGetPaymentsFromPublishedFlowWithHttpInfo(
+            eq(fdr), eq(ORG_ID), eq(pspId), eq(revision), eq(3L), eq(100L)))
+            .thenReturn(ResponseEntity.ok(paymentsPage(3, 4, 3L)));
+        when(organizationsApi.iOrganizationsControllerGetPaymentsFromPublishedFlowWithHttpInfo(
+            eq(fdr), eq(ORG_ID), eq(pspId), eq(revision), eq(4L), eq(100L)))
+            .thenReturn(ResponseEntity.ok(paymentsPage(4, 4, 4L)));
+
+        List<List<Payment>> pages = new ArrayList<>();
+        int total = fdrApiService.forEachPaymentsPage(ORG_ID, fdr, revision, pspId, pages::add);
+
+        assertThat(total).isEqualTo(4);
+        assertThat(pages).hasSize(4);
+        assertThat(pages.stream().flatMap(List::stream).map(Payment::getIndex).toList()).containsExactly(1L, 2L, 3L, 4L);
+        verify(gdeService).saveGetPaymentsOk(any(Fr.class), any(OffsetDateTime.class), any(OffsetDateTime.class),
+            eq(4), any(), anyString());
+    }
+
+    private static String paymentsPageJson(int pageNumber, int totPage, String iuv) {
+        return "{\"metadata\":{\"pageSize\":100,\"pageNumber\":" + pageNumber + ",\"totPage\":" + totPage + "},"
+            + "\"count\":1,\"data\":[{\"index\":1,\"iuv\":\"" + iuv + "\",\"iur\":\"IUR-" + iuv + "\",\"idTransfer\":1,"
+            + "\"pay\":10.5,\"payStatus\":\"EXECUTED\",\"payDate\":\"2025-01-27T10:30:45.123Z\"}]}";
+    }
+
+    @Test
+    void testGetPaymentDataStreamingDecode() throws Exception {
+        batchProperties.setPaymentsDecodeMode(PaymentsDecodeMode.STREAMING);
+        String fdr = "FDR-001";
+        RestTemplate restTemplate = new RestTemplate();
+        MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+        when(connettoreService.getRestTemplate(COD_CONNETTORE)).thenReturn(restTemplate);
+
+        for (int page = 1; page <= 2; page++) {
+            server.expect(requestTo(BASE_URL + "/organizations/" + ORG_ID + "/fdrs/" + fdr
+                    + "/revisions/1/psps/PSP001/payments?page=" + page + "&size=100"))
+                .andExpect(method(HttpMethod.GET))
+                .andExpect(header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE))
+                .andRespond(withSuccess(paymentsPageJson(page, 2, "IUV" + page), MediaType.APPLICATION_JSON));
+        }
+
+        List<PaymentData> result = fdrApiService.getPaymentDataFromPublishedFlow(ORG_ID, fdr, 1L, "PSP001");
+
+        server.verify();
+        assertThat(result).extracting(PaymentData::getIuv).containsExactly("IUV1", "IUV2");
+        assertThat(result.get(0).getIur()).isEqualTo("IUR-IUV1");
+        assertThat(result.get(0).getIndiceDati()).isEqualTo(1L);
+        assertThat(result.get(0).getImportoPagato()).isEqualTo(10.5);
+        assertThat(result.get(0).getEsito()).isZero();
+        assertThat(result.get(0).getData()).isEqualTo(LocalDateTime.of(2025, 1, 27, 11, 30, 45, 123_000_000));
+
+        // Payload GDE: l'ultima risposta pagoPA, come in modalita' CLIENT
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<ResponseEntity<?>> responseCaptor = ArgumentCaptor.forClass(ResponseEntity.class);
+        verify(gdeService).saveGetPaymentsOk(any(Fr.class), any(OffsetDateTime.class), any(OffsetDateTime.class),
+            eq(2), responseCaptor.capture(), anyString());
+        assertThat(responseCaptor.getValue().getBody()).isInstanceOfSatisfying(PaginatedPaymentsResponse.class, body -> {
+            assertThat(body.getMetadata().getPageNumber()).isEqualTo(2);
+            assertThat(body.getData()).singleElement().satisfies(payment -> {
+                assertThat(payment.getIuv()).isEqualTo("IUV2");
+                assertThat(payment.getPayStatus()).isEqualTo(Payment.PayStatusEnum.EXECUTED);
+            });
+        });
+        verifyNoInteractions(organizationsApi);
+    }
+
+    @Test
+    void testGetPaymentDataStreamingDecodeHttpError() throws Exception {
+        batchProperties.setPaymentsDecodeMode(PaymentsDecodeMode.STREAMING);
+        RestTemplate restTemplate = new RestTemplate();
+        MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+        when(connettoreService.getRestTemplate(COD_CONNETTORE)).thenReturn(restTemplate);
+        server.expect(method(HttpMethod.GET))
+            .andRespond(withStatus(org.springframework.http.HttpStatus.INTERNAL_SERVER_ERROR));
+
+        assertThatThrownBy(() -> fdrApiService.getPaymentDataFromPublishedFlow(ORG_ID, "FDR-001", 1L, "PSP001"))
+            .isInstanceOf(RestClientException.class)
+            .hasMessageContaining("FDR-001");
+
+        verify(gdeService).saveGetPaymentsKo(any(Fr.class), any(OffsetDateTime.class), any(OffsetDateTime.class),
+            isNull(), any(RestClientException.class), anyString());
+    }
+
+    @Test
+    void testGetPaymentDataResumesFromPageCache(@TempDir Path cacheDir) throws Exception {
+        batchProperties.setPaymentsDecodeMode(PaymentsDecodeMode.STREAMING);
+        batchProperties.setPaymentsPageCacheDir(cacheDir.toString());
+        fdrApiService = createService();
+        String fdr = "FDR-001";
+        String pageUrl = BASE_URL + "/organizations/" + ORG_ID + "/fdrs/" + fdr + "/revisions/1/psps/PSP001/payments?page=";
+        RestTemplate restTemplate = new RestTemplate();
+        MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+        when(connettoreService.getRestTemplate(COD_CONNETTORE)).thenReturn(restTemplate);
+
+        // Primo tentativo: la pagina 2 fallisce
+        server.expect(requestTo(pageUrl + "1&size=100"))
+            .andRespond(withSuccess(paymentsPageJson(1, 3, "IUV1"), MediaType.APPLICATION_JSON));
+        server.expect(requestTo(pageUrl + "2&size=100"))
+            .andRespond(withStatus(org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE));
+        // Secondo tentativo: la pagina 1 arriva dalla cache
+        server.expect(requestTo(pageUrl + "2&size=100"))
+            .andRespond(withSuccess(paymentsPageJson(2, 3, "IUV2"), MediaType.APPLICATION_JSON));
+        server.expect(requestTo(pageUrl + "3&size=100"))
+            .andRespond(withSuccess(paymentsPageJson(3, 3, "IUV3"), MediaType.APPLICATION_JSON));
+
+        assertThatThrownBy(() -> fdrApiService.getPaymentDataFromPublishedFlow(ORG_ID, fdr, 1L, "PSP001"))
+            .isInstanceOf(RestClientException.class);
+        List<PaymentData> result = fdrApiService.getPaymentDataFromPublishedFlow(ORG_ID, fdr, 1L, "PSP001");
+
+        server.verify();
+        assertThat(result).extracting(PaymentData::getIuv).containsExactly("IUV1", "IUV2", "IUV3");
+        verify(gdeService).saveGetPaymentsOk(any(Fr.class), any(OffsetDateTime.class), any(OffsetDateTime.class),
+            eq(3), any(ResponseEntity.class), anyString());
+    }
 }
@@ -0,0 +1,317 @@
+package it.govpay.fdr.batch.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import it.govpay.fdr.batch.config.BatchProperties;
+import it.govpay.fdr.batch.entity.FrTemp;
+import it.govpay.fdr.batch.entity.StatoCoda;
+import it.govpay.fdr.batch.repository.FrTempRepository;
+import it.govpay.fdr.batch.tasklet.CleanupFrTempTasklet;
+import jakarta.persistence.EntityManager;
+
+/**
+ * Integration test della coda di lavoro su FR_TEMP: due nodi condividono lo stesso database H2.
+ * L'ora del database viene spostata in avanti per simulare la scadenza dei lease e delle attese;
+ * la presa in carico concorrente da contesti separati e' in {@link FdrWorkQueueMultiNodeIntegrationTest}.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@DisplayName("FdrWorkQueue Integration Tests")
+class FdrWorkQueueIntegrationTest {
+
+    private static final LocalDateTime T0 = LocalDateTime.of(2025, 1, 27, 10, 0);
+
+    @Autowired
+    private FrTempRepository frTempRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    /** Spostamento dell'ora di database e nodi */
+    private final AtomicReference<Duration> offset = new AtomicReference<>(Duration.ZERO);
+
+    private FdrWorkQueue nodeA;
+    private FdrWorkQueue nodeB;
+
+    @BeforeEach
+    void setUp() {
+        frTempRepository.deleteAll();
+        nodeA = newNode("node-a");
+        nodeB = newNode("node-b");
+    }
+
+    @AfterEach
+    void tearDown() {
+        frTempRepository.deleteAll();
+    }
+
+    private FdrWorkQueue newNode(String nodeId) {
+        BatchProperties properties = new BatchProperties();
+        properties.setNodeId(nodeId);
+        properties.setWorkQueueClaimSize(2);
+        properties.setWorkQueueLeaseMinutes(10);
+        properties.setMaxRetries(2);
+        properties.setWorkQueueRetryDelaySeconds(60);
+        Clock clock = new Clock() {
+            @Override
+            public ZoneId getZone() {
+                return ZoneOffset.UTC;
+            }
+
+            @Override
+            public Clock withZone(ZoneId zone) {
+                return this;
+            }
+
+            @Override
+            public Instant instant() {
+                return Instant.now().plus(offset.get());
+            }
+        };
+        DatabaseClock databaseClock = new DatabaseClock(entityManager) {
+            @Override
+            public LocalDateTime now() {
+                return super.now().plus(offset.get());
+            }
+        };
+        return new FdrWorkQueue(frTempRepository, transactionManager, properties, databaseClock, clock);
+    }
+
+    private void saveFlusso(String codFlusso, long revisione, int minuti) {
+        frTempRepository.save(FrTemp.builder()
+            .codDominio("12345678901")
+            .codFlusso(codFlusso)
+            .idPsp("PSP001")
+            .codPsp("PSP001")
+            .revisione(revisione)
+            .dataOraPubblicazione(T0.minusMinutes(60L - minuti))
+            .build());
+    }
+
+    private void advanceMinutes(long minutes) {
+        offset.updateAndGet(current -> current.plusMinutes(minutes));
+    }
+
+    @Test
+    @DisplayName("I flussi non pubblicati non vengono presi in carico")
+    void testUnpublishedNotClaimed() {
+        saveFlusso("FDR-1", 1, 1);
+
+        assertThat(nodeA.claim().items()).isEmpty();
+        assertThat(nodeA.publish()).isEqualTo(1);
+        assertThat(nodeA.claim().items()).hasSize(1);
+    }
+
+    @Test
+    @DisplayName("Due nodi prendono in carico flussi diversi, con tutte le revisioni")
+    void testNodesClaimDisjointFlows() {
+        saveFlusso("FDR-1", 1, 1);
+        saveFlusso("FDR-1", 2, 5);
+        saveFlusso("FDR-2", 1, 2);
+        saveFlusso("FDR-3", 1, 3);
+        saveFlusso("FDR-4", 1, 4);
+        nodeA.publish();
+
+        FdrWorkQueue.Claim claimA = nodeA.claim();
+        FdrWorkQueue.Claim claimB = nodeB.claim();
+        FdrWorkQueue.Claim claimA2 = nodeA.claim();
+
+        // Flussi piu' vecchi per primi, revisioni dello stesso flusso insieme e in ordine
+        assertThat(claimA.items()).extracting(f -> f.getCodFlusso() + "#" + f.getRevisione())
+            .containsExactly("FDR-1#1", "FDR-1#2", "FDR-2#1");
+        assertThat(claimB.items()).extracting(FrTemp::getCodFlusso).containsExactly("FDR-3", "FDR-4");
+        assertThat(claimA2.items()).isEmpty();
+        assertThat(claimA.owner()).startsWith("node-a/");
+        assertThat(claimB.owner()).startsWith("node-b/");
+        assertThat(nodeA.countPending()).isEqualTo(5);
+    }
+
+    @Test
+    @DisplayName("Alla scadenza del lease i flussi di un nodo fermo passano a un altro nodo")
+    void testExpiredLeaseReclaimed() {
+        saveFlusso("FDR-1", 1, 1);
+        nodeA.publish();
+        FdrWorkQueue.Claim claimA = nodeA.claim();
+        assertThat(claimA.items()).hasSize(1);
+
+        advanceMinutes(5);
+        assertThat(nodeB.claim().items()).isEmpty();
+
+        advanceMinutes(10);
+        FdrWorkQueue.Claim claimB = nodeB.claim();
+        assertThat(claimB.items()).hasSize(1);
+
+        // Il nodo A non puo' piu' completare il flusso: la scrittura viene annullata
+        FrTemp item = claimA.items().get(0);
+        assertThatThrownBy(() -> nodeA.complete(claimA, item, () -> { }))
+            .isInstanceOf(IllegalStateException.class);
+
+        nodeB.complete(claimB, claimB.items().get(0), () -> { });
+        assertThat(frTempRepository.count()).isZero();
+        assertThat(nodeB.countPending()).isZero();
+    }
+
+    @Test
+    @DisplayName("Il rinnovo del lease impedisce la presa in carico da altri nodi")
+    void testRenewKeepsLease() {
+        saveFlusso("FDR-1", 1, 1);
+        nodeA.publish();
+        FdrWorkQueue.Claim claimA = nodeA.claim();
+
+        advanceMinutes(8);
+        nodeA.renew(claimA);
+        advanceMinutes(8);
+
+        assertThat(nodeB.claim().items()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Il rinnovo durante il download estende il lease solo dopo un terzo della sua durata")
+    void testLeaseRenewerDuringDownload() {
+        saveFlusso("FDR-1", 1, 1);
+        nodeA.publish();
+        FdrWorkQueue.Claim claimA = nodeA.claim();
+        Runnable renewer = nodeA.leaseRenewer(claimA);
+
+        // Pagine ricevute ogni 2 minuti per 20 minuti, oltre il lease di 10 minuti
+        for (int page = 0; page < 10; page++) {
+            advanceMinutes(2);
+            renewer.run();
+        }
+        assertThat(nodeB.claim().items()).isEmpty();
+
+        advanceMinutes(11);
+        assertThat(nodeB.claim().items()).hasSize(1);
+    }
+
+    @Test
+    @DisplayName("Un flusso fallito torna disponibile fino al numero massimo di tentativi")
+    void testFailedAttempts() {
+        saveFlusso("FDR-1", 1, 1);
+        nodeA.publish();
+
+        FdrWorkQueue.Claim first = nodeA.claim();
+        assertThat(nodeA.fail(first, first.items().get(0))).isFalse();
+
+        // Nessun nuovo tentativo prima dell'attesa
+        assertThat(nodeB.claim().items()).isEmpty();
+        advanceMinutes(2);
+        FdrWorkQueue.Claim second = nodeB.claim();
+        assertThat(second.items()).hasSize(1);
+        assertThat(nodeB.fail(second, second.items().get(0))).isTrue();
+
+        assertThat(nodeA.claim().items()).isEmpty();
+        assertThat(nodeA.countPending()).isZero();
+        assertThat(nodeA.countFailed()).isEqualTo(1);
+        assertThat(frTempRepository.findAll()).extracting(FrTemp::getStatoCoda).containsExactly(StatoCoda.FALLITO);
+    }
+
+    @Test
+    @DisplayName("Dopo un errore tutte le revisioni del flusso tornano disponibili insieme")
+    void testFailureReleasesAllRevisions() {
+        saveFlusso("FDR-1", 1, 1);
+        saveFlusso("FDR-1", 2, 2);
+        nodeA.publish();
+
+        FdrWorkQueue.Claim claimA = nodeA.claim();
+        nodeA.fail(claimA, claimA.items().get(0));
+        // Il worker rilascia a fine ciclo le revisioni non elaborate: l'attesa resta
+        nodeA.release(claimA);
+        assertThat(nodeB.claim().items()).isEmpty();
+
+        advanceMinutes(2);
+        assertThat(nodeB.claim().items()).extracting(FrTemp::getRevisione).containsExactly(1L, 2L);
+    }
+
+    @Test
+    @DisplayName("Un flusso con una revisione in carico a un altro nodo non viene preso")
+    void testRevisionHeldByOtherNodeBlocksKey() {
+        saveFlusso("FDR-1", 1, 1);
+        nodeA.publish();
+        FdrWorkQueue.Claim claimA = nodeA.claim();
+
+        // Nuova revisione pubblicata mentre la prima e' in carico al nodo A
+        saveFlusso("FDR-1", 2, 2);
+        nodeA.publish();
+
+        assertThat(nodeB.claim().items()).isEmpty();
+        assertThat(frTempRepository.findAll()).filteredOn(f -> f.getRevisione() == 2L)
+            .extracting(FrTemp::getLeaseOwner).containsOnlyNulls();
+
+        nodeA.complete(claimA, claimA.items().get(0), () -> { });
+        nodeA.release(claimA);
+        assertThat(nodeB.claim().items()).extracting(FrTemp::getRevisione).containsExactly(2L);
+    }
+
+    @Test
+    @DisplayName("I flussi rilasciati tornano subito disponibili")
+    void testRelease() {
+        saveFlusso("FDR-1", 1, 1);
+        saveFlusso("FDR-1", 2, 2);
+        nodeA.publish();
+
+        FdrWorkQueue.Claim claimA = nodeA.claim();
+        nodeA.complete(claimA, claimA.items().get(0), () -> { });
+        nodeA.release(claimA);
+
+        List<FrTemp> remaining = nodeB.claim().items();
+        assertThat(remaining).extracting(FrTemp::getRevisione).containsExactly(2L);
+    }
+
+    @Test
+    @DisplayName("Con la ripresa di FR_TEMP i flussi di un'esecuzione interrotta tornano disponibili a tutti i nodi")
+    void testResumeResetsWorkItems() {
+        saveFlusso("FDR-1", 1, 1);
+        nodeA.publish();
+        assertThat(nodeA.claim().items()).hasSize(1);
+        frTempRepository.save(FrTemp.builder()
+            .codDominio("12345678901")
+            .codFlusso("FDR-2")
+            .idPsp("PSP001")
+            .codPsp("PSP001")
+            .revisione(1L)
+            .dataOraPubblicazione(T0)
+            .statoCoda(StatoCoda.FALLITO)
+            .tentativi(2)
+            .build());
+
+        // Nodo A fermo con il flusso in carico: il job successivo riprende FR_TEMP
+        BatchProperties properties = new BatchProperties();
+        properties.setFrTempResume(true);
+        properties.setFrTempResumeTtlDays(0);
+        CleanupFrTempTasklet cleanup = new CleanupFrTempTasklet(frTempRepository, properties, Clock.systemUTC());
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> cleanup.execute(null, null));
+
+        assertThat(frTempRepository.findAll()).hasSize(2).allSatisfy(f -> {
+            assertThat(f.getStatoCoda()).isNull();
+            assertThat(f.getLeaseOwner()).isNull();
+            assertThat(f.getLeaseScadenza()).isNull();
+            assertThat(f.getTentativi()).isNull();
+        });
+        assertThat(nodeB.publish()).isEqualTo(2);
+        assertThat(nodeB.claim().items()).extracting(FrTemp::getCodFlusso).containsExactly("FDR-1", "FDR-2");
+    }
+}
@@ -0,0 +1,198 @@
+package it.govpay.fdr.batch.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import it.govpay.fdr.batch.GovpayFdrBatchApplication;
+import it.govpay.fdr.batch.entity.FrTemp;
+import it.govpay.fdr.batch.repository.FrTempRepository;
+
+/**
+ * Integration test della coda di lavoro con due nodi in contesti Spring separati sullo stesso database H2:
+ * il nodo A e' il contesto del test, il nodo B un secondo contesto dell'applicazione che non crea lo schema.
+ */
+@SpringBootTest(properties = {
+    "govpay.batch.node-id=node-a",
+    "govpay.batch.work-queue-claim-size=2",
+    "govpay.batch.work-queue-retry-delay-seconds=1"
+})
+@ActiveProfiles("test")
+@DisplayName("FdrWorkQueue Multi-Node Integration Tests")
+class FdrWorkQueueMultiNodeIntegrationTest {
+
+    private static final LocalDateTime T0 = LocalDateTime.of(2025, 1, 27, 10, 0);
+
+    private static ConfigurableApplicationContext nodeBContext;
+
+    @Autowired
+    private FrTempRepository frTempRepository;
+
+    @Autowired
+    private FdrWorkQueue nodeA;
+
+    private FdrWorkQueue nodeB;
+
+    @BeforeEach
+    void setUp() {
+        if (nodeBContext == null) {
+            // Avviato dopo il contesto del nodo A, che crea lo schema
+            nodeBContext = new SpringApplicationBuilder(GovpayFdrBatchApplication.class)
+                .web(WebApplicationType.NONE)
+                .profiles("test")
+                .properties(
+                    "govpay.batch.node-id=node-b",
+                    "govpay.batch.work-queue-claim-size=2",
+                    "govpay.batch.work-queue-retry-delay-seconds=1",
+                    "spring.jpa.hibernate.ddl-auto=none",
+                    "spring.batch.jdbc.initialize-schema=never")
+                .run();
+        }
+        nodeB = nodeBContext.getBean(FdrWorkQueue.class);
+        frTempRepository.deleteAll();
+    }
+
+    @AfterEach
+    void tearDown() {
+        frTempRepository.deleteAll();
+    }
+
+    @AfterAll
+    static void closeNodeB() {
+        if (nodeBContext != null) {
+            nodeBContext.close();
+            nodeBContext = null;
+        }
+    }
+
+    private void saveFlusso(String codFlusso, long revisione, int minuti) {
+        frTempRepository.save(FrTemp.builder()
+            .codDominio("12345678901")
+            .codFlusso(codFlusso)
+            .idPsp("PSP001")
+            .codPsp("PSP001")
+            .revisione(revisione)
+            .dataOraPubblicazione(T0.minusMinutes(60L - minuti))
+            .build());
+    }
+
+    @Test
+    @DisplayName("I due contesti sono nodi distinti sullo stesso database")
+    void testSeparateNodes() {
+        assertThat(nodeB).isNotSameAs(nodeA);
+        assertThat(nodeA.getNodeId()).isEqualTo("node-a");
+        assertThat(nodeB.getNodeId()).isEqualTo("node-b");
+
+        saveFlusso("FDR-1", 1, 1);
+        nodeA.publish();
+        assertThat(nodeB.countPending()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Due nodi che prendono in carico in parallelo non si assegnano mai lo stesso flusso")
+    void testConcurrentClaimers() throws Exception {
+        int flussi = 40;
+        for (int i = 1; i <= flussi; i++) {
+            saveFlusso("FDR-" + i, 1, i);
+            if (i % 4 == 0) {
+                saveFlusso("FDR-" + i, 2, i);
+            }
+        }
+        nodeA.publish();
+
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<List<FrTemp>> claimedA = executor.submit(claimAll(nodeA, start));
+            Future<List<FrTemp>> claimedB = executor.submit(claimAll(nodeB, start));
+            start.countDown();
+
+            List<FrTemp> itemsA = claimedA.get(30, TimeUnit.SECONDS);
+            List<FrTemp> itemsB = claimedB.get(30, TimeUnit.SECONDS);
+
+            // Ogni riga presa in carico da un solo nodo, tutte le revisioni di un flusso dallo stesso nodo
+            Set<Long> ids = new HashSet<>();
+            itemsA.forEach(item -> assertThat(ids.add(item.getId())).isTrue());
+            itemsB.forEach(item -> assertThat(ids.add(item.getId())).isTrue());
+            assertThat(ids).hasSize(flussi + flussi / 4);
+            Set<String> flussiA = new HashSet<>(itemsA.stream().map(FrTemp::getCodFlusso).toList());
+            assertThat(itemsB).extracting(FrTemp::getCodFlusso).noneMatch(flussiA::contains);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Prende in carico flussi finche' la coda non e' vuota, partendo insieme all'altro nodo.
+     */
+    private static Callable<List<FrTemp>> claimAll(FdrWorkQueue node, CountDownLatch start) {
+        return () -> {
+            start.await();
+            List<FrTemp> items = new ArrayList<>();
+            List<FrTemp> claimed;
+            while (!(claimed = node.claim().items()).isEmpty()) {
+                items.addAll(claimed);
+            }
+            return items;
+        };
+    }
+
+    @Test
+    @DisplayName("Dopo un errore sul nodo A il nodo B riprende tutte le revisioni del flusso, mai la sola fallita")
+    void testFailedRevisionReclaimedWithLaterRevisions() throws Exception {
+        saveFlusso("FDR-1", 1, 1);
+        saveFlusso("FDR-1", 2, 2);
+        saveFlusso("FDR-1", 3, 3);
+        nodeA.publish();
+
+        FdrWorkQueue.Claim claimA = nodeA.claim();
+        assertThat(claimA.items()).hasSize(3);
+
+        // Il nodo B prova a prendere in carico in continuazione mentre il nodo A registra l'errore
+        List<List<FrTemp>> claimsB = new ArrayList<>();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> claimer = executor.submit(() -> {
+                List<FrTemp> items;
+                do {
+                    items = nodeB.claim().items();
+                } while (items.isEmpty() && !Thread.currentThread().isInterrupted());
+                claimsB.add(items);
+            });
+            nodeA.fail(claimA, claimA.items().get(0));
+            nodeA.release(claimA);
+
+            await().atMost(Duration.ofSeconds(10)).until(claimer::isDone);
+            claimer.get();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(claimsB).singleElement().satisfies(items ->
+            assertThat(items).extracting(FrTemp::getRevisione).containsExactly(1L, 2L, 3L));
+    }
+}
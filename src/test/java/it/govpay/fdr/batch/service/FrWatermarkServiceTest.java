@@ -0,0 +1,132 @@
+package it.govpay.fdr.batch.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import it.govpay.common.entity.DominioEntity;
+import it.govpay.fdr.batch.config.BatchProperties;
+import it.govpay.fdr.batch.dto.DominioProcessingContext;
+import it.govpay.fdr.batch.entity.FrWatermark;
+import it.govpay.fdr.batch.repository.FdrDominioRepository;
+import it.govpay.fdr.batch.repository.FrRepository;
+import it.govpay.fdr.batch.repository.FrWatermarkRepository;
+
+/**
+ * Test per FrWatermarkService
+ */
+@ExtendWith(MockitoExtension.class)
+@DisplayName("FrWatermarkService Tests")
+class FrWatermarkServiceTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2025, 1, 27, 10, 0);
+    private static final LocalDateTime PUBBLICAZIONE = NOW.minusDays(1);
+
+    @Mock
+    private FrWatermarkRepository frWatermarkRepository;
+
+    @Mock
+    private FrRepository frRepository;
+
+    @Mock
+    private FdrDominioRepository dominioRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private BatchProperties batchProperties;
+    private FrWatermarkService service;
+    private final DominioEntity dominio = DominioEntity.builder().id(1L).codDominio("12345678901").build();
+
+    @BeforeEach
+    void setUp() {
+        batchProperties = new BatchProperties();
+        batchProperties.setFrWatermark(true);
+        service = new FrWatermarkService(frWatermarkRepository, frRepository, dominioRepository, batchProperties,
+            transactionManager, Clock.fixed(NOW.toInstant(ZoneOffset.UTC), ZoneOffset.UTC));
+    }
+
+    @Test
+    @DisplayName("Disabilitato: i domini vengono letti con il MAX su FR")
+    void testDisabledUsesMaxQuery() {
+        batchProperties.setFrWatermark(false);
+        List<Object[]> dominioInfos = new ArrayList<>();
+        dominioInfos.add(new Object[]{dominio, PUBBLICAZIONE});
+        when(dominioRepository.findDominioWithMaxDataOraPubblicazione()).thenReturn(dominioInfos);
+
+        List<DominioProcessingContext> domini = service.findDominiAbilitati();
+
+        assertThat(domini).containsExactly(new DominioProcessingContext(1L, "12345678901", PUBBLICAZIONE));
+        verifyNoInteractions(frWatermarkRepository);
+
+        service.advance(dominio, NOW);
+        verifyNoInteractions(frWatermarkRepository);
+    }
+
+    @Test
+    @DisplayName("Abilitato: inizializzazione dei nuovi domini e lettura da FR_WATERMARK, senza verifica implicita")
+    void testEnabledBackfillsAndReadsProjection() {
+        List<Object[]> senzaWatermark = new ArrayList<>();
+        senzaWatermark.add(new Object[]{1L, "12345678901"});
+        when(frWatermarkRepository.findDominiWithoutWatermark()).thenReturn(senzaWatermark, List.of());
+        when(frRepository.findMaxDataOraPubblicazioneByDominio(1L)).thenReturn(PUBBLICAZIONE);
+        List<DominioProcessingContext> domini = List.of(new DominioProcessingContext(1L, "12345678901", PUBBLICAZIONE));
+        when(frWatermarkRepository.findDominiAbilitati()).thenReturn(domini);
+
+        assertThat(service.findDominiAbilitati()).isEqualTo(domini);
+        assertThat(service.findDominiAbilitati()).isEqualTo(domini);
+
+        verify(frWatermarkRepository, never()).findWatermarksWithMaxDataOraPubblicazione();
+        verify(frWatermarkRepository).save(argThat(w -> w.getIdDominio() == 1L && PUBBLICAZIONE.equals(w.getDataOraPubblicazione())));
+        verify(dominioRepository, never()).findDominioWithMaxDataOraPubblicazione();
+    }
+
+    @Test
+    @DisplayName("Il watermark avanza, o viene creato se il dominio non e' ancora inizializzato")
+    void testAdvance() {
+        when(frWatermarkRepository.advance(1L, PUBBLICAZIONE, NOW)).thenReturn(1);
+        service.advance(dominio, PUBBLICAZIONE);
+        verify(frWatermarkRepository, never()).save(any());
+
+        LocalDateTime successiva = PUBBLICAZIONE.plusHours(1);
+        when(frWatermarkRepository.advance(1L, successiva, NOW)).thenReturn(0);
+        when(frWatermarkRepository.existsById(1L)).thenReturn(false);
+        service.advance(dominio, successiva);
+        verify(frWatermarkRepository).save(argThat(w -> successiva.equals(w.getDataOraPubblicazione())));
+    }
+
+    @Test
+    @DisplayName("La verifica di consistenza riallinea i watermark diversi dal MAX su FR")
+    void testCheckConsistency() {
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[]{1L, "12345678901", PUBBLICAZIONE, PUBBLICAZIONE});
+        rows.add(new Object[]{2L, "12345678902", PUBBLICAZIONE, PUBBLICAZIONE.plusHours(2)});
+        when(frWatermarkRepository.findWatermarksWithMaxDataOraPubblicazione()).thenReturn(rows);
+        FrWatermark disallineato = FrWatermark.builder().idDominio(2L).codDominio("12345678902").dataOraPubblicazione(PUBBLICAZIONE).build();
+        when(frWatermarkRepository.findById(2L)).thenReturn(Optional.of(disallineato));
+
+        assertThat(service.checkConsistency()).isEqualTo(1);
+
+        assertThat(disallineato.getDataOraPubblicazione()).isEqualTo(PUBBLICAZIONE.plusHours(2));
+        verify(frWatermarkRepository, never()).findById(1L);
+    }
+}
@@ -0,0 +1,144 @@
+package it.govpay.fdr.batch.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import it.govpay.fdr.batch.Costanti;
+import it.govpay.fdr.batch.config.BatchProperties;
+import it.govpay.fdr.batch.step4.FdrPaymentsProcessor.PaymentData;
+
+/**
+ * Test per PaymentsPageCache: lettura e scrittura delle pagine, persistenza tra istanze,
+ * record incompleti e rimozione dei file.
+ */
+@DisplayName("PaymentsPageCache Tests")
+class PaymentsPageCacheTest {
+
+    private static final String ORG_ID = "12345678901";
+    private static final String FDR = "2025-01-27PSP001-0001";
+    private static final String PSP_ID = "PSP001";
+    private static final String MODE = "STREAMING";
+
+    @TempDir
+    Path cacheDir;
+
+    private BatchProperties batchProperties;
+
+    @BeforeEach
+    void setUp() {
+        batchProperties = new BatchProperties();
+        batchProperties.setPaymentsPageCacheDir(cacheDir.toString());
+    }
+
+    private static PaymentsPage<PaymentData> page(int pageNumber, int totPage) {
+        List<PaymentData> data = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            data.add(new PaymentData("IUV" + pageNumber + "-" + i, "IUR" + i, (long) i + 1, 10.5 + i,
+                Costanti.PAYMENT_EXECUTED, LocalDateTime.of(2025, 1, 27, 10, 30, i)));
+        }
+        return new PaymentsPage<>(pageNumber, totPage, data);
+    }
+
+    private List<Path> cacheFiles() throws IOException {
+        try (Stream<Path> files = Files.list(cacheDir)) {
+            return files.toList();
+        }
+    }
+
+    @Test
+    @DisplayName("Senza directory la cache e' disabilitata")
+    void testDisabledByDefault() {
+        assertThat(new PaymentsPageCache(new BatchProperties()).isEnabled()).isFalse();
+        assertThat(new PaymentsPageCache(batchProperties).isEnabled()).isTrue();
+    }
+
+    @Test
+    @DisplayName("Le pagine salvate vengono restituite, anche da una nuova istanza")
+    void testPutAndGet() {
+        PaymentsPageCache cache = new PaymentsPageCache(batchProperties);
+        cache.put(ORG_ID, FDR, 1L, PSP_ID, MODE, 1, page(1, 3));
+        cache.put(ORG_ID, FDR, 1L, PSP_ID, MODE, 2, page(2, 3));
+
+        assertThat(cache.<PaymentData>get(ORG_ID, FDR, 1L, PSP_ID, MODE, 2)).isEqualTo(page(2, 3));
+        assertThat(cache.<PaymentData>get(ORG_ID, FDR, 1L, PSP_ID, MODE, 3)).isNull();
+
+        PaymentsPageCache restarted = new PaymentsPageCache(batchProperties);
+        assertThat(restarted.<PaymentData>get(ORG_ID, FDR, 1L, PSP_ID, MODE, 1)).isEqualTo(page(1, 3));
+        assertThat(restarted.<PaymentData>get(ORG_ID, FDR, 1L, PSP_ID, MODE, 2)).isEqualTo(page(2, 3));
+    }
+
+    @Test
+    @DisplayName("Revisioni e modalita' di decodifica diverse non condividono le pagine")
+    void testKeysAreSeparated() {
+        PaymentsPageCache cache = new PaymentsPageCache(batchProperties);
+        cache.put(ORG_ID, FDR, 1L, PSP_ID, MODE, 1, page(1, 1));
+
+        assertThat(cache.<PaymentData>get(ORG_ID, FDR, 2L, PSP_ID, MODE, 1)).isNull();
+        assertThat(cache.<PaymentData>get(ORG_ID, FDR, 1L, PSP_ID, "CLIENT", 1)).isNull();
+        assertThat(cache.<PaymentData>get(ORG_ID, FDR, 1L, "PSP002", MODE, 1)).isNull();
+    }
+
+    @Test
+    @DisplayName("Un record incompleto in coda viene scartato")
+    void testTornTailIsDiscarded() throws IOException {
+        new PaymentsPageCache(batchProperties).put(ORG_ID, FDR, 1L, PSP_ID, MODE, 1, page(1, 3));
+        Path file = cacheFiles().get(0);
+        long validSize = Files.size(file);
+        // Scrittura interrotta: header del record senza contenuto
+        Files.write(file, new byte[] {0, 9, 'S', 'T', 'R', 'E', 'A', 'M', 'I', 'N', 'G', 0, 0}, StandardOpenOption.APPEND);
+
+        PaymentsPageCache restarted = new PaymentsPageCache(batchProperties);
+        assertThat(restarted.<PaymentData>get(ORG_ID, FDR, 1L, PSP_ID, MODE, 1)).isEqualTo(page(1, 3));
+        assertThat(Files.size(file)).isEqualTo(validSize);
+
+        restarted.put(ORG_ID, FDR, 1L, PSP_ID, MODE, 2, page(2, 3));
+        assertThat(new PaymentsPageCache(batchProperties).<PaymentData>get(ORG_ID, FDR, 1L, PSP_ID, MODE, 2))
+            .isEqualTo(page(2, 3));
+    }
+
+    @Test
+    @DisplayName("Purge rimuove il file del flusso")
+    void testPurge() throws IOException {
+        PaymentsPageCache cache = new PaymentsPageCache(batchProperties);
+        cache.put(ORG_ID, FDR, 1L, PSP_ID, MODE, 1, page(1, 1));
+        cache.put(ORG_ID, "ALTRO-FLUSSO", 1L, PSP_ID, MODE, 1, page(1, 1));
+
+        cache.purge(ORG_ID, FDR, 1L, PSP_ID);
+
+        assertThat(cache.<PaymentData>get(ORG_ID, FDR, 1L, PSP_ID, MODE, 1)).isNull();
+        assertThat(cache.<PaymentData>get(ORG_ID, "ALTRO-FLUSSO", 1L, PSP_ID, MODE, 1)).isEqualTo(page(1, 1));
+        assertThat(cacheFiles()).hasSize(1);
+    }
+
+    @Test
+    @DisplayName("I file piu' vecchi dell'eta' massima vengono eliminati all'avvio")
+    void testStaleFilesAreDeleted() throws IOException {
+        new PaymentsPageCache(batchProperties).put(ORG_ID, FDR, 1L, PSP_ID, MODE, 1, page(1, 1));
+        Path file = cacheFiles().get(0);
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().minus(73, ChronoUnit.HOURS)));
+        Path other = Files.writeString(cacheDir.resolve("altro.txt"), "x");
+        Files.setLastModifiedTime(other, FileTime.from(Instant.now().minus(73, ChronoUnit.HOURS)));
+
+        PaymentsPageCache restarted = new PaymentsPageCache(batchProperties);
+
+        assertThat(file).doesNotExist();
+        assertThat(other).exists();
+        assertThat(restarted.<PaymentData>get(ORG_ID, FDR, 1L, PSP_ID, MODE, 1)).isNull();
+    }
+}
@@ -0,0 +1,105 @@
+package it.govpay.fdr.batch.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.http.converter.json.JacksonJsonHttpMessageConverter;
+import org.springframework.mock.http.MockHttpInputMessage;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import it.govpay.fdr.batch.config.FdrApiClientConfig;
+import it.govpay.fdr.batch.step4.FdrPaymentsProcessor.PaymentData;
+import it.govpay.fdr.client.model.PaginatedPaymentsResponse;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Confronto tra PaymentsPageDecoder (modalita' STREAMING) e il percorso della modalita' CLIENT:
+ * JacksonJsonHttpMessageConverter con il mapper pagoPA nei DTO del client generato, poi la conversione
+ * di Step 4 in {@link PaymentData}. Entrambi leggono lo stesso body gia' in memoria, come dopo la
+ * ricezione della pagina.
+ * <p>
+ * Eseguito solo con il profilo {@code perf} ({@code mvn test -Pperf}): tempi per pagina e byte allocati
+ * per pagina vengono scritti nel log, senza soglie sui tempi.
+ */
+@Slf4j
+@Tag("perf")
+@DisplayName("PaymentsPageDecoder Benchmark")
+class PaymentsPageDecoderBenchmarkTest {
+
+    private static final int WARMUP_ROUNDS = 2_000;
+    private static final int MEASURED_ROUNDS = 5_000;
+
+    private PaymentsPageDecoder decoder;
+    private JacksonJsonHttpMessageConverter converter;
+
+    @BeforeEach
+    void setUp() {
+        decoder = new PaymentsPageDecoder(PaymentsPageDecoderTest.ZONE_ID);
+        FdrApiClientConfig config = new FdrApiClientConfig();
+        ReflectionTestUtils.setField(config, "timezone", "Europe/Rome");
+        converter = new JacksonJsonHttpMessageConverter(config.createPagoPAObjectMapper());
+    }
+
+    private List<PaymentData> decode(byte[] body) {
+        return decoder.decode(new ByteArrayInputStream(body)).data();
+    }
+
+    private List<PaymentData> readAndConvert(byte[] body) throws Exception {
+        PaginatedPaymentsResponse response = (PaginatedPaymentsResponse) converter.read(PaginatedPaymentsResponse.class,
+            new MockHttpInputMessage(body));
+        return response.getData().stream().map(PaymentsPageDecoderTest::convert).toList();
+    }
+
+    private interface PageReader {
+        List<PaymentData> read(byte[] body) throws Exception;
+    }
+
+    /**
+     * Legge la pagina per il numero di round indicato.
+     *
+     * @return {tempo in ns, byte allocati dal thread, checksum dei pagamenti letti}
+     */
+    private static long[] run(PageReader reader, byte[] body, int rounds) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long checksum = 0;
+        long allocated = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            checksum += reader.read(body).size();
+        }
+        long nanos = System.nanoTime() - start;
+        return new long[] {nanos, threads.getCurrentThreadAllocatedBytes() - allocated, checksum};
+    }
+
+    @ParameterizedTest(name = "{0} pagamenti per pagina")
+    @ValueSource(ints = {100, 1000})
+    @DisplayName("Tempi e allocazioni della decodifica in streaming e del client generato")
+    void testDecoderAgainstGeneratedClient(int payments) throws Exception {
+        byte[] body = PaymentsPageDecoderTest.paymentsPageJson(payments).getBytes(StandardCharsets.UTF_8);
+        assertThat(decode(body)).isEqualTo(readAndConvert(body));
+
+        run(this::readAndConvert, body, WARMUP_ROUNDS);
+        run(this::decode, body, WARMUP_ROUNDS);
+
+        long[] client = run(this::readAndConvert, body, MEASURED_ROUNDS);
+        long[] streaming = run(this::decode, body, MEASURED_ROUNDS);
+
+        log.info("Pagina di {} pagamenti ({} KB): client generato {} us/pagina, {} KB allocati/pagina; "
+                + "STREAMING {} us/pagina, {} KB allocati/pagina",
+            payments, body.length / 1024,
+            TimeUnit.NANOSECONDS.toMicros(client[0] / MEASURED_ROUNDS), client[1] / MEASURED_ROUNDS / 1024,
+            TimeUnit.NANOSECONDS.toMicros(streaming[0] / MEASURED_ROUNDS), streaming[1] / MEASURED_ROUNDS / 1024);
+
+        assertThat(streaming[2]).isEqualTo(client[2]);
+    }
+}
@@ -0,0 +1,166 @@
+package it.govpay.fdr.batch.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.http.converter.json.JacksonJsonHttpMessageConverter;
+import org.springframework.mock.http.MockHttpInputMessage;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import it.govpay.fdr.batch.Costanti;
+import it.govpay.fdr.batch.config.FdrApiClientConfig;
+import it.govpay.fdr.batch.step4.FdrPaymentsProcessor.PaymentData;
+import it.govpay.fdr.client.model.PaginatedPaymentsResponse;
+import it.govpay.fdr.client.model.Payment;
+
+/**
+ * Test per PaymentsPageDecoder: il risultato deve coincidere con quello ottenuto dal client
+ * generato (JacksonJsonHttpMessageConverter con il mapper pagoPA) e dalla conversione di Step 4.
+ */
+@DisplayName("PaymentsPageDecoder Tests")
+class PaymentsPageDecoderTest {
+
+    static final ZoneId ZONE_ID = ZoneId.of("Europe/Rome");
+    private static final String[] PAY_STATUSES = {"EXECUTED", "REVOKED", "STAND_IN", "STAND_IN_NO_RPT", "NO_RPT"};
+    private static final String[] PAY_DATES = {
+        "2025-01-27T10:30:45.123Z",
+        "2025-01-27T10:30:45.1+01:00",
+        "2025-07-27T10:30:45.123456789+02:00",
+        "2025-12-09T00:00+01:00",
+        "2025-01-27T10:30:45"
+    };
+
+    private PaymentsPageDecoder decoder;
+    private JacksonJsonHttpMessageConverter converter;
+
+    @BeforeEach
+    void setUp() {
+        decoder = new PaymentsPageDecoder(ZONE_ID);
+        FdrApiClientConfig config = new FdrApiClientConfig();
+        ReflectionTestUtils.setField(config, "timezone", "Europe/Rome");
+        converter = new JacksonJsonHttpMessageConverter(config.createPagoPAObjectMapper());
+    }
+
+    static String paymentsPageJson(int payments) {
+        StringBuilder json = new StringBuilder()
+            .append("{\"metadata\":{\"pageSize\":1000,\"pageNumber\":2,\"totPage\":3},")
+            .append("\"count\":").append(payments).append(",\"data\":[");
+        for (int i = 0; i < payments; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"index\":").append(i + 1)
+                .append(",\"iuv\":\"IUV").append(i).append('"')
+                .append(",\"iur\":\"IUR").append(i).append('"')
+                .append(",\"idTransfer\":").append(i % 5 + 1)
+                .append(",\"pay\":").append(i).append(".5")
+                .append(",\"payStatus\":\"").append(PAY_STATUSES[i % PAY_STATUSES.length]).append('"')
+                .append(",\"payDate\":\"").append(PAY_DATES[i % PAY_DATES.length]).append('"')
+                .append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    private PaymentsPage<PaymentData> decode(String json) {
+        return decoder.decode(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private PaginatedPaymentsResponse readWithConverter(String json) throws Exception {
+        return (PaginatedPaymentsResponse) converter.read(PaginatedPaymentsResponse.class,
+            new MockHttpInputMessage(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Stessa conversione di FdrPaymentsProcessor sui DTO del client generato.
+     */
+    static PaymentData convert(Payment payment) {
+        Integer esito = switch (payment.getPayStatus()) {
+            case EXECUTED -> Costanti.PAYMENT_EXECUTED;
+            case REVOKED -> Costanti.PAYMENT_REVOKED;
+            case STAND_IN -> Costanti.PAYMENT_STAND_IN;
+            case STAND_IN_NO_RPT -> Costanti.PAYMENT_STAND_IN_NO_RPT;
+            case NO_RPT -> Costanti.PAYMENT_NO_RPT;
+        };
+        return PaymentData.builder()
+            .iuv(payment.getIuv())
+            .iur(payment.getIur())
+            .indiceDati(payment.getIdTransfer())
+            .importoPagato(payment.getPay())
+            .esito(esito)
+            .data(payment.getPayDate().atZoneSameInstant(ZONE_ID).toLocalDateTime())
+            .build();
+    }
+
+    @ParameterizedTest(name = "{0} pagamenti")
+    @ValueSource(ints = {5, 50, 1000})
+    @DisplayName("Il risultato coincide con la decodifica del client generato")
+    void testSameResultAsGeneratedClient(int payments) throws Exception {
+        String json = paymentsPageJson(payments);
+
+        PaymentsPage<PaymentData> page = decode(json);
+        PaginatedPaymentsResponse response = readWithConverter(json);
+
+        assertThat(page.pageNumber()).isEqualTo(response.getMetadata().getPageNumber());
+        assertThat(page.totPage()).isEqualTo(response.getMetadata().getTotPage());
+        assertThat(page.data()).hasSize(payments)
+            .isEqualTo(response.getData().stream().map(PaymentsPageDecoderTest::convert).toList());
+    }
+
+    @Test
+    @DisplayName("I campi sconosciuti, anche annidati, vengono ignorati")
+    void testUnknownFieldsAreSkipped() {
+        String json = "{\"extra\":{\"nested\":[1,{\"data\":[]}]},\"data\":[{\"iuv\":\"IUV1\",\"other\":[{\"iuv\":\"X\"}],"
+            + "\"payStatus\":\"REVOKED\",\"pay\":10,\"idTransfer\":2}],\"metadata\":{\"pageNumber\":1,\"totPage\":1,\"pageSize\":{}}}";
+
+        PaymentsPage<PaymentData> page = decode(json);
+
+        assertThat(page.pageNumber()).isEqualTo(1);
+        assertThat(page.totPage()).isEqualTo(1);
+        assertThat(page.data()).containsExactly(PaymentData.builder()
+            .iuv("IUV1").indiceDati(2L).importoPagato(10.0).esito(Costanti.PAYMENT_REVOKED).build());
+    }
+
+    @Test
+    @DisplayName("Valori null e campi assenti restano null")
+    void testNullAndMissingFields() {
+        PaymentsPage<PaymentData> page = decode("{\"metadata\":null,\"data\":[{\"iuv\":null,\"iur\":\"IUR1\",\"payStatus\":null,"
+            + "\"payDate\":\"2025-01-27T10:30:45.123Z\"}]}");
+
+        assertThat(page.pageNumber()).isNull();
+        assertThat(page.totPage()).isNull();
+        assertThat(page.data()).containsExactly(PaymentData.builder()
+            .iur("IUR1").data(LocalDateTime.of(2025, 1, 27, 11, 30, 45, 123_000_000)).build());
+        assertThat(decode("{\"data\":null}").data()).isNull();
+    }
+
+    @Test
+    @DisplayName("Body vuoto o null restituisce null")
+    void testEmptyBody() {
+        assertThat(decode("")).isNull();
+        assertThat(decode("null")).isNull();
+        assertThat(decode("{}")).isEqualTo(new PaymentsPage<PaymentData>(null, null, null));
+        assertThat(decode("{\"data\":[]}").data()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Uno stato pagamento non ammesso e un body non valido sono errori")
+    void testInvalidContent() {
+        assertThatThrownBy(() -> decode("{\"data\":[{\"payStatus\":\"UNKNOWN\"}]}"))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("UNKNOWN");
+        assertThatThrownBy(() -> decode("[]"))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThat(List.of(PAY_STATUSES)).hasSize(Payment.PayStatusEnum.values().length);
+    }
+}
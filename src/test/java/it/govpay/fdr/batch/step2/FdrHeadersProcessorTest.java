@@ -6,6 +6,7 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.when;
 
+import java.time.Clock;
 import java.time.LocalDateTime;
 import java.time.OffsetDateTime;
 import java.time.ZoneId;
@@ -18,11 +19,15 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.web.client.RestClientException;
 
+import it.govpay.fdr.batch.config.BatchProperties;
 import it.govpay.fdr.batch.dto.DominioProcessingContext;
 import it.govpay.fdr.batch.dto.FdrHeadersBatch;
 import it.govpay.fdr.batch.exception.FdrFatalException;
+import it.govpay.fdr.batch.repository.FrPollingRepository;
+import it.govpay.fdr.batch.service.DominioPollingPolicy;
 import it.govpay.fdr.batch.service.FdrApiService;
 import it.govpay.fdr.client.model.FlowByPSP;
 
@@ -34,14 +39,24 @@ class FdrHeadersProcessorTest {
 
     @Mock
     private FdrApiService fdrApiService;
+
+    @Mock
+    private FrPollingRepository frPollingRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
     
     private static final ZoneId ZONE_ID = ZoneId.of("Europe/Rome");
 
     private FdrHeadersProcessor processor;
 
+    private DominioPollingPolicy pollingPolicy;
+
     @BeforeEach
     void setUp() {
-        processor = new FdrHeadersProcessor(fdrApiService, ZONE_ID);
+        pollingPolicy = new DominioPollingPolicy(frPollingRepository, new BatchProperties(), transactionManager,
+            Clock.systemDefaultZone());
+        processor = new FdrHeadersProcessor(fdrApiService, ZONE_ID, pollingPolicy);
     }
 
     @Test
@@ -70,6 +85,8 @@ class FdrHeadersProcessorTest {
         assertThat(result).isNotNull();
         assertThat(result.getCodDominio()).isEqualTo(codDominio);
         assertThat(result.getHeaders()).hasSize(3);
+        // The outcome of the poll is recorded by the writer, from the flows actually saved
+        assertThat(pollingPolicy.getHitRate(codDominio)).isEqualTo(-1);
 
         // Verify first header
         FdrHeadersBatch.FdrHeader header1 = result.getHeaders().get(0);
@@ -95,8 +112,9 @@ class FdrHeadersProcessorTest {
         // When: Process
         FdrHeadersBatch result = processor.process(context);
 
-        // Then: Should return null (skip this domain)
+        // Then: Should return null (skip this domain) and record an empty poll
         assertThat(result).isNull();
+        assertThat(pollingPolicy.getHitRate("12345678901")).isZero();
     }
 
     @Test
@@ -1,10 +1,12 @@
 package it.govpay.fdr.batch.step2;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.time.Clock;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
@@ -15,10 +17,17 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import it.govpay.common.entity.DominioEntity;
+import it.govpay.fdr.batch.config.BatchProperties;
 import it.govpay.fdr.batch.dto.DominioProcessingContext;
 import it.govpay.fdr.batch.repository.FdrDominioRepository;
+import it.govpay.fdr.batch.repository.FrPollingRepository;
+import it.govpay.fdr.batch.repository.FrRepository;
+import it.govpay.fdr.batch.repository.FrWatermarkRepository;
+import it.govpay.fdr.batch.service.DominioPollingPolicy;
+import it.govpay.fdr.batch.service.FrWatermarkService;
 
 /**
  * Unit tests for FdrHeadersReader
@@ -29,13 +38,32 @@ class FdrHeadersReaderTest {
     @Mock
     private FdrDominioRepository fdrDominioRepository;
 
+    @Mock
+    private FrWatermarkRepository frWatermarkRepository;
+
+    @Mock
+    private FrRepository frRepository;
+
+    @Mock
+    private FrPollingRepository frPollingRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private BatchProperties batchProperties;
+
     private FdrHeadersReader reader;
 
     @BeforeEach
     void setUp() {
         // Reset static queue before each test
         FdrHeadersReader.resetQueue();
-        reader = new FdrHeadersReader(fdrDominioRepository);
+        batchProperties = new BatchProperties();
+        FrWatermarkService frWatermarkService = new FrWatermarkService(frWatermarkRepository, frRepository,
+            fdrDominioRepository, batchProperties, transactionManager, Clock.systemDefaultZone());
+        DominioPollingPolicy pollingPolicy = new DominioPollingPolicy(frPollingRepository, batchProperties, transactionManager,
+            Clock.systemDefaultZone());
+        reader = new FdrHeadersReader(pollingPolicy, frWatermarkService);
     }
 
     @Test
@@ -139,4 +167,27 @@ class FdrHeadersReaderTest {
         // Then: Repository should be called only once
         verify(fdrDominioRepository, times(1)).findDominioWithMaxDataOraPubblicazione();
     }
+
+    @Test
+    @DisplayName("Should check FR_WATERMARK against FR once per step only when requested")
+    void testWatermarkConsistencyCheck() throws Exception {
+        // Given: watermark enabled, without the consistency check
+        batchProperties.setFrWatermark(true);
+        DominioProcessingContext context = new DominioProcessingContext(1L, "12345678901", LocalDateTime.of(2025, 1, 27, 10, 0, 0));
+        when(frWatermarkRepository.findDominiAbilitati()).thenReturn(List.of(context));
+
+        // When/Then: domains read from FR_WATERMARK, no check
+        assertThat(reader.read()).isEqualTo(context);
+        verify(frWatermarkRepository, never()).findWatermarksWithMaxDataOraPubblicazione();
+
+        // When: check requested, next step execution
+        batchProperties.setFrWatermarkCheck(true);
+        FdrHeadersReader.resetQueue();
+        reader.read();
+        reader.read();
+
+        // Then: checked once, at the start of the step
+        verify(frWatermarkRepository, times(1)).findWatermarksWithMaxDataOraPubblicazione();
+        verify(fdrDominioRepository, never()).findDominioWithMaxDataOraPubblicazione();
+    }
 }
@@ -2,12 +2,14 @@ package it.govpay.fdr.batch.step2;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.time.Clock;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
@@ -26,11 +28,17 @@ import org.springframework.batch.core.job.parameters.JobParameters;
 import org.springframework.batch.core.step.StepExecution;
 import org.springframework.batch.infrastructure.item.Chunk;
 import org.springframework.batch.infrastructure.item.ExecutionContext;
+import org.springframework.transaction.PlatformTransactionManager;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.govpay.fdr.batch.config.BatchProperties;
 import it.govpay.fdr.batch.dto.FdrHeadersBatch;
 import it.govpay.fdr.batch.entity.FrTemp;
+import it.govpay.fdr.batch.repository.FrPollingRepository;
 import it.govpay.fdr.batch.repository.FrRepository;
 import it.govpay.fdr.batch.repository.FrTempRepository;
+import it.govpay.fdr.batch.service.AcquiredFlowFilter;
+import it.govpay.fdr.batch.service.DominioPollingPolicy;
 
 /**
  * Unit tests for FdrHeadersWriter
@@ -44,14 +52,33 @@ class FdrHeadersWriterTest {
     @Mock
     private FrRepository frRepository;
 
+    @Mock
+    private FrTempJdbcWriter frTempJdbcWriter;
+
+    @Mock
+    private FrPollingRepository frPollingRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
     @Captor
     private ArgumentCaptor<FrTemp> frTempCaptor;
 
     private FdrHeadersWriter writer;
 
+    private DominioPollingPolicy pollingPolicy;
+
     @BeforeEach
     void setUp() {
-        writer = new FdrHeadersWriter(frTempRepository, frRepository);
+        writer = newWriter(new BatchProperties());
+    }
+
+    private FdrHeadersWriter newWriter(BatchProperties batchProperties) {
+        // Senza file il filtro dei flussi acquisiti e' disabilitato: ogni header viene cercato in FR
+        AcquiredFlowFilter acquiredFlowFilter = new AcquiredFlowFilter(frRepository, batchProperties, new SimpleMeterRegistry());
+        pollingPolicy = new DominioPollingPolicy(frPollingRepository, batchProperties, transactionManager, Clock.systemDefaultZone());
+        return new FdrHeadersWriter(frTempRepository, frRepository, frTempJdbcWriter, batchProperties, acquiredFlowFilter,
+            pollingPolicy);
     }
 
     @Test
@@ -274,6 +301,35 @@ class FdrHeadersWriterTest {
             eq(codDominio), eq("FDR-002"), eq("PSP001"), eq(1L));
     }
 
+    @Test
+    @DisplayName("Should record a polling hit only when new flows are saved")
+    void testPollingHitOnlyForNewFlows() {
+        // Given: pagoPA lists a flow already in FR, then a new one
+        String codDominio = "12345678901";
+        FdrHeadersBatch giaAcquisito = FdrHeadersBatch.builder()
+            .codDominio(codDominio)
+            .headers(List.of(createHeader("FDR-001", "PSP001", 1L)))
+            .build();
+        FdrHeadersBatch nuovo = FdrHeadersBatch.builder()
+            .codDominio(codDominio)
+            .headers(List.of(createHeader("FDR-002", "PSP001", 1L)))
+            .build();
+
+        when(frRepository.existsByCodDominioAndCodFlussoAndCodPspAndRevisione(
+            eq(codDominio), eq("FDR-001"), eq("PSP001"), eq(1L))).thenReturn(true);
+        when(frRepository.existsByCodDominioAndCodFlussoAndCodPspAndRevisione(
+            eq(codDominio), eq("FDR-002"), eq("PSP001"), eq(1L))).thenReturn(false);
+        when(frTempRepository.existsByCodDominioAndCodFlussoAndIdPspAndRevisione(
+            eq(codDominio), eq("FDR-002"), eq("PSP001"), eq(1L))).thenReturn(false);
+
+        // When/Then: the flow already acquired is not a hit, the new one is
+        writer.write(new Chunk<>(List.of(giaAcquisito)));
+        assertThat(pollingPolicy.getHitRate(codDominio)).isZero();
+
+        writer.write(new Chunk<>(List.of(nuovo)));
+        assertThat(pollingPolicy.getHitRate(codDominio)).isEqualTo(50.0);
+    }
+
     private FdrHeadersBatch.FdrHeader createHeader(String codFlusso, String idPsp, Long revision) {
         return FdrHeadersBatch.FdrHeader.builder()
             .codFlusso(codFlusso)
@@ -436,7 +492,7 @@ class FdrHeadersWriterTest {
     @DisplayName("Should handle write without beforeStep being called")
     void testWriteWithoutBeforeStep() {
         // Given - writer without beforeStep called
-        FdrHeadersWriter writerNoStep = new FdrHeadersWriter(frTempRepository, frRepository);
+        FdrHeadersWriter writerNoStep = newWriter(new BatchProperties());
 
         when(frRepository.existsByCodDominioAndCodFlussoAndCodPspAndRevisione(any(), any(), any(), any()))
             .thenReturn(false);
@@ -452,4 +508,59 @@ class FdrHeadersWriterTest {
         writerNoStep.write(new Chunk<>(List.of(batch)));
         verify(frTempRepository, times(1)).save(any(FrTemp.class));
     }
+
+    @Test
+    @DisplayName("Bulk mode: set-based lookups and JDBC insert with the same statistics")
+    void testBulkWriteKeepsStatistics() {
+        // Given
+        BatchProperties batchProperties = new BatchProperties();
+        batchProperties.setHeadersBulkWrite(true);
+        batchProperties.setInClauseChunkSize(2);
+        FdrHeadersWriter bulkWriter = newWriter(batchProperties);
+
+        JobInstance jobInstance = new JobInstance(1L, "testJob");
+        JobExecution jobExecution = new JobExecution(1L, jobInstance, new JobParameters());
+        StepExecution stepExecution = new StepExecution(1L, "testStep", jobExecution);
+        stepExecution.setExecutionContext(new ExecutionContext());
+        bulkWriter.beforeStep(stepExecution);
+
+        String codDominio = "12345678901";
+        FdrHeadersBatch batch = FdrHeadersBatch.builder()
+            .codDominio(codDominio)
+            .headers(List.of(
+                createHeader("FDR-001", "PSP001", 1L), // New
+                createHeader("FDR-002", "PSP001", 1L), // Already in FR
+                createHeader("FDR-003", "PSP002", 1L), // Already in FR_TEMP
+                createHeader("FDR-002", "PSP001", 2L), // New revision
+                createHeader("FDR-001", "PSP001", 1L))) // Repeated in the same batch
+            .build();
+
+        List<Object[]> inFr = new ArrayList<>();
+        inFr.add(new Object[]{"FDR-002", "PSP001", 1L});
+        List<Object[]> inFrTemp = new ArrayList<>();
+        inFrTemp.add(new Object[]{"FDR-003", "PSP002", 1L});
+        when(frRepository.findChiaviByCodDominioAndCodFlussoIn(eq(codDominio), any()))
+            .thenReturn(inFr, List.of());
+        when(frTempRepository.findChiaviByCodDominioAndCodFlussoIn(eq(codDominio), any()))
+            .thenReturn(List.of(), inFrTemp);
+
+        // When
+        bulkWriter.write(new Chunk<>(List.of(batch)));
+
+        // Then: 3 distinct flow codes in IN blocks of 2, no per-header statements
+        verify(frRepository, times(2)).findChiaviByCodDominioAndCodFlussoIn(eq(codDominio), any());
+        verify(frRepository, never()).existsByCodDominioAndCodFlussoAndCodPspAndRevisione(anyString(), anyString(), anyString(), any());
+        verify(frTempRepository, never()).save(any());
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<FrTemp>> insertCaptor = ArgumentCaptor.forClass(List.class);
+        verify(frTempJdbcWriter).insert(insertCaptor.capture());
+        assertThat(insertCaptor.getValue())
+            .extracting(f -> f.getCodFlusso() + "#" + f.getRevisione())
+            .containsExactly("FDR-001#1", "FDR-002#2");
+
+        assertThat(stepExecution.getExecutionContext().getInt(FdrHeadersWriter.STATS_SAVED_COUNT)).isEqualTo(2);
+        assertThat(stepExecution.getExecutionContext().getInt(FdrHeadersWriter.STATS_SKIPPED_FR_COUNT)).isEqualTo(1);
+        assertThat(stepExecution.getExecutionContext().getInt(FdrHeadersWriter.STATS_SKIPPED_FR_TEMP_COUNT)).isEqualTo(2);
+    }
 }
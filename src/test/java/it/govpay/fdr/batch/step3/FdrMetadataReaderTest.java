@@ -1,6 +1,10 @@
 package it.govpay.fdr.batch.step3;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -17,6 +21,7 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.batch.infrastructure.item.ExecutionContext;
 
+import it.govpay.fdr.batch.config.BatchProperties;
 import it.govpay.fdr.batch.entity.FrTemp;
 import it.govpay.fdr.batch.repository.FrTempRepository;
 
@@ -37,7 +42,7 @@ class FdrMetadataReaderTest {
 
     @BeforeEach
     void setUp() throws Exception {
-        reader = new FdrMetadataReader(frTempRepository);
+        reader = new FdrMetadataReader(frTempRepository, new BatchProperties());
 
         // Simula l'iniezione di @Value da ExecutionContext usando reflection
         setField(reader, "codDominio", TEST_COD_DOMINIO);
@@ -171,6 +176,67 @@ class FdrMetadataReaderTest {
         // Further reads after close would require reopen
     }
 
+    @Test
+    @DisplayName("Should read pages with keyset pagination on id and resume after the last saved key")
+    void testKeysetPaginationAndRestart() throws Exception {
+        // Given: page size 2, three flows; the writer sets the publication date, so pages follow the id
+        BatchProperties batchProperties = new BatchProperties();
+        batchProperties.setFrTempReaderPageSize(2);
+        reader = readerWith(batchProperties);
+        List<FrTemp> flussi = createFrTempList(3, TEST_COD_DOMINIO);
+        when(frTempRepository.findPageById(eq(TEST_COD_DOMINIO), eq(1), eq(0), eq(0L), any())).thenReturn(flussi.subList(1, 3));
+        when(frTempRepository.findPageById(eq(TEST_COD_DOMINIO), eq(1), eq(0), eq(2L), any())).thenReturn(List.of());
+
+        // When: read the first two flows and save the state, as at a chunk commit
+        ExecutionContext context = new ExecutionContext();
+        reader.open(context);
+        assertThat(reader.read().getCodFlusso()).isEqualTo("FDR-00001");
+        assertThat(reader.read().getCodFlusso()).isEqualTo("FDR-00002");
+        reader.update(context);
+        reader.close();
+
+        // Then: a restarted partition resumes after the last id read
+        FdrMetadataReader restarted = readerWith(batchProperties);
+        restarted.open(context);
+        assertThat(restarted.read()).isNull();
+        verify(frTempRepository).findPageById(eq(TEST_COD_DOMINIO), eq(1), eq(0), eq(2L), any());
+        verify(frTempRepository, never()).findFirstPage(any(), anyInt(), anyInt(), any());
+        verify(frTempRepository, never()).findPageAfter(any(), anyInt(), anyInt(), any(), any(), any());
+        verify(frTempRepository, never()).findByCodDominioOrderByDataOraPubblicazioneAsc(any());
+    }
+
+    @Test
+    @DisplayName("Should skip flows with metadata acquired by a previous run when resuming FR_TEMP")
+    void testResumeSkipsFlowsWithMetadata() throws Exception {
+        // Given: three flows, the second already enriched with metadata
+        BatchProperties batchProperties = new BatchProperties();
+        batchProperties.setFrTempResume(true);
+        reader = readerWith(batchProperties);
+        List<FrTemp> flussi = createFrTempList(3, TEST_COD_DOMINIO);
+        flussi.get(1).setCodPsp("PSP001");
+        when(frTempRepository.findByCodDominioOrderByDataOraPubblicazioneAsc(TEST_COD_DOMINIO))
+            .thenReturn(flussi);
+
+        // When: Read all
+        reader.open(new ExecutionContext());
+        List<FrTemp> results = new ArrayList<>();
+        FrTemp flussoTemp;
+        while ((flussoTemp = reader.read()) != null) {
+            results.add(flussoTemp);
+        }
+
+        // Then: Only the flows without metadata are read
+        assertThat(results).extracting(FrTemp::getCodFlusso).containsExactly("FDR-00000", "FDR-00002");
+    }
+
+    private FdrMetadataReader readerWith(BatchProperties batchProperties) throws Exception {
+        FdrMetadataReader pagedReader = new FdrMetadataReader(frTempRepository, batchProperties);
+        setField(pagedReader, "codDominio", TEST_COD_DOMINIO);
+        setField(pagedReader, "partitionNumber", TEST_PARTITION_NUMBER);
+        setField(pagedReader, "totalPartitions", TEST_TOTAL_PARTITIONS);
+        return pagedReader;
+    }
+
     private List<FrTemp> createFrTempList(int size, String codDominio) {
         List<FrTemp> list = new ArrayList<>();
         for (int i = 0; i < size; i++) {
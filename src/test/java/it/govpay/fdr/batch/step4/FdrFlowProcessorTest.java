@@ -0,0 +1,225 @@
+package it.govpay.fdr.batch.step4;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.web.client.RestClientException;
+
+import it.govpay.fdr.batch.config.BatchProperties;
+import it.govpay.fdr.batch.entity.FrTemp;
+import it.govpay.fdr.batch.service.FdrApiService;
+import it.govpay.fdr.batch.step3.FdrMetadataProcessor;
+import it.govpay.fdr.batch.step4.FdrPaymentsProcessor.FdrCompleteData;
+import it.govpay.fdr.client.model.Payment;
+import it.govpay.fdr.client.model.Receiver;
+import it.govpay.fdr.client.model.ReportingFlowStatusEnum;
+import it.govpay.fdr.client.model.Sender;
+import it.govpay.fdr.client.model.SingleFlowResponse;
+
+/**
+ * Test per FdrFlowProcessor
+ */
+@DisplayName("FdrFlowProcessor Tests")
+class FdrFlowProcessorTest {
+
+    private static final ZoneId ZONE_ID = ZoneId.of("Europe/Rome");
+    private static final String COD_DOMINIO = "12345678901";
+    private static final String COD_FLUSSO = "FDR-001";
+    private static final String ID_PSP = "PSP_12345";
+
+    @Mock
+    private FdrApiService fdrApiService;
+
+    private BatchProperties batchProperties;
+    private FdrFlowProcessor processor;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        batchProperties = new BatchProperties();
+        processor = new FdrFlowProcessor(new FdrMetadataProcessor(fdrApiService, ZONE_ID),
+            new FdrPaymentsProcessor(fdrApiService, ZONE_ID, batchProperties), batchProperties,
+            new SimpleAsyncTaskExecutor("test-flow-payments-"));
+    }
+
+    private FrTemp createFrTemp() {
+        // Come letto da FR_TEMP dopo Step 2: solo i dati dell'header
+        return FrTemp.builder()
+            .id(1L)
+            .codDominio(COD_DOMINIO)
+            .codFlusso(COD_FLUSSO)
+            .revisione(1L)
+            .idPsp(ID_PSP)
+            .codPsp(ID_PSP)
+            .build();
+    }
+
+    private SingleFlowResponse createFlowResponse(long totPayments) {
+        SingleFlowResponse response = new SingleFlowResponse();
+        Sender sender = new Sender();
+        sender.setPspId("AGID_01");
+        sender.setPspName("PSP Test");
+        response.setSender(sender);
+        Receiver receiver = new Receiver();
+        receiver.setOrganizationName("EC Test");
+        response.setReceiver(receiver);
+        response.setRegulation("IUR-123456");
+        response.setTotPayments(totPayments);
+        response.setSumPayments(150.0);
+        response.setPublished(OffsetDateTime.of(2025, 1, 27, 10, 0, 0, 0, ZoneOffset.UTC));
+        response.setStatus(ReportingFlowStatusEnum.PUBLISHED);
+        return response;
+    }
+
+    private Payment createPayment(String iuv) {
+        Payment payment = new Payment();
+        payment.setIuv(iuv);
+        payment.setIur("IUR-" + iuv);
+        payment.setIdTransfer(1L);
+        payment.setPay(75.0);
+        payment.setPayStatus(Payment.PayStatusEnum.EXECUTED);
+        payment.setPayDate(OffsetDateTime.of(2025, 1, 27, 9, 0, 0, 0, ZoneOffset.UTC));
+        return payment;
+    }
+
+    @Test
+    @DisplayName("Dettaglio e pagamenti vengono richiesti in parallelo e combinati")
+    void testDetailsAndPaymentsFetchedConcurrently() throws Exception {
+        CountDownLatch paymentsStarted = new CountDownLatch(1);
+        when(fdrApiService.getPaymentsFromPublishedFlow(COD_DOMINIO, COD_FLUSSO, 1L, ID_PSP)).thenAnswer(inv -> {
+            paymentsStarted.countDown();
+            return List.of(createPayment("IUV1"), createPayment("IUV2"));
+        });
+        when(fdrApiService.getSinglePublishedFlow(COD_DOMINIO, COD_FLUSSO, 1L, ID_PSP)).thenAnswer(inv -> {
+            // Il dettaglio termina solo se i pagamenti sono gia' stati richiesti
+            assertTrue(paymentsStarted.await(5, TimeUnit.SECONDS));
+            return createFlowResponse(2L);
+        });
+        FrTemp frTemp = createFrTemp();
+
+        FdrCompleteData result = processor.process(frTemp);
+
+        assertNotNull(result);
+        assertEquals(1L, result.getFrTempId());
+        assertEquals(ID_PSP, result.getCodPsp());
+        assertEquals(COD_DOMINIO, result.getCodDominio());
+        assertEquals(COD_FLUSSO, result.getCodFlusso());
+        assertEquals("IUR-123456", result.getIur());
+        assertEquals(2L, result.getNumeroPagamenti());
+        assertEquals(150.0, result.getImportoTotalePagamenti());
+        assertEquals("PSP Test", result.getRagioneSocialePsp());
+        assertEquals("EC Test", result.getRagioneSocialeDominio());
+        assertEquals("PUBLISHED", result.getStato());
+        assertEquals(2, result.getPayments().size());
+        assertEquals("IUV1", result.getPayments().get(0).getIuv());
+        assertNull(result.getPaymentPages());
+        // L'entity letta non viene modificata
+        assertNull(frTemp.getIur());
+        assertNull(frTemp.getNumeroPagamenti());
+    }
+
+    @Test
+    @DisplayName("Con la soglia di streaming il dettaglio decide la modalita' di acquisizione")
+    void testStreamingThresholdUsesDetails() throws Exception {
+        batchProperties.setPaymentsStreamingThreshold(10);
+        when(fdrApiService.getSinglePublishedFlow(COD_DOMINIO, COD_FLUSSO, 1L, ID_PSP))
+            .thenReturn(createFlowResponse(100L));
+
+        FdrCompleteData result = processor.process(createFrTemp());
+
+        assertEquals(100L, result.getNumeroPagamenti());
+        assertNull(result.getPayments());
+        assertNotNull(result.getPaymentPages());
+        verify(fdrApiService, never()).getPaymentsFromPublishedFlow(any(), any(), any(), any());
+    }
+
+    @Test
+    @DisplayName("Il listener delle pagine viene eseguito dopo ogni pagina di pagamenti")
+    void testPageListener() throws Exception {
+        when(fdrApiService.getSinglePublishedFlow(COD_DOMINIO, COD_FLUSSO, 1L, ID_PSP))
+            .thenReturn(createFlowResponse(2L));
+        when(fdrApiService.forEachPaymentsPage(eq(COD_DOMINIO), eq(COD_FLUSSO), eq(1L), eq(ID_PSP), any())).thenAnswer(inv -> {
+            Consumer<List<Payment>> pageConsumer = inv.getArgument(4);
+            pageConsumer.accept(List.of(createPayment("IUV1")));
+            pageConsumer.accept(List.of(createPayment("IUV2")));
+            return 2;
+        });
+        AtomicInteger pages = new AtomicInteger();
+
+        FdrCompleteData result = processor.process(createFrTemp(), pages::incrementAndGet);
+
+        assertEquals(2, pages.get());
+        assertEquals(2, result.getPayments().size());
+        assertEquals("IUV2", result.getPayments().get(1).getIuv());
+    }
+
+    @Test
+    @DisplayName("Un errore nel recupero dei pagamenti viene propagato come RestClientException")
+    void testPaymentsErrorPropagated() {
+        when(fdrApiService.getSinglePublishedFlow(COD_DOMINIO, COD_FLUSSO, 1L, ID_PSP))
+            .thenReturn(createFlowResponse(2L));
+        when(fdrApiService.getPaymentsFromPublishedFlow(COD_DOMINIO, COD_FLUSSO, 1L, ID_PSP))
+            .thenThrow(new RestClientException("Errore pagamenti"));
+
+        RestClientException e = assertThrows(RestClientException.class, () -> processor.process(createFrTemp()));
+        assertEquals("Errore pagamenti", e.getMessage());
+    }
+
+    @Test
+    @DisplayName("Un errore nel recupero del dettaglio viene propagato")
+    void testDetailsErrorPropagated() {
+        when(fdrApiService.getSinglePublishedFlow(COD_DOMINIO, COD_FLUSSO, 1L, ID_PSP))
+            .thenThrow(new RestClientException("Errore dettaglio"));
+        when(fdrApiService.getPaymentsFromPublishedFlow(COD_DOMINIO, COD_FLUSSO, 1L, ID_PSP))
+            .thenReturn(List.of());
+
+        RestClientException e = assertThrows(RestClientException.class, () -> processor.process(createFrTemp()));
+        assertEquals("Errore dettaglio", e.getMessage());
+    }
+
+    @Test
+    @DisplayName("Se il dettaglio fallisce il recupero dei pagamenti in corso viene interrotto")
+    void testDetailsErrorInterruptsPayments() throws Exception {
+        CountDownLatch paymentsStarted = new CountDownLatch(1);
+        CountDownLatch paymentsInterrupted = new CountDownLatch(1);
+        when(fdrApiService.getPaymentsFromPublishedFlow(COD_DOMINIO, COD_FLUSSO, 1L, ID_PSP)).thenAnswer(inv -> {
+            paymentsStarted.countDown();
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException e) {
+                paymentsInterrupted.countDown();
+            }
+            return List.of();
+        });
+        when(fdrApiService.getSinglePublishedFlow(COD_DOMINIO, COD_FLUSSO, 1L, ID_PSP)).thenAnswer(inv -> {
+            paymentsStarted.await(5, TimeUnit.SECONDS);
+            throw new RestClientException("Errore dettaglio");
+        });
+
+        assertThrows(RestClientException.class, () -> processor.process(createFrTemp()));
+        assertTrue(paymentsInterrupted.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -1,6 +1,7 @@
 package it.govpay.fdr.batch.step4;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -17,6 +18,7 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.batch.infrastructure.item.ExecutionContext;
 
+import it.govpay.fdr.batch.config.BatchProperties;
 import it.govpay.fdr.batch.entity.FrTemp;
 import it.govpay.fdr.batch.repository.FrTempRepository;
 
@@ -37,7 +39,7 @@ class FdrPaymentsReaderTest {
 
     @BeforeEach
     void setUp() throws Exception {
-        reader = new FdrPaymentsReader(frTempRepository);
+        reader = new FdrPaymentsReader(frTempRepository, new BatchProperties());
 
         // Simula l'iniezione di @Value da ExecutionContext usando reflection
         setField(reader, "codDominio", TEST_COD_DOMINIO);
@@ -190,6 +192,51 @@ class FdrPaymentsReaderTest {
         assertThat(count).isEqualTo(100);
     }
 
+    @Test
+    @DisplayName("Should read flows of all domains assigned to a balanced partition")
+    void testReadMultipleDomains() throws Exception {
+        // Given: partition with two domains
+        setField(reader, "codDomini", "11111111111,22222222222");
+        when(frTempRepository.findByCodDominioOrderByDataOraPubblicazioneAsc("11111111111"))
+            .thenReturn(createFrTempList(2, "11111111111"));
+        when(frTempRepository.findByCodDominioOrderByDataOraPubblicazioneAsc("22222222222"))
+            .thenReturn(createFrTempList(3, "22222222222"));
+
+        // When: Read all
+        reader.open(new ExecutionContext());
+        List<FrTemp> results = new ArrayList<>();
+        FrTemp flussoTemp;
+        while ((flussoTemp = reader.read()) != null) {
+            results.add(flussoTemp);
+        }
+
+        // Then: Flows of both domains, grouped by domain
+        assertThat(results).hasSize(5);
+        assertThat(results).extracting(FrTemp::getCodDominio)
+            .containsExactly("11111111111", "11111111111", "22222222222", "22222222222", "22222222222");
+    }
+
+    @Test
+    @DisplayName("Should read only the flows of its slice when a domain is split")
+    void testReadDomainSlice() throws Exception {
+        // Given: partition with the second of three slices of a domain
+        setField(reader, "codDomini", "11111111111:2/3");
+        when(frTempRepository.findSliceOrderByDataOraPubblicazioneAsc("11111111111", 3, 1))
+            .thenReturn(createFrTempList(2, "11111111111"));
+
+        // When: Read all
+        reader.open(new ExecutionContext());
+        List<FrTemp> results = new ArrayList<>();
+        FrTemp flussoTemp;
+        while ((flussoTemp = reader.read()) != null) {
+            results.add(flussoTemp);
+        }
+
+        // Then: the slice is selected by the query, not filtered in memory
+        assertThat(results).hasSize(2);
+        verify(frTempRepository, never()).findByCodDominioOrderByDataOraPubblicazioneAsc("11111111111");
+    }
+
     private List<FrTemp> createFrTempList(int size, String codDominio) {
         List<FrTemp> list = new ArrayList<>();
         for (int i = 0; i < size; i++) {
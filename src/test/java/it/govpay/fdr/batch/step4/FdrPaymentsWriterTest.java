@@ -8,6 +8,7 @@ import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -17,6 +18,7 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Random;
 import java.util.Set;
 
 import org.junit.jupiter.api.BeforeEach;
@@ -33,9 +35,11 @@ import it.govpay.common.entity.ApplicazioneEntity;
 import it.govpay.common.entity.DominioEntity;
 import it.govpay.common.repository.DominioRepository;
 import it.govpay.fdr.batch.Costanti;
+import it.govpay.fdr.batch.config.BatchProperties;
 import it.govpay.fdr.batch.entity.Fr;
 import it.govpay.fdr.batch.entity.FrTemp;
 import it.govpay.fdr.batch.entity.Pagamento;
+import it.govpay.fdr.batch.entity.Rendicontazione;
 import it.govpay.fdr.batch.entity.SingoloVersamento;
 import it.govpay.fdr.batch.entity.StatoFr;
 import it.govpay.fdr.batch.entity.Versamento;
@@ -45,6 +49,10 @@ import it.govpay.fdr.batch.repository.FrTempRepository;
 import it.govpay.fdr.batch.repository.PagamentoRepository;
 import it.govpay.fdr.batch.repository.SingoloVersamentoRepository;
 import it.govpay.fdr.batch.repository.VersamentoRepository;
+import it.govpay.fdr.batch.service.AcquiredFlowFilter;
+import it.govpay.fdr.batch.service.FrWatermarkService;
+import it.govpay.fdr.batch.service.PaymentsPageCache;
+import jakarta.persistence.EntityManager;
 
 /**
  * Unit tests for FdrPaymentsWriter.
@@ -73,16 +81,34 @@ class FdrPaymentsWriterTest {
     @Mock
     private GdeService gdeService;
 
+    @Mock
+    private FrJdbcWriter frJdbcWriter;
+
+    @Mock
+    private EntityManager entityManager;
+
+    @Mock
+    private PaymentsPageCache paymentsPageCache;
+
+    @Mock
+    private FrWatermarkService frWatermarkService;
+
+    @Mock
+    private AcquiredFlowFilter acquiredFlowFilter;
+
     @Captor
     private ArgumentCaptor<Fr> frCaptor;
 
     private FdrPaymentsWriter writer;
 
+    private BatchProperties batchProperties;
+
     private DominioEntity testDominio;
     private FdrPaymentsProcessor.FdrCompleteData testData;
 
     @BeforeEach
     void setUp() {
+        batchProperties = new BatchProperties();
         writer = new FdrPaymentsWriter(
             frRepository,
             dominioRepository,
@@ -90,7 +116,13 @@ class FdrPaymentsWriterTest {
             versamentoRepository,
             singoloVersamentoRepository,
             frTempRepository,
-            gdeService
+            gdeService,
+            frJdbcWriter,
+            entityManager,
+            batchProperties,
+            paymentsPageCache,
+            frWatermarkService,
+            acquiredFlowFilter
         );
 
         testDominio = DominioEntity.builder()
@@ -136,6 +168,73 @@ class FdrPaymentsWriterTest {
             .build();
     }
 
+    /**
+     * Pagamento eseguito ricevuto da pagoPA.
+     */
+    private static FdrPaymentsProcessor.PaymentData payment(String iuv, String iur, Long indiceDati, double importo) {
+        return FdrPaymentsProcessor.PaymentData.builder()
+            .iuv(iuv)
+            .iur(iur)
+            .indiceDati(indiceDati)
+            .importoPagato(importo)
+            .esito(Costanti.PAYMENT_EXECUTED)
+            .build();
+    }
+
+    /**
+     * Testata di un flusso del dominio di test, da completare con i pagamenti o con le pagine di pagamenti.
+     */
+    private static FdrPaymentsProcessor.FdrCompleteData.FdrCompleteDataBuilder flowData(String codFlusso,
+            long numeroPagamenti, double importoTotale) {
+        return FdrPaymentsProcessor.FdrCompleteData.builder()
+            .frTempId(1L)
+            .codPsp("PSP001")
+            .codDominio("12345678901")
+            .codFlusso(codFlusso)
+            .numeroPagamenti(numeroPagamenti)
+            .importoTotalePagamenti(importoTotale)
+            .revisione(1L);
+    }
+
+    /**
+     * Flusso non ancora acquisito sul dominio di test, con la riga FR_TEMP 1.
+     *
+     * @return la riga FR_TEMP del flusso
+     */
+    private FrTemp stubNewFlow() {
+        when(frRepository.findByCodFlussoAndCodPspAndRevisione(anyString(), anyString(), anyLong()))
+            .thenReturn(Optional.empty());
+        when(dominioRepository.findByCodDominio("12345678901"))
+            .thenReturn(Optional.of(testDominio));
+        FrTemp frTemp = FrTemp.builder().id(1L).build();
+        when(frTempRepository.findById(1L)).thenReturn(Optional.of(frTemp));
+        return frTemp;
+    }
+
+    /**
+     * Ogni ricerca puntuale per (iuv, iur, indiceDati) trova lo stesso pagamento.
+     *
+     * @return il pagamento trovato
+     */
+    private Pagamento stubPagamento(double importo) {
+        Pagamento pagamento = Pagamento.builder().id(1L).importoPagato(importo).build();
+        when(pagamentoRepository.findAllByCodDominioAndIuvAndIurAndIndiceDati(
+            anyString(), anyString(), anyString(), anyLong()))
+            .thenReturn(List.of(pagamento));
+        return pagamento;
+    }
+
+    /**
+     * Salvataggio JPA del flusso, che riceve l'id 1.
+     */
+    private void stubSaveFr() {
+        when(frRepository.save(any(Fr.class))).thenAnswer(inv -> {
+            Fr fr = inv.getArgument(0);
+            fr.setId(1L);
+            return fr;
+        });
+    }
+
     @Nested
     class WriteBasicTests {
 
@@ -1070,6 +1169,108 @@ class FdrPaymentsWriterTest {
             assertThat(savedFr.getRendicontazioni()).hasSize(2);
             assertThat(savedFr.getRendicontazioni().get(1).getAnomalie()).contains("007115");
         }
+
+        private FdrPaymentsProcessor.PaymentData dupPayment(String iuv, String iur, Long indiceDati) {
+            return payment(iuv, iur, indiceDati, 10.00);
+        }
+
+        private FdrPaymentsProcessor.FdrCompleteData dupFlow(List<FdrPaymentsProcessor.PaymentData> payments) {
+            return flowData("FDR-TEST-DUP", payments.size(), 10.00 * payments.size()).payments(payments).build();
+        }
+
+        private void stubFlowWithPagamento() {
+            stubNewFlow();
+            stubPagamento(10.00);
+            stubSaveFr();
+        }
+
+        @Test
+        void testRendicontazioniDuplicateSeminateNelFlusso() {
+            // Given - duplicati solo sulla tupla completa (iuv, iur, indiceDati), indiceDati null compreso
+            stubFlowWithPagamento();
+            when(pagamentoRepository.findAllByCodDominioAndIuvAndIur(anyString(), anyString(), anyString()))
+                .thenReturn(List.of(Pagamento.builder().id(2L).importoPagato(10.00).build()));
+            List<FdrPaymentsProcessor.PaymentData> payments = List.of(
+                dupPayment("IUV001", "IUR001", 1L),
+                dupPayment("IUV001", "IUR001", 2L),
+                dupPayment("IUV001", "IUR002", 1L),
+                dupPayment("IUV001", "IUR001", 1L),   // duplicato della riga 0
+                dupPayment("IUV002", "IUR001", null),
+                dupPayment("IUV002", "IUR001", null), // duplicato della riga 4
+                dupPayment("IUV002", "IUR001", 1L),
+                dupPayment("IUV001", "IUR001", 2L));  // duplicato della riga 1
+
+            // When
+            writer.write(new Chunk<>(List.of(dupFlow(payments))));
+
+            // Then - l'anomalia 007115 e' assegnata solo alle occorrenze successive alla prima
+            verify(frRepository).save(frCaptor.capture());
+            List<Rendicontazione> rendicontazioni = frCaptor.getValue().getRendicontazioni();
+            assertThat(rendicontazioni).hasSize(8);
+            List<Integer> duplicate = new ArrayList<>();
+            for (int i = 0; i < rendicontazioni.size(); i++) {
+                String anomalie = rendicontazioni.get(i).getAnomalie();
+                if (anomalie != null && anomalie.contains("007115")) {
+                    duplicate.add(i);
+                    assertThat(rendicontazioni.get(i).getStato()).isEqualTo(Costanti.RENDICONTAZIONE_STATO_ANOMALA);
+                }
+            }
+            assertThat(duplicate).containsExactly(3, 5, 7);
+        }
+
+        @Test
+        void testRendicontazioniDuplicateComeConfrontoACoppie() {
+            // Given - flusso generato con seme fisso da poche chiavi, quindi con molti duplicati,
+            // indiceDati null compreso
+            stubFlowWithPagamento();
+            Random random = new Random(42);
+            List<FdrPaymentsProcessor.PaymentData> payments = new ArrayList<>();
+            for (int i = 0; i < 2_000; i++) {
+                int indice = random.nextInt(4);
+                payments.add(dupPayment("IUV" + random.nextInt(20), "IUR" + random.nextInt(10),
+                    indice == 0 ? null : (long) indice));
+            }
+
+            // When
+            writer.write(new Chunk<>(List.of(dupFlow(payments))));
+
+            // Then - stesse anomalie 007115 del confronto a coppie usato prima dell'indice hash
+            verify(frRepository).save(frCaptor.capture());
+            List<Rendicontazione> rendicontazioni = frCaptor.getValue().getRendicontazioni();
+            List<Integer> duplicate = new ArrayList<>();
+            for (int i = 0; i < rendicontazioni.size(); i++) {
+                String anomalie = rendicontazioni.get(i).getAnomalie();
+                if (anomalie != null && anomalie.contains("007115")) {
+                    duplicate.add(i);
+                }
+            }
+            List<Integer> attese = duplicateConfrontoACoppie(payments);
+            assertThat(attese).hasSizeGreaterThan(1_000);
+            assertThat(duplicate).isEqualTo(attese);
+        }
+
+        /**
+         * Controllo dei duplicati di FdrPaymentsWriter prima dell'indice hash: ogni rendicontazione
+         * confrontata con tutte le precedenti del flusso.
+         */
+        private List<Integer> duplicateConfrontoACoppie(List<FdrPaymentsProcessor.PaymentData> payments) {
+            List<Integer> duplicate = new ArrayList<>();
+            for (int i = 0; i < payments.size(); i++) {
+                FdrPaymentsProcessor.PaymentData rendicontazione = payments.get(i);
+                for (int j = 0; j < i; j++) {
+                    FdrPaymentsProcessor.PaymentData r2 = payments.get(j);
+                    if (r2.getIuv().equals(rendicontazione.getIuv()) && r2.getIur().equals(rendicontazione.getIur()) &&
+                        ((r2.getIndiceDati() == null && rendicontazione.getIndiceDati() == null) ||
+                         (r2.getIndiceDati() != null && rendicontazione.getIndiceDati() != null
+                             && r2.getIndiceDati().compareTo(rendicontazione.getIndiceDati()) == 0))) {
+                        duplicate.add(i);
+                        break;
+                    }
+                }
+            }
+            return duplicate;
+        }
+    }
     }
 
     @Nested
@@ -1603,4 +1804,341 @@ class FdrPaymentsWriterTest {
             verify(frTempRepository, never()).delete(any(FrTemp.class));
         }
     }
+
+    @Nested
+    class BulkPagamentiLookupTests {
+
+        @BeforeEach
+        void enableBulkLookup() {
+            batchProperties.setPagamentiLookupMode(BatchProperties.LookupMode.BULK);
+        }
+
+        private FdrPaymentsProcessor.FdrCompleteData bulkFlow(List<FdrPaymentsProcessor.PaymentData> payments, double totale) {
+            return flowData("FDR-TEST-BULK", payments.size(), totale).payments(payments).build();
+        }
+
+        private void stubSaveAndFrTemp() {
+            stubNewFlow();
+            stubSaveFr();
+        }
+
+        @Test
+        void testBulkLookupMatchesLikeSingleQueries() {
+            // Given - tre pagamenti: match esatto, match senza iur, match senza indiceDati
+            stubSaveAndFrTemp();
+            List<FdrPaymentsProcessor.PaymentData> payments = List.of(
+                payment("IUV001", "IUR001", 1L, 10.00),
+                payment("IUV002", null, 2L, 20.00),
+                payment("IUV003", "IUR003", null, 30.00));
+
+            Pagamento pag1 = Pagamento.builder().id(1L).iuv("IUV001").iur("IUR001").indiceDati(1).importoPagato(10.00).build();
+            Pagamento pag1Altro = Pagamento.builder().id(2L).iuv("IUV001").iur("IUR-ALTRO").indiceDati(1).importoPagato(10.00).build();
+            Pagamento pag2 = Pagamento.builder().id(3L).iuv("IUV002").iur("IUR002").indiceDati(2).importoPagato(20.00).build();
+            Pagamento pag3 = Pagamento.builder().id(4L).iuv("IUV003").iur("IUR003").indiceDati(5).importoPagato(30.00).build();
+            when(pagamentoRepository.findAllByCodDominioAndIuvIn(eq("12345678901"), any()))
+                .thenReturn(List.of(pag1, pag1Altro, pag2, pag3));
+
+            // When
+            writer.write(new Chunk<>(List.of(bulkFlow(payments, 60.00))));
+
+            // Then - nessuna query puntuale, ogni rendicontazione associata al proprio pagamento
+            verify(pagamentoRepository, never()).findAllByCodDominioAndIuvAndIurAndIndiceDati(anyString(), anyString(), anyString(), anyLong());
+            verify(frRepository).save(frCaptor.capture());
+            Fr savedFr = frCaptor.getValue();
+            assertThat(savedFr.getStato()).isEqualTo(StatoFr.ACCETTATA);
+            assertThat(savedFr.getRendicontazioni()).extracting(r -> r.getPagamento().getId())
+                .containsExactly(1L, 3L, 4L);
+        }
+
+        @Test
+        void testBulkLookupMultipleMatchesRaisesAnomalia007102() {
+            // Given - due pagamenti con la stessa chiave (iuv, iur, indiceDati)
+            stubSaveAndFrTemp();
+            Pagamento pag1 = Pagamento.builder().id(1L).iuv("IUV001").iur("IUR001").indiceDati(1).build();
+            Pagamento pag2 = Pagamento.builder().id(2L).iuv("IUV001").iur("IUR001").indiceDati(1).build();
+            when(pagamentoRepository.findAllByCodDominioAndIuvIn(eq("12345678901"), any()))
+                .thenReturn(List.of(pag1, pag2));
+
+            // When
+            writer.write(new Chunk<>(List.of(testData)));
+
+            // Then
+            verify(frRepository).save(frCaptor.capture());
+            Fr savedFr = frCaptor.getValue();
+            assertThat(savedFr.getRendicontazioni().get(0).getPagamento()).isNull();
+            assertThat(savedFr.getRendicontazioni().get(0).getAnomalie()).contains("007102");
+            assertThat(savedFr.getDescrizioneStato()).contains("007102");
+            assertThat(savedFr.getStato()).isEqualTo(Costanti.FLUSSO_STATO_ANOMALA);
+        }
+
+        @Test
+        void testBulkLookupSplitsIuvsInChunks() {
+            // Given - 5 IUV distinti con blocchi da 2 -> 3 query IN
+            batchProperties.setInClauseChunkSize(2);
+            stubSaveAndFrTemp();
+            List<FdrPaymentsProcessor.PaymentData> payments = new ArrayList<>();
+            for (int i = 1; i <= 5; i++) {
+                payments.add(payment("IUV00" + i, "IUR00" + i, 1L, 10.00));
+            }
+            when(pagamentoRepository.findAllByCodDominioAndIuvIn(eq("12345678901"), any()))
+                .thenReturn(Collections.emptyList());
+
+            // When
+            writer.write(new Chunk<>(List.of(bulkFlow(payments, 50.00))));
+
+            // Then
+            verify(pagamentoRepository, times(3)).findAllByCodDominioAndIuvIn(eq("12345678901"), any());
+            verify(frRepository).save(frCaptor.capture());
+            assertThat(frCaptor.getValue().getRendicontazioni()).hasSize(5);
+        }
+    }
+
+    @Nested
+    class BulkVersamentiLookupTests {
+
+        @BeforeEach
+        void enableBulkLookup() {
+            batchProperties.setVersamentiLookupMode(BatchProperties.LookupMode.BULK);
+        }
+
+        @Test
+        void testBulkVersamentiLookupResolvesFromMaps() {
+            // Given - due rendicontazioni senza pagamento con IUV interni:
+            // la prima riferisce la pendenza per iuvVersamento, la seconda (senza RPT) per iuvPagamento
+            DominioEntity domAuxDigit0 = DominioEntity.builder()
+                .id(1L)
+                .codDominio("12345678901")
+                .auxDigit(0)
+                .build();
+
+            List<FdrPaymentsProcessor.PaymentData> payments = new ArrayList<>();
+            payments.add(FdrPaymentsProcessor.PaymentData.builder()
+                .iuv("123456789012345")
+                .iur("IUR001")
+                .indiceDati(2L)
+                .importoPagato(100.00)
+                .esito(Costanti.PAYMENT_EXECUTED)
+                .build());
+            payments.add(FdrPaymentsProcessor.PaymentData.builder()
+                .iuv("123456789012346")
+                .iur("IUR002")
+                .indiceDati(1L)
+                .importoPagato(50.00)
+                .esito(Costanti.PAYMENT_NO_RPT)
+                .build());
+
+            FdrPaymentsProcessor.FdrCompleteData versData = FdrPaymentsProcessor.FdrCompleteData.builder()
+                .frTempId(1L)
+                .codPsp("PSP001")
+                .codDominio("12345678901")
+                .codFlusso("FDR-TEST-BULK-VERS")
+                .numeroPagamenti(2L)
+                .importoTotalePagamenti(150.00)
+                .revisione(1L)
+                .payments(payments)
+                .build();
+
+            when(frRepository.findByCodFlussoAndCodPspAndRevisione(anyString(), anyString(), anyLong()))
+                .thenReturn(Optional.empty());
+            when(dominioRepository.findByCodDominio("12345678901"))
+                .thenReturn(Optional.of(domAuxDigit0));
+            when(pagamentoRepository.findAllByCodDominioAndIuvAndIurAndIndiceDati(
+                anyString(), anyString(), anyString(), anyLong()))
+                .thenReturn(Collections.emptyList());
+
+            ApplicazioneEntity app = ApplicazioneEntity.builder().id(1L).codApplicazione("APP001").build();
+            Versamento vers1 = Versamento.builder()
+                .id(1L)
+                .codVersamentoEnte("VERS001")
+                .iuvVersamento("123456789012345")
+                .applicazione(app)
+                .dominio(domAuxDigit0)
+                .build();
+            Versamento vers2 = Versamento.builder()
+                .id(2L)
+                .codVersamentoEnte("VERS002")
+                .iuvVersamento("ALTRO-IUV")
+                .iuvPagamento("123456789012346")
+                .applicazione(app)
+                .dominio(domAuxDigit0)
+                .build();
+            when(versamentoRepository.findAllByCodDominioAndIuvIn(eq("12345678901"), any()))
+                .thenReturn(List.of(vers1, vers2));
+
+            SingoloVersamento sv11 = SingoloVersamento.builder().id(11L).indiceDati(1).versamento(vers1).build();
+            SingoloVersamento sv12 = SingoloVersamento.builder().id(12L).indiceDati(2).versamento(vers1).build();
+            SingoloVersamento sv21 = SingoloVersamento.builder().id(21L).indiceDati(1).versamento(vers2).build();
+            when(singoloVersamentoRepository.findAllByVersamentoIdIn(any()))
+                .thenReturn(List.of(sv11, sv12, sv21));
+
+            when(frRepository.save(any(Fr.class))).thenAnswer(inv -> {
+                Fr fr = inv.getArgument(0);
+                fr.setId(1L);
+                return fr;
+            });
+            when(frTempRepository.findById(1L)).thenReturn(Optional.of(FrTemp.builder().id(1L).build()));
+
+            // When
+            writer.write(new Chunk<>(List.of(versData)));
+
+            // Then - nessuna query puntuale sulle pendenze
+            verify(versamentoRepository, never()).findByDominioCodDominioAndIuvPagamento(anyString(), anyString());
+            verify(singoloVersamentoRepository, never()).findAllByVersamentoId(anyLong());
+
+            verify(frRepository).save(frCaptor.capture());
+            Fr savedFr = frCaptor.getValue();
+            assertThat(savedFr.getRendicontazioni().get(0).getSingoloVersamento()).isEqualTo(sv12);
+            assertThat(savedFr.getRendicontazioni().get(0).getAnomalie()).contains("007101");
+            assertThat(savedFr.getRendicontazioni().get(1).getSingoloVersamento()).isEqualTo(sv21);
+            assertThat(savedFr.getRendicontazioni().get(1).getAnomalie()).isNull();
+        }
+
+        @Test
+        void testBulkVersamentiLookupSkipsExternalIuv() {
+            // Given - IUV non interno al dominio: nessuna pendenza da caricare
+            when(frRepository.findByCodFlussoAndCodPspAndRevisione(anyString(), anyString(), anyLong()))
+                .thenReturn(Optional.empty());
+            DominioEntity domAuxDigit3 = DominioEntity.builder()
+                .id(1L)
+                .codDominio("12345678901")
+                .auxDigit(3)
+                .segregationCode(50)
+                .build();
+            when(dominioRepository.findByCodDominio("12345678901"))
+                .thenReturn(Optional.of(domAuxDigit3));
+            when(pagamentoRepository.findAllByCodDominioAndIuvAndIurAndIndiceDati(
+                anyString(), anyString(), anyString(), anyLong()))
+                .thenReturn(Collections.emptyList());
+            when(frRepository.save(any(Fr.class))).thenAnswer(inv -> inv.getArgument(0));
+            when(frTempRepository.findById(1L)).thenReturn(Optional.of(FrTemp.builder().id(1L).build()));
+
+            // When
+            writer.write(new Chunk<>(List.of(testData)));
+
+            // Then
+            verify(versamentoRepository, never()).findAllByCodDominioAndIuvIn(anyString(), any());
+            verify(singoloVersamentoRepository, never()).findAllByVersamentoIdIn(any());
+            verify(frRepository).save(frCaptor.capture());
+            assertThat(frCaptor.getValue().getRendicontazioni().get(0).getStato())
+                .isEqualTo(Costanti.RENDICONTAZIONE_STATO_ALTRO_INTERMEDIARIO);
+        }
+    }
+
+    @Nested
+    class JdbcWriterModeTests {
+
+        @Test
+        void testJdbcModeInsertsWithFrJdbcWriter() {
+            // Given
+            batchProperties.setFrWriterMode(BatchProperties.FrWriterMode.JDBC);
+            FrTemp frTemp = stubNewFlow();
+            Pagamento pagamento = stubPagamento(100.00);
+            when(frJdbcWriter.insert(any(Fr.class))).thenAnswer(inv -> {
+                Fr fr = inv.getArgument(0);
+                fr.setId(10L);
+                return fr;
+            });
+
+            // When
+            writer.write(new Chunk<>(List.of(testData)));
+
+            // Then
+            verify(frRepository, never()).save(any(Fr.class));
+            verify(frJdbcWriter).insert(frCaptor.capture());
+            Fr insertedFr = frCaptor.getValue();
+            assertThat(insertedFr.getStato()).isEqualTo(StatoFr.ACCETTATA);
+            assertThat(insertedFr.getRendicontazioni()).hasSize(1);
+            assertThat(insertedFr.getRendicontazioni().get(0).getPagamento()).isEqualTo(pagamento);
+            verify(frTempRepository).delete(frTemp);
+        }
+    }
+
+    @Nested
+    class StreamingWriteTests {
+
+        private FdrPaymentsProcessor.PaymentData streamingPayment(int i) {
+            return payment("IUV" + i, "IUR" + i, 1L, 10.00);
+        }
+
+        private FdrPaymentsProcessor.FdrCompleteData streamingData(long numeroPagamenti, double importoTotale,
+                List<List<FdrPaymentsProcessor.PaymentData>> pages) {
+            return flowData("FDR-TEST-STREAM", numeroPagamenti, importoTotale)
+                .paymentPages(consumer -> pages.forEach(consumer))
+                .build();
+        }
+
+        private void stubStreaming() {
+            stubNewFlow();
+            stubPagamento(10.00);
+            when(frJdbcWriter.insertFr(any(Fr.class))).thenAnswer(inv -> {
+                Fr fr = inv.getArgument(0);
+                fr.setId(7L);
+                return fr;
+            });
+        }
+
+        @Test
+        void testStreamingWritesEachPageBeforeNext() {
+            // Given - 3 pagine da 2 pagamenti
+            stubStreaming();
+            List<List<FdrPaymentsProcessor.PaymentData>> pages = List.of(
+                List.of(streamingPayment(1), streamingPayment(2)),
+                List.of(streamingPayment(3), streamingPayment(4)),
+                List.of(streamingPayment(5), streamingPayment(6)));
+
+            // When
+            writer.write(new Chunk<>(List.of(streamingData(6L, 60.00, pages))));
+
+            // Then - una INSERT batch per pagina, nessun salvataggio JPA del grafo
+            verify(frRepository, never()).save(any(Fr.class));
+            verify(frJdbcWriter, times(3)).insertRendicontazioni(eq(7L), any());
+            verify(entityManager, times(3)).flush();
+            verify(entityManager, never()).clear();
+            // Vengono staccati solo i pagamenti caricati per ogni pagina
+            verify(entityManager, times(6)).detach(any(Pagamento.class));
+            verify(frJdbcWriter).updateStato(frCaptor.capture());
+            Fr fr = frCaptor.getValue();
+            assertThat(fr.getStato()).isEqualTo(StatoFr.ACCETTATA);
+            assertThat(fr.getDescrizioneStato()).isNull();
+            assertThat(fr.getRendicontazioni()).isEmpty();
+        }
+
+        @Test
+        void testStreamingQuadraturaOnRunningTotals() {
+            // Given - la testata dichiara 3 pagamenti per 100 euro, ne arrivano 4 per 40 euro
+            stubStreaming();
+            List<List<FdrPaymentsProcessor.PaymentData>> pages = List.of(
+                List.of(streamingPayment(1), streamingPayment(2)),
+                List.of(streamingPayment(3), streamingPayment(4)));
+
+            // When
+            writer.write(new Chunk<>(List.of(streamingData(3L, 100.00, pages))));
+
+            // Then
+            verify(frJdbcWriter).updateStato(frCaptor.capture());
+            Fr fr = frCaptor.getValue();
+            assertThat(fr.getStato()).isEqualTo(Costanti.FLUSSO_STATO_ANOMALA);
+            assertThat(fr.getDescrizioneStato()).contains("007106").contains("007107");
+        }
+
+        @Test
+        void testStreamingDuplicatesAcrossPages() {
+            // Given - lo stesso pagamento ripetuto su due pagine diverse
+            stubStreaming();
+            List<List<FdrPaymentsProcessor.PaymentData>> pages = List.of(
+                List.of(streamingPayment(1), streamingPayment(2)),
+                List.of(streamingPayment(1)));
+            @SuppressWarnings("unchecked")
+            ArgumentCaptor<List<Rendicontazione>> pageCaptor = ArgumentCaptor.forClass(List.class);
+
+            // When
+            writer.write(new Chunk<>(List.of(streamingData(3L, 30.00, pages))));
+
+            // Then
+            verify(frJdbcWriter, times(2)).insertRendicontazioni(eq(7L), pageCaptor.capture());
+            List<Rendicontazione> secondaPagina = pageCaptor.getAllValues().get(1);
+            assertThat(secondaPagina).hasSize(1);
+            assertThat(secondaPagina.get(0).getAnomalie()).contains("007115");
+        }
+    }
 }
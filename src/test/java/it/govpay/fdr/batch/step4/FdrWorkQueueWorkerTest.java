@@ -0,0 +1,131 @@
+package it.govpay.fdr.batch.step4;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.web.client.RestClientException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.govpay.fdr.batch.config.BatchProperties;
+import it.govpay.fdr.batch.entity.FrTemp;
+import it.govpay.fdr.batch.exception.FdrFatalException;
+import it.govpay.fdr.batch.service.FdrWorkQueue;
+
+/**
+ * Test per FdrWorkQueueWorker
+ */
+@ExtendWith(MockitoExtension.class)
+@DisplayName("FdrWorkQueueWorker Tests")
+class FdrWorkQueueWorkerTest {
+
+    @Mock
+    private FdrWorkQueue workQueue;
+
+    @Mock
+    private FdrFlowProcessor fdrFlowProcessor;
+
+    @Mock
+    private FdrPaymentsWriter fdrPaymentsWriter;
+
+    private SimpleMeterRegistry meterRegistry;
+    private FdrWorkQueueWorker worker;
+
+    @BeforeEach
+    void setUp() {
+        when(workQueue.getNodeId()).thenReturn("node-a");
+        // Completa il flusso eseguendo la scrittura
+        lenient().doAnswer(inv -> {
+            inv.<Runnable>getArgument(2).run();
+            return null;
+        }).when(workQueue).complete(any(), any(), any());
+        BatchProperties batchProperties = new BatchProperties();
+        batchProperties.setThreadPoolSize(1);
+        meterRegistry = new SimpleMeterRegistry();
+        worker = new FdrWorkQueueWorker(workQueue, fdrFlowProcessor, fdrPaymentsWriter, batchProperties, meterRegistry,
+            new SimpleAsyncTaskExecutor("fdr-workqueue-test-"));
+    }
+
+    private FrTemp flusso(long id, String codFlusso, long revisione) {
+        return FrTemp.builder().id(id).codDominio("12345678901").codFlusso(codFlusso).idPsp("PSP001").revisione(revisione).build();
+    }
+
+    private FdrPaymentsProcessor.FdrCompleteData data(FrTemp frTemp) {
+        return FdrPaymentsProcessor.FdrCompleteData.builder().frTempId(frTemp.getId()).codFlusso(frTemp.getCodFlusso()).build();
+    }
+
+    private double flows(String outcome) {
+        return meterRegistry.get(FdrWorkQueueWorker.METRIC_FLOWS).tag("node", "node-a").tag("outcome", outcome).counter().count();
+    }
+
+    @Test
+    @DisplayName("Acquisisce i flussi della coda finche' ce ne sono")
+    void testDrain() throws Exception {
+        FrTemp f1 = flusso(1, "FDR-1", 1);
+        FrTemp f2 = flusso(2, "FDR-2", 1);
+        FdrWorkQueue.Claim claim = new FdrWorkQueue.Claim("node-a/1", List.of(f1, f2));
+        when(workQueue.claim()).thenReturn(claim, new FdrWorkQueue.Claim("node-a/2", List.of()));
+        // Il rinnovo del lease viene passato al download dei pagamenti
+        Runnable leaseRenewer = () -> { };
+        when(workQueue.leaseRenewer(claim)).thenReturn(leaseRenewer);
+        when(fdrFlowProcessor.process(f1, leaseRenewer)).thenReturn(data(f1));
+        when(fdrFlowProcessor.process(f2, leaseRenewer)).thenReturn(data(f2));
+
+        assertThat(worker.drain()).isEqualTo(2);
+
+        verify(fdrPaymentsWriter, times(2)).write(any());
+        verify(workQueue).release(claim);
+        assertThat(flows("completed")).isEqualTo(2.0);
+        assertThat(meterRegistry.get(FdrWorkQueueWorker.METRIC_DURATION).timer().count()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Dopo un errore le revisioni successive dello stesso flusso non vengono elaborate")
+    void testFailedRevisionStopsLaterRevisions() throws Exception {
+        FrTemp rev1 = flusso(1, "FDR-1", 1);
+        FrTemp rev2 = flusso(2, "FDR-1", 2);
+        FrTemp other = flusso(3, "FDR-2", 1);
+        FdrWorkQueue.Claim claim = new FdrWorkQueue.Claim("node-a/1", List.of(rev1, rev2, other));
+        when(fdrFlowProcessor.process(eq(rev1), any())).thenThrow(new RestClientException("errore"));
+        when(fdrFlowProcessor.process(eq(other), any())).thenReturn(data(other));
+
+        assertThat(worker.process(claim)).isEqualTo(1);
+
+        verify(workQueue).fail(claim, rev1);
+        verify(fdrFlowProcessor, never()).process(eq(rev2), any());
+        verify(workQueue, never()).complete(eq(claim), eq(rev2), any());
+        verify(workQueue).release(claim);
+        assertThat(flows("failed")).isEqualTo(1.0);
+        assertThat(flows("completed")).isEqualTo(1.0);
+    }
+
+    @Test
+    @DisplayName("Un errore fatale interrompe l'acquisizione e rilascia i flussi")
+    void testFatalErrorPropagated() throws Exception {
+        FrTemp f1 = flusso(1, "FDR-1", 1);
+        FdrWorkQueue.Claim claim = new FdrWorkQueue.Claim("node-a/1", List.of(f1));
+        when(workQueue.claim()).thenReturn(claim);
+        when(fdrFlowProcessor.process(eq(f1), any())).thenThrow(new FdrFatalException("401"));
+
+        assertThatThrownBy(() -> worker.drain()).isInstanceOf(FdrFatalException.class);
+
+        verify(workQueue, never()).fail(any(), any());
+        verify(workQueue).release(claim);
+    }
+}
@@ -0,0 +1,102 @@
+package it.govpay.fdr.batch.step4;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Transactional;
+
+import it.govpay.common.entity.DominioEntity;
+import it.govpay.common.entity.StazioneEntity;
+import it.govpay.common.repository.DominioRepository;
+import it.govpay.common.repository.StazioneRepository;
+import it.govpay.fdr.batch.entity.Fr;
+import it.govpay.fdr.batch.entity.StatoFr;
+
+/**
+ * Integration test di FrJdbcWriter sulla tabella FR dello schema dell'applicazione (profilo test, H2),
+ * la stessa su cui scrive la modalita' JPA. H2, come Oracle e HSQLDB, memorizza gli identificatori in maiuscolo.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@Transactional
+@DisplayName("FrJdbcWriter Integration Tests")
+class FrJdbcWriterIntegrationTest {
+
+    private static final String ORG_ID = "12345678901";
+
+    @Autowired
+    private FrJdbcWriter writer;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private DominioRepository dominioRepository;
+
+    @Autowired
+    private StazioneRepository stazioneRepository;
+
+    private DominioEntity dominio;
+
+    @BeforeEach
+    void setUp() {
+        StazioneEntity stazione = stazioneRepository.findByCodStazione("12345678901_01").orElseThrow();
+        dominio = dominioRepository.saveAndFlush(DominioEntity.builder()
+            .codDominio(ORG_ID)
+            .auxDigit(0)
+            .abilitato(true)
+            .ragioneSociale("Comune di Test")
+            .intermediato(true)
+            .scaricaFr(true)
+            .stazione(stazione)
+            .build());
+    }
+
+    private Fr fr(String codFlusso, Long revisione) {
+        return Fr.builder()
+            .codPsp("PSP001")
+            .dominio(dominio)
+            .codDominio(ORG_ID)
+            .codFlusso(codFlusso)
+            .stato(StatoFr.ACCETTATA)
+            .numeroPagamenti(1L)
+            .importoTotalePagamenti(10.0)
+            .revisione(revisione)
+            .build();
+    }
+
+    private int countFr(String codFlusso) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM FR WHERE cod_flusso = ?", Integer.class, codFlusso);
+    }
+
+    @Test
+    @DisplayName("La chiave generata viene letta anche con identificatori memorizzati in maiuscolo")
+    void testGeneratedKey() {
+        Fr primo = writer.insertFr(fr("FLUSSO-1", 1L));
+        Fr secondo = writer.insertFr(fr("FLUSSO-2", 2L));
+
+        assertThat(primo.getId()).isNotNull();
+        assertThat(secondo.getId()).isGreaterThan(primo.getId());
+        assertThat(jdbcTemplate.queryForObject("SELECT cod_flusso FROM FR WHERE id = ?", String.class, secondo.getId()))
+            .isEqualTo("FLUSSO-2");
+        assertThat(jdbcTemplate.queryForObject("SELECT revisione FROM FR WHERE id = ?", Long.class, secondo.getId()))
+            .isEqualTo(2L);
+    }
+
+    @Test
+    @DisplayName("Un flusso senza revisione viene rifiutato senza inserire la riga FR")
+    void testNullRevisioneRejected() {
+        assertThatThrownBy(() -> writer.insertFr(fr("FLUSSO-1", null)))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("FLUSSO-1");
+
+        assertThat(countFr("FLUSSO-1")).isZero();
+    }
+}
@@ -0,0 +1,86 @@
+package it.govpay.fdr.batch.tasklet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.batch.infrastructure.repeat.RepeatStatus;
+
+import it.govpay.fdr.batch.config.BatchProperties;
+import it.govpay.fdr.batch.repository.FrTempRepository;
+
+/**
+ * Test per CleanupFrTempTasklet
+ */
+@ExtendWith(MockitoExtension.class)
+@DisplayName("CleanupFrTempTasklet Tests")
+class CleanupFrTempTaskletTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2025, 1, 27, 10, 0);
+
+    @Mock
+    private FrTempRepository frTempRepository;
+
+    private BatchProperties batchProperties;
+    private CleanupFrTempTasklet tasklet;
+
+    @BeforeEach
+    void setUp() {
+        batchProperties = new BatchProperties();
+        tasklet = new CleanupFrTempTasklet(frTempRepository, batchProperties,
+            Clock.fixed(NOW.toInstant(ZoneOffset.UTC), ZoneOffset.UTC));
+    }
+
+    @Test
+    @DisplayName("Di default FR_TEMP viene svuotata")
+    void testCleanup() {
+        assertThat(tasklet.execute(null, null)).isEqualTo(RepeatStatus.FINISHED);
+
+        verify(frTempRepository).deleteAllRecords();
+        verify(frTempRepository, never()).deleteAcquiredInFr();
+        verify(frTempRepository, never()).resetWorkItems();
+    }
+
+    @Test
+    @DisplayName("Con la ripresa vengono eliminati solo i flussi gia' in FR e quelli scaduti")
+    void testResume() {
+        batchProperties.setFrTempResume(true);
+        batchProperties.setFrTempResumeTtlDays(7);
+        when(frTempRepository.count()).thenReturn(10L);
+
+        assertThat(tasklet.execute(null, null)).isEqualTo(RepeatStatus.FINISHED);
+
+        verify(frTempRepository).deleteAcquiredInFr();
+        verify(frTempRepository).deletePublishedBefore(NOW.minusDays(7));
+        // Stato nella coda, lease e tentativi dell'esecuzione interrotta azzerati sui flussi mantenuti
+        verify(frTempRepository).resetWorkItems();
+        verify(frTempRepository).countWithMetadata();
+        verify(frTempRepository, never()).deleteAllRecords();
+    }
+
+    @Test
+    @DisplayName("Con la ripresa senza scadenza i flussi non vengono eliminati per data")
+    void testResumeWithoutTtl() {
+        batchProperties.setFrTempResume(true);
+        batchProperties.setFrTempResumeTtlDays(0);
+
+        tasklet.execute(null, null);
+
+        verify(frTempRepository).deleteAcquiredInFr();
+        verify(frTempRepository, never()).deletePublishedBefore(any());
+        verify(frTempRepository).resetWorkItems();
+        verify(frTempRepository, never()).deleteAllRecords();
+    }
+}
@@ -0,0 +1,143 @@
+package it.govpay.fdr.batch.utils.jackson3;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import it.govpay.fdr.batch.Costanti;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Confronto dei tempi di parsing tra IsoDateTimeScanner e la catena di formatter usata in precedenza da
+ * OffsetDateTimeDeserializer, riprodotta qui com'era prima dello scanner.
+ * <p>
+ * Non c'e' un harness JMH nella build: e' un ciclo con solo il JDK, con riscaldamento, sui timestamp tipici
+ * delle risposte pagoPA, eseguito solo con il profilo {@code perf} ({@code mvn test -Pperf}). I tempi per
+ * operazione vengono scritti nel log, senza soglie sui tempi; la correttezza dello scanner e' verificata
+ * da {@code IsoDateTimeScannerTest}.
+ */
+@Slf4j
+@Tag("perf")
+@DisplayName("IsoDateTimeScanner Benchmark")
+class IsoDateTimeScannerBenchmarkTest {
+
+    private static final ZoneOffset CET = ZoneOffset.ofHoursMinutes(1, 0);
+
+    private static final int WARMUP_ROUNDS = 20_000;
+    private static final int MEASURED_ROUNDS = 50_000;
+
+    /** Timestamp tipici pagoPA: frazione da 1 a 9 cifre, secondi opzionali, Z/+HH:MM o senza fuso */
+    private static final String[] VALUES = {
+        "2025-01-27T10:30:45.123+01:00",
+        "2025-01-27T10:30:45Z",
+        "2025-01-27T10:30:45.1+01:00",
+        "2025-01-27T10:30:45.123456+02:00",
+        "2025-12-09T00:00+01:00",
+        "2025-01-27T10:30:45.123",
+        "2025-01-27T10:30:45"
+    };
+
+    private static final DateTimeFormatter PRIMARY_FORMATTER =
+        DateTimeFormatter.ofPattern(Costanti.PATTERN_TIMESTAMP_3_YYYY_MM_DD_T_HH_MM_SS_SSSXXX, Locale.getDefault());
+
+    private static final DateTimeFormatter FLEXIBLE_OFFSET_FORMATTER = new DateTimeFormatterBuilder()
+        .appendPattern("yyyy-MM-dd'T'HH:mm")
+        .optionalStart()
+        .appendPattern(":ss")
+        .optionalEnd()
+        .optionalStart()
+        .appendFraction(ChronoField.NANO_OF_SECOND, 0, 9, true)
+        .optionalEnd()
+        .appendOffset("+HH:MM", "Z")
+        .toFormatter(Locale.getDefault());
+
+    private static final DateTimeFormatter FLEXIBLE_LOCAL_FORMATTER = new DateTimeFormatterBuilder()
+        .appendPattern("yyyy-MM-dd'T'HH:mm")
+        .optionalStart()
+        .appendPattern(":ss")
+        .optionalEnd()
+        .optionalStart()
+        .appendFraction(ChronoField.NANO_OF_SECOND, 0, 9, true)
+        .optionalEnd()
+        .toFormatter(Locale.getDefault());
+
+    /**
+     * Catena di formatter di OffsetDateTimeDeserializer.parseOffsetDateTime prima di IsoDateTimeScanner.
+     */
+    private static OffsetDateTime parseWithFormatterChain(String value) {
+        try {
+            return OffsetDateTime.parse(value, PRIMARY_FORMATTER);
+        } catch (DateTimeParseException e1) {
+            // provo con il formatter flessibile
+        }
+        try {
+            return OffsetDateTime.parse(value, FLEXIBLE_OFFSET_FORMATTER);
+        } catch (DateTimeParseException e2) {
+            // provo come LocalDateTime con timezone CET
+        }
+        try {
+            return OffsetDateTime.of(LocalDateTime.parse(value, FLEXIBLE_LOCAL_FORMATTER), CET);
+        } catch (DateTimeParseException e3) {
+            // ultimo tentativo con il formatter principale come LocalDateTime
+        }
+        return OffsetDateTime.of(LocalDateTime.parse(value, PRIMARY_FORMATTER), CET);
+    }
+
+    private static long runChain(int rounds) {
+        long checksum = 0;
+        for (int i = 0; i < rounds; i++) {
+            for (String value : VALUES) {
+                checksum += parseWithFormatterChain(value).getNano();
+            }
+        }
+        return checksum;
+    }
+
+    private static long runScanner(int rounds) {
+        long checksum = 0;
+        for (int i = 0; i < rounds; i++) {
+            for (String value : VALUES) {
+                checksum += IsoDateTimeScanner.parseOffsetDateTime(value, CET).getNano();
+            }
+        }
+        return checksum;
+    }
+
+    @Test
+    @DisplayName("Tempi di parsing dello scanner e della catena di formatter")
+    void testScannerAgainstFormatterChain() {
+        for (String value : VALUES) {
+            assertThat(IsoDateTimeScanner.parseOffsetDateTime(value, CET)).isEqualTo(parseWithFormatterChain(value));
+        }
+
+        runChain(WARMUP_ROUNDS);
+        runScanner(WARMUP_ROUNDS);
+
+        long start = System.nanoTime();
+        long chainChecksum = runChain(MEASURED_ROUNDS);
+        long chainNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        long scannerChecksum = runScanner(MEASURED_ROUNDS);
+        long scannerNanos = System.nanoTime() - start;
+
+        long operations = (long) MEASURED_ROUNDS * VALUES.length;
+        log.info("Parsing di {} timestamp: catena di formatter {} ns/op, IsoDateTimeScanner {} ns/op (totale {} ms contro {} ms)",
+            operations, chainNanos / operations, scannerNanos / operations,
+            TimeUnit.NANOSECONDS.toMillis(chainNanos), TimeUnit.NANOSECONDS.toMillis(scannerNanos));
+
+        assertThat(scannerChecksum).isEqualTo(chainChecksum);
+    }
+}
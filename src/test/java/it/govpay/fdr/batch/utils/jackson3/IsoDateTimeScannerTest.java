@@ -0,0 +1,111 @@
+package it.govpay.fdr.batch.utils.jackson3;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Test per IsoDateTimeScanner: i valori riconosciuti devono coincidere con i formatter ISO del JDK,
+ * quelli non riconosciuti devono restituire null (fallback sulla catena di formatter).
+ */
+@DisplayName("IsoDateTimeScanner Tests")
+class IsoDateTimeScannerTest {
+
+    private static final ZoneOffset CET = ZoneOffset.ofHours(1);
+
+    @ParameterizedTest(name = "{0}")
+    @ValueSource(strings = {
+        "2025-01-27T10:30:45.123+01:00",
+        "2025-01-27T10:30:45.1Z",
+        "2025-01-27T10:30:45.12-05:00",
+        "2025-01-27T10:30:45.123456+02:00",
+        "2025-01-27T10:30:45.123456789Z",
+        "2025-01-27T10:30:45+05:30",
+        "2025-12-09T00:00+01:00",
+        "2025-12-09T15:30Z",
+        "2024-02-29T23:59:59.999+18:00",
+        "2025-01-27T10:30:45-00:00"
+    })
+    @DisplayName("Date/ora con fuso orario come ISO_OFFSET_DATE_TIME")
+    void testWithOffset(String value) {
+        OffsetDateTime expected = OffsetDateTime.parse(value, DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+
+        assertThat(IsoDateTimeScanner.parseOffsetDateTime(value, CET)).isEqualTo(expected);
+        assertThat(IsoDateTimeScanner.parseLocalDate(value)).isEqualTo(expected.toLocalDate());
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @ValueSource(strings = {
+        "2025-01-27T10:30:45.123",
+        "2025-01-27T10:30:45.1",
+        "2025-01-27T10:30:45",
+        "2025-12-09T14:30",
+        "2025-01-27T00:00:00.000",
+        "2025-01-27T23:59:59.999999999"
+    })
+    @DisplayName("Date/ora senza fuso orario con offset di default")
+    void testWithoutOffset(String value) {
+        LocalDateTime expected = LocalDateTime.parse(value, DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+
+        assertThat(IsoDateTimeScanner.parseOffsetDateTime(value, CET)).isEqualTo(OffsetDateTime.of(expected, CET));
+        assertThat(IsoDateTimeScanner.parseLocalDate(value)).isEqualTo(expected.toLocalDate());
+    }
+
+    @Test
+    @DisplayName("Data senza ora")
+    void testLocalDate() {
+        assertThat(IsoDateTimeScanner.parseLocalDate("2025-03-12")).isEqualTo(LocalDate.of(2025, 3, 12));
+        assertThat(IsoDateTimeScanner.parseLocalDate("2024-02-29")).isEqualTo(LocalDate.of(2024, 2, 29));
+        assertThat(IsoDateTimeScanner.parseOffsetDateTime("2025-03-12", CET)).isNull();
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @ValueSource(strings = {
+        "",
+        "invalid-date",
+        "2025-03",
+        "2025-1-27T10:30:45Z",
+        "2025-02-29T10:00:00Z",
+        "2025-04-31T10:00:00Z",
+        "2025-13-01T10:00:00Z",
+        "2025-01-27T24:00:00Z",
+        "2025-01-27T10:60:00Z",
+        "2025-01-27T10:30:60Z",
+        "2025-01-27T10:30:45.Z",
+        "2025-01-27T10:30:45.1234567891Z",
+        "2025-01-27T10:30.5Z",
+        "2025-01-27T10:30:45+05",
+        "2025-01-27T10:30:45+0500",
+        "2025-01-27T10:30:45+18:30",
+        "2025-01-27T10:30:45ZX",
+        "2025-01-27 10:30:45Z",
+        "0000-01-27T10:30:45Z"
+    })
+    @DisplayName("Valori fuori formato o fuori intervallo restituiscono null")
+    void testUnsupportedValuesReturnNull(String value) {
+        assertThat(IsoDateTimeScanner.parseOffsetDateTime(value, CET)).isNull();
+        assertThat(IsoDateTimeScanner.parseLocalDate(value)).isNull();
+    }
+
+    @Test
+    @DisplayName("I valori non riconosciuti mantengono il comportamento dei formatter")
+    void testFallbackKeepsFormatterBehaviour() {
+        LocalDateFlexibleDeserializer localDateDeserializer = new LocalDateFlexibleDeserializer();
+        // Offset con soli minuti accettato solo da ISO_OFFSET_DATE_TIME
+        assertThat(localDateDeserializer.parseLocalDate("2025-01-27T10:30:45+05")).isEqualTo(LocalDate.of(2025, 1, 27));
+
+        OffsetDateTimeDeserializer offsetDateTimeDeserializer = new OffsetDateTimeDeserializer();
+        // Frazione vuota accettata dal formatter flessibile
+        assertThat(offsetDateTimeDeserializer.parseOffsetDateTime("2025-01-27T10:30:45.+01:00",
+            DateTimeFormatter.ISO_OFFSET_DATE_TIME)).isEqualTo(OffsetDateTime.of(2025, 1, 27, 10, 30, 45, 0, CET));
+    }
+}